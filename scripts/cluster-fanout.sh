@@ -0,0 +1,82 @@
+#!/usr/bin/env bash
+# 集群跨节点扇出压测：在本机回环地址上启动三个Broker进程组成集群，发布者连接 n1，
+# 先让订阅者也连接 n1（本地投递），再让订阅者分布在 n2、n3（跨节点转发），分别输出 LoadGenerator 的吞吐量和延迟。
+#
+# 用法：mvn -DskipTests package && scripts/cluster-fanout.sh [LoadGenerator参数 ...]
+# 默认 --publishers=1 --subscribers=10 --rate=1000 --qos=0 --payload=64，追加的参数覆盖默认值，例如
+#   scripts/cluster-fanout.sh --subscribers=2 --rate=500
+#   scripts/cluster-fanout.sh --rate=0 --duration=20
+# 环境变量：JAR（默认 target/mqtt-broker-1.0.0.jar）、BASE_PORT（默认18830，节点n的MQTT端口为 BASE_PORT+n，
+# 集群端口为 BASE_PORT+100+n）、BROKER_OPTS（Broker的JVM参数）、WORK_DIR（节点的工作目录和日志）
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+JAR=${JAR:-target/mqtt-broker-1.0.0.jar}
+BASE_PORT=${BASE_PORT:-18830}
+BROKER_OPTS=${BROKER_OPTS:--Xmx512m}
+WORK_DIR=${WORK_DIR:-$(mktemp -d -t mqtt-cluster-XXXXXX)}
+SECRET=cluster-fanout-$$
+NODES=3
+
+if [ ! -f "$JAR" ]; then
+    echo "$JAR not found, run mvn -DskipTests package first" >&2
+    exit 1
+fi
+JAR=$(cd "$(dirname "$JAR")" && pwd)/$(basename "$JAR")
+
+pids=()
+stop_nodes() {
+    for pid in "${pids[@]}"; do
+        kill "$pid" 2>/dev/null || true
+    done
+    wait 2>/dev/null || true
+}
+trap stop_nodes EXIT
+
+for i in $(seq 1 $NODES); do
+    peers=""
+    for j in $(seq 1 $NODES); do
+        [ "$j" != "$i" ] && peers="$peers,127.0.0.1:$((BASE_PORT + 100 + j))"
+    done
+    mkdir -p "$WORK_DIR/n$i"
+    # 压测连接都来自本机，关闭按来源IP的准入限速
+    (cd "$WORK_DIR/n$i" && exec java $BROKER_OPTS -jar "$JAR" $((BASE_PORT + i)) \
+        --mqtt.broker.cluster.enabled=true \
+        --mqtt.broker.cluster.node-id=n$i \
+        --mqtt.broker.cluster.port=$((BASE_PORT + 100 + i)) \
+        --mqtt.broker.cluster.peers=${peers#,} \
+        --mqtt.broker.cluster.secret=$SECRET \
+        --mqtt.broker.admission.address-rate=0 \
+        --mqtt.broker.persistence.enabled=false \
+        --mqtt.broker.queue.spill-enabled=false \
+        --logging.level.root=WARN \
+        > broker.log 2>&1) &
+    pids+=($!)
+done
+
+for i in $(seq 1 $NODES); do
+    port=$((BASE_PORT + i))
+    for attempt in $(seq 1 600); do
+        (echo > /dev/tcp/127.0.0.1/$port) 2>/dev/null && break
+        if [ "$attempt" = 600 ]; then
+            echo "node n$i did not start, see $WORK_DIR/n$i/broker.log" >&2
+            exit 1
+        fi
+        sleep 0.1
+    done
+done
+# 等待节点间连接建立（重连间隔默认1秒）
+sleep 2
+echo "Cluster started: MQTT ports $((BASE_PORT + 1))-$((BASE_PORT + NODES)), logs in $WORK_DIR"
+
+run() {
+    echo
+    echo "== $1 =="
+    java -cp "$JAR" com.example.mqtt.tool.LoadGenerator --port=$((BASE_PORT + 1)) \
+        --publishers=1 --subscribers=10 --rate=1000 --qos=0 --payload=64 \
+        --topic='bench/{p}/data' --filter='bench/+/data' "${@:2}"
+}
+
+run "local: publisher and subscribers on n1" --client-prefix=local "$@"
+run "cross-node: publisher on n1, subscribers on n2/n3" --client-prefix=remote \
+    --subscriber-ports=$((BASE_PORT + 2)),$((BASE_PORT + 3)) "$@"
@@ -0,0 +1,140 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.auth.Acl;
+import com.example.mqtt.auth.AclCache;
+import com.example.mqtt.auth.AclRule;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.Topics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主题访问控制的发布检查：按用户名、客户端ID编入主题树后的检查、命中连接缓存的检查，
+ * 以及逐条比较全部规则的对照。规则中按用户、按客户端和模板规则各占一部分，检查的主题一半允许一半拒绝
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AclBenchmark {
+    private static final int CONNECTIONS = 64;
+
+    @Param({"100", "10000"})
+    int rules;
+
+    private Acl acl;
+    private List<AclRule> ruleList;
+    private String[] usernames;
+    private String[] clientIds;
+    private Topic[] topics;
+    private AclCache[] caches;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ruleList = new ArrayList<>(rules);
+        int users = rules * 4 / 10;
+        int clients = rules * 3 / 10;
+        for (int i = 0; i < users; i++) {
+            ruleList.add(new AclRule("user-" + i, null, "tenants/" + i + "/#",
+                    AclRule.Access.ALL, AclRule.Permission.ALLOW));
+        }
+        for (int i = 0; i < clients; i++) {
+            ruleList.add(new AclRule(null, "client-" + i, "gateways/" + i + "/+/status",
+                    AclRule.Access.PUBLISH, AclRule.Permission.ALLOW));
+        }
+        ruleList.add(new AclRule(null, null, "devices/%u/%c/#", AclRule.Access.ALL, AclRule.Permission.ALLOW));
+        ruleList.add(new AclRule(null, null, "devices/+/+/config", AclRule.Access.PUBLISH, AclRule.Permission.DENY));
+        for (int i = ruleList.size(); i < rules; i++) {
+            ruleList.add(new AclRule(null, null, "fleet/" + i + "/+/telemetry",
+                    AclRule.Access.SUBSCRIBE, AclRule.Permission.ALLOW));
+        }
+        acl = new Acl(false, ruleList);
+
+        usernames = new String[CONNECTIONS];
+        clientIds = new String[CONNECTIONS];
+        topics = new Topic[CONNECTIONS];
+        caches = new AclCache[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            int user = i * (users / CONNECTIONS);
+            int client = i * (clients / CONNECTIONS);
+            usernames[i] = "user-" + user;
+            clientIds[i] = "client-" + client;
+            switch (i % 4) {
+                case 0:
+                    topics[i] = Topic.of("tenants/" + user + "/sensors/temperature");
+                    break;
+                case 1:
+                    topics[i] = Topic.of("devices/" + usernames[i] + "/" + clientIds[i] + "/telemetry");
+                    break;
+                case 2:
+                    // 其他用户的主题
+                    topics[i] = Topic.of("tenants/" + (user + 1) + "/sensors/temperature");
+                    break;
+                default:
+                    topics[i] = Topic.of("fleet/" + i + "/truck/telemetry");
+                    break;
+            }
+            caches[i] = acl.newCache(usernames[i], clientIds[i], 256);
+            caches[i].canPublish(topics[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        int i = next();
+        return acl.canPublish(usernames[i], clientIds[i], topics[i]);
+    }
+
+    @Benchmark
+    public boolean cached() {
+        int i = next();
+        return caches[i].canPublish(topics[i]);
+    }
+
+    /**
+     * 对照：按顺序逐条替换 %u/%c 并匹配，第一条匹配的规则生效
+     */
+    @Benchmark
+    public boolean linearScan() {
+        int i = next();
+        String username = usernames[i];
+        String clientId = clientIds[i];
+        Topic topic = topics[i];
+        for (int r = 0; r < ruleList.size(); r++) {
+            AclRule rule = ruleList.get(r);
+            if (rule.getAccess() == AclRule.Access.SUBSCRIBE
+                    || (rule.getUsername() != null && !rule.getUsername().equals(username))
+                    || (rule.getClientId() != null && !rule.getClientId().equals(clientId))) {
+                continue;
+            }
+            String filter = rule.getTopicFilter().replace("%u", username).replace("%c", clientId);
+            if (Topics.matches(Topics.splitLevels(filter), topic.getLevels(), topic.isDollar())) {
+                return rule.getPermission() == AclRule.Permission.ALLOW;
+            }
+        }
+        return false;
+    }
+
+    private int next() {
+        int i = next;
+        next = i + 1 == CONNECTIONS ? 0 : i + 1;
+        return i;
+    }
+}
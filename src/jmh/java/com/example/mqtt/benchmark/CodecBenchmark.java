@@ -0,0 +1,214 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.codec.MqttDecoder;
+import com.example.mqtt.codec.MqttEncoder;
+import com.example.mqtt.message.ConnAckMessage;
+import com.example.mqtt.message.ConnectMessage;
+import com.example.mqtt.message.MqttMessage;
+import com.example.mqtt.message.PacketIdMessage;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.message.SubAckMessage;
+import com.example.mqtt.message.SubscribeMessage;
+import com.example.mqtt.message.UnsubscribeMessage;
+import com.example.mqtt.protocol.MqttMessageType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各类报文的解码和编码。PUBLISH按QoS和负载大小分组，其它报文按类型分组
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class CodecBenchmark {
+
+    @State(Scope.Thread)
+    public static class PublishState {
+        @Param({"0", "1"})
+        int qos;
+
+        @Param({"16", "1024", "65536"})
+        int payloadSize;
+
+        Codec codec;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            PublishMessage message = new PublishMessage();
+            message.setTopicName("site/42/device/1337/temperature");
+            message.setQosLevel(qos);
+            message.setPacketId(qos > 0 ? 4711 : 0);
+            message.setPayload(PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize).writeZero(payloadSize));
+            codec = new Codec(message);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            codec.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ControlState {
+        // 除PUBLISH外的全部报文类型，PUBLISH见PublishState
+        @Param({"CONNECT", "CONNACK", "PUBACK", "PUBREC", "PUBREL", "PUBCOMP", "SUBSCRIBE", "SUBACK",
+                "UNSUBSCRIBE", "UNSUBACK", "PINGREQ", "PINGRESP", "DISCONNECT"})
+        MqttMessageType type;
+
+        Codec codec;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            codec = new Codec(controlMessage(type));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            codec.release();
+        }
+    }
+
+    @Benchmark
+    public void decodePublish(PublishState state, Blackhole blackhole) {
+        state.codec.decode(blackhole);
+    }
+
+    @Benchmark
+    public void encodePublish(PublishState state, Blackhole blackhole) {
+        state.codec.encode(blackhole);
+    }
+
+    @Benchmark
+    public void decodeControl(ControlState state, Blackhole blackhole) {
+        state.codec.decode(blackhole);
+    }
+
+    @Benchmark
+    public void encodeControl(ControlState state, Blackhole blackhole) {
+        state.codec.encode(blackhole);
+    }
+
+    private static MqttMessage controlMessage(MqttMessageType type) {
+        switch (type) {
+            case CONNECT:
+                ConnectMessage connect = new ConnectMessage();
+                connect.setProtocolName("MQTT");
+                connect.setProtocolVersion(4);
+                connect.setClientId("benchmark-client-0001");
+                connect.setCleanSession(true);
+                connect.setKeepAlive(60);
+                connect.setHasUsername(true);
+                connect.setUsername("user1");
+                connect.setHasPassword(true);
+                connect.setPassword("password1".getBytes(StandardCharsets.UTF_8));
+                return connect;
+            case CONNACK:
+                ConnAckMessage connAck = new ConnAckMessage();
+                connAck.setReturnCode(0);
+                return connAck;
+            case PUBACK:
+            case PUBREC:
+            case PUBREL:
+            case PUBCOMP:
+            case UNSUBACK:
+                PacketIdMessage ack = new PacketIdMessage(type);
+                ack.setPacketId(4711);
+                return ack;
+            case SUBSCRIBE:
+                SubscribeMessage subscribe = new SubscribeMessage();
+                subscribe.setPacketId(4711);
+                subscribe.addTopicSubscription("site/+/device/+/temperature", 1);
+                subscribe.addTopicSubscription("site/42/#", 0);
+                return subscribe;
+            case SUBACK:
+                SubAckMessage subAck = new SubAckMessage();
+                subAck.setPacketId(4711);
+                subAck.addReturnCode(1);
+                subAck.addReturnCode(0);
+                return subAck;
+            case UNSUBSCRIBE:
+                UnsubscribeMessage unsubscribe = new UnsubscribeMessage();
+                unsubscribe.setPacketId(4711);
+                unsubscribe.addTopic("site/+/device/+/temperature");
+                return unsubscribe;
+            case PINGREQ:
+            case PINGRESP:
+            case DISCONNECT:
+                return new MqttMessage(type);
+            default:
+                throw new IllegalArgumentException("Unsupported packet type: " + type);
+        }
+    }
+
+    /**
+     * 一种报文的编解码通道和预先编码好的帧
+     */
+    static final class Codec {
+        private final MqttMessage message;
+        private final ByteBuf frame;
+        private final EmbeddedChannel decoder = new EmbeddedChannel(new MqttDecoder());
+        private final EmbeddedChannel encoder = new EmbeddedChannel(new MqttEncoder());
+
+        Codec(MqttMessage message) {
+            this.message = message;
+            this.frame = PooledByteBufAllocator.DEFAULT.directBuffer();
+            encoder.writeOutbound(retained(message));
+            ByteBuf part;
+            while ((part = encoder.readOutbound()) != null) {
+                frame.writeBytes(part);
+                part.release();
+            }
+        }
+
+        void decode(Blackhole blackhole) {
+            decoder.writeInbound(frame.retainedDuplicate());
+            Object decoded = decoder.readInbound();
+            blackhole.consume(decoded);
+            ReferenceCountUtil.release(decoded);
+        }
+
+        void encode(Blackhole blackhole) {
+            encoder.writeOutbound(retained(message));
+            Object part;
+            while ((part = encoder.readOutbound()) != null) {
+                blackhole.consume(part);
+                ReferenceCountUtil.release(part);
+            }
+        }
+
+        /**
+         * 编码器写出后会释放PUBLISH，每次编码前增加一次负载的引用计数
+         */
+        private static MqttMessage retained(MqttMessage message) {
+            return message instanceof PublishMessage ? ((PublishMessage) message).retainedDuplicate() : message;
+        }
+
+        void release() {
+            decoder.finishAndReleaseAll();
+            encoder.finishAndReleaseAll();
+            frame.release();
+            ReferenceCountUtil.release(message);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.handler.MessageRouter;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.metrics.TrafficAccounting;
+import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.session.InflightWindow;
+import com.example.mqtt.session.QueueStore;
+import com.example.mqtt.session.Session;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.ShareStrategies;
+import com.example.mqtt.session.Subscription;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条PUBLISH扇出到所有订阅者，订阅者连接为 {@link EmbeddedChannel}
+ * <p>
+ * 每次操作包括路由、编码和写出，以及从每个订阅者通道取出并释放写出的帧；
+ * QoS 1 时还为每个订阅者确认消息，使在途窗口保持空闲。accounting=true 时按订阅者统计接收流量
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+    @Param({"1", "100", "10000"})
+    int subscribers;
+
+    @Param({"0", "1"})
+    int qos;
+
+    @Param({"64"})
+    int payloadSize;
+
+    @Param({"false", "true"})
+    boolean accounting;
+
+    private final Map<String, Channel> clientChannels = new ConcurrentHashMap<>();
+    private HashedWheelTimer timer;
+    private EmbeddedChannel[] channels;
+    private Session[] sessions;
+    private MessageRouter messageRouter;
+    private PublishMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        timer = new HashedWheelTimer();
+        QueueStore queueStore = QueueStore.inMemory(1000);
+        InflightWindow.Counters counters = new InflightWindow.Counters();
+        SessionManager sessionManager = new SessionManager();
+        channels = new EmbeddedChannel[subscribers];
+        sessions = new Session[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            String clientId = "subscriber-" + i;
+            channels[i] = new EmbeddedChannel();
+            clientChannels.put(clientId, channels[i]);
+            sessions[i] = new Session(clientId, true, 60, new InflightWindow(32, queueStore, timer, 0, counters));
+            sessions[i].getOutbound().bind(channels[i]);
+            sessionManager.addSession(sessions[i]);
+            sessionManager.addSubscription("site/+/temperature",
+                    new Subscription(clientId, "site/+/temperature", MqttQoS.valueOf(qos)));
+        }
+        messageRouter = new MessageRouter(sessionManager, clientChannels, null, ShareStrategies.ROUND_ROBIN);
+        if (accounting) {
+            messageRouter.setTrafficAccounting(new TrafficAccounting(4, 2048, 64, 10));
+        }
+
+        message = new PublishMessage();
+        message.setTopicName("site/42/temperature");
+        message.setQosLevel(qos);
+        message.setPayload(PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize).writeZero(payloadSize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < subscribers; i++) {
+            sessions[i].releaseMessages();
+            channels[i].finishAndReleaseAll();
+        }
+        message.release();
+        timer.stop();
+    }
+
+    @Benchmark
+    public int fanOut() {
+        messageRouter.deliver(message, "publisher");
+        int frames = 0;
+        for (int i = 0; i < subscribers; i++) {
+            ByteBuf frame;
+            while ((frame = channels[i].readOutbound()) != null) {
+                if (qos > 0) {
+                    sessions[i].getOutbound().acknowledge(packetId(frame));
+                }
+                ReferenceCountUtil.release(frame);
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 从PUBLISH帧中读取Packet ID：固定头部、剩余长度、主题之后的两个字节
+     */
+    private static int packetId(ByteBuf frame) {
+        int index = frame.readerIndex() + 1;
+        while ((frame.getByte(index++) & 0x80) != 0) {
+            // 跳过剩余长度
+        }
+        int topicLength = frame.getUnsignedShort(index);
+        return frame.getUnsignedShort(index + 2 + topicLength);
+    }
+}
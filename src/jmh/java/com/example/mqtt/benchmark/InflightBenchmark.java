@@ -0,0 +1,252 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.session.InflightWindow;
+import com.example.mqtt.session.QueueStore;
+import com.example.mqtt.session.Session;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量会话的在途消息存取：每次操作随机选一个会话，出站发送一条QoS 1消息并确认最早的在途消息，
+ * 入站保存一条QoS 2消息并移除最早的一条，使每个会话保持固定数量的在途消息
+ * <p>
+ * window 使用 {@link InflightWindow} 的槽位数组和 {@link Session} 的 PacketIdMap；
+ * legacy 为改动之前的实现：出站 LinkedHashMap&lt;Integer, Entry&gt;，入站 ConcurrentHashMap&lt;Integer, PublishMessage&gt;。
+ * 两者都写出到同一个丢弃写入的通道，写出的开销相同
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+@State(Scope.Benchmark)
+public class InflightBenchmark {
+    private static final int MAX_INFLIGHT = 32;
+    // 按大质数步长遍历会话，访问顺序与会话在内存中的位置无关
+    private static final int STRIDE = 1_000_003;
+
+    @Param({"1000", "100000"})
+    int sessions;
+
+    // 每个会话保持的出站在途消息数
+    @Param({"16"})
+    int outbound;
+
+    // 每个会话保持的等待PUBREL的入站消息数
+    @Param({"4"})
+    int inbound;
+
+    private EmbeddedChannel channel;
+    private PublishMessage message;
+    private Session[] windowSessions;
+    private LegacySession[] legacySessions;
+    // 每个会话按发送顺序记录的在途Packet ID，环形使用
+    private int[] windowIds;
+    private int[] legacyIds;
+    private int[] outboundHead;
+    private int[] inboundNext;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        channel = new EmbeddedChannel(new DiscardHandler());
+        message = new PublishMessage();
+        message.setTopicName("site/42/temperature");
+        message.setQosLevel(1);
+        message.setPayload(Unpooled.wrappedBuffer(new byte[64]));
+
+        QueueStore queueStore = QueueStore.inMemory(1000);
+        InflightWindow.Counters counters = new InflightWindow.Counters();
+        windowSessions = new Session[sessions];
+        legacySessions = new LegacySession[sessions];
+        windowIds = new int[sessions * outbound];
+        legacyIds = new int[sessions * outbound];
+        outboundHead = new int[sessions];
+        inboundNext = new int[sessions];
+        for (int i = 0; i < sessions; i++) {
+            windowSessions[i] = new Session("client-" + i, true, 60,
+                    new InflightWindow(MAX_INFLIGHT, queueStore, null, 0, counters));
+            windowSessions[i].getOutbound().bind(channel);
+            legacySessions[i] = new LegacySession(MAX_INFLIGHT, channel);
+            for (int j = 0; j < outbound; j++) {
+                windowIds[i * outbound + j] = sendWindow(windowSessions[i]);
+                legacyIds[i * outbound + j] = legacySessions[i].send(message.retain());
+            }
+            for (int j = 1; j <= inbound; j++) {
+                windowSessions[i].addInboundMessage(j, message);
+                legacySessions[i].addInboundMessage(j, message.retain());
+            }
+            inboundNext[i] = inbound + 1;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < sessions; i++) {
+            windowSessions[i].releaseMessages();
+            legacySessions[i].release();
+        }
+        channel.finishAndReleaseAll();
+        message.release();
+    }
+
+    @Benchmark
+    public int window() {
+        int session = nextSession();
+        Session target = windowSessions[session];
+        int slot = session * outbound + outboundHead[session];
+        target.getOutbound().acknowledge(windowIds[slot]);
+        windowIds[slot] = sendWindow(target);
+        outboundHead[session] = (outboundHead[session] + 1) % outbound;
+
+        int packetId = nextInboundId(session);
+        target.addInboundMessage(packetId, message);
+        ReferenceCountUtil.release(target.removeInboundMessage(previousInboundId(packetId)));
+        return packetId;
+    }
+
+    @Benchmark
+    public int legacy() {
+        int session = nextSession();
+        LegacySession target = legacySessions[session];
+        int slot = session * outbound + outboundHead[session];
+        target.acknowledge(legacyIds[slot]);
+        legacyIds[slot] = target.send(message.retain());
+        outboundHead[session] = (outboundHead[session] + 1) % outbound;
+
+        int packetId = nextInboundId(session);
+        target.addInboundMessage(packetId, message.retain());
+        ReferenceCountUtil.release(target.removeInboundMessage(previousInboundId(packetId)));
+        return packetId;
+    }
+
+    private int nextSession() {
+        next = (int) ((next + (long) STRIDE) % sessions);
+        return next;
+    }
+
+    private int sendWindow(Session session) {
+        session.getOutbound().send(message.retain(), null);
+        return message.getPacketId();
+    }
+
+    private int nextInboundId(int session) {
+        int packetId = inboundNext[session];
+        inboundNext[session] = packetId == 65535 ? 1 : packetId + 1;
+        return packetId;
+    }
+
+    private int previousInboundId(int packetId) {
+        int previous = packetId - inbound;
+        return previous > 0 ? previous : previous + 65535;
+    }
+
+    /**
+     * 释放写出的消息，不保留在通道中
+     */
+    private static final class DiscardHandler extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            ReferenceCountUtil.release(msg);
+            promise.setSuccess();
+        }
+    }
+
+    /**
+     * 改动之前的在途消息存储，只保留发送、确认和入站存取的路径
+     */
+    private static final class LegacySession {
+        private final int maxInflight;
+        private final Channel channel;
+        private final LinkedHashMap<Integer, Entry> inflight = new LinkedHashMap<>();
+        private final Map<Integer, PublishMessage> inboundMessages = new ConcurrentHashMap<>();
+        private int nextPacketId = 1;
+
+        LegacySession(int maxInflight, Channel channel) {
+            this.maxInflight = maxInflight;
+            this.channel = channel;
+        }
+
+        synchronized int send(PublishMessage message) {
+            if (inflight.size() >= maxInflight) {
+                throw new IllegalStateException("window is full");
+            }
+            int packetId = nextPacketId;
+            nextPacketId = packetId == 65535 ? 1 : packetId + 1;
+            message.setPacketId(packetId);
+            inflight.put(packetId, new Entry(message, System.nanoTime()));
+            channel.write(message.retainedDuplicate());
+            channel.flush();
+            return packetId;
+        }
+
+        synchronized boolean acknowledge(int packetId) {
+            Entry entry = inflight.remove(packetId);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.message != null) {
+                entry.message.release();
+            }
+            return true;
+        }
+
+        void addInboundMessage(int packetId, PublishMessage message) {
+            PublishMessage previous = inboundMessages.put(packetId, message);
+            if (previous != null && previous != message) {
+                previous.release();
+            }
+        }
+
+        PublishMessage removeInboundMessage(int packetId) {
+            return inboundMessages.remove(packetId);
+        }
+
+        synchronized void release() {
+            for (Entry entry : inflight.values()) {
+                if (entry.message != null) {
+                    entry.message.release();
+                }
+            }
+            inflight.clear();
+            for (PublishMessage inboundMessage : inboundMessages.values()) {
+                inboundMessage.release();
+            }
+            inboundMessages.clear();
+        }
+    }
+
+    private static final class Entry {
+        private PublishMessage message;
+        private long sentAt;
+
+        Entry(PublishMessage message, long sentAt) {
+            this.message = message;
+            this.sentAt = sentAt;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.Subscription;
+import com.example.mqtt.topic.Topic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅索引的主题匹配：在给定数量的过滤器中查找与主题匹配的订阅
+ * <p>
+ * 过滤器的形式为 site/&lt;s&gt;/device/&lt;d&gt;/&lt;metric&gt;，约80%为精确过滤器，
+ * 其余为 '+' 和 '#' 通配符过滤器。matchCacheSize 为0时每次都遍历索引，否则测量命中缓存的查询
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+@State(Scope.Benchmark)
+public class TopicMatchBenchmark {
+    private static final String[] METRICS = {"temperature", "humidity", "pressure", "battery"};
+    private static final int TOPICS = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    int filters;
+
+    @Param({"0", "10000"})
+    int matchCacheSize;
+
+    private SessionManager sessionManager;
+    private Topic[] topics;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        // 每个站点100台设备，过滤器分布在 filters/400 个站点上
+        int sites = Math.max(1, filters / 400);
+        sessionManager = new SessionManager(matchCacheSize);
+        for (int i = 0; i < filters; i++) {
+            int site = random.nextInt(sites);
+            int device = random.nextInt(100);
+            String filter;
+            int kind = random.nextInt(10);
+            if (kind < 8) {
+                filter = "site/" + site + "/device/" + device + "/" + METRICS[random.nextInt(METRICS.length)];
+            } else if (kind == 8) {
+                filter = "site/" + site + "/device/+/" + METRICS[random.nextInt(METRICS.length)];
+            } else {
+                filter = "site/" + site + "/device/" + device + "/#";
+            }
+            sessionManager.addSubscription(filter, new Subscription("client-" + i, filter, MqttQoS.AT_MOST_ONCE));
+        }
+
+        topics = new Topic[TOPICS];
+        for (int i = 0; i < TOPICS; i++) {
+            topics[i] = Topic.of("site/" + random.nextInt(sites) + "/device/" + random.nextInt(100) + "/"
+                    + METRICS[random.nextInt(METRICS.length)]);
+        }
+    }
+
+    @Benchmark
+    public Subscription[] match() {
+        Topic topic = topics[next];
+        next = (next + 1) & (TOPICS - 1);
+        return sessionManager.getSubscribers(topic);
+    }
+}
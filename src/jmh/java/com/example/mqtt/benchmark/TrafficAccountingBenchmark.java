@@ -0,0 +1,75 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.metrics.TrafficAccounting;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流量统计在消息处理路径上的开销：记录一次发布（发布者和主题两个草图）和一次投递，
+ * 以及查询前N名（合并各线程的草图）。键按均匀分布轮流使用，键数远大于候选表时候选表频繁替换
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrafficAccountingBenchmark {
+    @Param({"100", "100000"})
+    int keys;
+
+    private TrafficAccounting accounting;
+    private String[] clientIds;
+    private String[] topicNames;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accounting = new TrafficAccounting(4, 2048, 64, 10);
+        clientIds = new String[keys];
+        topicNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            clientIds[i] = "client-" + i;
+            topicNames[i] = "site/" + i + "/temperature";
+        }
+        for (int i = 0; i < keys; i++) {
+            accounting.published(clientIds[i], topicNames[i], 64, 1);
+        }
+        accounting.rotate();
+    }
+
+    @Benchmark
+    public void published() {
+        int i = next();
+        accounting.published(clientIds[i], topicNames[i], 64, 1);
+    }
+
+    @Benchmark
+    public void delivered() {
+        accounting.delivered(clientIds[next()], 64);
+    }
+
+    @Benchmark
+    public List<TrafficAccounting.HotSpot> topTopics() {
+        return accounting.getTopTopics(10);
+    }
+
+    private int next() {
+        int i = next + 1;
+        next = i == keys ? 0 : i;
+        return next;
+    }
+}
@@ -1,16 +1,60 @@
 package com.example.mqtt;
 
+import com.example.mqtt.auth.Acl;
+import com.example.mqtt.auth.AclRule;
+import com.example.mqtt.auth.Authenticator;
+import com.example.mqtt.auth.CredentialStore;
+import com.example.mqtt.cluster.ClusterNode;
 import com.example.mqtt.codec.MqttDecoder;
 import com.example.mqtt.codec.MqttEncoder;
 import com.example.mqtt.config.MqttBrokerProperties;
+import com.example.mqtt.handler.AcceptThrottle;
+import com.example.mqtt.handler.BackpressureHandler;
+import com.example.mqtt.handler.ConnectTimeoutHandler;
+import com.example.mqtt.handler.ConnectionAdmission;
+import com.example.mqtt.handler.FlushCoalescingHandler;
+import com.example.mqtt.handler.MessageRouter;
 import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.PublishQuota;
+import com.example.mqtt.handler.PublishQuotas;
+import com.example.mqtt.metrics.BrokerMetrics;
+import com.example.mqtt.metrics.MetricsHttpServer;
+import com.example.mqtt.metrics.MetricsRegistry;
+import com.example.mqtt.metrics.SysTopicPublisher;
+import com.example.mqtt.metrics.TrafficAccounting;
+import com.example.mqtt.protocol.MqttMessageType;
+import com.example.mqtt.session.InflightWindow;
+import com.example.mqtt.session.QueueStore;
+import com.example.mqtt.session.RetainedStore;
+import com.example.mqtt.session.SegmentSpill;
+import com.example.mqtt.session.Session;
+import com.example.mqtt.session.SessionFactory;
+import com.example.mqtt.session.SessionJournal;
 import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.Subscription;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.TopicInternTable;
+import com.example.mqtt.topic.TopicMatchCache;
+import com.example.mqtt.topic.Topics;
+import com.example.mqtt.trace.MessageTracer;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,6 +62,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -25,22 +75,179 @@ import java.util.concurrent.TimeUnit;
 @Component
 public class MqttBrokerServer {
     private static final Logger logger = LoggerFactory.getLogger(MqttBrokerServer.class);
+    private static final Topic TOP_PRODUCERS_TOPIC = Topic.of("$SYS/broker/top/producers");
+    private static final Topic TOP_CONSUMERS_TOPIC = Topic.of("$SYS/broker/top/consumers");
+    private static final Topic TOP_TOPICS_TOPIC = Topic.of("$SYS/broker/top/topics");
+    private static final Topic TOP_DROPPED_TOPIC = Topic.of("$SYS/broker/top/dropped");
+    // 清理令牌已恢复满的来源IP的间隔
+    private static final long ADMISSION_SWEEP_SECONDS = 10;
 
     @Value("${mqtt.broker.port:1883}")
     private int port;
 
     private final SessionManager sessionManager;
     private final Map<String, Channel> clientChannels;
+    private final TopicInternTable topicInternTable;
+    private final FlushCoalescingHandler.Counters flushCounters = new FlushCoalescingHandler.Counters();
+    private final BackpressureHandler.Counters backpressureCounters = new BackpressureHandler.Counters();
+    private final InflightWindow.Counters inflightCounters = new InflightWindow.Counters();
+    private final BrokerMetrics brokerMetrics = new BrokerMetrics();
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    // 所有会话共享的重传时间轮，每个有在途消息的会话最多一个定时任务
+    private final HashedWheelTimer retryTimer;
+    // 在途窗口满或持久会话离线时排队消息的限额和溢出存储
+    private final QueueStore queueStore;
+    private final SessionFactory sessionFactory;
+    // 保留消息存储，未启用时为 null
+    private final RetainedStore retainedStore;
+    private final MessageRouter messageRouter;
+    // 持久会话和订阅的日志，未启用持久化时为 null
+    private SessionJournal sessionJournal;
+    // 集群节点，未启用集群时为 null
+    private ClusterNode clusterNode;
+    // 指标抓取端点，未启用时为 null
+    private MetricsHttpServer metricsHttpServer;
+    private ScheduledFuture<?> sysPublishTask;
+    // 按客户端和主题的流量统计，未启用时为 null
+    private final TrafficAccounting trafficAccounting;
+    private ScheduledFuture<?> trafficWindowTask;
+    // 消息轨迹，未启用时为 null
+    private final MessageTracer messageTracer;
+    private final Authenticator authenticator;
+    // 主题访问控制，未启用时为 null
+    private final Acl acl;
+    // 新连接的准入控制，未启用时为 null
+    private final ConnectionAdmission connectionAdmission;
+    private ScheduledFuture<?> admissionSweepTask;
+    // 客户端发布配额，未启用时为 null
+    private final PublishQuotas publishQuotas;
+    private final long startTimeMillis = System.currentTimeMillis();
 
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
-    @Autowired
-    private MqttBrokerProperties mqttBrokerProperties;
+    private final MqttBrokerProperties mqttBrokerProperties;
 
-    public MqttBrokerServer() {
-        this.sessionManager = new SessionManager();
+    @Autowired
+    public MqttBrokerServer(MqttBrokerProperties mqttBrokerProperties) {
+        this.mqttBrokerProperties = mqttBrokerProperties;
+        this.sessionManager = new SessionManager(mqttBrokerProperties.getRouting().getMatchCacheSize());
         this.clientChannels = new ConcurrentHashMap<>();
+        int topicInternSize = mqttBrokerProperties.getRouting().getTopicInternSize();
+        this.topicInternTable = topicInternSize > 0 ? new TopicInternTable(topicInternSize) : null;
+        this.retryTimer = new HashedWheelTimer(
+                mqttBrokerProperties.getInflight().getTimerTickMillis(), TimeUnit.MILLISECONDS);
+        this.queueStore = createQueueStore(mqttBrokerProperties.getQueue());
+        MqttBrokerProperties.Inflight inflight = mqttBrokerProperties.getInflight();
+        this.sessionFactory = (clientId, cleanSession, keepAlive) -> new Session(clientId, cleanSession, keepAlive,
+                new InflightWindow(inflight.getMaxInflightMessages(), queueStore, retryTimer,
+                        inflight.getRetryIntervalMillis(), inflightCounters));
+        MqttBrokerProperties.Retained retained = mqttBrokerProperties.getRetained();
+        this.retainedStore = retained.isEnabled() ? new RetainedStore(PooledByteBufAllocator.DEFAULT,
+                retained.getMaxMessages(), retained.getMaxMemoryBytes()) : null;
+        this.messageRouter = new MessageRouter(sessionManager, clientChannels, retainedStore,
+                mqttBrokerProperties.getShared().getStrategy());
+        MqttBrokerProperties.Accounting accounting = mqttBrokerProperties.getAccounting();
+        this.trafficAccounting = accounting.isEnabled() ? new TrafficAccounting(accounting.getSketchDepth(),
+                accounting.getSketchWidth(), Math.max(accounting.getCandidates(), accounting.getTopN()),
+                accounting.getWindowSeconds()) : null;
+        messageRouter.setTrafficAccounting(trafficAccounting);
+        MqttBrokerProperties.Trace trace = mqttBrokerProperties.getTrace();
+        this.messageTracer = trace.isEnabled() ? new MessageTracer(trace.getSampleRate(), trace.getClients(),
+                trace.getTopics(), trace.getBufferSize(), trace.getMaxPayloadBytes()) : null;
+        messageRouter.setMessageTracer(messageTracer);
+        this.authenticator = createAuthenticator(mqttBrokerProperties.getAuthentication());
+        MqttBrokerProperties.Acl aclProperties = mqttBrokerProperties.getAcl();
+        this.acl = aclProperties.isEnabled() ? new Acl(aclProperties.isAllowByDefault(), toAclRules(aclProperties))
+                : null;
+        MqttBrokerProperties.Admission admission = mqttBrokerProperties.getAdmission();
+        this.connectionAdmission = admission.isEnabled() ? new ConnectionAdmission(admission.getAddressRate(),
+                admission.getAddressBurst(), admission.getGlobalRate(), admission.getGlobalBurst(),
+                admission.getMaxPendingConnects(), admission.getMaxTrackedAddresses()) : null;
+        this.publishQuotas = createPublishQuotas(mqttBrokerProperties.getQuota());
+    }
+
+    private static Authenticator createAuthenticator(MqttBrokerProperties.Authentication authentication) {
+        CredentialStore credentialStore = new CredentialStore(authentication.getHashIterations());
+        if (authentication.getUsers() != null) {
+            for (MqttBrokerProperties.Authentication.User user : authentication.getUsers()) {
+                credentialStore.put(user.getUsername(), user.getPassword());
+            }
+        }
+        if (authentication.getCredentialsFile() != null && !authentication.getCredentialsFile().isEmpty()) {
+            try {
+                int count = credentialStore.load(Paths.get(authentication.getCredentialsFile()));
+                logger.info("Loaded {} credentials from {}", count, authentication.getCredentialsFile());
+            } catch (IOException e) {
+                logger.error("Failed to load credentials from {}", authentication.getCredentialsFile(), e);
+            }
+        }
+        return new Authenticator(credentialStore, authentication.getThreads(), authentication.getQueueSize(),
+                TimeUnit.SECONDS.toMillis(authentication.getCacheTtlSeconds()), authentication.getCacheMaxEntries());
+    }
+
+    private static PublishQuotas createPublishQuotas(MqttBrokerProperties.Quota quota) {
+        if (!quota.isEnabled()) {
+            return null;
+        }
+        // 覆盖项中未写的字段继承 defaults
+        MqttBrokerProperties.Quota.Limit defaults = quota.getDefaults();
+        Map<String, PublishQuota.Limit> users = new HashMap<>();
+        quota.getUsers().forEach((username, limit) -> users.put(username, limit.inherit(defaults).toLimit()));
+        Map<String, PublishQuota.Limit> clients = new HashMap<>();
+        quota.getClients().forEach((clientId, limit) -> clients.put(clientId, limit.inherit(defaults).toLimit()));
+        return new PublishQuotas(quota.getAction(), defaults.toLimit(), users, clients);
+    }
+
+    private static List<AclRule> toAclRules(MqttBrokerProperties.Acl acl) {
+        List<AclRule> rules = new ArrayList<>();
+        for (MqttBrokerProperties.Acl.Rule rule : acl.getRules()) {
+            if (!Topics.isValidFilter(rule.getTopic()) || Topics.isSharedFilter(rule.getTopic())) {
+                logger.warn("Ignoring ACL rule with invalid topic filter {}", rule.getTopic());
+                continue;
+            }
+            rules.add(new AclRule(rule.getUser(), rule.getClient(), rule.getTopic(), rule.getAccess(),
+                    rule.getPermission()));
+        }
+        logger.info("Loaded {} ACL rules", rules.size());
+        return rules;
+    }
+
+    private static QueueStore createQueueStore(MqttBrokerProperties.Queue queue) {
+        SegmentSpill spill = null;
+        if (queue.isSpillEnabled()) {
+            try {
+                spill = new SegmentSpill(Paths.get(queue.getSpillDirectory()),
+                        queue.getSpillSegmentSize(), queue.getSpillMaxBytes());
+            } catch (IOException e) {
+                logger.error("Failed to initialize spill directory {}, queued messages will stay in memory",
+                        queue.getSpillDirectory(), e);
+            }
+        }
+        return new QueueStore(queue.getMaxSessionMessages(), queue.getSessionMemoryBytes(),
+                queue.getMaxMessages(), queue.getMaxMemoryBytes(), queue.getOverflowPolicy(), spill);
+    }
+
+    /**
+     * 从日志恢复持久会话及其订阅，然后开始记录之后的修改。恢复失败时不启用持久化
+     */
+    private void recoverSessions() {
+        MqttBrokerProperties.Persistence persistence = mqttBrokerProperties.getPersistence();
+        if (!persistence.isEnabled()) {
+            return;
+        }
+        try {
+            SessionJournal journal = new SessionJournal(Paths.get(persistence.getDirectory()),
+                    persistence.getFsyncPolicy(), persistence.getFsyncIntervalMillis(),
+                    persistence.getSnapshotIntervalSeconds(), persistence.getSnapshotJournalBytes(),
+                    persistence.getMaxPendingRecords());
+            journal.recover(sessionManager, sessionFactory);
+            journal.start(sessionManager);
+            sessionJournal = journal;
+        } catch (IOException e) {
+            logger.error("Failed to recover sessions from {}, persistent sessions will not survive a restart",
+                    persistence.getDirectory(), e);
+        }
     }
 
     // 使用@PostConstruct注解的方法在依赖注入完成后执行
@@ -50,51 +257,428 @@ public class MqttBrokerServer {
     }
 
     public void start() throws InterruptedException {
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        recoverSessions();
+        MqttBrokerProperties.Transport transport = mqttBrokerProperties.getTransport();
+        boolean epoll = useEpoll(transport.getType());
+
+        // 启用SO_REUSEPORT时在同一端口上绑定多个监听socket，每个socket由单独的boss线程accept
+        int acceptors = 1;
+        if (transport.isReusePort()) {
+            if (epoll) {
+                acceptors = Math.max(1, transport.getAcceptors());
+            } else {
+                logger.warn("SO_REUSEPORT requires epoll transport, using a single acceptor");
+            }
+        }
+        int bossThreads = Math.max(Math.max(1, transport.getBossThreads()), acceptors);
+        int workerThreads = Math.max(0, transport.getWorkerThreads());
+
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(bossThreads);
+            workerGroup = new EpollEventLoopGroup(workerThreads);
+        } else {
+            bossGroup = new NioEventLoopGroup(bossThreads);
+            workerGroup = new NioEventLoopGroup(workerThreads);
+        }
+        ByteBufAllocator allocator = transport.getAllocator() == MqttBrokerProperties.Transport.Allocator.UNPOOLED
+                ? UnpooledByteBufAllocator.DEFAULT : PooledByteBufAllocator.DEFAULT;
 
         try {
+            startCluster(epoll);
+            registerMetrics();
+            startMetrics(epoll);
+            if (connectionAdmission != null) {
+                admissionSweepTask = workerGroup.next().scheduleAtFixedRate(connectionAdmission::sweep,
+                        ADMISSION_SWEEP_SECONDS, ADMISSION_SWEEP_SECONDS, TimeUnit.SECONDS);
+            }
+
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
+                            // 准入控制，被拒绝的连接不建立pipeline，以RST关闭不留TIME_WAIT
+                            if (connectionAdmission != null) {
+                                ConnectionAdmission.Rejection rejection = connectionAdmission.admit(ch);
+                                if (rejection != null) {
+                                    logger.debug("Rejected connection from {}: {}", ch.remoteAddress(), rejection);
+                                    ch.config().setSoLinger(0);
+                                    ch.close();
+                                    return;
+                                }
+                            }
                             ChannelPipeline pipeline = ch.pipeline();
 
+                            // 合并flush，必须位于最靠近socket的位置
+                            MqttBrokerProperties.Flush flush = mqttBrokerProperties.getFlush();
+                            if (flush.isConsolidate()) {
+                                pipeline.addLast("flushCoalescer", new FlushCoalescingHandler(
+                                        flush.getMaxPendingWrites(), flush.getMaxPendingBytes(), flushCounters));
+                            }
+
                             // 添加编解码器
-                            pipeline.addLast("decoder", new MqttDecoder());
-                            pipeline.addLast("encoder", new MqttEncoder());
+                            pipeline.addLast("decoder", new MqttDecoder(mqttBrokerProperties.getMaxPacketSize(),
+                                    topicInternTable, brokerMetrics));
+                            pipeline.addLast("encoder", new MqttEncoder(brokerMetrics));
+                            if (connectionAdmission != null) {
+                                pipeline.addLast("connectTimeout", new ConnectTimeoutHandler(connectionAdmission,
+                                        mqttBrokerProperties.getAdmission().getConnectTimeoutMillis()));
+                            }
 
                             // 添加心跳检测
                             pipeline.addLast("idleStateHandler",
                                     new IdleStateHandler(0, 0, 60, TimeUnit.SECONDS));
 
+                            // 订阅者出站背压，通道不可写时按QoS策略丢弃或排队
+                            MqttBrokerProperties.Backpressure backpressure = mqttBrokerProperties.getBackpressure();
+                            if (backpressure.isEnabled()) {
+                                pipeline.addLast("backpressure", new BackpressureHandler(
+                                        new BackpressureHandler.Policy[]{
+                                                backpressure.getQos0(), backpressure.getQos1(), backpressure.getQos2()},
+                                        backpressure.getMaxQueuedMessages(), backpressure.getMaxQueuedBytes(),
+                                        backpressure.getOverflowAction(), backpressureCounters, trafficAccounting));
+                            }
+
                             // 添加业务处理器
                             pipeline.addLast("mqttHandler",
-                                    new MqttMessageHandler(sessionManager, clientChannels, mqttBrokerProperties));
+                                    new MqttMessageHandler(sessionManager, clientChannels, mqttBrokerProperties,
+                                            sessionFactory, retainedStore, messageRouter, brokerMetrics,
+                                            trafficAccounting, messageTracer, authenticator, acl,
+                                            publishQuotas));
                         }
                     })
-                    .option(ChannelOption.SO_BACKLOG, 128)
+                    .option(ChannelOption.SO_BACKLOG, transport.getBacklog())
+                    .option(ChannelOption.ALLOCATOR, allocator)
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childOption(ChannelOption.TCP_NODELAY, true);
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.ALLOCATOR, allocator)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            transport.getWriteBufferLowWaterMark(), transport.getWriteBufferHighWaterMark()));
+            if (transport.getReceiveBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, transport.getReceiveBufferSize());
+            }
+            if (transport.getSendBufferSize() > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, transport.getSendBufferSize());
+            }
+            if (acceptors > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            // 全局连接速率在accept线程上执行，超过时推迟接受
+            if (connectionAdmission != null && connectionAdmission.isGlobalRateLimited()) {
+                bootstrap.handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast("acceptThrottle", new AcceptThrottle(connectionAdmission));
+                    }
+                });
+            }
 
-            ChannelFuture future = bootstrap.bind(port).sync();
-            logger.info("MQTT Broker started on port {}", port);
+            List<Channel> serverChannels = new ArrayList<>(acceptors);
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(bootstrap.bind(port).sync().channel());
+            }
+            logger.info("MQTT Broker started on port {}, transport={}, acceptors={}, bossThreads={}, workerThreads={}",
+                    port, epoll ? "epoll" : "nio", acceptors, bossThreads,
+                    workerThreads > 0 ? workerThreads : "default");
 
-            future.channel().closeFuture().sync();
+            for (Channel serverChannel : serverChannels) {
+                serverChannel.closeFuture().sync();
+            }
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
         }
     }
 
+    /**
+     * 启用集群时监听集群端口并连接其它节点，节点间连接使用客户端连接的事件循环
+     */
+    private void startCluster(boolean epoll) throws InterruptedException {
+        MqttBrokerProperties.Cluster cluster = mqttBrokerProperties.getCluster();
+        if (!cluster.isEnabled()) {
+            return;
+        }
+        String nodeId = cluster.getNodeId() != null && !cluster.getNodeId().isEmpty()
+                ? cluster.getNodeId() : "node-" + port;
+        clusterNode = new ClusterNode(nodeId, cluster, mqttBrokerProperties.getMaxPacketSize(),
+                sessionManager, clientChannels, messageRouter);
+        clusterNode.start(bossGroup, workerGroup,
+                epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class,
+                epoll ? EpollSocketChannel.class : NioSocketChannel.class);
+    }
+
+    /**
+     * 登记所有组件的统计，未启用的组件（持久化、保留消息、集群等）不登记
+     */
+    private void registerMetrics() {
+        MetricsRegistry registry = metricsRegistry;
+        registry.gauge("mqtt_uptime_seconds", "Seconds since the broker started", "$SYS/broker/uptime",
+                        () -> (System.currentTimeMillis() - startTimeMillis) / 1000)
+                .gauge("mqtt_connections", "Connected clients", "$SYS/broker/clients/connected",
+                        clientChannels::size)
+                .gauge("mqtt_sessions", "Sessions including offline persistent sessions", "$SYS/broker/clients/total",
+                        sessionManager::getSessionCount)
+                .counter("mqtt_connects_total", "Accepted CONNECT packets", "$SYS/broker/clients/connects",
+                        brokerMetrics::getConnectCount)
+                .counter("mqtt_connects_rejected_total", "Rejected CONNECT packets", "$SYS/broker/clients/rejected",
+                        brokerMetrics::getConnectRejectedCount)
+                .counter("mqtt_disconnects_total", "Closed connections that had been accepted",
+                        "$SYS/broker/clients/disconnects", brokerMetrics::getDisconnectCount)
+                .counter("mqtt_decode_errors_total", "Connections closed because of malformed packets",
+                        "$SYS/broker/packets/decode-errors", brokerMetrics::getDecodeErrorCount)
+                .gauge("mqtt_subscriptions", "Subscriptions of all sessions", "$SYS/broker/subscriptions/count",
+                        sessionManager::getSubscriptionCount);
+
+        for (MqttMessageType type : MqttMessageType.values()) {
+            String name = type.name().toLowerCase(Locale.ROOT);
+            registry.counter("mqtt_packets_received_total", "type", name, "Packets received by type",
+                            "$SYS/broker/packets/received/" + name, () -> brokerMetrics.getPacketsReceived(type))
+                    .counter("mqtt_bytes_received_total", "type", name, "Bytes received by packet type",
+                            "$SYS/broker/bytes/received/" + name, () -> brokerMetrics.getBytesReceived(type))
+                    .counter("mqtt_packets_sent_total", "type", name, "Packets sent by type",
+                            "$SYS/broker/packets/sent/" + name, () -> brokerMetrics.getPacketsSent(type))
+                    .counter("mqtt_bytes_sent_total", "type", name, "Bytes sent by packet type",
+                            "$SYS/broker/bytes/sent/" + name, () -> brokerMetrics.getBytesSent(type));
+        }
+        registry.counter("mqtt_load_bytes_received_total", "Bytes received in complete packets",
+                        "$SYS/broker/load/bytes/received", brokerMetrics::getTotalBytesReceived)
+                .counter("mqtt_load_bytes_sent_total", "Bytes sent in complete packets",
+                        "$SYS/broker/load/bytes/sent", brokerMetrics::getTotalBytesSent);
+
+        QueueStore.Counters queue = queueStore.getCounters();
+        registry.gauge("mqtt_messages_inflight", "QoS 1/2 messages sent and not yet acknowledged",
+                        "$SYS/broker/messages/inflight", inflightCounters::getInflightCount)
+                .counter("mqtt_messages_retransmitted_total", "Retransmitted PUBLISH and PUBREL packets",
+                        "$SYS/broker/messages/retransmitted", inflightCounters::getRetransmissionCount)
+                .gauge("mqtt_messages_queued", "Messages queued for full inflight windows and offline sessions",
+                        "$SYS/broker/messages/queued", queue::getQueuedCount)
+                .gauge("mqtt_queue_memory_bytes", "Estimated memory of queued messages",
+                        "$SYS/broker/messages/queued/memory-bytes", queue::getMemoryBytes)
+                .gauge("mqtt_queue_spill_bytes", "Disk space of spilled queue segments",
+                        "$SYS/broker/messages/queued/spill-bytes", queue::getSpillBytes)
+                .counter("mqtt_messages_spilled_total", "Queued messages spilled to disk",
+                        "$SYS/broker/messages/spilled", queue::getSpilledCount)
+                .counter("mqtt_messages_dropped_total", "reason", "queue", "Dropped messages by reason",
+                        "$SYS/broker/messages/dropped/queue", queue::getDroppedMessageCount)
+                .counter("mqtt_messages_dropped_total", "reason", "backpressure", "Dropped messages by reason",
+                        "$SYS/broker/messages/dropped/backpressure", backpressureCounters::getDroppedMessageCount)
+                .gauge("mqtt_backpressure_queued_bytes", "Bytes waiting for unwritable subscriber connections",
+                        "$SYS/broker/backpressure/queued-bytes", backpressureCounters::getQueuedBytes)
+                .counter("mqtt_backpressure_overflows_total", "Subscriber queues that exceeded their limit",
+                        "$SYS/broker/backpressure/overflows", backpressureCounters::getOverflowCount)
+                .counter("mqtt_flush_messages_total", "Buffers written through the flush coalescer",
+                        null, flushCounters::getMessageCount)
+                .counter("mqtt_flushes_total", "Flushes passed to the socket", null, flushCounters::getFlushCount)
+                .counter("mqtt_flushes_forced_total", "Flushes forced by pending write limits",
+                        null, flushCounters::getForcedFlushCount);
+
+        TopicMatchCache<Subscription> matchCache = sessionManager.getMatchCache();
+        registry.counter("mqtt_match_cache_hits_total", "Topic match cache hits", null, matchCache::getHitCount)
+                .counter("mqtt_match_cache_misses_total", "Topic match cache misses", null, matchCache::getMissCount)
+                .counter("mqtt_match_cache_evictions_total", "Topic match cache evictions",
+                        null, matchCache::getEvictionCount)
+                .counter("mqtt_match_cache_invalidations_total", "Topic match cache invalidations",
+                        null, matchCache::getInvalidationCount);
+        if (topicInternTable != null) {
+            registry.counter("mqtt_topic_intern_hits_total", "Topic intern table hits",
+                            null, topicInternTable::getHitCount)
+                    .counter("mqtt_topic_intern_misses_total", "Topic intern table misses",
+                            null, topicInternTable::getMissCount);
+        }
+        if (retainedStore != null) {
+            RetainedStore.Counters retained = retainedStore.getCounters();
+            registry.gauge("mqtt_retained_messages", "Stored retained messages",
+                            "$SYS/broker/retained messages/count", retained::getRetainedCount)
+                    .gauge("mqtt_retained_memory_bytes", "Direct memory of retained payloads",
+                            "$SYS/broker/retained messages/memory-bytes", retained::getMemoryBytes)
+                    .counter("mqtt_retained_rejected_total", "Retained messages rejected by store limits",
+                            "$SYS/broker/retained messages/rejected", retained::getRejectedCount);
+        }
+        if (sessionJournal != null) {
+            SessionJournal.Counters journal = sessionJournal.getCounters();
+            registry.counter("mqtt_journal_records_total", "Session journal records", null, journal::getRecordCount)
+                    .counter("mqtt_journal_fsyncs_total", "Session journal fsyncs", null, journal::getFsyncCount)
+                    .counter("mqtt_journal_snapshots_total", "Session snapshots", null, journal::getSnapshotCount)
+                    .counter("mqtt_journal_dropped_records_total", "Session journal records dropped because the writer fell behind",
+                            null, journal::getDroppedCount)
+                    .gauge("mqtt_journal_pending_records", "Session journal records waiting for the writer",
+                            null, sessionJournal::getPendingCount)
+                    .gauge("mqtt_journal_recovery_millis", "Session recovery time at startup",
+                            null, journal::getRecoveryMillis);
+        }
+        if (clusterNode != null) {
+            ClusterNode.Counters cluster = clusterNode.getCounters();
+            registry.counter("mqtt_messages_dropped_total", "reason", "cluster", "Dropped messages by reason",
+                            "$SYS/broker/messages/dropped/cluster", cluster::getDroppedCount)
+                    .counter("mqtt_cluster_forwarded_total", "Messages forwarded to other nodes",
+                            "$SYS/broker/cluster/forwarded", cluster::getForwardedCount)
+                    .counter("mqtt_cluster_received_total", "Messages received from other nodes",
+                            "$SYS/broker/cluster/received", cluster::getReceivedCount)
+                    .counter("mqtt_cluster_takeovers_total", "Local clients taken over by other nodes",
+                            "$SYS/broker/cluster/takeovers", cluster::getTakeoverCount)
+                    .counter("mqtt_cluster_auth_failures_total", "Cluster connections that failed authentication",
+                            null, cluster::getAuthFailureCount)
+                    .gauge("mqtt_cluster_peers", "Connected peer nodes", "$SYS/broker/cluster/peers",
+                            cluster::getPeerCount)
+                    .gauge("mqtt_cluster_remote_filters", "Filters announced by other nodes", null,
+                            cluster::getRemoteFilterCount);
+        }
+        registry.counter("mqtt_auth_verifications_total", "Password hash verifications",
+                        "$SYS/broker/auth/verifications", authenticator::getVerificationCount)
+                .counter("mqtt_auth_cache_hits_total", "CONNECTs accepted from the credential cache",
+                        "$SYS/broker/auth/cache-hits", authenticator::getCacheHitCount)
+                .counter("mqtt_auth_rejected_total", "CONNECTs rejected for bad credentials",
+                        "$SYS/broker/auth/rejected", authenticator::getRejectedCount)
+                .counter("mqtt_auth_overloaded_total", "CONNECTs rejected because the verification queue was full",
+                        "$SYS/broker/auth/overloaded", authenticator::getOverloadedCount)
+                .gauge("mqtt_auth_queued", "CONNECTs waiting for password verification", null,
+                        authenticator::getQueuedCount);
+        if (connectionAdmission != null) {
+            for (ConnectionAdmission.Rejection reason : ConnectionAdmission.Rejection.values()) {
+                String name = reason.name().toLowerCase(Locale.ROOT);
+                registry.counter("mqtt_connections_rejected_total", "reason", name,
+                        "Connections refused by admission control", "$SYS/broker/admission/rejected/" + name,
+                        () -> connectionAdmission.getRejectedCount(reason));
+            }
+            registry.counter("mqtt_connections_admitted_total", "Connections that passed admission control",
+                            "$SYS/broker/admission/admitted", connectionAdmission::getAdmittedCount)
+                    .counter("mqtt_connections_delayed_total", "Connections held back by the global accept rate",
+                            "$SYS/broker/admission/delayed", connectionAdmission::getDelayedCount)
+                    .gauge("mqtt_connections_pending", "Accepted connections waiting for CONNECT",
+                            "$SYS/broker/admission/pending", connectionAdmission::getPendingCount)
+                    .gauge("mqtt_admission_tracked_addresses", "Source addresses with a connection rate bucket",
+                            null, connectionAdmission::getTrackedAddressCount);
+        }
+        if (publishQuotas != null) {
+            PublishQuota.Counters quota = publishQuotas.getCounters();
+            registry.gauge("mqtt_quota_throttled_clients", "Connections currently over their publish quota",
+                            "$SYS/broker/quota/throttled-clients", quota::getThrottledClientCount)
+                    .counter("mqtt_quota_exceeded_total", "Published messages over the publish quota",
+                            "$SYS/broker/quota/exceeded", quota::getThrottledMessageCount)
+                    .counter("mqtt_quota_disconnects_total", "Connections closed for exceeding the publish quota",
+                            "$SYS/broker/quota/disconnects", quota::getDisconnectCount);
+        }
+        if (acl != null) {
+            registry.counter("mqtt_acl_denied_total", "access", "publish", "Operations denied by the ACL",
+                            "$SYS/broker/acl/denied/publish", acl::getPublishDeniedCount)
+                    .counter("mqtt_acl_denied_total", "access", "subscribe", "Operations denied by the ACL",
+                            "$SYS/broker/acl/denied/subscribe", acl::getSubscribeDeniedCount)
+                    .counter("mqtt_acl_cache_hits_total", "Publish permission checks answered from the cache",
+                            "$SYS/broker/acl/cache-hits", acl::getCacheHitCount)
+                    .gauge("mqtt_acl_rules", "Loaded ACL rules", null, acl::getRuleCount);
+        }
+        if (messageTracer != null) {
+            registry.counter("mqtt_trace_events_total", "Sampled message trace events written",
+                            "$SYS/broker/trace/written", messageTracer::getWrittenCount)
+                    .counter("mqtt_trace_dropped_total", "Message trace events dropped on a full buffer",
+                            "$SYS/broker/trace/dropped", messageTracer::getDroppedCount);
+        }
+    }
+
+    /**
+     * 定时发布 $SYS 主题和轮换流量统计窗口，启用时监听Prometheus抓取端口
+     */
+    private void startMetrics(boolean epoll) throws InterruptedException {
+        MqttBrokerProperties.Metrics metrics = mqttBrokerProperties.getMetrics();
+        SysTopicPublisher sysTopicPublisher = new SysTopicPublisher(metricsRegistry, messageRouter);
+        if (metrics.getSysIntervalSeconds() > 0) {
+            sysPublishTask = workerGroup.next().scheduleAtFixedRate(sysTopicPublisher,
+                    metrics.getSysIntervalSeconds(), metrics.getSysIntervalSeconds(), TimeUnit.SECONDS);
+        }
+        MqttBrokerProperties.Accounting accounting = mqttBrokerProperties.getAccounting();
+        if (trafficAccounting != null) {
+            SysTopicPublisher topPublisher = metrics.getSysIntervalSeconds() > 0 ? sysTopicPublisher : null;
+            trafficWindowTask = workerGroup.next().scheduleAtFixedRate(
+                    () -> rotateTrafficWindow(topPublisher, accounting.getTopN()),
+                    accounting.getWindowSeconds(), accounting.getWindowSeconds(), TimeUnit.SECONDS);
+        }
+        if (metrics.isHttpEnabled()) {
+            metricsHttpServer = new MetricsHttpServer(metricsRegistry, metrics.getHttpHost(), metrics.getHttpPort(),
+                    trafficAccounting, accounting.getTopN());
+            metricsHttpServer.start(bossGroup, workerGroup,
+                    epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class);
+        }
+    }
+
+    /**
+     * 结束当前统计窗口，把刚结束的窗口的前N名发布到 $SYS/broker/top/...
+     *
+     * @param publisher 为 null 时不发布 $SYS 主题
+     */
+    private void rotateTrafficWindow(SysTopicPublisher publisher, int topN) {
+        try {
+            trafficAccounting.rotate();
+            if (publisher == null) {
+                return;
+            }
+            StringBuilder json = new StringBuilder(512);
+            TrafficAccounting.appendJson(json, trafficAccounting.getTopProducers(topN));
+            publisher.publish(TOP_PRODUCERS_TOPIC, json.toString());
+            json.setLength(0);
+            TrafficAccounting.appendJson(json, trafficAccounting.getTopConsumers(topN));
+            publisher.publish(TOP_CONSUMERS_TOPIC, json.toString());
+            json.setLength(0);
+            TrafficAccounting.appendJson(json, trafficAccounting.getTopTopics(topN));
+            publisher.publish(TOP_TOPICS_TOPIC, json.toString());
+            json.setLength(0);
+            TrafficAccounting.appendJson(json, trafficAccounting.getTopDropped(topN));
+            publisher.publish(TOP_DROPPED_TOPIC, json.toString());
+        } catch (RuntimeException e) {
+            // 定时任务抛出异常后不会再执行，记录后继续
+            logger.warn("Failed to publish traffic hot spots", e);
+        }
+    }
+
+    private static boolean useEpoll(MqttBrokerProperties.Transport.Type type) {
+        if (type == MqttBrokerProperties.Transport.Type.NIO) {
+            return false;
+        }
+        if (Epoll.isAvailable()) {
+            return true;
+        }
+        if (type == MqttBrokerProperties.Transport.Type.EPOLL) {
+            logger.warn("Epoll transport is not available, falling back to NIO", Epoll.unavailabilityCause());
+        }
+        return false;
+    }
+
     public void stop() {
-        if (bossGroup != null) {
-            bossGroup.shutdownGracefully();
+        if (sysPublishTask != null) {
+            sysPublishTask.cancel(false);
         }
-        if (workerGroup != null) {
-            workerGroup.shutdownGracefully();
+        if (trafficWindowTask != null) {
+            trafficWindowTask.cancel(false);
+        }
+        if (admissionSweepTask != null) {
+            admissionSweepTask.cancel(false);
+        }
+        if (metricsHttpServer != null) {
+            metricsHttpServer.close();
+        }
+        if (clusterNode != null) {
+            clusterNode.close();
+        }
+        Future<?> bossShutdown = bossGroup != null ? bossGroup.shutdownGracefully() : null;
+        Future<?> workerShutdown = workerGroup != null ? workerGroup.shutdownGracefully() : null;
+        // 等待事件循环退出，之后不会再有连接写入队列、日志和保留消息存储，才能关闭它们
+        if (bossShutdown != null) {
+            bossShutdown.syncUninterruptibly();
+        }
+        if (workerShutdown != null) {
+            workerShutdown.syncUninterruptibly();
+        }
+        retryTimer.stop();
+        authenticator.close();
+        if (messageTracer != null) {
+            messageTracer.close();
+        }
+        queueStore.close();
+        if (sessionJournal != null) {
+            sessionJournal.close();
+        }
+        if (retainedStore != null) {
+            retainedStore.close();
         }
     }
 
@@ -109,4 +693,102 @@ public class MqttBrokerServer {
     public int getConnectionCount() {
         return clientChannels.size();
     }
+
+    public TopicInternTable getTopicInternTable() {
+        return topicInternTable;
+    }
+
+    public FlushCoalescingHandler.Counters getFlushCounters() {
+        return flushCounters;
+    }
+
+    public BackpressureHandler.Counters getBackpressureCounters() {
+        return backpressureCounters;
+    }
+
+    public InflightWindow.Counters getInflightCounters() {
+        return inflightCounters;
+    }
+
+    public BrokerMetrics getBrokerMetrics() {
+        return brokerMetrics;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * @return 新连接的准入控制，未启用时为 null
+     */
+    public ConnectionAdmission getConnectionAdmission() {
+        return connectionAdmission;
+    }
+
+    /**
+     * @return 客户端发布配额，未启用时为 null
+     */
+    public PublishQuotas getPublishQuotas() {
+        return publishQuotas;
+    }
+
+    /**
+     * @return 主题访问控制，未启用时为 null
+     */
+    public Acl getAcl() {
+        return acl;
+    }
+
+    /**
+     * @return 消息轨迹，未启用时为 null
+     */
+    public MessageTracer getMessageTracer() {
+        return messageTracer;
+    }
+
+    /**
+     * @return 流量统计，未启用时为 null
+     */
+    public TrafficAccounting getTrafficAccounting() {
+        return trafficAccounting;
+    }
+
+    public QueueStore.Counters getQueueCounters() {
+        return queueStore.getCounters();
+    }
+
+    /**
+     * @return 未启用保留消息时返回 null
+     */
+    public RetainedStore.Counters getRetainedCounters() {
+        return retainedStore != null ? retainedStore.getCounters() : null;
+    }
+
+    /**
+     * @return 未启用集群时返回 null
+     */
+    public ClusterNode.Counters getClusterCounters() {
+        return clusterNode != null ? clusterNode.getCounters() : null;
+    }
+
+    /**
+     * @return 未启用持久化时返回 null
+     */
+    public SessionJournal.Counters getJournalCounters() {
+        return sessionJournal != null ? sessionJournal.getCounters() : null;
+    }
+
+    /**
+     * 获取指定客户端连接的背压处理器，用于查询该客户端的排队字节数和丢弃消息数
+     *
+     * @return 客户端不在线或未启用背压处理时返回 null
+     */
+    public BackpressureHandler getBackpressureHandler(String clientId) {
+        Channel channel = clientChannels.get(clientId);
+        return channel != null ? channel.pipeline().get(BackpressureHandler.class) : null;
+    }
 }
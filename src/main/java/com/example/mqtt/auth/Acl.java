@@ -0,0 +1,141 @@
+package com.example.mqtt.auth;
+
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.Topics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 主题访问控制
+ * <p>
+ * 规则在加载时按用户名、客户端ID编入各自的主题树，不限用户的规则编入公共的树，检查一个主题只需遍历
+ * 该连接相关的两三棵树，耗时与规则总数无关。多条规则匹配时列表中靠前的生效，都不匹配时使用默认策略。
+ * 规则可以在运行时整体替换，{@link AclCache} 据代数判断缓存的结果是否过期。
+ */
+public class Acl {
+    private final boolean allowByDefault;
+    private volatile Rules rules = new Rules(Collections.emptyList(), 0);
+
+    private final LongAdder publishDenied = new LongAdder();
+    private final LongAdder subscribeDenied = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     * @param allowByDefault 没有规则匹配时是否允许
+     */
+    public Acl(boolean allowByDefault, List<AclRule> rules) {
+        this.allowByDefault = allowByDefault;
+        reload(rules);
+    }
+
+    /**
+     * 替换全部规则，已建立的连接在下一次检查时使用新规则
+     */
+    public synchronized void reload(List<AclRule> rules) {
+        this.rules = new Rules(rules, this.rules.generation + 1);
+    }
+
+    public boolean canPublish(String username, String clientId, Topic topic) {
+        boolean allowed = rules.allows(AclRule.Access.PUBLISH, username, clientId, topic.getLevels(), topic.isDollar(),
+                allowByDefault);
+        if (!allowed) {
+            publishDenied.increment();
+        }
+        return allowed;
+    }
+
+    /**
+     * 检查订阅，共享订阅按其中的主题过滤器检查；过滤器中的通配符只被规则中范围不小于它的通配符覆盖
+     */
+    public boolean canSubscribe(String username, String clientId, String topicFilter) {
+        String filter = Topics.matchFilter(topicFilter);
+        boolean allowed = rules.allows(AclRule.Access.SUBSCRIBE, username, clientId, Topics.splitLevels(filter),
+                Topics.isDollarTopic(filter), allowByDefault);
+        if (!allowed) {
+            subscribeDenied.increment();
+        }
+        return allowed;
+    }
+
+    /**
+     * 为一个连接创建发布检查的缓存
+     *
+     * @param maxEntries 最多缓存的主题数，0表示不缓存
+     */
+    public AclCache newCache(String username, String clientId, int maxEntries) {
+        return new AclCache(this, username, clientId, maxEntries);
+    }
+
+    long getGeneration() {
+        return rules.generation;
+    }
+
+    void recordCacheHit(boolean allowed) {
+        cacheHits.increment();
+        if (!allowed) {
+            publishDenied.increment();
+        }
+    }
+
+    public int getRuleCount() {
+        return rules.count;
+    }
+
+    public long getPublishDeniedCount() {
+        return publishDenied.sum();
+    }
+
+    public long getSubscribeDeniedCount() {
+        return subscribeDenied.sum();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * 编译后的规则，构建后只读
+     */
+    private static final class Rules {
+        private final Map<String, AclTrie> byUsername = new HashMap<>();
+        private final Map<String, AclTrie> byClientId = new HashMap<>();
+        private final AclTrie common = new AclTrie();
+        private final long generation;
+        private final int count;
+
+        Rules(List<AclRule> rules, long generation) {
+            this.generation = generation;
+            this.count = rules.size();
+            for (int i = 0; i < rules.size(); i++) {
+                AclRule rule = new AclRule(rules.get(i), i);
+                // 同时限定用户名和客户端ID的规则编入用户名的树，匹配时再比较客户端ID
+                if (rule.getUsername() != null) {
+                    byUsername.computeIfAbsent(rule.getUsername(), key -> new AclTrie()).add(rule);
+                } else if (rule.getClientId() != null) {
+                    byClientId.computeIfAbsent(rule.getClientId(), key -> new AclTrie()).add(rule);
+                } else {
+                    common.add(rule);
+                }
+            }
+        }
+
+        boolean allows(AclRule.Access access, String username, String clientId, String[] levels, boolean dollarTopic,
+                       boolean allowByDefault) {
+            AclRule best = null;
+            AclTrie trie = username != null ? byUsername.get(username) : null;
+            if (trie != null) {
+                best = trie.match(levels, dollarTopic, access, username, clientId, best);
+            }
+            trie = clientId != null ? byClientId.get(clientId) : null;
+            if (trie != null) {
+                best = trie.match(levels, dollarTopic, access, username, clientId, best);
+            }
+            best = common.match(levels, dollarTopic, access, username, clientId, best);
+            return best != null ? best.getPermission() == AclRule.Permission.ALLOW : allowByDefault;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.mqtt.auth;
+
+import com.example.mqtt.topic.Topic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个连接的发布检查结果，按主题缓存
+ * <p>
+ * 设备通常反复向少数几个主题发布，命中时省去遍历主题树。只在该连接的事件循环上使用，不是线程安全的；
+ * 规则重新加载后整体失效。缓存属于连接而不是会话，持久会话以其他用户名重连时不会沿用旧的结果。
+ */
+public class AclCache {
+    private final Acl acl;
+    private final String username;
+    private final String clientId;
+    private final int maxEntries;
+    private final LinkedHashMap<Topic, Boolean> decisions;
+    private long generation;
+
+    AclCache(Acl acl, String username, String clientId, int maxEntries) {
+        this.acl = acl;
+        this.username = username;
+        this.clientId = clientId;
+        this.maxEntries = maxEntries;
+        this.generation = acl.getGeneration();
+        this.decisions = new LinkedHashMap<Topic, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Topic, Boolean> eldest) {
+                return size() > AclCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean canPublish(Topic topic) {
+        long current = acl.getGeneration();
+        if (current != generation) {
+            decisions.clear();
+            generation = current;
+        }
+        Boolean cached = decisions.get(topic);
+        if (cached != null) {
+            acl.recordCacheHit(cached);
+            return cached;
+        }
+        boolean allowed = acl.canPublish(username, clientId, topic);
+        if (maxEntries > 0) {
+            decisions.put(topic, allowed);
+        }
+        return allowed;
+    }
+
+    public boolean canSubscribe(String topicFilter) {
+        return acl.canSubscribe(username, clientId, topicFilter);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
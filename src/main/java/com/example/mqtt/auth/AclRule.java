@@ -0,0 +1,84 @@
+package com.example.mqtt.auth;
+
+/**
+ * 一条主题访问控制规则
+ * <p>
+ * 过滤器可以包含 '+'、'#' 通配符，以及 %u（用户名）和 %c（客户端ID）替换。
+ * 用户名和客户端ID都为空的规则适用于所有连接。
+ */
+public class AclRule {
+    public enum Access {
+        PUBLISH,
+        SUBSCRIBE,
+        ALL
+    }
+
+    public enum Permission {
+        ALLOW,
+        DENY
+    }
+
+    private final String username;
+    private final String clientId;
+    private final String topicFilter;
+    private final Access access;
+    private final Permission permission;
+    // 规则在列表中的位置，多条规则匹配时位置靠前的生效
+    private final int order;
+
+    /**
+     * @param username 规则适用的用户名，为 null 时不限
+     * @param clientId 规则适用的客户端ID，为 null 时不限
+     */
+    public AclRule(String username, String clientId, String topicFilter, Access access, Permission permission) {
+        this.username = username;
+        this.clientId = clientId;
+        this.topicFilter = topicFilter;
+        this.access = access;
+        this.permission = permission;
+        this.order = 0;
+    }
+
+    AclRule(AclRule rule, int order) {
+        this.username = rule.username;
+        this.clientId = rule.clientId;
+        this.topicFilter = rule.topicFilter;
+        this.access = rule.access;
+        this.permission = rule.permission;
+        this.order = order;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    public Permission getPermission() {
+        return permission;
+    }
+
+    int getOrder() {
+        return order;
+    }
+
+    boolean covers(Access requested) {
+        return access == Access.ALL || access == requested;
+    }
+
+    @Override
+    public String toString() {
+        return permission + " " + access + " " + topicFilter
+                + (username != null ? " user=" + username : "") + (clientId != null ? " client=" + clientId : "");
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.mqtt.auth;
+
+import com.example.mqtt.topic.Topics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按主题层级组织的访问控制规则，构建后只读
+ * <p>
+ * 与 {@link com.example.mqtt.topic.TopicTrie} 不同，含 %u 或 %c 的层级按连接的用户名和客户端ID替换后比较；
+ * 被检查的可以是主题名，也可以是订阅的过滤器：过滤器中的 '+' 只被规则中的 '+' 或 '#' 覆盖，'#' 只被 '#' 覆盖。
+ */
+final class AclTrie {
+    private static final String USERNAME = "%u";
+    private static final String CLIENT_ID = "%c";
+
+    private final Node root = new Node();
+    private int size;
+
+    void add(AclRule rule) {
+        Node node = root;
+        for (String level : Topics.splitLevels(rule.getTopicFilter())) {
+            if (Topics.MULTI_LEVEL_WILDCARD.equals(level)) {
+                node.multiLevelRules = append(node.multiLevelRules, rule);
+                size++;
+                return;
+            }
+            node = node.child(level);
+        }
+        node.rules = append(node.rules, rule);
+        size++;
+    }
+
+    private static List<AclRule> append(List<AclRule> rules, AclRule rule) {
+        List<AclRule> result = rules != null ? rules : new ArrayList<>(1);
+        result.add(rule);
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 查找覆盖该主题的规则中位置最靠前的一条
+     *
+     * @param levels      主题名或订阅过滤器的层级
+     * @param dollarTopic 是否以 '$' 开头，若是则规则首层的 '+'/'#' 不参与匹配
+     * @param best        已找到的规则，可以为 null
+     * @return best 与本树中匹配的规则中位置最靠前的一条，都没有时返回 null
+     */
+    AclRule match(String[] levels, boolean dollarTopic, AclRule.Access access,
+                  String username, String clientId, AclRule best) {
+        return match(root, levels, 0, dollarTopic, access, username, clientId, best);
+    }
+
+    private static AclRule match(Node node, String[] levels, int index, boolean dollarTopic, AclRule.Access access,
+                                 String username, String clientId, AclRule best) {
+        boolean wildcardAllowed = index > 0 || !dollarTopic;
+        // "a/#" 同时覆盖 "a" 以及 "a" 下的所有层级
+        if (node.multiLevelRules != null && wildcardAllowed) {
+            best = select(node.multiLevelRules, access, clientId, best);
+        }
+        if (index == levels.length) {
+            return node.rules != null ? select(node.rules, access, clientId, best) : best;
+        }
+
+        String level = levels[index];
+        if (Topics.MULTI_LEVEL_WILDCARD.equals(level)) {
+            return best;
+        }
+        if (node.singleLevel != null && wildcardAllowed) {
+            best = match(node.singleLevel, levels, index + 1, dollarTopic, access, username, clientId, best);
+        }
+        if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+            return best;
+        }
+        Node child = node.children != null ? node.children.get(level) : null;
+        if (child != null) {
+            best = match(child, levels, index + 1, dollarTopic, access, username, clientId, best);
+        }
+        if (node.templates != null) {
+            for (int i = 0; i < node.templates.size(); i++) {
+                Node template = node.templates.get(i);
+                if (template.expandsTo(level, username, clientId)) {
+                    best = match(template, levels, index + 1, dollarTopic, access, username, clientId, best);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 在同一节点的规则中选出访问类型相符、客户端条件满足且位置最靠前的一条
+     */
+    private static AclRule select(List<AclRule> rules, AclRule.Access access, String clientId, AclRule best) {
+        for (int i = 0; i < rules.size(); i++) {
+            AclRule rule = rules.get(i);
+            if (best != null && rule.getOrder() >= best.getOrder()) {
+                // 同一节点的规则按位置递增加入
+                break;
+            }
+            if (rule.covers(access) && (rule.getClientId() == null || rule.getClientId().equals(clientId))) {
+                return rule;
+            }
+        }
+        return best;
+    }
+
+    private static final class Node {
+        private Map<String, Node> children;
+        private Node singleLevel;
+        // 含 %u 或 %c 的层级，匹配时替换后比较
+        private List<Node> templates;
+        private List<AclRule> rules;
+        private List<AclRule> multiLevelRules;
+        // 模板节点的层级，其它节点为 null
+        private final String template;
+
+        Node() {
+            this(null);
+        }
+
+        Node(String template) {
+            this.template = template;
+        }
+
+        Node child(String level) {
+            if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+                if (singleLevel == null) {
+                    singleLevel = new Node();
+                }
+                return singleLevel;
+            }
+            if (level.contains(USERNAME) || level.contains(CLIENT_ID)) {
+                if (templates == null) {
+                    templates = new ArrayList<>(1);
+                }
+                for (Node node : templates) {
+                    if (node.template.equals(level)) {
+                        return node;
+                    }
+                }
+                Node node = new Node(level);
+                templates.add(node);
+                return node;
+            }
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(level, key -> new Node());
+        }
+
+        /**
+         * 替换 %u 和 %c 后是否等于 level，用户名或客户端ID为空时不匹配
+         */
+        boolean expandsTo(String level, String username, String clientId) {
+            if (USERNAME.equals(template)) {
+                return level.equals(username);
+            }
+            if (CLIENT_ID.equals(template)) {
+                return level.equals(clientId);
+            }
+            if ((template.contains(USERNAME) && username == null) || (template.contains(CLIENT_ID) && clientId == null)) {
+                return false;
+            }
+            String expanded = template;
+            if (username != null) {
+                expanded = expanded.replace(USERNAME, username);
+            }
+            if (clientId != null) {
+                expanded = expanded.replace(CLIENT_ID, clientId);
+            }
+            return expanded.equals(level);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.mqtt.auth;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在独立的有界线程池上校验CONNECT的用户名和密码，结果回到调用方的事件循环
+ * <p>
+ * 慢哈希的校验不在I/O线程上执行；线程池的队列满时立即返回 {@link Result#UNAVAILABLE}，
+ * 连接风暴不会积压无限的校验任务。校验成功的凭据在短时间内缓存，客户端频繁重连时
+ * 在事件循环上比较一次HMAC即可，缓存中不保存密码本身。
+ */
+public class Authenticator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Authenticator.class);
+
+    public enum Result {
+        ACCEPTED,
+        // 用户名或密码错误
+        REJECTED,
+        // 校验线程池已满
+        UNAVAILABLE
+    }
+
+    private final CredentialStore credentialStore;
+    private final ThreadPoolExecutor executor;
+    private final long cacheTtlNanos;
+    private final int cacheMaxEntries;
+    private final ConcurrentHashMap<String, CachedCredential> cache = new ConcurrentHashMap<>();
+    private final FastThreadLocal<Mac> cacheMac;
+
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+
+    /**
+     * @param threads         校验线程数
+     * @param queueSize       等待校验的最大请求数
+     * @param cacheTtlMillis  校验成功的凭据的缓存时间，0表示不缓存
+     * @param cacheMaxEntries 最多缓存的用户数
+     */
+    public Authenticator(CredentialStore credentialStore, int threads, int queueSize,
+                         long cacheTtlMillis, int cacheMaxEntries) {
+        this.credentialStore = credentialStore;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory("mqtt-auth", true));
+        this.cacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis);
+        this.cacheMaxEntries = cacheMaxEntries;
+        // 缓存的是密码的HMAC，密钥只存在于本进程
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec cacheKey = new SecretKeySpec(key, "HmacSHA256");
+        this.cacheMac = new FastThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() throws GeneralSecurityException {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(cacheKey);
+                return mac;
+            }
+        };
+    }
+
+    /**
+     * 校验用户名和密码
+     *
+     * @param password CONNECT中的密码，为 null 时按空密码校验
+     * @param executor 接收结果的事件循环，返回的 Future 的监听器在其上执行
+     */
+    public Future<Result> authenticate(String username, byte[] password, EventExecutor executor) {
+        byte[] passwordBytes = password != null ? password : new byte[0];
+        byte[] digest = cacheTtlNanos > 0 ? cacheMac.get().doFinal(passwordBytes) : null;
+        if (digest != null) {
+            CachedCredential cached = cache.get(username);
+            if (cached != null) {
+                if (cached.expiresAt - System.nanoTime() > 0 && MessageDigest.isEqual(cached.digest, digest)) {
+                    cacheHits.increment();
+                    return executor.newSucceededFuture(Result.ACCEPTED);
+                }
+                cache.remove(username, cached);
+            }
+        }
+
+        Promise<Result> promise = executor.newPromise();
+        try {
+            this.executor.execute(() -> {
+                verifications.increment();
+                boolean accepted;
+                try {
+                    accepted = credentialStore.verify(username, passwordBytes);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to verify credentials of user {}", username, e);
+                    accepted = false;
+                }
+                if (accepted) {
+                    if (digest != null) {
+                        cacheCredential(username, digest);
+                    }
+                } else {
+                    rejected.increment();
+                }
+                promise.trySuccess(accepted ? Result.ACCEPTED : Result.REJECTED);
+            });
+        } catch (RejectedExecutionException e) {
+            overloaded.increment();
+            promise.trySuccess(Result.UNAVAILABLE);
+        }
+        return promise;
+    }
+
+    private void cacheCredential(String username, byte[] digest) {
+        if (cache.size() >= cacheMaxEntries && !cache.containsKey(username)) {
+            long now = System.nanoTime();
+            for (Iterator<CachedCredential> it = cache.values().iterator(); it.hasNext(); ) {
+                if (it.next().expiresAt - now <= 0) {
+                    it.remove();
+                }
+            }
+            if (cache.size() >= cacheMaxEntries) {
+                return;
+            }
+        }
+        cache.put(username, new CachedCredential(digest, System.nanoTime() + cacheTtlNanos));
+    }
+
+    /**
+     * 用户的凭据变化后调用，之后的连接重新校验
+     */
+    public void invalidate(String username) {
+        cache.remove(username);
+    }
+
+    public CredentialStore getCredentialStore() {
+        return credentialStore;
+    }
+
+    /**
+     * 执行慢哈希校验的次数
+     */
+    public long getVerificationCount() {
+        return verifications.sum();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 校验线程池已满而拒绝的次数
+     */
+    public long getOverloadedCount() {
+        return overloaded.sum();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class CachedCredential {
+        private final byte[] digest;
+        private final long expiresAt;
+
+        CachedCredential(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
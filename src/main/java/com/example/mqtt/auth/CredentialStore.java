@@ -0,0 +1,96 @@
+package com.example.mqtt.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 以用户名为键的凭据表，只保存 {@link PasswordHasher} 生成的加盐哈希
+ * <p>
+ * 配置文件中的明文密码在加载时哈希；大量设备凭据应预先哈希后放入凭据文件，
+ * 文件每行为 用户名:哈希，以 '#' 开头的行为注释。
+ */
+public class CredentialStore {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialStore.class);
+    public static final int DEFAULT_ITERATIONS = 10000;
+
+    private final ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<>();
+    // 未知用户也按同样的代价校验，避免通过响应时间判断用户名是否存在
+    private final String unknownUserHash;
+    private final int iterations;
+
+    /**
+     * @param iterations 哈希明文密码时的迭代次数
+     */
+    public CredentialStore(int iterations) {
+        this.iterations = iterations;
+        this.unknownUserHash = PasswordHasher.hash("", iterations);
+    }
+
+    /**
+     * 添加或替换一个用户
+     *
+     * @param password {@link PasswordHasher} 的编码，或明文密码（加载时哈希）
+     */
+    public void put(String username, String password) {
+        String hash = PasswordHasher.isEncoded(password) ? password
+                : PasswordHasher.hash(password != null ? password : "", iterations);
+        hashes.put(username, hash);
+    }
+
+    public boolean remove(String username) {
+        return hashes.remove(username) != null;
+    }
+
+    /**
+     * 从凭据文件加载，每行为 用户名:哈希
+     *
+     * @return 加载的用户数
+     */
+    public int load(Path file) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(':');
+                if (separator <= 0 || !PasswordHasher.isEncoded(line.substring(separator + 1))) {
+                    logger.warn("Skipping malformed credential at {}:{}", file, lineNumber);
+                    continue;
+                }
+                hashes.put(line.substring(0, separator), line.substring(separator + 1));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 校验用户名和密码，耗时由哈希的迭代次数决定，不应在事件循环上调用
+     */
+    public boolean verify(String username, byte[] password) {
+        String hash = hashes.get(username);
+        try {
+            boolean matched = PasswordHasher.verify(hash != null ? hash : unknownUserHash, password);
+            return hash != null && matched;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Malformed password hash for user {}", username);
+            return false;
+        }
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.mqtt.auth;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * 加盐的PBKDF2密码哈希
+ * <p>
+ * 编码格式为 pbkdf2-sha256$迭代次数$盐(Base64)$哈希(Base64)，迭代次数保存在编码中，
+ * 调整默认迭代次数不影响已有的哈希。可以直接运行本类为配置文件生成哈希：
+ * java -cp mqtt-broker-1.0.0.jar com.example.mqtt.auth.PasswordHasher 密码 [迭代次数]
+ */
+public final class PasswordHasher {
+    public static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    /**
+     * 是否为本类生成的编码，否则视为明文密码
+     */
+    public static boolean isEncoded(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    public static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password.toCharArray(), salt, iterations);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + base64.encodeToString(salt) + '$' + base64.encodeToString(hash);
+    }
+
+    /**
+     * 校验密码，比较耗时与哈希内容无关
+     *
+     * @param encoded  {@link #hash} 生成的编码
+     * @param password CONNECT中的密码（UTF-8），可以为空数组
+     * @throws IllegalArgumentException 编码格式错误
+     */
+    public static boolean verify(String encoded, byte[] password) {
+        String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed password hash");
+        }
+        int iterations = Integer.parseInt(parts[0]);
+        Base64.Decoder base64 = Base64.getDecoder();
+        byte[] salt = base64.decode(parts[1]);
+        byte[] expected = base64.decode(parts[2]);
+        char[] chars = decode(password);
+        try {
+            return MessageDigest.isEqual(expected, pbkdf2(chars, salt, iterations));
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    private static char[] decode(byte[] password) {
+        CharBuffer buffer = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(password));
+        char[] chars = new char[buffer.remaining()];
+        buffer.get(chars);
+        return chars;
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: PasswordHasher <password> [iterations]");
+            System.exit(1);
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : CredentialStore.DEFAULT_ITERATIONS;
+        System.out.println(hash(args[0], iterations));
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * 节点间连接的帧格式。每帧前有4字节长度（由 LengthFieldPrepender 添加），帧体的第一个字节为类型：
+ * <pre>
+ * CHALLENGE  [6][随机数]                    接受方在连接建立后发送，随机数16字节
+ * HELLO      [1][节点ID][证明]              发起方收到CHALLENGE后发送，证明为以共享密钥对随机数和节点ID计算的HMAC-SHA256；
+ *                                           接受方验证通过后回复不带证明的HELLO
+ * SUB_ADD    [2][过滤器]                    发送方开始有该过滤器的订阅
+ * SUB_REMOVE [3][过滤器]                    发送方不再有该过滤器的订阅
+ * PUBLISH    [4][发布者ID][标志][主题][负载]  标志的低2位为QoS，0x04为RETAIN，负载直到帧尾
+ * TAKEOVER   [5][客户端ID]                  客户端已连接到发送方，接收方断开并清除同一ID的连接和会话
+ * </pre>
+ * 字符串编码为2字节长度加UTF-8字节
+ */
+final class ClusterFrames {
+    static final byte HELLO = 1;
+    static final byte SUB_ADD = 2;
+    static final byte SUB_REMOVE = 3;
+    static final byte PUBLISH = 4;
+    static final byte TAKEOVER = 5;
+    static final byte CHALLENGE = 6;
+
+    static final int NONCE_LENGTH = 16;
+    static final int PROOF_LENGTH = 32;
+    private static final String PROOF_ALGORITHM = "HmacSHA256";
+
+    private static final int QOS_MASK = 0x03;
+    private static final int RETAIN_FLAG = 0x04;
+
+    private ClusterFrames() {
+    }
+
+    /**
+     * 编码只有一个字符串参数的帧（HELLO、SUB_ADD、SUB_REMOVE、TAKEOVER）
+     */
+    static ByteBuf control(ByteBufAllocator allocator, byte type, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuf frame = allocator.buffer(3 + bytes.length);
+        frame.writeByte(type);
+        frame.writeShort(bytes.length);
+        frame.writeBytes(bytes);
+        return frame;
+    }
+
+    static ByteBuf challenge(ByteBufAllocator allocator, byte[] nonce) {
+        ByteBuf frame = allocator.buffer(1 + nonce.length);
+        frame.writeByte(CHALLENGE);
+        frame.writeBytes(nonce);
+        return frame;
+    }
+
+    /**
+     * 编码发起方的HELLO帧，附带对接受方随机数的证明
+     */
+    static ByteBuf hello(ByteBufAllocator allocator, String nodeId, byte[] proof) {
+        ByteBuf frame = control(allocator, HELLO, nodeId);
+        frame.writeBytes(proof);
+        return frame;
+    }
+
+    /**
+     * 计算节点持有共享密钥的证明：HMAC-SHA256(密钥, 随机数 + 节点ID)
+     */
+    static byte[] proof(byte[] secret, byte[] nonce, String nodeId) {
+        try {
+            Mac mac = Mac.getInstance(PROOF_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, PROOF_ALGORITHM));
+            mac.update(nonce);
+            return mac.doFinal(nodeId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(PROOF_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * 编码PUBLISH帧除负载以外的部分，负载以组合缓冲区的方式附加在后面，不复制
+     */
+    static ByteBuf publishHeader(ByteBufAllocator allocator, PublishMessage message, String publisherId) {
+        byte[] publisher = publisherId.getBytes(StandardCharsets.UTF_8);
+        byte[] topic = message.getTopicBytes();
+        ByteBuf header = allocator.buffer(6 + publisher.length + topic.length);
+        header.writeByte(PUBLISH);
+        header.writeShort(publisher.length);
+        header.writeBytes(publisher);
+        header.writeByte((message.getQosLevel() & QOS_MASK) | (message.isRetain() ? RETAIN_FLAG : 0));
+        header.writeShort(topic.length);
+        header.writeBytes(topic);
+        return header;
+    }
+
+    /**
+     * 解码PUBLISH帧（类型字节之后的部分）中发布者ID之后的内容，负载为帧的切片，调用方负责释放消息
+     */
+    static PublishMessage readPublish(ByteBuf frame) {
+        int flags = frame.readUnsignedByte();
+        byte[] topic = new byte[frame.readUnsignedShort()];
+        frame.readBytes(topic);
+        PublishMessage message = new PublishMessage();
+        message.setQosLevel(flags & QOS_MASK);
+        message.setRetain((flags & RETAIN_FLAG) != 0);
+        message.setTopic(Topic.of(topic));
+        message.setPayload(frame.readRetainedSlice(frame.readableBytes()));
+        return message;
+    }
+
+    static String readString(ByteBuf frame) {
+        int length = frame.readUnsignedShort();
+        String value = frame.toString(frame.readerIndex(), length, StandardCharsets.UTF_8);
+        frame.skipBytes(length);
+        return value;
+    }
+}
@@ -0,0 +1,658 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.config.MqttBrokerProperties;
+import com.example.mqtt.handler.MessageRouter;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.Subscription;
+import com.example.mqtt.session.SubscriptionListener;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.TopicTrie;
+import com.example.mqtt.topic.Topics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 集群节点：与其它节点交换订阅过滤器，把本节点客户端发布的消息只转发给有匹配订阅的节点
+ * <p>
+ * 每个节点监听集群端口，并主动连接配置中的每个其它节点。主动建立的连接只用于发送，
+ * 接受的连接只用于接收，因此两个节点之间有两条方向相反的连接，各自的发送顺序互不影响。
+ * 接受方在连接建立后发送随机数（CHALLENGE），发起方以共享密钥计算证明放在 HELLO 中，
+ * 证明不正确或超时未收到 HELLO 的连接被关闭，未通过验证的连接不能公布过滤器、转发消息或接管客户端。
+ * 发起方发送 HELLO 后紧接着发送本节点当前的全部过滤器，之后只发送过滤器的增减；
+ * 接收方把各节点的过滤器放入一棵以节点ID为值的 {@link TopicTrie}，转发时按主题匹配出目标节点。
+ * 接收连接断开时清除该节点的全部过滤器，重连后由对方重新发送。
+ * <p>
+ * 转发的消息在发送连接上只 write，flush 作为任务提交到连接的事件循环，
+ * 同一批任务中转发的多条消息合并为一次系统调用。连接超过写缓冲区高水位时丢弃转发的消息并计数，
+ * 节点间的投递为最多一次。其它节点转发来的消息只投递给本节点的订阅者，不再转发。
+ * <p>
+ * 客户端连接到某个节点时向所有节点广播 TAKEOVER，其它节点断开同一客户端ID的连接，
+ * 并清除其会话和订阅。会话状态不在节点间迁移。
+ * <p>
+ * 集群模式不支持共享订阅：每个节点都会从本地的组成员中选出一个投递，组成员分布在多个节点上时
+ * 同一条消息会被投递多次。新的 $share 订阅在SUBSCRIBE时被拒绝，启动时恢复的共享订阅被移除。
+ */
+public class ClusterNode implements MessageRouter.Forwarder, SubscriptionListener {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+    // 帧体中除负载以外的最大长度：类型、标志，以及发布者ID和主题各自的2字节长度和最多65535字节
+    private static final int MAX_FRAME_OVERHEAD = 2 + 2 * (2 + 65535);
+    // 接受的连接等待 HELLO 的时间
+    private static final long HANDSHAKE_TIMEOUT_SECONDS = 10;
+
+    private final String nodeId;
+    private final MqttBrokerProperties.Cluster config;
+    private final int maxFrameSize;
+    private final byte[] secret;
+    private final SecureRandom random = new SecureRandom();
+    private final SessionManager sessionManager;
+    private final Map<String, Channel> clientChannels;
+    private final MessageRouter messageRouter;
+    private final Counters counters = new Counters();
+
+    // 其它节点公布的过滤器，值为节点ID
+    private final TopicTrie<String> remoteFilters = new TopicTrie<>();
+    // 接收连接上的节点状态，键为节点ID
+    private final ConcurrentMap<String, RemotePeer> remotePeers = new ConcurrentHashMap<>();
+    // 已完成握手的发送连接，键为对方节点ID
+    private final ConcurrentMap<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final List<PeerLink> peerLinks = new ArrayList<>();
+
+    // 本节点已向其它节点公布的过滤器，公布和发送都在 advertiseLock 内进行，保证各连接上的增减顺序与状态一致
+    private final Object advertiseLock = new Object();
+    private final Set<String> advertised = new HashSet<>();
+
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+    private volatile boolean closed;
+
+    /**
+     * @param nodeId         本节点ID，集群内唯一
+     * @param config         集群配置
+     * @param maxPacketSize  MQTT报文的最大字节数，用于限制节点间的帧长度
+     * @param sessionManager 本节点的会话和订阅
+     * @param clientChannels 本节点的客户端连接
+     * @param messageRouter  本节点的消息路由
+     */
+    public ClusterNode(String nodeId, MqttBrokerProperties.Cluster config, int maxPacketSize,
+                       SessionManager sessionManager, Map<String, Channel> clientChannels, MessageRouter messageRouter) {
+        this.nodeId = nodeId;
+        this.config = config;
+        this.maxFrameSize = maxPacketSize + MAX_FRAME_OVERHEAD;
+        this.secret = config.getSecret() != null ? config.getSecret().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        this.sessionManager = sessionManager;
+        this.clientChannels = clientChannels;
+        this.messageRouter = messageRouter;
+    }
+
+    /**
+     * 监听集群端口并连接其它节点，之后本节点客户端发布的消息开始转发
+     *
+     * @param bossGroup          接受连接的线程
+     * @param workerGroup        节点间连接的IO线程
+     * @param serverChannelClass 监听socket的类型，与 workerGroup 的传输方式一致
+     * @param channelClass       主动连接的socket类型
+     */
+    public void start(EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+                      Class<? extends ServerChannel> serverChannelClass, Class<? extends Channel> channelClass)
+            throws InterruptedException {
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("Cluster secret must be set when the cluster is enabled");
+        }
+        this.workerGroup = workerGroup;
+        removeSharedSubscriptions();
+        // 先注册监听器再扫描已有订阅（如恢复的持久会话），扫描期间的变化不会丢失
+        sessionManager.setSubscriptionListener(this);
+        Set<String> filters = new HashSet<>();
+        sessionManager.forEachSubscription(subscription -> filters.add(Topics.matchFilter(subscription.getTopicFilter())));
+        for (String filter : filters) {
+            subscriptionsChanged(filter);
+        }
+
+        WriteBufferWaterMark waterMark = new WriteBufferWaterMark(
+                config.getWriteBufferHighWaterMark() / 2, config.getWriteBufferHighWaterMark());
+        ServerBootstrap serverBootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(serverChannelClass)
+                .childHandler(pipeline(InboundHandler::new))
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        serverChannel = serverBootstrap.bind(config.getHost(), config.getPort()).sync().channel();
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(workerGroup)
+                .channel(channelClass)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, waterMark);
+        for (String peer : config.getPeers()) {
+            int separator = peer.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Cluster peer must be host:port: " + peer);
+            }
+            PeerLink link = new PeerLink(peer.substring(0, separator),
+                    Integer.parseInt(peer.substring(separator + 1)), bootstrap);
+            peerLinks.add(link);
+            link.connect();
+        }
+        messageRouter.setForwarder(this);
+        logger.info("Cluster node {} listening on {}:{}, peers={}", nodeId, config.getHost(), config.getPort(),
+                config.getPeers());
+    }
+
+    /**
+     * 移除恢复的持久会话中的共享订阅，集群模式下无法保证每条消息只投递给组内的一个成员
+     */
+    private void removeSharedSubscriptions() {
+        List<Subscription> shared = new ArrayList<>();
+        sessionManager.forEachSubscription(subscription -> {
+            if (subscription.isShared()) {
+                shared.add(subscription);
+            }
+        });
+        for (Subscription subscription : shared) {
+            sessionManager.removeSubscription(subscription.getTopicFilter(), subscription.getClientId());
+            logger.warn("Removed shared subscription {} of client {}: shared subscriptions are not supported in cluster mode",
+                    subscription.getTopicFilter(), subscription.getClientId());
+        }
+    }
+
+    private ChannelInitializer<Channel> pipeline(Supplier<ChannelHandler> handler) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
+                pipeline.addLast("framePrepender", new LengthFieldPrepender(4));
+                pipeline.addLast("clusterHandler", handler.get());
+            }
+        };
+    }
+
+    @Override
+    public void forward(PublishMessage message, String publisherId) {
+        if (links.isEmpty()) {
+            return;
+        }
+        Collection<PeerLink> targets;
+        if (message.isRetain()) {
+            // 保留消息（包括清除保留消息）发给所有节点，各节点的保留消息存储保持一致
+            targets = links.values();
+        } else {
+            Topic topic = message.getTopic();
+            Set<String> nodeIds = new HashSet<>();
+            remoteFilters.match(topic.getLevels(), topic.isDollar(), nodeIds);
+            if (nodeIds.isEmpty()) {
+                return;
+            }
+            targets = new ArrayList<>(nodeIds.size());
+            for (String id : nodeIds) {
+                PeerLink link = links.get(id);
+                if (link != null) {
+                    targets.add(link);
+                } else {
+                    counters.dropped.increment();
+                }
+            }
+        }
+
+        ByteBuf header = null;
+        try {
+            for (PeerLink link : targets) {
+                Channel channel = link.channel;
+                if (channel == null || !channel.isWritable()) {
+                    counters.dropped.increment();
+                    continue;
+                }
+                if (header == null) {
+                    header = ClusterFrames.publishHeader(channel.alloc(), message, publisherId);
+                }
+                // 各节点共享同一份帧头和负载
+                ByteBuf frame = channel.alloc().compositeBuffer(2)
+                        .addComponent(true, header.retainedDuplicate())
+                        .addComponent(true, message.getPayload().retainedDuplicate());
+                link.write(frame);
+                counters.forwarded.increment();
+            }
+        } finally {
+            if (header != null) {
+                header.release();
+            }
+        }
+    }
+
+    @Override
+    public void clientConnected(String clientId) {
+        for (PeerLink link : links.values()) {
+            Channel channel = link.channel;
+            if (channel != null) {
+                link.write(ClusterFrames.control(channel.alloc(), ClusterFrames.TAKEOVER, clientId));
+            }
+        }
+    }
+
+    @Override
+    public void subscriptionsChanged(String filter) {
+        synchronized (advertiseLock) {
+            boolean present = sessionManager.hasSubscriptions(filter);
+            if (present ? !advertised.add(filter) : !advertised.remove(filter)) {
+                return;
+            }
+            byte type = present ? ClusterFrames.SUB_ADD : ClusterFrames.SUB_REMOVE;
+            for (PeerLink link : peerLinks) {
+                Channel channel = link.channel;
+                if (channel != null) {
+                    link.write(ClusterFrames.control(channel.alloc(), type, filter));
+                }
+            }
+        }
+    }
+
+    /**
+     * 另一个节点上的客户端以同一ID建立了连接：断开本节点上的连接，清除会话和订阅
+     */
+    private void takeover(String clientId) {
+        Channel channel = clientChannels.remove(clientId);
+        if (channel != null) {
+            channel.close();
+        }
+        if (sessionManager.removeSession(clientId) != null || channel != null) {
+            int removed = sessionManager.removeSubscriptions(clientId);
+            counters.takeovers.increment();
+            logger.info("Client {} connected to another node, closed local connection and removed {} subscriptions",
+                    clientId, removed);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    public void close() {
+        closed = true;
+        messageRouter.setForwarder(null);
+        sessionManager.setSubscriptionListener(null);
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        for (PeerLink link : peerLinks) {
+            Channel channel = link.channel;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 到另一个节点的发送连接，断开后定时重连
+     */
+    private final class PeerLink {
+        private final String host;
+        private final int port;
+        private final Bootstrap bootstrap;
+        private final AtomicBoolean flushPending = new AtomicBoolean();
+        private final Runnable flushTask;
+        // 在 advertiseLock 内设置，设置之前已发送 HELLO 和全部过滤器
+        private volatile Channel channel;
+        // 握手完成后为对方的节点ID
+        private volatile String remoteNodeId;
+
+        PeerLink(String host, int port, Bootstrap bootstrap) {
+            this.host = host;
+            this.port = port;
+            this.bootstrap = bootstrap;
+            this.flushTask = () -> {
+                flushPending.set(false);
+                Channel current = channel;
+                if (current != null) {
+                    current.flush();
+                }
+            };
+        }
+
+        void connect() {
+            if (closed) {
+                return;
+            }
+            bootstrap.clone()
+                    .handler(pipeline(() -> new OutboundHandler(this)))
+                    .connect(host, port)
+                    .addListener((ChannelFuture future) -> {
+                        if (!future.isSuccess()) {
+                            logger.debug("Failed to connect to cluster peer {}:{}", host, port, future.cause());
+                            reconnect();
+                        }
+                    });
+        }
+
+        void reconnect() {
+            if (!closed) {
+                workerGroup.schedule(this::connect, config.getReconnectIntervalMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 写入但不立即 flush，同一批事件循环任务中的多次写入合并为一次 flush。
+         * 写入和 flush 标志都在连接的事件循环中处理，保证 flush 任务之前提交的写入都会被 flush
+         */
+        void write(ByteBuf frame) {
+            Channel current = channel;
+            if (current == null) {
+                frame.release();
+                return;
+            }
+            EventLoop eventLoop = current.eventLoop();
+            if (eventLoop.inEventLoop()) {
+                writeInEventLoop(current, frame);
+            } else {
+                eventLoop.execute(() -> writeInEventLoop(current, frame));
+            }
+        }
+
+        private void writeInEventLoop(Channel current, ByteBuf frame) {
+            current.write(frame, current.voidPromise());
+            if (flushPending.compareAndSet(false, true)) {
+                current.eventLoop().execute(flushTask);
+            }
+        }
+
+        /**
+         * 收到接受方的随机数后发送 HELLO 和全部过滤器，之后才开始在这条连接上发送
+         */
+        void activate(Channel ch, byte[] nonce) {
+            byte[] proof = ClusterFrames.proof(secret, nonce, nodeId);
+            synchronized (advertiseLock) {
+                ch.write(ClusterFrames.hello(ch.alloc(), nodeId, proof), ch.voidPromise());
+                for (String filter : advertised) {
+                    ch.write(ClusterFrames.control(ch.alloc(), ClusterFrames.SUB_ADD, filter), ch.voidPromise());
+                }
+                ch.flush();
+                channel = ch;
+            }
+        }
+
+        void handshake(String peerId) {
+            remoteNodeId = peerId;
+            links.put(peerId, this);
+            logger.info("Connected to cluster peer {} at {}:{}", peerId, host, port);
+        }
+
+        void deactivate(Channel ch) {
+            synchronized (advertiseLock) {
+                if (channel == ch) {
+                    channel = null;
+                }
+            }
+            String peerId = remoteNodeId;
+            if (peerId != null && links.remove(peerId, this)) {
+                logger.warn("Lost connection to cluster peer {} at {}:{}", peerId, host, port);
+            }
+            reconnect();
+        }
+    }
+
+    /**
+     * 发送连接上的处理器，只接收对方的 CHALLENGE 和 HELLO
+     */
+    private final class OutboundHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private final PeerLink link;
+
+        OutboundHandler(PeerLink link) {
+            this.link = link;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type == ClusterFrames.CHALLENGE && frame.readableBytes() == ClusterFrames.NONCE_LENGTH) {
+                byte[] nonce = new byte[ClusterFrames.NONCE_LENGTH];
+                frame.readBytes(nonce);
+                link.activate(ctx.channel(), nonce);
+            } else if (type == ClusterFrames.HELLO) {
+                link.handshake(ClusterFrames.readString(frame));
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            link.deactivate(ctx.channel());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("Cluster link to {}:{} failed", link.host, link.port, cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 接收连接上的处理器：维护对方公布的过滤器，投递转发来的消息，处理接管
+     */
+    private final class InboundHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private final byte[] nonce = new byte[ClusterFrames.NONCE_LENGTH];
+        private RemotePeer peer;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            random.nextBytes(nonce);
+            ctx.writeAndFlush(ClusterFrames.challenge(ctx.alloc(), nonce));
+            ctx.executor().schedule(() -> {
+                if (peer == null) {
+                    logger.warn("Cluster connection from {} did not complete the handshake", ctx.channel().remoteAddress());
+                    ctx.close();
+                }
+            }, HANDSHAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type == ClusterFrames.HELLO && peer == null) {
+                String peerId = ClusterFrames.readString(frame);
+                byte[] proof = new byte[frame.readableBytes()];
+                frame.readBytes(proof);
+                if (!MessageDigest.isEqual(proof, ClusterFrames.proof(secret, nonce, peerId))) {
+                    counters.authFailures.increment();
+                    logger.warn("Cluster peer {} at {} failed authentication", peerId, ctx.channel().remoteAddress());
+                    ctx.close();
+                    return;
+                }
+                hello(ctx, peerId);
+                return;
+            }
+            if (peer == null) {
+                logger.warn("Cluster peer {} sent frame type {} before HELLO", ctx.channel().remoteAddress(), type);
+                ctx.close();
+                return;
+            }
+            switch (type) {
+                case ClusterFrames.PUBLISH:
+                    String publisherId = ClusterFrames.readString(frame);
+                    PublishMessage message = ClusterFrames.readPublish(frame);
+                    try {
+                        counters.received.increment();
+                        messageRouter.deliver(message, publisherId);
+                    } finally {
+                        message.release();
+                    }
+                    break;
+                case ClusterFrames.SUB_ADD:
+                    peer.add(ClusterFrames.readString(frame));
+                    break;
+                case ClusterFrames.SUB_REMOVE:
+                    peer.remove(ClusterFrames.readString(frame));
+                    break;
+                case ClusterFrames.TAKEOVER:
+                    takeover(ClusterFrames.readString(frame));
+                    break;
+                default:
+                    logger.warn("Unknown cluster frame type {} from {}", type, peer.nodeId);
+            }
+        }
+
+        private void hello(ChannelHandlerContext ctx, String peerId) {
+            peer = new RemotePeer(peerId, ctx.channel());
+            RemotePeer previous = remotePeers.put(peerId, peer);
+            if (previous != null) {
+                // 对方重连时旧连接可能尚未关闭，旧连接公布的过滤器由新连接重新发送
+                previous.clear();
+                previous.channel.close();
+            }
+            ctx.writeAndFlush(ClusterFrames.control(ctx.alloc(), ClusterFrames.HELLO, nodeId));
+            logger.info("Cluster peer {} connected from {}", peerId, ctx.channel().remoteAddress());
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (peer != null) {
+                peer.clear();
+                if (remotePeers.remove(peer.nodeId, peer)) {
+                    logger.warn("Cluster peer {} disconnected", peer.nodeId);
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("Cluster connection from {} failed", peer != null ? peer.nodeId : ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 接收连接上一个节点公布的过滤器，连接关闭后全部从 remoteFilters 中清除
+     */
+    private final class RemotePeer {
+        private final String nodeId;
+        private final Channel channel;
+        private final Set<String> filters = new HashSet<>();
+        private boolean cleared;
+
+        RemotePeer(String nodeId, Channel channel) {
+            this.nodeId = nodeId;
+            this.channel = channel;
+        }
+
+        synchronized void add(String filter) {
+            if (!cleared && Topics.isValidFilter(filter) && filters.add(filter)) {
+                remoteFilters.add(filter, nodeId);
+            }
+        }
+
+        synchronized void remove(String filter) {
+            if (!cleared && filters.remove(filter)) {
+                remoteFilters.remove(filter, nodeId::equals);
+            }
+        }
+
+        synchronized void clear() {
+            if (cleared) {
+                return;
+            }
+            cleared = true;
+            for (String filter : filters) {
+                remoteFilters.remove(filter, nodeId::equals);
+            }
+            filters.clear();
+        }
+    }
+
+    /**
+     * 集群转发的统计
+     */
+    public class Counters {
+        final LongAdder forwarded = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder received = new LongAdder();
+        final LongAdder takeovers = new LongAdder();
+        final LongAdder authFailures = new LongAdder();
+
+        /**
+         * 转发到其它节点的消息数，每个目标节点计一次
+         */
+        public long getForwardedCount() {
+            return forwarded.sum();
+        }
+
+        /**
+         * 因目标节点未连接或连接不可写而丢弃的转发消息数
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * 从其它节点收到的消息数
+         */
+        public long getReceivedCount() {
+            return received.sum();
+        }
+
+        /**
+         * 因客户端连接到其它节点而被接管的本地客户端数
+         */
+        public long getTakeoverCount() {
+            return takeovers.sum();
+        }
+
+        /**
+         * 共享密钥验证失败的节点间连接数
+         */
+        public long getAuthFailureCount() {
+            return authFailures.sum();
+        }
+
+        /**
+         * 已建立发送连接的节点数
+         */
+        public int getPeerCount() {
+            return links.size();
+        }
+
+        /**
+         * 其它节点公布的过滤器总数
+         */
+        public int getRemoteFilterCount() {
+            return remoteFilters.size();
+        }
+    }
+}
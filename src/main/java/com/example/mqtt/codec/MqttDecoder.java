@@ -1,58 +1,163 @@
 package com.example.mqtt.codec;
 
 import com.example.mqtt.message.*;
+import com.example.mqtt.metrics.BrokerMetrics;
 import com.example.mqtt.protocol.MqttMessageType;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.TopicInternTable;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-public class MqttDecoder extends ReplayingDecoder<Void> {
+/*
+ * 先只解析固定头部和剩余长度，等待整帧到齐后再在有界切片上解析消息体。
+ * 数据不完整时直接返回等待下一次读取，不会像 ReplayingDecoder 那样反复从头重放解析。
+ */
+public class MqttDecoder extends ByteToMessageDecoder {
+    // MQTT 3.1.1 剩余长度的最大值
+    public static final int MAX_REMAINING_LENGTH = 268435455;
+    public static final int DEFAULT_MAX_PACKET_SIZE = 8 * 1024 * 1024;
+
+    private final int maxPacketSize;
+    // 所有连接共享的主题驻留表，为 null 时不驻留
+    private final TopicInternTable topicInternTable;
+    // 入站报文统计，为 null 时不统计
+    private final BrokerMetrics metrics;
+    // 出现协议错误后丢弃后续所有数据，由业务处理器关闭连接
+    private boolean corrupted;
+
+    public MqttDecoder() {
+        this(DEFAULT_MAX_PACKET_SIZE, null);
+    }
+
+    /**
+     * @param maxPacketSize    允许的最大报文（剩余长度）字节数
+     * @param topicInternTable 主题驻留表，可为 null
+     */
+    public MqttDecoder(int maxPacketSize, TopicInternTable topicInternTable) {
+        this(maxPacketSize, topicInternTable, null);
+    }
+
+    /**
+     * @param maxPacketSize    允许的最大报文（剩余长度）字节数
+     * @param topicInternTable 主题驻留表，可为 null
+     * @param metrics          入站报文统计，可为 null
+     */
+    public MqttDecoder(int maxPacketSize, TopicInternTable topicInternTable, BrokerMetrics metrics) {
+        if (maxPacketSize <= 0) {
+            throw new IllegalArgumentException("maxPacketSize must be positive: " + maxPacketSize);
+        }
+        this.maxPacketSize = Math.min(maxPacketSize, MAX_REMAINING_LENGTH);
+        this.topicInternTable = topicInternTable;
+        this.metrics = metrics;
+    }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-        // 读取固定头部
-        byte header = in.readByte();
+        if (corrupted) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+
+        // 读取固定头部，不移动读指针，数据不完整时等待下一次读取
+        int start = in.readerIndex();
+        int end = in.writerIndex();
+        if (end - start < 2) {
+            return;
+        }
+        byte header = in.getByte(start);
+
+        // 读取剩余长度，最多4个字节
+        int remainingLength = 0;
+        int multiplier = 1;
+        int index = start + 1;
+        short digit;
+        do {
+            if (index - start > 4) {
+                markCorrupted();
+                throw new CorruptedFrameException("remaining length exceeds 4 bytes");
+            }
+            if (index == end) {
+                return;
+            }
+            digit = in.getUnsignedByte(index++);
+            remainingLength += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+
+        if (remainingLength > maxPacketSize) {
+            markCorrupted();
+            throw new TooLongFrameException("packet size " + remainingLength + " exceeds limit " + maxPacketSize);
+        }
+
+        int headerLength = index - start;
+        if (end - start < headerLength + remainingLength) {
+            return;
+        }
+
+        // 整帧已到齐，在有界切片上解析消息体
+        in.skipBytes(headerLength);
+        ByteBuf body = in.readSlice(remainingLength);
+        try {
+            out.add(decodeMessage(header, body));
+        } catch (RuntimeException e) {
+            markCorrupted();
+            throw e instanceof DecoderException ? e : new DecoderException(e);
+        }
+        if (metrics != null) {
+            metrics.packetReceived((header >> 4) & 0x0F, headerLength + remainingLength);
+        }
+    }
+
+    private void markCorrupted() {
+        corrupted = true;
+        if (metrics != null) {
+            metrics.decodeError();
+        }
+    }
+
+    private MqttMessage decodeMessage(byte header, ByteBuf body) {
         MqttMessageType messageType = MqttMessageType.valueOf((header >> 4) & 0x0F);
 
         boolean isDup = (header & 0x08) != 0;
         int qosLevel = (header & 0x06) >> 1;
         boolean isRetain = (header & 0x01) != 0;
 
-        // 读取剩余长度
-        int remainingLength = decodeVariableLengthInt(in);
-
         // 根据消息类型解析具体消息体
         MqttMessage message;
         switch (messageType) {
             case CONNECT:
-                message = decodeConnectMessage(in);
+                message = decodeConnectMessage(body);
                 break;
             case CONNACK:
-                message = decodeConnAckMessage(in);
+                message = decodeConnAckMessage(body);
                 break;
             case PUBLISH:
-                message = decodePublishMessage(in, remainingLength, qosLevel);
+                message = decodePublishMessage(body, qosLevel);
                 break;
             case PUBACK:
             case PUBREC:
             case PUBREL:
             case PUBCOMP:
-                message = decodePacketIdMessage(messageType, in);
+                message = decodePacketIdMessage(messageType, body);
                 break;
             case SUBSCRIBE:
-                message = decodeSubscribeMessage(in, remainingLength);
+                message = decodeSubscribeMessage(body);
                 break;
             case SUBACK:
-                message = decodeSubAckMessage(in);
+                message = decodeSubAckMessage(body);
                 break;
             case UNSUBSCRIBE:
-                message = decodeUnsubscribeMessage(in, remainingLength);
+                message = decodeUnsubscribeMessage(body);
                 break;
             case UNSUBACK:
-                message = decodePacketIdMessage(messageType, in);
+                message = decodePacketIdMessage(messageType, body);
                 break;
             case PINGREQ:
             case PINGRESP:
@@ -66,30 +171,40 @@ public class MqttDecoder extends ReplayingDecoder<Void> {
         message.setDup(isDup);
         message.setQosLevel(qosLevel);
         message.setRetain(isRetain);
-
-        out.add(message);
+        return message;
     }
 
-    private int decodeVariableLengthInt(ByteBuf buffer) {
-        int result = 0;
-        int multiplier = 1;
-        short digit;
-        int loops = 0;
-        do {
-            digit = buffer.readUnsignedByte();
-            result += (digit & 0x7F) * multiplier;
-            multiplier *= 128;
-            loops++;
-        } while ((digit & 0x80) != 0 && loops < 4);
-
-        return result;
+    /**
+     * Packet ID 必须非0，0会与会话中表示空槽位的值冲突，按协议错误处理
+     */
+    private int decodePacketId(ByteBuf buffer) {
+        int packetId = buffer.readUnsignedShort();
+        if (packetId == 0) {
+            throw new CorruptedFrameException("packet id must be non-zero");
+        }
+        return packetId;
     }
 
     private String decodeString(ByteBuf buffer) {
         int length = buffer.readUnsignedShort();
-        byte[] bytes = new byte[length];
-        buffer.readBytes(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+        String string = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+        buffer.skipBytes(length);
+        return string;
+    }
+
+    private Topic decodeTopic(ByteBuf buffer) {
+        int length = buffer.readUnsignedShort();
+        Topic topic;
+        if (topicInternTable != null) {
+            // 直接用缓冲区中的字节查找，命中时不分配对象
+            topic = topicInternTable.intern(buffer, buffer.readerIndex(), length);
+            buffer.skipBytes(length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.readBytes(bytes);
+            topic = Topic.of(bytes);
+        }
+        return topic;
     }
 
     private byte[] decodeBytes(ByteBuf buffer) {
@@ -148,27 +263,21 @@ public class MqttDecoder extends ReplayingDecoder<Void> {
         return message;
     }
 
-    private PublishMessage decodePublishMessage(ByteBuf buffer, int remainingLength, int qosLevel) {
+    private PublishMessage decodePublishMessage(ByteBuf buffer, int qosLevel) {
         PublishMessage message = new PublishMessage();
 
         // 主题名
-        message.setTopicName(decodeString(buffer));
+        message.setTopic(decodeTopic(buffer));
 
         // Packet ID (QoS > 0时存在)
         if (qosLevel > 0) {
-            message.setPacketId(buffer.readUnsignedShort());
-        }
-
-        // 负载
-        int payloadLength = remainingLength - (message.getTopicName().length() + 2);
-        if (qosLevel > 0) {
-            payloadLength -= 2; // Packet ID长度
+            message.setPacketId(decodePacketId(buffer));
         }
 
+        // 负载为报文剩余的全部字节，保留为入站缓冲区的切片，避免复制
+        int payloadLength = buffer.readableBytes();
         if (payloadLength > 0) {
-            byte[] payload = new byte[payloadLength];
-            buffer.readBytes(payload);
-            message.setPayload(payload);
+            message.setPayload(buffer.readRetainedSlice(payloadLength));
         }
 
         return message;
@@ -176,29 +285,19 @@ public class MqttDecoder extends ReplayingDecoder<Void> {
 
     private PacketIdMessage decodePacketIdMessage(MqttMessageType type, ByteBuf buffer) {
         PacketIdMessage message = new PacketIdMessage(type);
-        message.setPacketId(buffer.readUnsignedShort());
+        message.setPacketId(decodePacketId(buffer));
         return message;
     }
 
-    private SubscribeMessage decodeSubscribeMessage(ByteBuf buffer, int remainingLength) {
+    private SubscribeMessage decodeSubscribeMessage(ByteBuf buffer) {
         SubscribeMessage message = new SubscribeMessage();
-        message.setPacketId(buffer.readUnsignedShort());
-
-        int readBytes = 2; // 已读取packetId的字节数
-        while (readBytes < remainingLength && buffer.isReadable()) {
-            // 确保至少还有3个字节可读（2字节长度 + 1字节QoS）
-            if (buffer.readableBytes() < 3) {
-                break;
-            }
+        message.setPacketId(decodePacketId(buffer));
 
+        // 每个订阅：topic长度(2) + topic + qos(1)
+        while (buffer.isReadable()) {
             String topic = decodeString(buffer);
-            if (buffer.readableBytes() < 1) {
-                break;
-            }
             int qos = buffer.readUnsignedByte();
             message.addTopicSubscription(topic, qos);
-
-            readBytes += 2 + topic.length() + 1; // topic长度(2) + topic + qos(1)
         }
 
         return message;
@@ -206,7 +305,7 @@ public class MqttDecoder extends ReplayingDecoder<Void> {
 
     private SubAckMessage decodeSubAckMessage(ByteBuf buffer) {
         SubAckMessage message = new SubAckMessage();
-        message.setPacketId(buffer.readUnsignedShort());
+        message.setPacketId(decodePacketId(buffer));
 
         // 读取返回码
         while (buffer.isReadable()) {
@@ -216,9 +315,14 @@ public class MqttDecoder extends ReplayingDecoder<Void> {
         return message;
     }
 
-    private MqttMessage decodeUnsubscribeMessage(ByteBuf buffer, int remainingLength) {
-        // 简化实现
-        MqttMessage message = new MqttMessage(MqttMessageType.UNSUBSCRIBE);
+    private UnsubscribeMessage decodeUnsubscribeMessage(ByteBuf buffer) {
+        UnsubscribeMessage message = new UnsubscribeMessage();
+        message.setPacketId(decodePacketId(buffer));
+
+        while (buffer.isReadable()) {
+            message.addTopic(decodeString(buffer));
+        }
+
         return message;
     }
 }
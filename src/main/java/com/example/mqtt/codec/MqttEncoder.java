@@ -1,18 +1,64 @@
 package com.example.mqtt.codec;
 
 import com.example.mqtt.message.*;
+import com.example.mqtt.metrics.BrokerMetrics;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+/*
+ * 编码前先计算出整帧的精确大小，一次性分配大小正好的直接内存缓冲区，避免扩容和复制。
+ * 控制报文的固定头部和消息体写入同一个缓冲区，小负载的PUBLISH也直接合并进头部缓冲区。
+ */
 public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
+    // 负载不超过该大小时直接拷贝进帧缓冲区，省去额外的缓冲区对象和一次 gather 写
+    static final int INLINE_PAYLOAD_THRESHOLD = 512;
+
+    // 出站报文统计，为 null 时不统计
+    private final BrokerMetrics metrics;
+
+    public MqttEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param metrics 出站报文统计，可为 null
+     */
+    public MqttEncoder(BrokerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 扇出时共享的已编码帧（{@link SharedPublishFrame}）以 ByteBuf 的形式直接经过编码器，在这里计入统计
+     */
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (metrics != null && msg instanceof ByteBuf) {
+            ByteBuf frame = (ByteBuf) msg;
+            if (frame.isReadable()) {
+                metrics.packetSent(frame.getUnsignedByte(frame.readerIndex()) >> 4, frame.readableBytes());
+            }
+        }
+        super.write(ctx, msg, promise);
+    }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, MqttMessage msg, List<Object> out) throws Exception {
-        ByteBuf buffer = ctx.alloc().buffer();
+        switch (msg.getMessageType()) {
+            case PUBLISH:
+                encodePublishMessage(ctx, (PublishMessage) msg, out);
+                return;
+            default:
+                break;
+        }
+
+        int remainingLength = calculateRemainingLength(msg);
+        ByteBuf buffer = allocateFrame(ctx, remainingLength, remainingLength);
+        encodeFixedHeader(buffer, msg, remainingLength);
 
         switch (msg.getMessageType()) {
             case CONNECT:
@@ -21,14 +67,12 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
             case CONNACK:
                 encodeConnAckMessage(buffer, (ConnAckMessage) msg);
                 break;
-            case PUBLISH:
-                encodePublishMessage(buffer, (PublishMessage) msg);
-                break;
             case PUBACK:
             case PUBREC:
             case PUBREL:
             case PUBCOMP:
-                encodePacketIdMessage(buffer, (PacketIdMessage)msg);
+            case UNSUBACK:
+                encodePacketIdMessage(buffer, (PacketIdMessage) msg);
                 break;
             case SUBSCRIBE:
                 encodeSubscribeMessage(buffer, (SubscribeMessage) msg);
@@ -37,17 +81,58 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
                 encodeSubAckMessage(buffer, (SubAckMessage) msg);
                 break;
             case UNSUBSCRIBE:
-            case UNSUBACK:
+                encodeUnsubscribeMessage(buffer, (UnsubscribeMessage) msg);
+                break;
             case PINGREQ:
             case PINGRESP:
             case DISCONNECT:
-                encodeSimpleMessage(buffer, msg);
+                // 只有固定头部
                 break;
+            default:
+                buffer.release();
+                throw new IllegalArgumentException("Unknown message type: " + msg.getMessageType());
         }
 
+        if (metrics != null) {
+            metrics.packetSent(msg.getMessageType().value(), buffer.readableBytes());
+        }
         out.add(buffer);
     }
 
+    /**
+     * 计算除 PUBLISH 以外各报文的剩余长度
+     */
+    private int calculateRemainingLength(MqttMessage msg) {
+        switch (msg.getMessageType()) {
+            case CONNECT:
+                return calculateConnectLength((ConnectMessage) msg);
+            case SUBSCRIBE:
+                return calculateSubscribeLength((SubscribeMessage) msg);
+            case SUBACK:
+                return 2 + ((SubAckMessage) msg).getReturnCodes().size();
+            case UNSUBSCRIBE:
+                return calculateUnsubscribeLength((UnsubscribeMessage) msg);
+            case PINGREQ:
+            case PINGRESP:
+            case DISCONNECT:
+                return 0;
+            default:
+                // CONNACK以及只包含Packet ID的报文
+                return 2;
+        }
+    }
+
+    /**
+     * 分配大小正好的直接内存缓冲区
+     *
+     * @param remainingLength 报文的剩余长度
+     * @param bodyLength      剩余长度中需要写入本缓冲区的字节数
+     */
+    private static ByteBuf allocateFrame(ChannelHandlerContext ctx, int remainingLength, int bodyLength) {
+        int frameLength = 1 + variableLengthIntSize(remainingLength) + bodyLength;
+        return ctx.alloc().directBuffer(frameLength, frameLength);
+    }
+
     private void encodeFixedHeader(ByteBuf buffer, MqttMessage msg, int remainingLength) {
         byte header = (byte) ((msg.getMessageType().value() << 4) & 0xF0);
         if (msg.isDup()) {
@@ -61,7 +146,16 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
         encodeVariableLengthInt(buffer, remainingLength);
     }
 
-    private void encodeVariableLengthInt(ByteBuf buffer, int value) {
+    static int variableLengthIntSize(int value) {
+        int size = 1;
+        while (value >= 128) {
+            value /= 128;
+            size++;
+        }
+        return size;
+    }
+
+    static void encodeVariableLengthInt(ByteBuf buffer, int value) {
         do {
             int digit = value % 128;
             value /= 128;
@@ -72,16 +166,18 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
         } while (value > 0);
     }
 
+    private static int stringLength(String string) {
+        return 2 + ByteBufUtil.utf8Bytes(string);
+    }
+
     private void encodeString(ByteBuf buffer, String string) {
-        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
-        buffer.writeShort(bytes.length);
-        buffer.writeBytes(bytes);
+        // 直接把UTF-8编码写入缓冲区，不生成中间byte[]
+        int length = ByteBufUtil.utf8Bytes(string);
+        buffer.writeShort(length);
+        ByteBufUtil.reserveAndWriteUtf8(buffer, string, length);
     }
 
     private void encodeConnectMessage(ByteBuf buffer, ConnectMessage msg) {
-        int remainingLength = calculateConnectLength(msg);
-        encodeFixedHeader(buffer, msg, remainingLength);
-
         encodeString(buffer, msg.getProtocolName());
         buffer.writeByte(msg.getProtocolVersion());
 
@@ -116,19 +212,19 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
 
     private int calculateConnectLength(ConnectMessage msg) {
         int length = 0;
-        length += 2 + msg.getProtocolName().length(); // Protocol Name
+        length += stringLength(msg.getProtocolName()); // Protocol Name
         length += 1; // Protocol Version
         length += 1; // Connect Flags
         length += 2; // Keep Alive
-        length += 2 + msg.getClientId().length(); // Client ID
+        length += stringLength(msg.getClientId()); // Client ID
 
         if (msg.isWillFlag()) {
-            length += 2 + msg.getWillTopic().length(); // Will Topic
+            length += stringLength(msg.getWillTopic()); // Will Topic
             length += 2 + msg.getWillMessage().length; // Will Message
         }
 
         if (msg.isHasUsername()) {
-            length += 2 + msg.getUsername().length(); // Username
+            length += stringLength(msg.getUsername()); // Username
         }
         if (msg.isHasPassword()) {
             length += 2 + msg.getPassword().length; // Password
@@ -138,46 +234,48 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
     }
 
     private void encodeConnAckMessage(ByteBuf buffer, ConnAckMessage msg) {
-        encodeFixedHeader(buffer, msg, 2);
         buffer.writeByte(msg.isSessionPresent() ? 0x01 : 0x00);
         buffer.writeByte(msg.getReturnCode());
     }
 
-    private void encodePublishMessage(ByteBuf buffer, PublishMessage msg) {
-        int remainingLength = calculatePublishLength(msg);
-        encodeFixedHeader(buffer, msg, remainingLength);
+    private void encodePublishMessage(ChannelHandlerContext ctx, PublishMessage msg, List<Object> out) {
+        byte[] topic = msg.getTopicBytes();
+        ByteBuf payload = msg.getPayload();
+        int payloadLength = payload.readableBytes();
+        int remainingLength = 2 + topic.length + payloadLength;
+        if (msg.getQosLevel() > 0) {
+            remainingLength += 2; // Packet ID
+        }
 
-        encodeString(buffer, msg.getTopicName());
+        // 小负载直接拷贝进同一个缓冲区，大负载不复制，作为第二个缓冲区写出
+        boolean inlinePayload = payloadLength <= INLINE_PAYLOAD_THRESHOLD;
+        ByteBuf buffer = allocateFrame(ctx, remainingLength, inlinePayload ? remainingLength : remainingLength - payloadLength);
+        encodeFixedHeader(buffer, msg, remainingLength);
 
+        buffer.writeShort(topic.length);
+        buffer.writeBytes(topic);
         if (msg.getQosLevel() > 0) {
             buffer.writeShort(msg.getPacketId());
         }
 
-        if (msg.getPayload() != null) {
-            buffer.writeBytes(msg.getPayload());
+        if (metrics != null) {
+            metrics.packetSent(msg.getMessageType().value(),
+                    1 + variableLengthIntSize(remainingLength) + remainingLength);
         }
-    }
-
-    private int calculatePublishLength(PublishMessage msg) {
-        int length = 2 + msg.getTopicName().length(); // Topic Name
-        if (msg.getQosLevel() > 0) {
-            length += 2; // Packet ID
+        if (inlinePayload) {
+            buffer.writeBytes(payload, payload.readerIndex(), payloadLength);
+            out.add(buffer);
+        } else {
+            out.add(buffer);
+            out.add(payload.retainedDuplicate());
         }
-        if (msg.getPayload() != null) {
-            length += msg.getPayload().length; // Payload
-        }
-        return length;
     }
 
     private void encodePacketIdMessage(ByteBuf buffer, PacketIdMessage msg) {
-        encodeFixedHeader(buffer, msg, 2);
         buffer.writeShort(msg.getPacketId());
     }
 
     private void encodeSubscribeMessage(ByteBuf buffer, SubscribeMessage msg) {
-        int remainingLength = calculateSubscribeLength(msg);
-        encodeFixedHeader(buffer, msg, remainingLength);
-
         buffer.writeShort(msg.getPacketId());
 
         for (SubscribeMessage.TopicSubscription topic : msg.getTopics()) {
@@ -189,22 +287,30 @@ public class MqttEncoder extends MessageToMessageEncoder<MqttMessage> {
     private int calculateSubscribeLength(SubscribeMessage msg) {
         int length = 2; // Packet ID
         for (SubscribeMessage.TopicSubscription topic : msg.getTopics()) {
-            length += 2 + topic.getTopic().length() + 1; // Topic + QoS
+            length += stringLength(topic.getTopic()) + 1; // Topic + QoS
         }
         return length;
     }
 
     private void encodeSubAckMessage(ByteBuf buffer, SubAckMessage msg) {
-        int remainingLength = 2 + msg.getReturnCodes().size();
-        encodeFixedHeader(buffer, msg, remainingLength);
-
         buffer.writeShort(msg.getPacketId());
         for (Integer returnCode : msg.getReturnCodes()) {
             buffer.writeByte(returnCode);
         }
     }
 
-    private void encodeSimpleMessage(ByteBuf buffer, MqttMessage msg) {
-        encodeFixedHeader(buffer, msg, 0);
+    private void encodeUnsubscribeMessage(ByteBuf buffer, UnsubscribeMessage msg) {
+        buffer.writeShort(msg.getPacketId());
+        for (String topic : msg.getTopics()) {
+            encodeString(buffer, topic);
+        }
+    }
+
+    private int calculateUnsubscribeLength(UnsubscribeMessage msg) {
+        int length = 2; // Packet ID
+        for (String topic : msg.getTopics()) {
+            length += stringLength(topic);
+        }
+        return length;
     }
 }
@@ -0,0 +1,93 @@
+package com.example.mqtt.codec;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.protocol.MqttMessageType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+/**
+ * 扇出时按有效QoS编码一次的共享PUBLISH帧
+ * <p>
+ * 固定头部、剩余长度和主题名只编码一次，负载直接引用入站消息的 ByteBuf。
+ * 每个订阅者拿到的是共享部分的 retainedDuplicate()，QoS &gt; 0 时只额外分配2字节的 Packet ID，
+ * 因此每个接收者的开销与负载大小无关。
+ * <p>
+ * 使用完毕后必须调用 {@link #release()} 释放共享部分，已经发出的帧各自持有引用，不受影响。
+ */
+public final class SharedPublishFrame {
+    private final int qos;
+    // 固定头部 + 剩余长度 + 主题名
+    private final ByteBuf prefix;
+    private final ByteBuf payload;
+    // QoS 0 时没有 Packet ID，整帧可以直接共享
+    private final ByteBuf frame;
+
+    private SharedPublishFrame(int qos, ByteBuf prefix, ByteBuf payload, ByteBuf frame) {
+        this.qos = qos;
+        this.prefix = prefix;
+        this.payload = payload;
+        this.frame = frame;
+    }
+
+    /**
+     * 按指定的有效QoS编码共享帧
+     *
+     * @param alloc   分配器
+     * @param message 原始PUBLISH消息，其负载不会被复制
+     * @param qos     有效QoS
+     */
+    public static SharedPublishFrame encode(ByteBufAllocator alloc, PublishMessage message, int qos) {
+        byte[] topic = message.getTopicBytes();
+        ByteBuf payload = message.getPayload();
+        int remainingLength = 2 + topic.length + (qos > 0 ? 2 : 0) + payload.readableBytes();
+
+        int header = (MqttMessageType.PUBLISH.value() << 4) | ((qos << 1) & 0x06);
+        if (message.isRetain()) {
+            header |= 0x01;
+        }
+
+        int prefixLength = 1 + MqttEncoder.variableLengthIntSize(remainingLength) + 2 + topic.length;
+        ByteBuf prefix = alloc.directBuffer(prefixLength, prefixLength);
+        prefix.writeByte(header);
+        MqttEncoder.encodeVariableLengthInt(prefix, remainingLength);
+        prefix.writeShort(topic.length);
+        prefix.writeBytes(topic);
+
+        if (qos == 0) {
+            CompositeByteBuf frame = alloc.compositeBuffer(2);
+            frame.addComponents(true, prefix, payload.retainedDuplicate());
+            return new SharedPublishFrame(qos, null, null, frame);
+        }
+        return new SharedPublishFrame(qos, prefix, payload.retainedDuplicate(), null);
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    /**
+     * 为一个订阅者生成完整的帧，调用方负责写出或释放
+     *
+     * @param alloc    订阅者通道的分配器
+     * @param packetId Packet ID，QoS 0 时忽略
+     */
+    public ByteBuf retainedFrame(ByteBufAllocator alloc, int packetId) {
+        if (frame != null) {
+            return frame.retainedDuplicate();
+        }
+        ByteBuf packetIdBuf = alloc.directBuffer(2, 2).writeShort(packetId);
+        CompositeByteBuf composite = alloc.compositeBuffer(3);
+        composite.addComponents(true, prefix.retainedDuplicate(), packetIdBuf, payload.retainedDuplicate());
+        return composite;
+    }
+
+    public void release() {
+        if (frame != null) {
+            frame.release();
+        } else {
+            prefix.release();
+            payload.release();
+        }
+    }
+}
@@ -1,20 +1,57 @@
 // MqttBrokerProperties.java
 package com.example.mqtt.config;
 
+import com.example.mqtt.auth.AclRule;
+import com.example.mqtt.handler.BackpressureHandler;
+import com.example.mqtt.handler.PublishQuota;
+import com.example.mqtt.session.QueueStore;
+import com.example.mqtt.session.SessionJournal;
+import com.example.mqtt.session.ShareStrategies;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Component
 @ConfigurationProperties(prefix = "mqtt.broker")
 public class MqttBrokerProperties {
 
+    // 允许的最大报文（剩余长度）字节数，超过后断开连接
+    private int maxPacketSize = 8 * 1024 * 1024;
     private Authentication authentication = new Authentication();
+    private Routing routing = new Routing();
+    private Flush flush = new Flush();
+    private Transport transport = new Transport();
+    private Backpressure backpressure = new Backpressure();
+    private Inflight inflight = new Inflight();
+    private Queue queue = new Queue();
+    private Persistence persistence = new Persistence();
+    private Retained retained = new Retained();
+    private Shared shared = new Shared();
+    private Cluster cluster = new Cluster();
+    private Metrics metrics = new Metrics();
+    private Accounting accounting = new Accounting();
+    private Trace trace = new Trace();
+    private Acl acl = new Acl();
+    private Admission admission = new Admission();
+    private Quota quota = new Quota();
 
     public static class Authentication {
         private boolean enabled = false;
         private List<User> users;
+        // 凭据文件，每行为 用户名:哈希，为空时只使用 users
+        private String credentialsFile;
+        // 哈希 users 中明文密码的PBKDF2迭代次数
+        private int hashIterations = 10000;
+        // 校验密码的线程数和等待校验的最大请求数，队列满时以"服务不可用"拒绝CONNECT
+        private int threads = 2;
+        private int queueSize = 1024;
+        // 校验成功的凭据的缓存时间，0表示不缓存
+        private int cacheTtlSeconds = 60;
+        private int cacheMaxEntries = 100000;
 
         public static class User {
             private String username;
@@ -54,9 +91,1123 @@ public class MqttBrokerProperties {
         public void setUsers(List<User> users) {
             this.users = users;
         }
+
+        public String getCredentialsFile() {
+            return credentialsFile;
+        }
+
+        public void setCredentialsFile(String credentialsFile) {
+            this.credentialsFile = credentialsFile;
+        }
+
+        public int getHashIterations() {
+            return hashIterations;
+        }
+
+        public void setHashIterations(int hashIterations) {
+            this.hashIterations = hashIterations;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public int getCacheTtlSeconds() {
+            return cacheTtlSeconds;
+        }
+
+        public void setCacheTtlSeconds(int cacheTtlSeconds) {
+            this.cacheTtlSeconds = cacheTtlSeconds;
+        }
+
+        public int getCacheMaxEntries() {
+            return cacheMaxEntries;
+        }
+
+        public void setCacheMaxEntries(int cacheMaxEntries) {
+            this.cacheMaxEntries = cacheMaxEntries;
+        }
+    }
+
+    public static class Routing {
+        // 主题匹配缓存的最大主题数，0表示关闭缓存
+        private int matchCacheSize = 10000;
+        // 主题驻留表的槽位数，0表示不驻留
+        private int topicInternSize = 131072;
+
+        // Getters and Setters
+        public int getMatchCacheSize() {
+            return matchCacheSize;
+        }
+
+        public void setMatchCacheSize(int matchCacheSize) {
+            this.matchCacheSize = matchCacheSize;
+        }
+
+        public int getTopicInternSize() {
+            return topicInternSize;
+        }
+
+        public void setTopicInternSize(int topicInternSize) {
+            this.topicInternSize = topicInternSize;
+        }
+    }
+
+    public static class Flush {
+        // 是否合并flush：读取批次结束或事件循环空闲时统一flush
+        private boolean consolidate = true;
+        // 未flush的消息数达到该值时强制flush
+        private int maxPendingWrites = 64;
+        // 未flush的字节数达到该值时强制flush
+        private long maxPendingBytes = 64 * 1024;
+
+        // Getters and Setters
+        public boolean isConsolidate() {
+            return consolidate;
+        }
+
+        public void setConsolidate(boolean consolidate) {
+            this.consolidate = consolidate;
+        }
+
+        public int getMaxPendingWrites() {
+            return maxPendingWrites;
+        }
+
+        public void setMaxPendingWrites(int maxPendingWrites) {
+            this.maxPendingWrites = maxPendingWrites;
+        }
+
+        public long getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        public void setMaxPendingBytes(long maxPendingBytes) {
+            this.maxPendingBytes = maxPendingBytes;
+        }
+    }
+
+    public static class Transport {
+        public enum Type {
+            // Linux下epoll可用时使用epoll，否则使用NIO
+            AUTO,
+            EPOLL,
+            NIO
+        }
+
+        public enum Allocator {
+            POOLED,
+            UNPOOLED
+        }
+
+        private Type type = Type.AUTO;
+        // 接收连接的线程数
+        private int bossThreads = 1;
+        // IO线程数，0表示使用Netty默认值（CPU核数*2）
+        private int workerThreads = 0;
+        // 是否启用SO_REUSEPORT，仅epoll支持
+        private boolean reusePort = false;
+        // 启用SO_REUSEPORT时在同一端口上绑定的监听socket数量
+        private int acceptors = 1;
+        private int backlog = 1024;
+        // SO_RCVBUF/SO_SNDBUF，0表示使用系统默认值
+        private int receiveBufferSize = 0;
+        private int sendBufferSize = 0;
+        // 出站缓冲区超过高水位时通道变为不可写，降到低水位以下时恢复可写
+        private int writeBufferLowWaterMark = 32 * 1024;
+        private int writeBufferHighWaterMark = 64 * 1024;
+        private Allocator allocator = Allocator.POOLED;
+
+        // Getters and Setters
+        public Type getType() {
+            return type;
+        }
+
+        public void setType(Type type) {
+            this.type = type;
+        }
+
+        public int getBossThreads() {
+            return bossThreads;
+        }
+
+        public void setBossThreads(int bossThreads) {
+            this.bossThreads = bossThreads;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public void setWorkerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+        }
+
+        public boolean isReusePort() {
+            return reusePort;
+        }
+
+        public void setReusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+        }
+
+        public int getAcceptors() {
+            return acceptors;
+        }
+
+        public void setAcceptors(int acceptors) {
+            this.acceptors = acceptors;
+        }
+
+        public int getBacklog() {
+            return backlog;
+        }
+
+        public void setBacklog(int backlog) {
+            this.backlog = backlog;
+        }
+
+        public int getReceiveBufferSize() {
+            return receiveBufferSize;
+        }
+
+        public void setReceiveBufferSize(int receiveBufferSize) {
+            this.receiveBufferSize = receiveBufferSize;
+        }
+
+        public int getSendBufferSize() {
+            return sendBufferSize;
+        }
+
+        public void setSendBufferSize(int sendBufferSize) {
+            this.sendBufferSize = sendBufferSize;
+        }
+
+        public int getWriteBufferLowWaterMark() {
+            return writeBufferLowWaterMark;
+        }
+
+        public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+            this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        }
+
+        public int getWriteBufferHighWaterMark() {
+            return writeBufferHighWaterMark;
+        }
+
+        public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+            this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        }
+
+        public Allocator getAllocator() {
+            return allocator;
+        }
+
+        public void setAllocator(Allocator allocator) {
+            this.allocator = allocator;
+        }
+    }
+
+    public static class Backpressure {
+        // 是否启用订阅者出站背压处理
+        private boolean enabled = true;
+        // 通道不可写时各QoS的处理策略：drop丢弃，buffer放入队列
+        private BackpressureHandler.Policy qos0 = BackpressureHandler.Policy.DROP;
+        private BackpressureHandler.Policy qos1 = BackpressureHandler.Policy.BUFFER;
+        private BackpressureHandler.Policy qos2 = BackpressureHandler.Policy.BUFFER;
+        // 每个连接队列的消息数和字节数上限
+        private int maxQueuedMessages = 1000;
+        private long maxQueuedBytes = 1024 * 1024;
+        // 队列超过上限时：disconnect断开连接，park挂起投递直到恢复可写
+        private BackpressureHandler.OverflowAction overflowAction = BackpressureHandler.OverflowAction.DISCONNECT;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public BackpressureHandler.Policy getQos0() {
+            return qos0;
+        }
+
+        public void setQos0(BackpressureHandler.Policy qos0) {
+            this.qos0 = qos0;
+        }
+
+        public BackpressureHandler.Policy getQos1() {
+            return qos1;
+        }
+
+        public void setQos1(BackpressureHandler.Policy qos1) {
+            this.qos1 = qos1;
+        }
+
+        public BackpressureHandler.Policy getQos2() {
+            return qos2;
+        }
+
+        public void setQos2(BackpressureHandler.Policy qos2) {
+            this.qos2 = qos2;
+        }
+
+        public int getMaxQueuedMessages() {
+            return maxQueuedMessages;
+        }
+
+        public void setMaxQueuedMessages(int maxQueuedMessages) {
+            this.maxQueuedMessages = maxQueuedMessages;
+        }
+
+        public long getMaxQueuedBytes() {
+            return maxQueuedBytes;
+        }
+
+        public void setMaxQueuedBytes(long maxQueuedBytes) {
+            this.maxQueuedBytes = maxQueuedBytes;
+        }
+
+        public BackpressureHandler.OverflowAction getOverflowAction() {
+            return overflowAction;
+        }
+
+        public void setOverflowAction(BackpressureHandler.OverflowAction overflowAction) {
+            this.overflowAction = overflowAction;
+        }
+    }
+
+    public static class Inflight {
+        // 每个会话最多同时未确认的QoS 1/2出站消息数
+        private int maxInflightMessages = 32;
+        // 未确认消息的重传间隔（毫秒），0表示只在会话恢复时重发
+        private long retryIntervalMillis = 20000;
+        // 重传时间轮的刻度（毫秒）
+        private long timerTickMillis = 100;
+
+        // Getters and Setters
+        public int getMaxInflightMessages() {
+            return maxInflightMessages;
+        }
+
+        public void setMaxInflightMessages(int maxInflightMessages) {
+            this.maxInflightMessages = maxInflightMessages;
+        }
+
+        public long getRetryIntervalMillis() {
+            return retryIntervalMillis;
+        }
+
+        public void setRetryIntervalMillis(long retryIntervalMillis) {
+            this.retryIntervalMillis = retryIntervalMillis;
+        }
+
+        public long getTimerTickMillis() {
+            return timerTickMillis;
+        }
+
+        public void setTimerTickMillis(long timerTickMillis) {
+            this.timerTickMillis = timerTickMillis;
+        }
+    }
+
+    public static class Queue {
+        // 每个会话最多排队的消息数（在途窗口满或持久会话离线时）
+        private int maxSessionMessages = 1000;
+        // 每个会话在内存中排队的字节数预算，超出后溢出到磁盘
+        private long sessionMemoryBytes = 256 * 1024;
+        // 所有会话最多排队的消息数
+        private long maxMessages = 10000000;
+        // 所有会话在内存中排队的字节数上限
+        private long maxMemoryBytes = 256L * 1024 * 1024;
+        // 超过消息数上限时：drop-oldest丢弃最旧的消息，drop-newest丢弃新消息
+        private QueueStore.OverflowPolicy overflowPolicy = QueueStore.OverflowPolicy.DROP_OLDEST;
+        // 是否溢出到内存映射的段文件
+        private boolean spillEnabled = true;
+        private String spillDirectory = "data/spill";
+        private int spillSegmentSize = 64 * 1024 * 1024;
+        // 所有段文件的总大小上限
+        private long spillMaxBytes = 4L * 1024 * 1024 * 1024;
+
+        // Getters and Setters
+        public int getMaxSessionMessages() {
+            return maxSessionMessages;
+        }
+
+        public void setMaxSessionMessages(int maxSessionMessages) {
+            this.maxSessionMessages = maxSessionMessages;
+        }
+
+        public long getSessionMemoryBytes() {
+            return sessionMemoryBytes;
+        }
+
+        public void setSessionMemoryBytes(long sessionMemoryBytes) {
+            this.sessionMemoryBytes = sessionMemoryBytes;
+        }
+
+        public long getMaxMessages() {
+            return maxMessages;
+        }
+
+        public void setMaxMessages(long maxMessages) {
+            this.maxMessages = maxMessages;
+        }
+
+        public long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+
+        public void setMaxMemoryBytes(long maxMemoryBytes) {
+            this.maxMemoryBytes = maxMemoryBytes;
+        }
+
+        public QueueStore.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(QueueStore.OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public boolean isSpillEnabled() {
+            return spillEnabled;
+        }
+
+        public void setSpillEnabled(boolean spillEnabled) {
+            this.spillEnabled = spillEnabled;
+        }
+
+        public String getSpillDirectory() {
+            return spillDirectory;
+        }
+
+        public void setSpillDirectory(String spillDirectory) {
+            this.spillDirectory = spillDirectory;
+        }
+
+        public int getSpillSegmentSize() {
+            return spillSegmentSize;
+        }
+
+        public void setSpillSegmentSize(int spillSegmentSize) {
+            this.spillSegmentSize = spillSegmentSize;
+        }
+
+        public long getSpillMaxBytes() {
+            return spillMaxBytes;
+        }
+
+        public void setSpillMaxBytes(long spillMaxBytes) {
+            this.spillMaxBytes = spillMaxBytes;
+        }
+    }
+
+    public static class Persistence {
+        // 是否持久化持久会话（cleanSession=false）及其订阅，重启后恢复
+        private boolean enabled = true;
+        private String directory = "data/journal";
+        // always每条记录fsync，group每批记录fsync一次，periodic按间隔fsync
+        private SessionJournal.FsyncPolicy fsyncPolicy = SessionJournal.FsyncPolicy.GROUP;
+        private long fsyncIntervalMillis = 1000;
+        // 生成快照的间隔，0表示只按日志大小生成
+        private long snapshotIntervalSeconds = 300;
+        // 日志超过该大小时生成快照
+        private long snapshotJournalBytes = 64L * 1024 * 1024;
+        // 等待写线程写入的最大记录数，超过时丢弃记录并尽快生成快照
+        private int maxPendingRecords = 65536;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public SessionJournal.FsyncPolicy getFsyncPolicy() {
+            return fsyncPolicy;
+        }
+
+        public void setFsyncPolicy(SessionJournal.FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+        }
+
+        public long getFsyncIntervalMillis() {
+            return fsyncIntervalMillis;
+        }
+
+        public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+            this.fsyncIntervalMillis = fsyncIntervalMillis;
+        }
+
+        public long getSnapshotIntervalSeconds() {
+            return snapshotIntervalSeconds;
+        }
+
+        public void setSnapshotIntervalSeconds(long snapshotIntervalSeconds) {
+            this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        }
+
+        public long getSnapshotJournalBytes() {
+            return snapshotJournalBytes;
+        }
+
+        public void setSnapshotJournalBytes(long snapshotJournalBytes) {
+            this.snapshotJournalBytes = snapshotJournalBytes;
+        }
+
+        public int getMaxPendingRecords() {
+            return maxPendingRecords;
+        }
+
+        public void setMaxPendingRecords(int maxPendingRecords) {
+            this.maxPendingRecords = maxPendingRecords;
+        }
+    }
+
+    public static class Retained {
+        // 是否保存保留消息并在订阅时发送
+        private boolean enabled = true;
+        // 最多保存的保留消息数
+        private long maxMessages = 10000000;
+        // 保留消息负载占用的直接内存上限
+        private long maxMemoryBytes = 1024L * 1024 * 1024;
+        // 订阅时每批发送的保留消息数，批之间让出事件循环
+        private int deliveryBatchSize = 64;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxMessages() {
+            return maxMessages;
+        }
+
+        public void setMaxMessages(long maxMessages) {
+            this.maxMessages = maxMessages;
+        }
+
+        public long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+
+        public void setMaxMemoryBytes(long maxMemoryBytes) {
+            this.maxMemoryBytes = maxMemoryBytes;
+        }
+
+        public int getDeliveryBatchSize() {
+            return deliveryBatchSize;
+        }
+
+        public void setDeliveryBatchSize(int deliveryBatchSize) {
+            this.deliveryBatchSize = deliveryBatchSize;
+        }
+    }
+
+    public static class Shared {
+        // 共享订阅的负载均衡策略：round-robin、random、sticky（按发布者）、least-inflight
+        private ShareStrategies strategy = ShareStrategies.ROUND_ROBIN;
+
+        // Getters and Setters
+        public ShareStrategies getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(ShareStrategies strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    public static class Cluster {
+        // 是否与其它节点组成集群，按订阅转发PUBLISH
+        private boolean enabled = false;
+        // 节点ID，集群内唯一，为空时使用 node-<MQTT端口>
+        private String nodeId = "";
+        // 节点间连接的监听地址，其它节点不在本机时需要设置为可达的地址
+        private String host = "127.0.0.1";
+        // 节点间连接的监听端口
+        private int port = 1884;
+        // 集群内所有节点相同的共享密钥，连接时用于验证对方，启用集群时必须设置
+        private String secret = "";
+        // 其它节点的地址，格式为 host:port
+        private List<String> peers = new ArrayList<>();
+        // 节点间连接断开后的重连间隔
+        private long reconnectIntervalMillis = 1000;
+        // 节点间连接的出站缓冲区高水位，超过后转发的消息被丢弃，低水位为其一半
+        private int writeBufferHighWaterMark = 4 * 1024 * 1024;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        public void setNodeId(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getSecret() {
+            return secret;
+        }
+
+        public void setSecret(String secret) {
+            this.secret = secret;
+        }
+
+        public List<String> getPeers() {
+            return peers;
+        }
+
+        public void setPeers(List<String> peers) {
+            this.peers = peers;
+        }
+
+        public long getReconnectIntervalMillis() {
+            return reconnectIntervalMillis;
+        }
+
+        public void setReconnectIntervalMillis(long reconnectIntervalMillis) {
+            this.reconnectIntervalMillis = reconnectIntervalMillis;
+        }
+
+        public int getWriteBufferHighWaterMark() {
+            return writeBufferHighWaterMark;
+        }
+
+        public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+            this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+        }
+    }
+
+    public static class Metrics {
+        // 发布 $SYS/broker/... 主题的间隔，小于等于0时不发布
+        private int sysIntervalSeconds = 10;
+        // 是否启用Prometheus抓取端点 GET /metrics
+        private boolean httpEnabled = false;
+        // 抓取端点的监听地址，默认只允许本机访问
+        private String httpHost = "127.0.0.1";
+        private int httpPort = 9090;
+
+        // Getters and Setters
+        public int getSysIntervalSeconds() {
+            return sysIntervalSeconds;
+        }
+
+        public void setSysIntervalSeconds(int sysIntervalSeconds) {
+            this.sysIntervalSeconds = sysIntervalSeconds;
+        }
+
+        public boolean isHttpEnabled() {
+            return httpEnabled;
+        }
+
+        public void setHttpEnabled(boolean httpEnabled) {
+            this.httpEnabled = httpEnabled;
+        }
+
+        public String getHttpHost() {
+            return httpHost;
+        }
+
+        public void setHttpHost(String httpHost) {
+            this.httpHost = httpHost;
+        }
+
+        public int getHttpPort() {
+            return httpPort;
+        }
+
+        public void setHttpPort(int httpPort) {
+            this.httpPort = httpPort;
+        }
+    }
+
+    public static class Accounting {
+        // 是否按客户端和主题统计流量热点
+        private boolean enabled = true;
+        // 统计窗口，每个窗口结束时在 $SYS/broker/top/... 发布前N名
+        private int windowSeconds = 10;
+        // 查询和发布的热点条数
+        private int topN = 10;
+        // count-min sketch 的行数和每行计数器个数，误差约为 总量 * e / 宽度
+        private int sketchDepth = 4;
+        private int sketchWidth = 2048;
+        // 每个线程每种统计保留的候选热点数
+        private int candidates = 64;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getWindowSeconds() {
+            return windowSeconds;
+        }
+
+        public void setWindowSeconds(int windowSeconds) {
+            this.windowSeconds = windowSeconds;
+        }
+
+        public int getTopN() {
+            return topN;
+        }
+
+        public void setTopN(int topN) {
+            this.topN = topN;
+        }
+
+        public int getSketchDepth() {
+            return sketchDepth;
+        }
+
+        public void setSketchDepth(int sketchDepth) {
+            this.sketchDepth = sketchDepth;
+        }
+
+        public int getSketchWidth() {
+            return sketchWidth;
+        }
+
+        public void setSketchWidth(int sketchWidth) {
+            this.sketchWidth = sketchWidth;
+        }
+
+        public int getCandidates() {
+            return candidates;
+        }
+
+        public void setCandidates(int candidates) {
+            this.candidates = candidates;
+        }
+    }
+
+    public static class Trace {
+        // 是否记录消息轨迹（logger.DEBUG_MSG），由后台线程写出
+        private boolean enabled = true;
+        // 未匹配任何规则时的采样率，0到1之间
+        private double sampleRate = 0.01;
+        // 按客户端ID的采样率
+        private Map<String, Double> clients = new LinkedHashMap<>();
+        // 按主题过滤器的采样率，可以包含通配符
+        private Map<String, Double> topics = new LinkedHashMap<>();
+        // 环形缓冲区容量，满时丢弃事件
+        private int bufferSize = 8192;
+        // 记录的负载最多字节数
+        private int maxPayloadBytes = 256;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        public Map<String, Double> getClients() {
+            return clients;
+        }
+
+        public void setClients(Map<String, Double> clients) {
+            this.clients = clients;
+        }
+
+        public Map<String, Double> getTopics() {
+            return topics;
+        }
+
+        public void setTopics(Map<String, Double> topics) {
+            this.topics = topics;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getMaxPayloadBytes() {
+            return maxPayloadBytes;
+        }
+
+        public void setMaxPayloadBytes(int maxPayloadBytes) {
+            this.maxPayloadBytes = maxPayloadBytes;
+        }
+    }
+
+    public static class Acl {
+        // 是否检查发布和订阅的主题权限
+        private boolean enabled = false;
+        // 没有规则匹配时是否允许
+        private boolean allowByDefault = false;
+        // 每个连接缓存的发布检查结果数，0表示不缓存
+        private int cacheSize = 256;
+        // 按顺序匹配，靠前的规则优先
+        private List<Rule> rules = new ArrayList<>();
+
+        public static class Rule {
+            // 适用的用户名和客户端ID，为空时不限
+            private String user;
+            private String client;
+            // 主题过滤器，可以包含通配符以及 %u（用户名）、%c（客户端ID）
+            private String topic;
+            private AclRule.Access access = AclRule.Access.ALL;
+            private AclRule.Permission permission = AclRule.Permission.ALLOW;
+
+            // Getters and Setters
+            public String getUser() {
+                return user;
+            }
+
+            public void setUser(String user) {
+                this.user = user;
+            }
+
+            public String getClient() {
+                return client;
+            }
+
+            public void setClient(String client) {
+                this.client = client;
+            }
+
+            public String getTopic() {
+                return topic;
+            }
+
+            public void setTopic(String topic) {
+                this.topic = topic;
+            }
+
+            public AclRule.Access getAccess() {
+                return access;
+            }
+
+            public void setAccess(AclRule.Access access) {
+                this.access = access;
+            }
+
+            public AclRule.Permission getPermission() {
+                return permission;
+            }
+
+            public void setPermission(AclRule.Permission permission) {
+                this.permission = permission;
+            }
+        }
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isAllowByDefault() {
+            return allowByDefault;
+        }
+
+        public void setAllowByDefault(boolean allowByDefault) {
+            this.allowByDefault = allowByDefault;
+        }
+
+        public int getCacheSize() {
+            return cacheSize;
+        }
+
+        public void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        public List<Rule> getRules() {
+            return rules;
+        }
+
+        public void setRules(List<Rule> rules) {
+            this.rules = rules;
+        }
+    }
+
+    public static class Admission {
+        // 是否在建立pipeline之前检查新连接
+        private boolean enabled = true;
+        // 每个来源IP每秒允许建立的连接数及突发数，0表示不限；超过后直接关闭连接，默认不限以免同一NAT之后的设备被拒绝
+        private double addressRate = 0;
+        private int addressBurst = 50;
+        // 每秒允许接受的连接总数及突发数，超过后暂停accept，新连接在backlog中等待，0表示不限
+        private double globalRate = 2000;
+        private int globalBurst = 2000;
+        // 已接受但尚未收到CONNECT的最大连接数，0表示不限
+        private int maxPendingConnects = 10000;
+        // 连接后等待CONNECT的时间，0表示不限
+        private long connectTimeoutMillis = 10000;
+        // 最多跟踪的来源IP数，超过后新的IP只受全局速率限制
+        private int maxTrackedAddresses = 100000;
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getAddressRate() {
+            return addressRate;
+        }
+
+        public void setAddressRate(double addressRate) {
+            this.addressRate = addressRate;
+        }
+
+        public int getAddressBurst() {
+            return addressBurst;
+        }
+
+        public void setAddressBurst(int addressBurst) {
+            this.addressBurst = addressBurst;
+        }
+
+        public double getGlobalRate() {
+            return globalRate;
+        }
+
+        public void setGlobalRate(double globalRate) {
+            this.globalRate = globalRate;
+        }
+
+        public int getGlobalBurst() {
+            return globalBurst;
+        }
+
+        public void setGlobalBurst(int globalBurst) {
+            this.globalBurst = globalBurst;
+        }
+
+        public int getMaxPendingConnects() {
+            return maxPendingConnects;
+        }
+
+        public void setMaxPendingConnects(int maxPendingConnects) {
+            this.maxPendingConnects = maxPendingConnects;
+        }
+
+        public long getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+        }
+
+        public int getMaxTrackedAddresses() {
+            return maxTrackedAddresses;
+        }
+
+        public void setMaxTrackedAddresses(int maxTrackedAddresses) {
+            this.maxTrackedAddresses = maxTrackedAddresses;
+        }
+    }
+
+    public static class Quota {
+        // 是否限制客户端的发布速率
+        private boolean enabled = false;
+        // 超出配额时的处理：PAUSE 暂停读取直到令牌恢复，DROP 丢弃消息，DISCONNECT 断开连接
+        private PublishQuota.Action action = PublishQuota.Action.PAUSE;
+        // 默认配额，每个连接单独计算
+        private Limit defaults = new Limit();
+        // 按用户名和客户端ID的配额，客户端ID优先
+        private Map<String, Limit> users = new LinkedHashMap<>();
+        private Map<String, Limit> clients = new LinkedHashMap<>();
+
+        public static class Limit {
+            // 未配置字段时的内置默认值
+            public static final double DEFAULT_MESSAGE_RATE = 1000;
+            public static final double DEFAULT_MESSAGE_BURST = 2000;
+            public static final double DEFAULT_BYTE_RATE = 1024 * 1024;
+            public static final double DEFAULT_BYTE_BURST = 4 * 1024 * 1024;
+
+            // 每秒消息数及突发数，0表示不限；null 表示继承（覆盖项继承 defaults，defaults 取内置默认值）
+            private Double messageRate;
+            private Double messageBurst;
+            // 每秒负载字节数及突发字节数，0表示不限
+            private Double byteRate;
+            private Double byteBurst;
+
+            /**
+             * 以 base 补齐本配额中未配置的字段，返回新的配额，不修改本对象和 base
+             */
+            public Limit inherit(Limit base) {
+                Limit merged = new Limit();
+                merged.messageRate = messageRate != null ? messageRate : base.messageRate;
+                merged.messageBurst = messageBurst != null ? messageBurst : base.messageBurst;
+                merged.byteRate = byteRate != null ? byteRate : base.byteRate;
+                merged.byteBurst = byteBurst != null ? byteBurst : base.byteBurst;
+                return merged;
+            }
+
+            public PublishQuota.Limit toLimit() {
+                return new PublishQuota.Limit(
+                        messageRate != null ? messageRate : DEFAULT_MESSAGE_RATE,
+                        messageBurst != null ? messageBurst : DEFAULT_MESSAGE_BURST,
+                        byteRate != null ? byteRate : DEFAULT_BYTE_RATE,
+                        byteBurst != null ? byteBurst : DEFAULT_BYTE_BURST);
+            }
+
+            // Getters and Setters
+            public Double getMessageRate() {
+                return messageRate;
+            }
+
+            public void setMessageRate(Double messageRate) {
+                this.messageRate = messageRate;
+            }
+
+            public Double getMessageBurst() {
+                return messageBurst;
+            }
+
+            public void setMessageBurst(Double messageBurst) {
+                this.messageBurst = messageBurst;
+            }
+
+            public Double getByteRate() {
+                return byteRate;
+            }
+
+            public void setByteRate(Double byteRate) {
+                this.byteRate = byteRate;
+            }
+
+            public Double getByteBurst() {
+                return byteBurst;
+            }
+
+            public void setByteBurst(Double byteBurst) {
+                this.byteBurst = byteBurst;
+            }
+        }
+
+        // Getters and Setters
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public PublishQuota.Action getAction() {
+            return action;
+        }
+
+        public void setAction(PublishQuota.Action action) {
+            this.action = action;
+        }
+
+        public Limit getDefaults() {
+            return defaults;
+        }
+
+        public void setDefaults(Limit defaults) {
+            this.defaults = defaults;
+        }
+
+        public Map<String, Limit> getUsers() {
+            return users;
+        }
+
+        public void setUsers(Map<String, Limit> users) {
+            this.users = users;
+        }
+
+        public Map<String, Limit> getClients() {
+            return clients;
+        }
+
+        public void setClients(Map<String, Limit> clients) {
+            this.clients = clients;
+        }
     }
 
     // Getters and Setters
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public void setMaxPacketSize(int maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+    }
+
     public Authentication getAuthentication() {
         return authentication;
     }
@@ -64,4 +1215,132 @@ public class MqttBrokerProperties {
     public void setAuthentication(Authentication authentication) {
         this.authentication = authentication;
     }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    public void setRouting(Routing routing) {
+        this.routing = routing;
+    }
+
+    public Flush getFlush() {
+        return flush;
+    }
+
+    public void setFlush(Flush flush) {
+        this.flush = flush;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    public Inflight getInflight() {
+        return inflight;
+    }
+
+    public void setInflight(Inflight inflight) {
+        this.inflight = inflight;
+    }
+
+    public Queue getQueue() {
+        return queue;
+    }
+
+    public void setQueue(Queue queue) {
+        this.queue = queue;
+    }
+
+    public Persistence getPersistence() {
+        return persistence;
+    }
+
+    public void setPersistence(Persistence persistence) {
+        this.persistence = persistence;
+    }
+
+    public Retained getRetained() {
+        return retained;
+    }
+
+    public void setRetained(Retained retained) {
+        this.retained = retained;
+    }
+
+    public Shared getShared() {
+        return shared;
+    }
+
+    public void setShared(Shared shared) {
+        this.shared = shared;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Accounting getAccounting() {
+        return accounting;
+    }
+
+    public void setAccounting(Accounting accounting) {
+        this.accounting = accounting;
+    }
+
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    public Acl getAcl() {
+        return acl;
+    }
+
+    public void setAcl(Acl acl) {
+        this.acl = acl;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public Quota getQuota() {
+        return quota;
+    }
+
+    public void setQuota(Quota quota) {
+        this.quota = quota;
+    }
 }
@@ -0,0 +1,72 @@
+package com.example.mqtt.handler;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按全局速率接受新连接，位于监听 socket 的 pipeline 上，在 accept 线程中执行
+ * <p>
+ * 新连接以 channelRead 的形式经过监听 socket 的 pipeline，之后才由 ServerBootstrap 注册到工作线程。
+ * 令牌不足时把连接暂存在这里并停止 accept，令牌恢复后按到达顺序放行，之后恢复 accept；
+ * 停止期间到达的连接留在内核的 backlog 中，backlog 满时由内核丢弃SYN，客户端按TCP重传自然退避。
+ * 暂存的连接最多为一次 accept 批量读取的数量。每个监听 socket 一个实例。
+ */
+public class AcceptThrottle extends ChannelInboundHandlerAdapter {
+    private final ConnectionAdmission admission;
+    private final ArrayDeque<Channel> waiting = new ArrayDeque<>();
+
+    public AcceptThrottle(ConnectionAdmission admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof Channel)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (!waiting.isEmpty()) {
+            waiting.add((Channel) msg);
+            admission.recordDelayed();
+            return;
+        }
+        long waitNanos = admission.acquireGlobal();
+        if (waitNanos == 0) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        waiting.add((Channel) msg);
+        admission.recordDelayed();
+        ctx.channel().config().setAutoRead(false);
+        schedule(ctx, waitNanos);
+    }
+
+    private void schedule(ChannelHandlerContext ctx, long waitNanos) {
+        ctx.executor().schedule(() -> release(ctx), waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void release(ChannelHandlerContext ctx) {
+        while (!waiting.isEmpty()) {
+            long waitNanos = admission.acquireGlobal();
+            if (waitNanos > 0) {
+                schedule(ctx, waitNanos);
+                return;
+            }
+            ctx.fireChannelRead(waiting.poll());
+        }
+        ctx.channel().config().setAutoRead(true);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        Channel channel;
+        while ((channel = waiting.poll()) != null) {
+            channel.unsafe().closeForcibly();
+        }
+        ctx.fireChannelInactive();
+    }
+}
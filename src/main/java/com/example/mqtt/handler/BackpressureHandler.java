@@ -0,0 +1,265 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.metrics.TrafficAccounting;
+import com.example.mqtt.protocol.MqttMessageType;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订阅者出站背压处理
+ * <p>
+ * 通道可写时PUBLISH直接写出；通道因超过写缓冲区高水位而不可写时，按QoS对应的策略丢弃或放入本连接的有界队列，
+ * 通道恢复可写后按顺序写出队列中的消息。队列超过消息数或字节数上限时，按配置断开连接，
+ * 或者挂起投递：丢弃队列并在恢复可写之前丢弃新的PUBLISH，QoS 1/2消息仍保存在会话的待确认消息中。
+ * <p>
+ * 只处理PUBLISH，确认类报文总是直接写出。每个连接一个实例，除统计字段外只在该连接的事件循环中访问。
+ * 启用流量统计时，丢弃的消息按客户端计入 {@link TrafficAccounting}，丢弃最多的客户端与其它热点一起发布。
+ */
+public class BackpressureHandler extends ChannelDuplexHandler {
+    private static final Logger logger = LoggerFactory.getLogger(BackpressureHandler.class);
+
+    public enum Policy {
+        // 通道不可写时丢弃
+        DROP,
+        // 通道不可写时放入队列，直到达到上限
+        BUFFER
+    }
+
+    public enum OverflowAction {
+        // 队列超过上限时断开连接
+        DISCONNECT,
+        // 队列超过上限时挂起投递，直到通道恢复可写
+        PARK
+    }
+
+    private final Policy[] policies;
+    private final int maxQueuedMessages;
+    private final long maxQueuedBytes;
+    private final OverflowAction overflowAction;
+    private final Counters counters;
+    private final TrafficAccounting trafficAccounting;
+
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+    private boolean parked;
+    // 连接被接受后设置，之前没有发给客户端的PUBLISH
+    private String clientId;
+
+    // 以下统计字段只在事件循环中写入，可在其它线程读取
+    private volatile long queuedBytes;
+    private volatile long droppedMessages;
+
+    /**
+     * @param policies          QoS 0、1、2 各自的策略
+     * @param maxQueuedMessages 队列中最多的消息数
+     * @param maxQueuedBytes    队列中最多的字节数
+     * @param overflowAction    队列超过上限时的处理方式
+     * @param counters          所有连接共享的统计
+     * @param trafficAccounting 按客户端统计丢弃的消息，未启用时为 null
+     */
+    public BackpressureHandler(Policy[] policies, int maxQueuedMessages, long maxQueuedBytes,
+                               OverflowAction overflowAction, Counters counters, TrafficAccounting trafficAccounting) {
+        if (policies.length != 3) {
+            throw new IllegalArgumentException("policies must contain one entry per QoS level");
+        }
+        this.policies = policies.clone();
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.overflowAction = overflowAction;
+        this.counters = counters;
+        this.trafficAccounting = trafficAccounting;
+    }
+
+    /**
+     * 连接的CONNECT被接受后由业务处理器设置，用于按客户端统计丢弃的消息
+     */
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        int qos = publishQos(msg);
+        if (qos < 0) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (queue.isEmpty() && !parked && ctx.channel().isWritable()) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (parked || policies[qos] == Policy.DROP) {
+            drop(msg, promise);
+            return;
+        }
+
+        long size = sizeOf(msg);
+        if (queue.size() >= maxQueuedMessages || queuedBytes + size > maxQueuedBytes) {
+            drop(msg, promise);
+            overflow(ctx);
+            return;
+        }
+        queue.add(new PendingWrite(msg, promise, size));
+        queuedBytes += size;
+        counters.queuedBytes.add(size);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            if (parked) {
+                logger.info("Client {} is writable again, resuming delivery", ctx.channel().remoteAddress());
+                parked = false;
+            }
+            drain(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discardQueue(false);
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        discardQueue(false);
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        while (!queue.isEmpty() && ctx.channel().isWritable()) {
+            PendingWrite pending = queue.poll();
+            queuedBytes -= pending.size;
+            counters.queuedBytes.add(-pending.size);
+            ctx.write(pending.msg, pending.promise);
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
+
+    private void overflow(ChannelHandlerContext ctx) {
+        counters.overflows.increment();
+        if (overflowAction == OverflowAction.DISCONNECT) {
+            logger.warn("Client {} outbound queue exceeded {} messages / {} bytes, disconnecting",
+                    ctx.channel().remoteAddress(), maxQueuedMessages, maxQueuedBytes);
+            discardQueue(true);
+            ctx.close();
+        } else {
+            logger.warn("Client {} outbound queue exceeded {} messages / {} bytes, parking delivery",
+                    ctx.channel().remoteAddress(), maxQueuedMessages, maxQueuedBytes);
+            discardQueue(true);
+            parked = true;
+        }
+    }
+
+    private void discardQueue(boolean countAsDropped) {
+        PendingWrite pending;
+        while ((pending = queue.poll()) != null) {
+            queuedBytes -= pending.size;
+            counters.queuedBytes.add(-pending.size);
+            if (countAsDropped) {
+                drop(pending.msg, pending.promise);
+            } else {
+                ReferenceCountUtil.release(pending.msg);
+                pending.promise.tryFailure(new IllegalStateException("channel closed"));
+            }
+        }
+    }
+
+    private void drop(Object msg, ChannelPromise promise) {
+        if (trafficAccounting != null && clientId != null) {
+            trafficAccounting.dropped(clientId, sizeOf(msg));
+        }
+        ReferenceCountUtil.release(msg);
+        // 被策略丢弃的消息视为已处理，不向调用方报告失败
+        promise.trySuccess();
+        droppedMessages++;
+        counters.droppedMessages.increment();
+    }
+
+    /**
+     * 返回PUBLISH的QoS，非PUBLISH返回-1。扇出时写入的是已编码好的帧，直接读取固定头部
+     */
+    private static int publishQos(Object msg) {
+        if (msg instanceof PublishMessage) {
+            return ((PublishMessage) msg).getQosLevel();
+        }
+        if (msg instanceof ByteBuf) {
+            ByteBuf frame = (ByteBuf) msg;
+            if (frame.isReadable()) {
+                int header = frame.getUnsignedByte(frame.readerIndex());
+                if ((header >> 4) == MqttMessageType.PUBLISH.value()) {
+                    return Math.min((header >> 1) & 0x03, 2);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        PublishMessage publish = (PublishMessage) msg;
+        return 4 + publish.getTopicBytes().length + publish.getPayload().readableBytes();
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    private static final class PendingWrite {
+        final Object msg;
+        final ChannelPromise promise;
+        final long size;
+
+        PendingWrite(Object msg, ChannelPromise promise, long size) {
+            this.msg = msg;
+            this.promise = promise;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 所有连接共享的背压统计
+     */
+    public static class Counters {
+        private final LongAdder queuedBytes = new LongAdder();
+        private final LongAdder droppedMessages = new LongAdder();
+        private final LongAdder overflows = new LongAdder();
+
+        /**
+         * 当前所有连接队列中的字节数
+         */
+        public long getQueuedBytes() {
+            return queuedBytes.sum();
+        }
+
+        public long getDroppedMessageCount() {
+            return droppedMessages.sum();
+        }
+
+        /**
+         * 队列超过上限（断开或挂起）的次数
+         */
+        public long getOverflowCount() {
+            return overflows.sum();
+        }
+    }
+}
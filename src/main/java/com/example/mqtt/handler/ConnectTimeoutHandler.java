@@ -0,0 +1,74 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.message.ConnectMessage;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 等待连接的第一个报文，超时未收到时关闭连接
+ * <p>
+ * 放在解码器之后、业务处理器之前。收到CONNECT后释放 {@link ConnectionAdmission} 的等待名额并把自己
+ * 从 pipeline 中移除，之后的报文不再经过本处理器；第一个报文不是CONNECT时直接关闭连接，名额在连接关闭时释放。
+ * 每个连接一个实例，所有方法都在该连接的事件循环中执行。
+ */
+public class ConnectTimeoutHandler extends ChannelInboundHandlerAdapter {
+    private final ConnectionAdmission admission;
+    private final long timeoutMillis;
+    private ScheduledFuture<?> timeout;
+    // 等待名额是否已释放
+    private boolean released;
+
+    /**
+     * @param timeoutMillis 等待第一个报文的时间，0表示不限
+     */
+    public ConnectTimeoutHandler(ConnectionAdmission admission, long timeoutMillis) {
+        this.admission = admission;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        if (timeoutMillis > 0) {
+            timeout = ctx.executor().schedule(() -> {
+                if (!released) {
+                    released = true;
+                    admission.connectTimedOut();
+                    ctx.close();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof ConnectMessage)) {
+            ReferenceCountUtil.release(msg);
+            ctx.close();
+            return;
+        }
+        release();
+        ctx.pipeline().remove(this);
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        release();
+        ctx.fireChannelInactive();
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            admission.connectReceived();
+        }
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.mqtt.handler;
+
+import io.netty.channel.Channel;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 新连接的准入控制，在为连接建立 pipeline 之前执行
+ * <p>
+ * 按来源IP的令牌桶限制建立连接的速率，并限制已接受但尚未发送CONNECT的连接数，超过的连接被拒绝。
+ * 全局速率由监听 socket 上的 {@link AcceptThrottle} 执行，超过时推迟而不是拒绝。
+ * 令牌桶以理论到达时间（GCRA）表示，每个桶只是一个 {@link AtomicLong}，各事件循环无锁地并发检查。
+ * 线程安全，所有连接共享一个实例。
+ */
+public class ConnectionAdmission {
+    public enum Rejection {
+        // 超过来源IP的速率
+        ADDRESS_RATE,
+        // 等待CONNECT的连接数已达上限
+        PENDING_LIMIT,
+        // 连接后未在限定时间内发送CONNECT
+        CONNECT_TIMEOUT
+    }
+
+    private final long addressInterval;
+    private final long addressTolerance;
+    private final long globalInterval;
+    private final long globalTolerance;
+    private final int maxPending;
+    private final int maxTrackedAddresses;
+
+    private final ConcurrentHashMap<InetAddress, AtomicLong> addresses = new ConcurrentHashMap<>();
+    private final AtomicLong global = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder[] rejected = new LongAdder[Rejection.values().length];
+
+    /**
+     * @param addressRate         每个来源IP每秒允许建立的连接数，0表示不限
+     * @param addressBurst        每个来源IP允许的突发连接数
+     * @param globalRate          每秒允许接受的连接总数，0表示不限
+     * @param globalBurst         全局允许的突发连接数
+     * @param maxPending          已接受但尚未收到CONNECT的最大连接数，0表示不限
+     * @param maxTrackedAddresses 最多跟踪的来源IP数，超过后新的IP只受全局速率限制
+     */
+    public ConnectionAdmission(double addressRate, int addressBurst, double globalRate, int globalBurst,
+                               int maxPending, int maxTrackedAddresses) {
+        this.addressInterval = interval(addressRate);
+        this.addressTolerance = addressInterval * Math.max(addressBurst - 1, 0);
+        this.globalInterval = interval(globalRate);
+        this.globalTolerance = globalInterval * Math.max(globalBurst - 1, 0);
+        this.maxPending = maxPending;
+        this.maxTrackedAddresses = maxTrackedAddresses;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    private static long interval(double rate) {
+        return rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+    }
+
+    /**
+     * 检查新接受的连接，通过时占用一个等待CONNECT的名额，调用方须在收到CONNECT或连接关闭时调用
+     * {@link #connectReceived()}
+     *
+     * @return 拒绝的原因，允许时返回 null
+     */
+    public Rejection admit(Channel channel) {
+        long now = System.nanoTime();
+        InetAddress address = addressOf(channel.remoteAddress());
+        if (addressInterval > 0 && address != null) {
+            AtomicLong bucket = addresses.get(address);
+            if (bucket == null && addresses.size() < maxTrackedAddresses) {
+                bucket = addresses.computeIfAbsent(address, key -> new AtomicLong(Long.MIN_VALUE));
+            }
+            if (bucket != null && acquire(bucket, addressInterval, addressTolerance, now) > 0) {
+                return reject(Rejection.ADDRESS_RATE);
+            }
+        }
+        if (pending.incrementAndGet() > maxPending && maxPending > 0) {
+            pending.decrementAndGet();
+            return reject(Rejection.PENDING_LIMIT);
+        }
+        admitted.increment();
+        return null;
+    }
+
+    /**
+     * 从令牌桶中取一个令牌
+     *
+     * @param bucket 下一个令牌的理论到达时间
+     * @return 0表示取得令牌，否则为令牌恢复还需等待的纳秒数
+     */
+    private static long acquire(AtomicLong bucket, long interval, long tolerance, long now) {
+        while (true) {
+            long arrival = bucket.get();
+            long next = (arrival == Long.MIN_VALUE || arrival - now < 0 ? now : arrival) + interval;
+            long waitNanos = next - now - interval - tolerance;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 从全局令牌桶中取一个令牌，由 {@link AcceptThrottle} 在 accept 线程上调用
+     *
+     * @return 0表示取得令牌，否则为令牌恢复还需等待的纳秒数
+     */
+    long acquireGlobal() {
+        return globalInterval > 0 ? acquire(global, globalInterval, globalTolerance, System.nanoTime()) : 0;
+    }
+
+    void recordDelayed() {
+        delayed.increment();
+    }
+
+    public boolean isGlobalRateLimited() {
+        return globalInterval > 0;
+    }
+
+    private static InetAddress addressOf(SocketAddress address) {
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : null;
+    }
+
+    private Rejection reject(Rejection reason) {
+        rejected[reason.ordinal()].increment();
+        return reason;
+    }
+
+    /**
+     * 连接收到了第一个报文或已关闭，释放等待CONNECT的名额
+     */
+    public void connectReceived() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * 连接未在限定时间内发送CONNECT，释放名额并计数
+     */
+    public void connectTimedOut() {
+        pending.decrementAndGet();
+        reject(Rejection.CONNECT_TIMEOUT);
+    }
+
+    /**
+     * 移除令牌已经恢复满的来源IP，由定时任务调用
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        for (Iterator<AtomicLong> it = addresses.values().iterator(); it.hasNext(); ) {
+            long arrival = it.next().get();
+            if (arrival == Long.MIN_VALUE || arrival - now <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    /**
+     * 因超过全局速率而推迟接受的连接数
+     */
+    public long getDelayedCount() {
+        return delayed.sum();
+    }
+
+    public long getRejectedCount(Rejection reason) {
+        return rejected[reason.ordinal()].sum();
+    }
+
+    /**
+     * 已接受但尚未收到CONNECT的连接数
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getTrackedAddressCount() {
+        return addresses.size();
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并flush，减少 write/writev 系统调用
+ * <p>
+ * 读取过程中（channelRead 到 channelReadComplete 之间）的 flush 会被推迟到 channelReadComplete 统一执行；
+ * 不在读取过程中时（例如其它连接扇出过来的消息），flush 会作为任务提交到事件循环，
+ * 在当前已排队的任务执行完之后再统一执行。
+ * 待发送的消息数或字节数超过上限时立即 flush，避免积压过多。
+ * <p>
+ * 必须放在 pipeline 的最前面（最靠近socket），这样才能拦截所有的 flush 并统计编码后的字节数。
+ * 非线程安全，每个连接一个实例，所有方法都在该连接的事件循环中执行。
+ */
+public class FlushCoalescingHandler extends ChannelDuplexHandler {
+    private final int maxPendingWrites;
+    private final long maxPendingBytes;
+    private final Counters counters;
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+    private boolean readInProgress;
+    // 上次 flush 之后写入但尚未 flush 的消息数和字节数
+    private int pendingWrites;
+    private long pendingBytes;
+    // 是否有被推迟的 flush
+    private boolean flushPending;
+    private boolean flushScheduled;
+
+    /**
+     * @param maxPendingWrites 未 flush 的消息数达到该值时强制 flush
+     * @param maxPendingBytes  未 flush 的字节数达到该值时强制 flush
+     * @param counters         所有连接共享的统计计数
+     */
+    public FlushCoalescingHandler(int maxPendingWrites, long maxPendingBytes, Counters counters) {
+        if (maxPendingWrites <= 0) {
+            throw new IllegalArgumentException("maxPendingWrites must be positive: " + maxPendingWrites);
+        }
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes must be positive: " + maxPendingBytes);
+        }
+        this.maxPendingWrites = maxPendingWrites;
+        this.maxPendingBytes = maxPendingBytes;
+        this.counters = counters;
+        this.flushTask = () -> {
+            flushScheduled = false;
+            if (flushPending && !readInProgress) {
+                flushNow();
+            }
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushIfPending();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+        flushIfPending();
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 变为不可写时立即 flush，让积压的数据尽快进入 socket
+        if (!ctx.channel().isWritable()) {
+            flushIfPending();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        pendingWrites++;
+        pendingBytes += sizeOf(msg);
+        counters.messages.increment();
+        ctx.write(msg, promise);
+        if (pendingWrites >= maxPendingWrites || pendingBytes >= maxPendingBytes) {
+            counters.forcedFlushes.increment();
+            flushNow();
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (pendingWrites == 0) {
+            return;
+        }
+        flushPending = true;
+        if (readInProgress) {
+            // 等到 channelReadComplete 再统一 flush
+            return;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            ctx.channel().eventLoop().execute(flushTask);
+        }
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushIfPending();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        flushIfPending();
+        ctx.fireExceptionCaught(cause);
+    }
+
+    private void flushIfPending() {
+        if (flushPending) {
+            flushNow();
+        }
+    }
+
+    private void flushNow() {
+        flushPending = false;
+        pendingWrites = 0;
+        pendingBytes = 0;
+        counters.flushes.increment();
+        ctx.flush();
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * 所有连接共享的 flush 统计
+     */
+    public static class Counters {
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder flushes = new LongAdder();
+        private final LongAdder forcedFlushes = new LongAdder();
+
+        /**
+         * 写出的消息（编码后的缓冲区）数量
+         */
+        public long getMessageCount() {
+            return messages.sum();
+        }
+
+        /**
+         * 实际传到 socket 的 flush 次数，每次 flush 至少对应一次 write/writev 系统调用
+         */
+        public long getFlushCount() {
+            return flushes.sum();
+        }
+
+        /**
+         * 因待发送消息数或字节数超过上限而强制执行的 flush 次数
+         */
+        public long getForcedFlushCount() {
+            return forcedFlushes.sum();
+        }
+
+        /**
+         * 平均每条消息的 flush（系统调用）次数
+         */
+        public double getFlushesPerMessage() {
+            long messageCount = messages.sum();
+            return messageCount == 0 ? 0 : (double) flushes.sum() / messageCount;
+        }
+    }
+}
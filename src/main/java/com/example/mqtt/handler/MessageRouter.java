@@ -0,0 +1,263 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.codec.SharedPublishFrame;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.metrics.TrafficAccounting;
+import com.example.mqtt.session.InflightWindow;
+import com.example.mqtt.session.RetainedStore;
+import com.example.mqtt.session.Session;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.ShareStrategy;
+import com.example.mqtt.session.SharedGroup;
+import com.example.mqtt.session.Subscription;
+import com.example.mqtt.trace.MessageTracer;
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把PUBLISH投递给本节点上匹配的订阅者，所有连接共用一个实例
+ * <p>
+ * 客户端发布的消息经 {@link #publish(PublishMessage, String)} 进入，先交给 {@link Forwarder}（集群模式下
+ * 转发到有匹配订阅的其它节点），再投递给本节点的订阅者；其它节点转发来的消息经
+ * {@link #deliver(PublishMessage, String)} 只投递给本节点，不再转发。
+ */
+public class MessageRouter {
+    private static final Logger logger = LoggerFactory.getLogger(MessageRouter.class);
+
+    /**
+     * 把本节点客户端发布的消息和连接事件转发到其它节点
+     */
+    public interface Forwarder {
+        /**
+         * 在本地投递之前调用，消息的RETAIN标志尚未清除。不改变消息的引用计数
+         */
+        void forward(PublishMessage message, String publisherId);
+
+        /**
+         * 客户端在本节点建立连接后调用，其它节点上同一客户端ID的连接和会话应被接管
+         */
+        void clientConnected(String clientId);
+    }
+
+    private final SessionManager sessionManager;
+    private final Map<String, Channel> clientChannels;
+    // 保留消息存储，未启用时为 null
+    private final RetainedStore retainedStore;
+    private final ShareStrategy shareStrategy;
+    private final AtomicInteger packetIdGenerator = new AtomicInteger(1);
+    private volatile Forwarder forwarder;
+    // 按客户端统计接收流量，未启用时为 null
+    private volatile TrafficAccounting trafficAccounting;
+    // 消息轨迹，未启用时为 null
+    private volatile MessageTracer messageTracer;
+
+    // 共享订阅成员的负载：优先选择在线且通道可写的成员，都不可写时退而选择在线或有持久会话的成员
+    private final ShareStrategy.MemberLoad writableMemberLoad = member -> memberLoad(member, true);
+    private final ShareStrategy.MemberLoad reachableMemberLoad = member -> memberLoad(member, false);
+
+    public MessageRouter(SessionManager sessionManager, Map<String, Channel> clientChannels,
+                         RetainedStore retainedStore, ShareStrategy shareStrategy) {
+        this.sessionManager = sessionManager;
+        this.clientChannels = clientChannels;
+        this.retainedStore = retainedStore;
+        this.shareStrategy = shareStrategy;
+    }
+
+    public void setForwarder(Forwarder forwarder) {
+        this.forwarder = forwarder;
+    }
+
+    public void setTrafficAccounting(TrafficAccounting trafficAccounting) {
+        this.trafficAccounting = trafficAccounting;
+    }
+
+    public void setMessageTracer(MessageTracer messageTracer) {
+        this.messageTracer = messageTracer;
+    }
+
+    /**
+     * 路由本节点客户端发布的消息：转发到其它节点，然后投递给本节点的订阅者
+     *
+     * @param message     消息，不改变其引用计数
+     * @param publisherId 发布者的客户端ID
+     * @return 投递给的本节点订阅者数
+     */
+    public int publish(PublishMessage message, String publisherId) {
+        Forwarder forwarder = this.forwarder;
+        if (forwarder != null) {
+            forwarder.forward(message, publisherId);
+        }
+        return deliver(message, publisherId);
+    }
+
+    /**
+     * 客户端在本节点建立连接，通知其它节点断开同一客户端ID的旧连接
+     */
+    public void clientConnected(String clientId) {
+        Forwarder forwarder = this.forwarder;
+        if (forwarder != null) {
+            forwarder.clientConnected(clientId);
+        }
+    }
+
+    /**
+     * 投递给本节点上匹配的订阅者
+     *
+     * @param originalMessage 消息，不改变其引用计数
+     * @param publisherId     发布者的客户端ID
+     * @return 投递给的订阅者数，包括进入离线持久会话队列的
+     */
+    public int deliver(PublishMessage originalMessage, String publisherId) {
+        if (originalMessage.isRetain()) {
+            // 保存或清除（空负载）主题的保留消息，转发给已有订阅者时RETAIN标志为0
+            if (retainedStore != null) {
+                retainedStore.put(originalMessage);
+            }
+            originalMessage.setRetain(false);
+        }
+
+        // 订阅索引一次性返回精确订阅和 '+'、'#' 通配符订阅，结果经过缓存
+        Subscription[] subscribers = sessionManager.getSubscribers(originalMessage.getTopic());
+        if (subscribers.length == 0) {
+            return 0;
+        }
+
+        TrafficAccounting accounting = this.trafficAccounting;
+        int payloadBytes = accounting != null ? originalMessage.getPayload().readableBytes() : 0;
+        int deliveries = 0;
+        MessageTracer tracer = this.messageTracer;
+        // 主题的采样率对所有订阅者相同，只计算一次
+        double topicTraceRate = tracer != null ? tracer.topicRate(originalMessage.getTopic()) : 0;
+
+        // 每种有效QoS只编码一次，所有订阅者共享同一份主题和负载
+        SharedPublishFrame[] frames = new SharedPublishFrame[3];
+        try {
+            for (int i = 0; i < subscribers.length; i++) {
+                Subscription subscription = subscribers[i];
+                if (subscription.isShared()) {
+                    // 共享订阅按组相邻排列，每组只投递给策略选中的一个成员
+                    int end = i + 1;
+                    while (end < subscribers.length
+                            && subscribers[end].getTopicFilter().equals(subscription.getTopicFilter())) {
+                        end++;
+                    }
+                    int selected = selectSharedMember(subscribers, i, end, publisherId);
+                    i = end - 1;
+                    if (selected < 0) {
+                        continue;
+                    }
+                    subscription = subscribers[selected];
+                }
+                if (deliverToSubscriber(originalMessage, subscription, frames)) {
+                    deliveries++;
+                    if (accounting != null) {
+                        accounting.delivered(subscription.getClientId(), payloadBytes);
+                    }
+                    if (tracer != null && tracer.sample(subscription.getClientId(), topicTraceRate)) {
+                        tracer.delivered(subscription.getClientId(), originalMessage,
+                                Math.min(originalMessage.getQosLevel(), subscription.getQos().value()));
+                    }
+                }
+            }
+        } finally {
+            for (SharedPublishFrame frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * @return 消息是否写出或进入了订阅者会话的队列
+     */
+    private boolean deliverToSubscriber(PublishMessage originalMessage, Subscription subscription, SharedPublishFrame[] frames) {
+        Channel channel = clientChannels.get(subscription.getClientId());
+        boolean online = channel != null && channel.isActive();
+
+        // 根据订阅QoS设置消息QoS
+        int effectiveQos = Math.min(originalMessage.getQosLevel(), subscription.getQos().value());
+
+        // QoS > 0 的消息交给订阅者会话的在途窗口，由窗口分配PacketId、限制未确认数量并负责重传。
+        // 持久会话的客户端离线时消息在窗口的队列中等待，重连后按顺序发送
+        Session clientSession = effectiveQos > 0 ? sessionManager.getSession(subscription.getClientId()) : null;
+        if (!online && (clientSession == null || clientSession.isCleanSession())) {
+            return false;
+        }
+
+        SharedPublishFrame frame = null;
+        if (online) {
+            frame = frames[effectiveQos];
+            if (frame == null) {
+                frame = SharedPublishFrame.encode(channel.alloc(), originalMessage, effectiveQos);
+                frames[effectiveQos] = frame;
+            }
+        }
+
+        int packetId = 0;
+        if (effectiveQos > 0) {
+            if (clientSession != null) {
+                // 负载与原消息共享
+                PublishMessage outbound = originalMessage.retainedDuplicate();
+                outbound.setDup(false);
+                outbound.setQosLevel(effectiveQos);
+                clientSession.getOutbound().send(outbound, frame);
+                logger.debug("Sent message to subscriber[{}], topic={}", subscription.getClientId(), subscription.getTopicFilter());
+                return true;
+            }
+            packetId = nextGlobalPacketId();
+        }
+
+        channel.writeAndFlush(frame.retainedFrame(channel.alloc(), packetId));
+        logger.debug("Sent message to subscriber[{}], topic={}", subscription.getClientId(), subscription.getTopicFilter());
+        return true;
+    }
+
+    /**
+     * 按负载均衡策略选择共享订阅组中接收消息的成员
+     *
+     * @return 选中成员的下标，组内没有可用成员时返回 -1
+     */
+    private int selectSharedMember(Subscription[] subscribers, int from, int to, String publisherId) {
+        SharedGroup group = sessionManager.getSharedGroup(subscribers[from].getTopicFilter());
+        int selected = shareStrategy.select(group, subscribers, from, to, publisherId, writableMemberLoad);
+        if (selected < 0) {
+            selected = shareStrategy.select(group, subscribers, from, to, publisherId, reachableMemberLoad);
+        }
+        return selected;
+    }
+
+    private int memberLoad(Subscription member, boolean requireWritable) {
+        Channel channel = clientChannels.get(member.getClientId());
+        boolean online = channel != null && channel.isActive();
+        Session memberSession = sessionManager.getSession(member.getClientId());
+        boolean available = requireWritable
+                ? online && channel.isWritable()
+                : online || (memberSession != null && !memberSession.isCleanSession());
+        if (!available) {
+            return -1;
+        }
+        if (memberSession == null) {
+            return 0;
+        }
+        InflightWindow outbound = memberSession.getOutbound();
+        return outbound.inflightSize() + outbound.queuedSize();
+    }
+
+    /**
+     * 没有会话的订阅者使用全局生成器，有会话时由会话的在途窗口分配
+     */
+    private int nextGlobalPacketId() {
+        int packetId = packetIdGenerator.getAndIncrement();
+        if (packetId > 65535 || packetId <= 0) {
+            packetIdGenerator.compareAndSet(packetId + 1, 2);
+            packetId = 1;
+        }
+        return packetId;
+    }
+}
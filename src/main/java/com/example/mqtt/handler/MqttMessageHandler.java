@@ -1,43 +1,87 @@
 package com.example.mqtt.handler;
 
+import com.example.mqtt.auth.Acl;
+import com.example.mqtt.auth.AclCache;
+import com.example.mqtt.auth.Authenticator;
 import com.example.mqtt.config.MqttBrokerProperties;
 import com.example.mqtt.message.*;
+import com.example.mqtt.metrics.BrokerMetrics;
+import com.example.mqtt.metrics.TrafficAccounting;
 import com.example.mqtt.protocol.MqttMessageType;
 import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.session.RetainedStore;
 import com.example.mqtt.session.Session;
+import com.example.mqtt.session.SessionFactory;
 import com.example.mqtt.session.SessionManager;
 import com.example.mqtt.session.Subscription;
+import com.example.mqtt.trace.MessageTracer;
+import com.example.mqtt.topic.Topics;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage> {
     private static final Logger logger = LoggerFactory.getLogger(MqttMessageHandler.class);
-    private static final Logger loggerDebug = LoggerFactory.getLogger("logger.DEBUG_MSG");
 
     private final SessionManager sessionManager;
     private final Map<String, Channel> clientChannels;
-    private final AtomicInteger packetIdGenerator = new AtomicInteger(1);
 
     private String clientId;
     private Session session;
 
     private MqttBrokerProperties mqttBrokerProperties;
-
-    public MqttMessageHandler(SessionManager sessionManager, Map<String, Channel> clientChannels, MqttBrokerProperties mqttBrokerPropertie) {
+    private final SessionFactory sessionFactory;
+    // 保留消息存储，未启用时为 null
+    private final RetainedStore retainedStore;
+    private RetainedDelivery retainedDelivery;
+    private final MessageRouter messageRouter;
+    private final BrokerMetrics metrics;
+    // 按客户端和主题统计发布流量，未启用时为 null
+    private final TrafficAccounting trafficAccounting;
+    // 消息轨迹，未启用时为 null
+    private final MessageTracer messageTracer;
+    private final Authenticator authenticator;
+    // 主题访问控制，未启用时为 null
+    private final Acl acl;
+    // 本连接的权限检查结果，CONNECT被接受后创建
+    private AclCache aclCache;
+    // 发布配额，未启用时为 null
+    private final PublishQuotas publishQuotas;
+    // 本连接的配额，CONNECT被接受后创建，不限速时为 null
+    private PublishQuota publishQuota;
+    // CONNECT的认证进行中，期间收到的报文暂存在 pendingMessages
+    private boolean authenticating;
+    private List<MqttMessage> pendingMessages;
+
+    public MqttMessageHandler(SessionManager sessionManager, Map<String, Channel> clientChannels, MqttBrokerProperties mqttBrokerPropertie,
+                              SessionFactory sessionFactory, RetainedStore retainedStore, MessageRouter messageRouter,
+                              BrokerMetrics metrics, TrafficAccounting trafficAccounting,
+                              MessageTracer messageTracer, Authenticator authenticator, Acl acl,
+                              PublishQuotas publishQuotas) {
         this.sessionManager = sessionManager;
         this.clientChannels = clientChannels;
         this.mqttBrokerProperties = mqttBrokerPropertie;
+        this.sessionFactory = sessionFactory;
+        this.retainedStore = retainedStore;
+        this.messageRouter = messageRouter;
+        this.metrics = metrics;
+        this.trafficAccounting = trafficAccounting;
+        this.messageTracer = messageTracer;
+        this.authenticator = authenticator;
+        this.acl = acl;
+        this.publishQuotas = publishQuotas;
     }
 
     @Override
@@ -49,17 +93,53 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         logger.info("Client disconnected: {}", clientId != null ? clientId : ctx.channel().remoteAddress());
+        releasePendingMessages();
+        if (publishQuota != null) {
+            publishQuota.setThrottled(false);
+        }
+        if (session != null) {
+            // 只统计已接受CONNECT的连接
+            metrics.disconnected();
+        }
         if (clientId != null) {
-            clientChannels.remove(clientId);
-            if (session != null && session.isCleanSession()) {
-                sessionManager.removeSession(clientId);
+            clientChannels.remove(clientId, ctx.channel());
+            if (session != null) {
+                // 未确认的消息保留在会话中，持久会话恢复时重发
+                session.getOutbound().unbind(ctx.channel());
+                if (session.isCleanSession()) {
+                    sessionManager.removeSession(clientId, session);
+                }
             }
         }
+        if (retainedDelivery != null) {
+            retainedDelivery.clear();
+        }
         super.channelInactive(ctx);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (retainedDelivery != null && ctx.channel().isWritable()) {
+            retainedDelivery.resume();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, MqttMessage msg) throws Exception {
+        if (authenticating) {
+            // 客户端可以不等CONNACK就发送后续报文，认证通过后按顺序处理
+            if (pendingMessages == null) {
+                pendingMessages = new ArrayList<>(4);
+            }
+            pendingMessages.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        if (clientId == null && msg.getMessageType() != MqttMessageType.CONNECT) {
+            // 第一个报文必须是CONNECT
+            ctx.close();
+            return;
+        }
         switch (msg.getMessageType()) {
             case CONNECT:
                 handleConnect(ctx, (ConnectMessage) msg);
@@ -102,6 +182,7 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
             // 不支持的协议版本
             ConnAckMessage connAck = new ConnAckMessage();
             connAck.setReturnCode(1); // 不接受的协议版本
+            metrics.connectRejected();
             ctx.writeAndFlush(connAck);
             ctx.close();
             return;
@@ -111,6 +192,7 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
         if (clientId == null || clientId.isEmpty()) {
             if (msg.getProtocolVersion() == 3) {
                 // MQTT 3.1要求客户端ID不能为空
+                metrics.connectRejected();
                 ctx.close();
                 return;
             } else {
@@ -121,42 +203,108 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
 
         // 用户名密码验证
         if (msg.isHasUsername() && msg.getUsername() != null) {
-            // 进行用户名密码验证
-            boolean authenticated = authenticateUser(msg.getUsername(), msg.getPassword());
-            if (!authenticated) {
-                ConnAckMessage connAck = new ConnAckMessage();
-                connAck.setReturnCode(4); // 用户名或密码错误
-                ctx.writeAndFlush(connAck);
-                ctx.close();
-                return;
-            }
+            // 慢哈希校验在认证线程池上进行，完成前暂停读取，已解码的后续报文暂存
+            authenticating = true;
+            ctx.channel().config().setAutoRead(false);
+            authenticator.authenticate(msg.getUsername(), msg.getPassword(), ctx.executor()).addListener(
+                    (Future<Authenticator.Result> future) -> onAuthenticated(ctx, msg, future.getNow()));
+            return;
         } else if (isAuthenticationRequired()) {
             // 如果服务器要求认证但客户端未提供用户名密码
             ConnAckMessage connAck = new ConnAckMessage();
             connAck.setReturnCode(4); // 用户名或密码错误
+            metrics.connectRejected();
             ctx.writeAndFlush(connAck);
             ctx.close();
             return;
         }
+        acceptConnect(ctx, msg);
+    }
 
+    private void onAuthenticated(ChannelHandlerContext ctx, ConnectMessage msg, Authenticator.Result result) {
+        authenticating = false;
+        if (!ctx.channel().isActive()) {
+            releasePendingMessages();
+            return;
+        }
+        if (result != Authenticator.Result.ACCEPTED) {
+            ConnAckMessage connAck = new ConnAckMessage();
+            // 认证线程池已满时返回服务不可用，客户端稍后重试
+            connAck.setReturnCode(result == Authenticator.Result.UNAVAILABLE ? 3 : 4);
+            metrics.connectRejected();
+            ctx.writeAndFlush(connAck);
+            ctx.close();
+            releasePendingMessages();
+            return;
+        }
+        acceptConnect(ctx, msg);
+        ctx.channel().config().setAutoRead(true);
+
+        List<MqttMessage> pending = pendingMessages;
+        pendingMessages = null;
+        if (pending != null) {
+            for (MqttMessage pendingMessage : pending) {
+                try {
+                    if (ctx.channel().isActive()) {
+                        channelRead0(ctx, pendingMessage);
+                    }
+                } catch (Exception e) {
+                    logger.error("Exception in MQTT handler", e);
+                    ctx.close();
+                } finally {
+                    ReferenceCountUtil.release(pendingMessage);
+                }
+            }
+        }
+        // 不在读事件中，没有 channelReadComplete 触发刷新
+        ctx.flush();
+    }
+
+    private void releasePendingMessages() {
+        if (pendingMessages != null) {
+            for (MqttMessage pendingMessage : pendingMessages) {
+                ReferenceCountUtil.release(pendingMessage);
+            }
+            pendingMessages = null;
+        }
+    }
+
+    private void acceptConnect(ChannelHandlerContext ctx, ConnectMessage msg) {
         // 检查是否已有连接
         Channel existingChannel = clientChannels.put(clientId, ctx.channel());
         if (existingChannel != null && existingChannel.isActive()) {
             existingChannel.close();
         }
+        // 集群中其它节点上同一客户端ID的连接同样被接管
+        messageRouter.clientConnected(clientId);
 
         // 获取或创建会话
         session = sessionManager.getSession(clientId);
+        boolean sessionPresent = session != null && !msg.isCleanSession();
         if (session == null || msg.isCleanSession()) {
-            session = new Session(clientId, msg.isCleanSession(), msg.getKeepAlive());
+            session = sessionFactory.create(clientId, msg.isCleanSession(), msg.getKeepAlive());
             sessionManager.addSession(session);
         }
 
         // 发送CONNACK
         ConnAckMessage connAck = new ConnAckMessage();
         connAck.setReturnCode(0); // 连接接受
-        connAck.setSessionPresent(!msg.isCleanSession() && sessionManager.getSession(clientId) != null);
-        ctx.writeAndFlush(connAck);
+        connAck.setSessionPresent(sessionPresent);
+        ctx.write(connAck);
+        metrics.connected();
+
+        BackpressureHandler backpressure = ctx.pipeline().get(BackpressureHandler.class);
+        if (backpressure != null) {
+            backpressure.setClientId(clientId);
+        }
+        // 绑定在途窗口，恢复的持久会话在CONNACK之后按原顺序重发未确认的消息
+        session.getOutbound().bind(ctx.channel());
+        if (acl != null) {
+            aclCache = acl.newCache(msg.getUsername(), clientId, mqttBrokerProperties.getAcl().getCacheSize());
+        }
+        if (publishQuotas != null) {
+            publishQuota = publishQuotas.newQuota(clientId, msg.getUsername());
+        }
 
         logger.info("Client {} connected with clean session: {}", clientId, msg.isCleanSession());
     }
@@ -167,17 +315,52 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
             return;
         }
 
-        String msgPayload = new String(msg.getPayload(), java.nio.charset.StandardCharsets.UTF_8);
-//        logger.info("Recv publish msg from client id={}, topic={}, payload={}", clientId, msg.getTopicName(), msgPayload);
-        logger.info("Recv publish msg from client id={}, topic={}", clientId, msg.getTopicName());
-        loggerDebug.info("Recv publish msg from client id={}, topic={}, payload={}", clientId, msg.getTopicName(), msgPayload);
+        // PUBLISH的主题名不允许包含通配符
+        if (!msg.getTopic().isValidName()) {
+            logger.warn("Client {} published to invalid topic {}, closing connection", clientId, msg.getTopicName());
+            ctx.close();
+            return;
+        }
+
+        logger.debug("Recv publish msg from client id={}, topic={}", clientId, msg.getTopicName());
+        // 发布配额，超出时按配置暂停读取、丢弃或断开
+        boolean withinQuota = true;
+        if (publishQuota != null) {
+            PublishQuota.Action action = publishQuotas.getAction();
+            long waitNanos = publishQuota.acquire(msg.getPayload().readableBytes(),
+                    action == PublishQuota.Action.PAUSE);
+            if (waitNanos > 0) {
+                if (action == PublishQuota.Action.DISCONNECT) {
+                    logger.warn("Client {} exceeded its publish quota, closing connection", clientId);
+                    publishQuotas.getCounters().disconnected();
+                    ctx.close();
+                    return;
+                }
+                // 暂停读取时当前消息已经透支了令牌，照常处理
+                withinQuota = action == PublishQuota.Action.PAUSE;
+                throttle(ctx, waitNanos, action == PublishQuota.Action.PAUSE);
+            }
+        }
+        // 负载文本只在消息被采样时生成，由后台线程写入 logger.DEBUG_MSG
+        if (messageTracer != null && messageTracer.sample(clientId, msg.getTopic())) {
+            messageTracer.published(clientId, msg);
+        }
+        // 没有发布权限的消息按协议正常确认，但不转发
+        boolean allowed = withinQuota && (aclCache == null || aclCache.canPublish(msg.getTopic()));
+        if (withinQuota && !allowed) {
+            logger.debug("Client {} is not allowed to publish to {}", clientId, msg.getTopicName());
+        }
         // 处理QoS
         switch (msg.getQosLevel()) {
             case 0: // At most once
-                deliverMessageToSubscribers(msg);
+                if (allowed) {
+                    route(msg);
+                }
                 break;
             case 1: // At least once
-                deliverMessageToSubscribers(msg);
+                if (allowed) {
+                    route(msg);
+                }
                 // 发送PUBACK
                 PacketIdMessage pubAck = new PacketIdMessage(MqttMessageType.PUBACK);
                 pubAck.setQosLevel(0);
@@ -185,7 +368,8 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
                 ctx.writeAndFlush(pubAck);
                 break;
             case 2: // Exactly once
-                if (session != null) {
+                if (allowed && session != null) {
+                    // 消息在channelRead0返回后会被自动释放，保存到会话时需要增加引用
                     session.addInboundMessage(msg.getPacketId(), msg);
                 }
                 // 发送PUBREC
@@ -197,13 +381,64 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
         }
     }
 
+    /**
+     * 进入限流状态，令牌恢复后自动解除
+     *
+     * @param pauseReading 是否在限流期间停止读取该连接
+     */
+    private void throttle(ChannelHandlerContext ctx, long waitNanos, boolean pauseReading) {
+        if (publishQuota.isThrottled()) {
+            return;
+        }
+        logger.debug("Client {} exceeded its publish quota, throttling for {} us", clientId, waitNanos / 1000);
+        publishQuota.setThrottled(true);
+        if (pauseReading) {
+            ctx.channel().config().setAutoRead(false);
+        }
+        ctx.executor().schedule(() -> endThrottle(ctx, pauseReading), waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void endThrottle(ChannelHandlerContext ctx, boolean pauseReading) {
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        // 暂停读取前已解码的消息会继续透支，需要等待全部还清
+        long waitNanos = publishQuota.waitNanos();
+        if (waitNanos > 0) {
+            ctx.executor().schedule(() -> endThrottle(ctx, pauseReading), waitNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        publishQuota.setThrottled(false);
+        if (pauseReading) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * 路由客户端发布的消息，并记入流量统计
+     */
+    private void route(PublishMessage msg) {
+        int payloadBytes = msg.getPayload().readableBytes();
+        int deliveries = messageRouter.publish(msg, clientId);
+        if (trafficAccounting != null) {
+            trafficAccounting.published(clientId, msg.getTopicName(), payloadBytes, deliveries);
+        }
+    }
+
     private void handlePubAck(ChannelHandlerContext ctx, PacketIdMessage msg) {
         if (session != null) {
-            session.removeOutboundMessage(msg.getPacketId());
+            session.getOutbound().acknowledge(msg.getPacketId());
+        }
+        if (retainedDelivery != null) {
+            retainedDelivery.resume();
         }
     }
 
     private void handlePubRec(ChannelHandlerContext ctx, PacketIdMessage msg) {
+        if (session != null) {
+            // 进入PUBREL阶段，之后重传的是PUBREL
+            session.getOutbound().received(msg.getPacketId());
+        }
         // 发送PUBREL
         PacketIdMessage pubRel = new PacketIdMessage(MqttMessageType.PUBREL);
         pubRel.setQosLevel(1);
@@ -217,7 +452,11 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
             PublishMessage originalMessage = session.removeInboundMessage(msg.getPacketId());
             if (originalMessage != null) {
                 // 在QoS 2握手完成后，转发消息给订阅者
-                deliverMessageToSubscribers(originalMessage);
+                try {
+                    route(originalMessage);
+                } finally {
+                    originalMessage.release();
+                }
             }
         }
         // 发送PUBCOMP
@@ -229,7 +468,10 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
 
     private void handlePubComp(ChannelHandlerContext ctx, PacketIdMessage msg) {
         if (session != null) {
-            session.removeOutboundMessage(msg.getPacketId());
+            session.getOutbound().acknowledge(msg.getPacketId());
+        }
+        if (retainedDelivery != null) {
+            retainedDelivery.resume();
         }
     }
 
@@ -243,15 +485,55 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
         subAck.setPacketId(msg.getPacketId());
 
         for (SubscribeMessage.TopicSubscription topic : msg.getTopics()) {
+            if (!Topics.isValidFilter(topic.getTopic()) || topic.getQos() > 2) {
+                logger.warn("Client {} sent invalid subscription {}", clientId, topic.getTopic());
+                subAck.addReturnCode(0x80); // 订阅失败
+                continue;
+            }
+            if (Topics.isSharedFilter(topic.getTopic()) && mqttBrokerProperties.getCluster().isEnabled()) {
+                // 各节点各自从组内选出一个成员，成员分布在多个节点上时同一条消息会被投递多次
+                logger.info("Client {} cannot subscribe to {}: shared subscriptions are not supported in cluster mode",
+                        clientId, topic.getTopic());
+                subAck.addReturnCode(0x80);
+                continue;
+            }
+            if (aclCache != null && !aclCache.canSubscribe(topic.getTopic())) {
+                logger.info("Client {} is not allowed to subscribe to {}", clientId, topic.getTopic());
+                subAck.addReturnCode(0x80);
+                continue;
+            }
             logger.info("Client {} subscribed to topic {}", clientId, topic.getTopic());
             Subscription subscription = new Subscription(clientId, topic.getTopic(), MqttQoS.valueOf(topic.getQos()));
             sessionManager.addSubscription(topic.getTopic(), subscription);
             subAck.addReturnCode(topic.getQos()); // 接受订阅
+            if (!subscription.isShared()) {
+                // 建立共享订阅时不发送保留消息
+                deliverRetainedMessages(ctx, topic.getTopic(), topic.getQos());
+            }
         }
 
         ctx.writeAndFlush(subAck);
     }
 
+    /**
+     * 在SUBACK之后分批发送与新订阅匹配的保留消息
+     */
+    private void deliverRetainedMessages(ChannelHandlerContext ctx, String topicFilter, int qos) {
+        if (retainedStore == null || session == null) {
+            return;
+        }
+        List<RetainedStore.Entry> entries = new ArrayList<>();
+        retainedStore.match(topicFilter, entries);
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (retainedDelivery == null) {
+            retainedDelivery = new RetainedDelivery(ctx.channel(), session.getOutbound(),
+                    mqttBrokerProperties.getRetained().getDeliveryBatchSize());
+        }
+        retainedDelivery.add(entries, qos);
+    }
+
     private void handleUnsubscribe(ChannelHandlerContext ctx, UnsubscribeMessage msg) {
         if (clientId == null) {
             ctx.close();
@@ -277,83 +559,14 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
     private void handleDisconnect(ChannelHandlerContext ctx) {
         if (clientId != null) {
             logger.info("Client {} disconnected", clientId);
-            clientChannels.remove(clientId);
+            clientChannels.remove(clientId, ctx.channel());
             if (session != null && session.isCleanSession()) {
-                sessionManager.removeSession(clientId);
+                sessionManager.removeSession(clientId, session);
             }
         }
         ctx.close();
     }
 
-    private void deliverMessage(PublishMessage message) {
-        Set<Subscription> subscribers = sessionManager.getSubscribers(message.getTopicName());
-        for (Subscription subscription : subscribers) {
-            Channel channel = clientChannels.get(subscription.getClientId());
-            if (channel != null && channel.isActive()) {
-                channel.writeAndFlush(message);
-            }
-        }
-    }
-
-    private void deliverMessageToSubscribers(PublishMessage originalMessage) {
-        Set<Subscription> subscribers = sessionManager.getSubscribers(originalMessage.getTopicName());
-
-        // 添加对 '+' 通配符的支持
-        Set<Subscription> wildcardSubscribers = sessionManager.getWildcardSubscribers(originalMessage.getTopicName(), "+");
-        if (wildcardSubscribers != null && !wildcardSubscribers.isEmpty()) {
-            subscribers.addAll(wildcardSubscribers);
-        }
-
-        for (Subscription subscription : subscribers) {
-            Channel channel = clientChannels.get(subscription.getClientId());
-            if (channel != null && channel.isActive()) {
-                // 为每个订阅者创建新的消息实例
-                PublishMessage messageToSend = new PublishMessage();
-                messageToSend.setMessageType(MqttMessageType.PUBLISH);
-                messageToSend.setDup(false);
-                messageToSend.setTopicName(originalMessage.getTopicName());
-                messageToSend.setPayload(originalMessage.getPayload());
-                messageToSend.setRetain(originalMessage.isRetain());
-
-                // 根据订阅QoS设置消息QoS
-                int effectiveQos = Math.min(originalMessage.getQosLevel(), subscription.getQos().value());
-                messageToSend.setQosLevel(effectiveQos);
-
-                // 为每个订阅者分配新的PacketId（如果QoS > 0）
-                if (effectiveQos > 0) {
-                    // 应该从订阅者的会话中获取新的PacketId
-                    int packetId = generatePacketIdForClient(subscription.getClientId());
-                    messageToSend.setPacketId(packetId);
-                    // 记录发送给客户端的outbound消息，用于QoS确认处理
-                    Session clientSession = sessionManager.getSession(subscription.getClientId());
-                    if (clientSession != null) {
-                        clientSession.addOutboundMessage(packetId, messageToSend);
-                    }
-                }
-
-                channel.writeAndFlush(messageToSend);
-                logger.info("Sent message to subscriber[{}], topic={}", subscription.getClientId(), subscription.getTopicFilter());
-            }
-        }
-    }
-
-    private int generatePacketIdForClient(String clientId) {
-        // 获取客户端的会话
-        Session clientSession = sessionManager.getSession(clientId);
-        if (clientSession != null) {
-            // 使用会话中的Packet ID生成器
-            return clientSession.generatePacketId();
-        } else {
-            // 如果没有会话，使用全局生成器
-            int packetId = packetIdGenerator.getAndIncrement();
-            if (packetId > 65535 || packetId <= 0) {
-                packetIdGenerator.compareAndSet(packetId, 1);
-                packetId = 1;
-            }
-            return packetId;
-        }
-    }
-
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
@@ -372,32 +585,6 @@ public class MqttMessageHandler extends SimpleChannelInboundHandler<MqttMessage>
         ctx.close();
     }
 
-    private boolean authenticateUser(String username, byte[] password) {
-        // 实现具体的认证逻辑
-        // 例如查询数据库、验证LDAP等
-        if (username == null) return false;
-        String passwordStr;
-        if (password == null) {
-            logger.info("No password provided for user {}", username);
-            passwordStr = "";
-//            return false;
-        } else{
-            passwordStr = new String(password, java.nio.charset.StandardCharsets.UTF_8);
-        }
-
-        // 遍历配置文件中的用户列表进行验证
-        List<MqttBrokerProperties.Authentication.User> users = mqttBrokerProperties.getAuthentication().getUsers();
-        if (users != null) {
-            for (MqttBrokerProperties.Authentication.User user : users) {
-                if (username.equals(user.getUsername()) && passwordStr.equals(user.getPassword())) {
-                    return true;
-                }
-            }
-        }
-
-        return false; // 示例中暂时返回true
-    }
-
     private boolean isAuthenticationRequired() {
         return mqttBrokerProperties.getAuthentication().isEnabled();
     }
@@ -0,0 +1,176 @@
+package com.example.mqtt.handler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个连接的发布配额，按消息数和字节数两个令牌桶计算
+ * <p>
+ * 令牌在检查时按经过的时间补充，不需要定时任务。每个连接一个实例，只在该连接的事件循环中访问，
+ * 令牌桶本身不涉及任何共享状态；只有连接进入或离开限流状态时更新共享的 {@link Counters}。
+ */
+public class PublishQuota {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    public enum Action {
+        // 停止读取该连接，直到令牌恢复
+        PAUSE,
+        // 丢弃超出配额的消息，QoS 1/2照常确认
+        DROP,
+        // 断开连接
+        DISCONNECT
+    }
+
+    private final Bucket messages;
+    private final Bucket bytes;
+    private final Counters counters;
+    private boolean throttled;
+
+    public PublishQuota(Limit limit, Counters counters) {
+        this.messages = limit.messageRate > 0 ? new Bucket(limit.messageRate, limit.messageBurst) : null;
+        this.bytes = limit.byteRate > 0 ? new Bucket(limit.byteRate, limit.byteBurst) : null;
+        this.counters = counters;
+    }
+
+    /**
+     * 为一条消息取令牌
+     *
+     * @param payloadBytes 负载字节数
+     * @param overdraw     令牌不足时是否仍然扣除（透支），之后的等待时间相应延长
+     * @return 0表示在配额内，否则为令牌恢复还需等待的纳秒数
+     */
+    public long acquire(int payloadBytes, boolean overdraw) {
+        long now = System.nanoTime();
+        long waitNanos = 0;
+        if (messages != null) {
+            waitNanos = messages.waitNanos(1, now);
+        }
+        if (bytes != null) {
+            waitNanos = Math.max(waitNanos, bytes.waitNanos(payloadBytes, now));
+        }
+        if (waitNanos == 0 || overdraw) {
+            if (messages != null) {
+                messages.take(1);
+            }
+            if (bytes != null) {
+                bytes.take(payloadBytes);
+            }
+        }
+        if (waitNanos > 0) {
+            counters.throttledMessages.increment();
+        }
+        return waitNanos;
+    }
+
+    /**
+     * 透支的令牌还需多久才能还清，0表示已经可以发布
+     */
+    public long waitNanos() {
+        long now = System.nanoTime();
+        long waitNanos = 0;
+        if (messages != null) {
+            waitNanos = messages.waitNanos(0, now);
+        }
+        if (bytes != null) {
+            waitNanos = Math.max(waitNanos, bytes.waitNanos(0, now));
+        }
+        return waitNanos;
+    }
+
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * 标记连接是否处于限流状态，用于统计当前被限流的客户端数
+     */
+    public void setThrottled(boolean throttled) {
+        if (this.throttled != throttled) {
+            this.throttled = throttled;
+            counters.throttledClients.add(throttled ? 1 : -1);
+        }
+    }
+
+    private static final class Bucket {
+        private final double ratePerNano;
+        private final double burst;
+        private double tokens;
+        private long refilledAt;
+
+        Bucket(double ratePerSecond, double burst) {
+            this.ratePerNano = ratePerSecond / NANOS_PER_SECOND;
+            this.burst = Math.max(burst, 1);
+            this.tokens = this.burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        /**
+         * 补充令牌后返回取得 cost 个令牌还需等待的纳秒数；超过桶容量的消息在桶满时即可通过
+         */
+        long waitNanos(double cost, long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            double missing = Math.min(cost, burst) - tokens;
+            return missing > 0 ? Math.max(1, (long) (missing / ratePerNano)) : 0;
+        }
+
+        void take(double cost) {
+            tokens -= cost;
+        }
+    }
+
+    /**
+     * 配额的速率，0表示不限
+     */
+    public static final class Limit {
+        private final double messageRate;
+        private final double messageBurst;
+        private final double byteRate;
+        private final double byteBurst;
+
+        /**
+         * @param messageRate  每秒允许发布的消息数
+         * @param messageBurst 允许的突发消息数
+         * @param byteRate     每秒允许发布的负载字节数
+         * @param byteBurst    允许的突发字节数
+         */
+        public Limit(double messageRate, double messageBurst, double byteRate, double byteBurst) {
+            this.messageRate = messageRate;
+            this.messageBurst = messageBurst;
+            this.byteRate = byteRate;
+            this.byteBurst = byteBurst;
+        }
+
+        public boolean isUnlimited() {
+            return messageRate <= 0 && byteRate <= 0;
+        }
+    }
+
+    public static class Counters {
+        private final LongAdder throttledMessages = new LongAdder();
+        private final LongAdder throttledClients = new LongAdder();
+        private final LongAdder disconnects = new LongAdder();
+
+        /**
+         * 超出配额的消息数（包括暂停读取前透支的、被丢弃的和导致断开的）
+         */
+        public long getThrottledMessageCount() {
+            return throttledMessages.sum();
+        }
+
+        /**
+         * 当前处于限流状态的连接数
+         */
+        public long getThrottledClientCount() {
+            return throttledClients.sum();
+        }
+
+        public long getDisconnectCount() {
+            return disconnects.sum();
+        }
+
+        public void disconnected() {
+            disconnects.increment();
+        }
+    }
+}
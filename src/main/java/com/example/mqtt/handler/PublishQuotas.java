@@ -0,0 +1,49 @@
+package com.example.mqtt.handler;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 发布配额的配置，在CONNECT被接受时为连接选出适用的配额
+ * <p>
+ * 按客户端ID的配额优先，其次是按用户名的配额，最后是默认配额。配额属于连接：
+ * 同一用户的多个连接各自计算，不共享令牌桶。线程安全，所有连接共享一个实例。
+ */
+public class PublishQuotas {
+    private final PublishQuota.Action action;
+    private final PublishQuota.Limit defaultLimit;
+    private final Map<String, PublishQuota.Limit> users;
+    private final Map<String, PublishQuota.Limit> clients;
+    private final PublishQuota.Counters counters = new PublishQuota.Counters();
+
+    public PublishQuotas(PublishQuota.Action action, PublishQuota.Limit defaultLimit,
+                         Map<String, PublishQuota.Limit> users, Map<String, PublishQuota.Limit> clients) {
+        this.action = action;
+        this.defaultLimit = defaultLimit;
+        this.users = users != null ? users : Collections.emptyMap();
+        this.clients = clients != null ? clients : Collections.emptyMap();
+    }
+
+    /**
+     * @param username CONNECT中的用户名，可以为 null
+     * @return 连接的配额，不限速时返回 null
+     */
+    public PublishQuota newQuota(String clientId, String username) {
+        PublishQuota.Limit limit = clients.get(clientId);
+        if (limit == null && username != null) {
+            limit = users.get(username);
+        }
+        if (limit == null) {
+            limit = defaultLimit;
+        }
+        return limit.isUnlimited() ? null : new PublishQuota(limit, counters);
+    }
+
+    public PublishQuota.Action getAction() {
+        return action;
+    }
+
+    public PublishQuota.Counters getCounters() {
+        return counters;
+    }
+}
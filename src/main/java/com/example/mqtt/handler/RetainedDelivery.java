@@ -0,0 +1,117 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.session.InflightWindow;
+import com.example.mqtt.session.RetainedStore;
+import io.netty.channel.Channel;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * 订阅时向客户端发送匹配的保留消息
+ * <p>
+ * 匹配的条目先收集起来，再在连接的事件循环中分批发送，每批最多 batchSize 条，批之间让出事件循环。
+ * 通道不可写时暂停，等待通道恢复可写；QoS 1/2消息在会话的在途窗口没有空位时暂停，等待收到确认。
+ * 因此大量保留消息既不会堆满写缓冲区，也不会挤进会话的排队队列而被丢弃。
+ * <p>
+ * 每个连接一个实例，只在该连接的事件循环中访问。
+ */
+class RetainedDelivery implements Runnable {
+    private final Channel channel;
+    private final InflightWindow outbound;
+    private final int batchSize;
+
+    private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+    private boolean scheduled;
+
+    /**
+     * @param channel   客户端通道
+     * @param outbound  客户端会话的在途窗口
+     * @param batchSize 每批最多发送的消息数
+     */
+    RetainedDelivery(Channel channel, InflightWindow outbound, int batchSize) {
+        this.channel = channel;
+        this.outbound = outbound;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * 添加一个订阅匹配到的保留消息，发送时QoS不超过订阅的QoS
+     */
+    void add(List<RetainedStore.Entry> entries, int subscriptionQos) {
+        if (!entries.isEmpty()) {
+            batches.add(new Batch(entries, subscriptionQos));
+            resume();
+        }
+    }
+
+    /**
+     * 通道恢复可写或在途窗口腾出位置时继续发送
+     */
+    void resume() {
+        if (!scheduled && !batches.isEmpty()) {
+            scheduled = true;
+            channel.eventLoop().execute(this);
+        }
+    }
+
+    void clear() {
+        batches.clear();
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        if (!channel.isActive()) {
+            batches.clear();
+            return;
+        }
+
+        int sent = 0;
+        boolean written = false;
+        while (!batches.isEmpty() && channel.isWritable()) {
+            Batch batch = batches.peek();
+            if (batch.qos > 0 && !outbound.hasCapacity()) {
+                break;
+            }
+            if (sent == batchSize) {
+                resume();
+                break;
+            }
+
+            RetainedStore.Entry entry = batch.entries.get(batch.index++);
+            if (batch.index == batch.entries.size()) {
+                batches.poll();
+            }
+            PublishMessage message = entry.retainedMessage();
+            if (message == null) {
+                continue;
+            }
+            int qos = Math.min(message.getQosLevel(), batch.qos);
+            message.setQosLevel(qos);
+            if (qos > 0) {
+                // 在途窗口分配Packet ID、负责重传并flush
+                outbound.send(message, null);
+            } else {
+                channel.write(message);
+                written = true;
+            }
+            sent++;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    private static final class Batch {
+        final List<RetainedStore.Entry> entries;
+        final int qos;
+        int index;
+
+        Batch(List<RetainedStore.Entry> entries, int qos) {
+            this.entries = entries;
+            this.qos = qos;
+        }
+    }
+}
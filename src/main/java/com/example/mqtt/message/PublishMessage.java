@@ -1,22 +1,44 @@
 package com.example.mqtt.message;
 
 import com.example.mqtt.protocol.MqttMessageType;
+import com.example.mqtt.topic.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.Unpooled;
 
-public class PublishMessage extends com.example.mqtt.message.MqttMessage {
-    private String topicName;
+/*
+ * 负载以引用计数的 ByteBuf 保存（通常是入站帧的切片），避免解码和转发时复制负载。
+ * 持有者负责在不再使用时调用 release()，在 SimpleChannelInboundHandler 中会被自动释放，
+ * 需要在 channelRead0 之后继续保存（如QoS 2入站消息、待确认的出站消息）时必须先 retain()。
+ */
+public class PublishMessage extends com.example.mqtt.message.MqttMessage implements ByteBufHolder {
+    // 主题名及其UTF-8编码、层级等元数据，解码时通常为驻留的共享实例
+    private Topic topic;
     private int packetId;
-    private byte[] payload;
+    private ByteBuf payload = Unpooled.EMPTY_BUFFER;
 
     public PublishMessage() {
         super(MqttMessageType.PUBLISH);
     }
 
     public String getTopicName() {
-        return topicName;
+        return topic != null ? topic.getName() : null;
     }
 
     public void setTopicName(String topicName) {
-        this.topicName = topicName;
+        this.topic = topicName != null ? Topic.of(topicName) : null;
+    }
+
+    public Topic getTopic() {
+        return topic;
+    }
+
+    public void setTopic(Topic topic) {
+        this.topic = topic;
+    }
+
+    public byte[] getTopicBytes() {
+        return topic.getBytes();
     }
 
     public int getPacketId() {
@@ -27,11 +49,86 @@ public class PublishMessage extends com.example.mqtt.message.MqttMessage {
         this.packetId = packetId;
     }
 
-    public byte[] getPayload() {
+    public ByteBuf getPayload() {
         return payload;
     }
 
+    public void setPayload(ByteBuf payload) {
+        this.payload = payload != null ? payload : Unpooled.EMPTY_BUFFER;
+    }
+
     public void setPayload(byte[] payload) {
-        this.payload = payload;
+        setPayload(payload != null ? Unpooled.wrappedBuffer(payload) : null);
+    }
+
+    @Override
+    public ByteBuf content() {
+        return payload;
+    }
+
+    @Override
+    public PublishMessage copy() {
+        return replace(payload.copy());
+    }
+
+    @Override
+    public PublishMessage duplicate() {
+        return replace(payload.duplicate());
+    }
+
+    @Override
+    public PublishMessage retainedDuplicate() {
+        return replace(payload.retainedDuplicate());
+    }
+
+    @Override
+    public PublishMessage replace(ByteBuf content) {
+        PublishMessage message = new PublishMessage();
+        message.setDup(isDup);
+        message.setQosLevel(qosLevel);
+        message.setRetain(isRetain);
+        message.setTopic(topic);
+        message.setPacketId(packetId);
+        message.setPayload(content);
+        return message;
+    }
+
+    @Override
+    public int refCnt() {
+        return payload.refCnt();
+    }
+
+    @Override
+    public PublishMessage retain() {
+        payload.retain();
+        return this;
+    }
+
+    @Override
+    public PublishMessage retain(int increment) {
+        payload.retain(increment);
+        return this;
+    }
+
+    @Override
+    public PublishMessage touch() {
+        payload.touch();
+        return this;
+    }
+
+    @Override
+    public PublishMessage touch(Object hint) {
+        payload.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return payload.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return payload.release(decrement);
     }
 }
@@ -0,0 +1,128 @@
+package com.example.mqtt.metrics;
+
+import com.example.mqtt.protocol.MqttMessageType;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 协议层的流量统计：按报文类型统计收发的报文数和字节数，以及连接、断开和解码错误次数
+ * <p>
+ * 所有连接共享一个实例，计数器使用 {@link LongAdder}，各事件循环在各自的分段上累加，互不竞争。
+ * 字节数为完整报文（固定头部、剩余长度和消息体）的长度。
+ */
+public class BrokerMetrics {
+    // 以报文类型的值（1-14）为下标
+    private static final int TYPES = 16;
+
+    private final LongAdder[] packetsReceived = adders();
+    private final LongAdder[] bytesReceived = adders();
+    private final LongAdder[] packetsSent = adders();
+    private final LongAdder[] bytesSent = adders();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder connectsRejected = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder decodeErrors = new LongAdder();
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[TYPES];
+        for (int i = 0; i < TYPES; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * 解码出一个完整报文
+     *
+     * @param type  报文类型的值，即固定头部的高4位
+     * @param bytes 整个报文的字节数
+     */
+    public void packetReceived(int type, int bytes) {
+        packetsReceived[type & 0x0F].increment();
+        bytesReceived[type & 0x0F].add(bytes);
+    }
+
+    /**
+     * 写出一个完整报文
+     *
+     * @param type  报文类型的值，即固定头部的高4位
+     * @param bytes 整个报文的字节数
+     */
+    public void packetSent(int type, int bytes) {
+        packetsSent[type & 0x0F].increment();
+        bytesSent[type & 0x0F].add(bytes);
+    }
+
+    /**
+     * 接受了一个CONNECT（返回码为0的CONNACK）
+     */
+    public void connected() {
+        connects.increment();
+    }
+
+    /**
+     * 拒绝了一个CONNECT（协议版本不支持、客户端ID无效或认证失败）
+     */
+    public void connectRejected() {
+        connectsRejected.increment();
+    }
+
+    /**
+     * 已接受CONNECT的连接断开，包括正常DISCONNECT、超时和网络断开
+     */
+    public void disconnected() {
+        disconnects.increment();
+    }
+
+    public void decodeError() {
+        decodeErrors.increment();
+    }
+
+    public long getPacketsReceived(MqttMessageType type) {
+        return packetsReceived[type.value()].sum();
+    }
+
+    public long getBytesReceived(MqttMessageType type) {
+        return bytesReceived[type.value()].sum();
+    }
+
+    public long getPacketsSent(MqttMessageType type) {
+        return packetsSent[type.value()].sum();
+    }
+
+    public long getBytesSent(MqttMessageType type) {
+        return bytesSent[type.value()].sum();
+    }
+
+    public long getTotalBytesReceived() {
+        return sum(bytesReceived);
+    }
+
+    public long getTotalBytesSent() {
+        return sum(bytesSent);
+    }
+
+    public long getConnectCount() {
+        return connects.sum();
+    }
+
+    public long getConnectRejectedCount() {
+        return connectsRejected.sum();
+    }
+
+    public long getDisconnectCount() {
+        return disconnects.sum();
+    }
+
+    public long getDecodeErrorCount() {
+        return decodeErrors.sum();
+    }
+
+    private static long sum(LongAdder[] adders) {
+        long total = 0;
+        for (LongAdder adder : adders) {
+            total += adder.sum();
+        }
+        return total;
+    }
+}
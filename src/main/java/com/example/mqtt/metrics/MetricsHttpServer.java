@@ -0,0 +1,133 @@
+package com.example.mqtt.metrics;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 以Prometheus文本格式提供指标的HTTP端点，响应 GET /metrics；启用流量统计时
+ * GET /top 以JSON返回上一个统计窗口的热点客户端和主题
+ */
+public class MetricsHttpServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PATH = "/metrics";
+    private static final String TOP_PATH = "/top";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    // 抓取请求没有请求体，只需容纳请求头
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    private final MetricsRegistry registry;
+    private final String host;
+    private final int port;
+    // 流量统计，未启用时为 null，/top 返回404
+    private final TrafficAccounting trafficAccounting;
+    private final int topN;
+    private Channel serverChannel;
+
+    public MetricsHttpServer(MetricsRegistry registry, String host, int port) {
+        this(registry, host, port, null, 0);
+    }
+
+    public MetricsHttpServer(MetricsRegistry registry, String host, int port,
+                             TrafficAccounting trafficAccounting, int topN) {
+        this.registry = registry;
+        this.host = host;
+        this.port = port;
+        this.trafficAccounting = trafficAccounting;
+        this.topN = topN;
+    }
+
+    public void start(EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+                      Class<? extends ServerChannel> serverChannelClass) throws InterruptedException {
+        ScrapeHandler scrapeHandler = new ScrapeHandler();
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(serverChannelClass)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast("http", new HttpServerCodec());
+                        ch.pipeline().addLast("aggregator", new HttpObjectAggregator(MAX_REQUEST_SIZE));
+                        ch.pipeline().addLast("scrape", scrapeHandler);
+                    }
+                });
+        serverChannel = bootstrap.bind(host, port).sync().channel();
+        logger.info("Metrics endpoint listening on http://{}:{}{}", host, port, PATH);
+    }
+
+    public void close() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private final class ScrapeHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response;
+            String path = request.decoderResult().isSuccess() ? new QueryStringDecoder(request.uri()).path() : null;
+            boolean top = TOP_PATH.equals(path) && trafficAccounting != null;
+            if (path == null) {
+                response = status(ctx, HttpResponseStatus.BAD_REQUEST);
+            } else if (!PATH.equals(path) && !top) {
+                response = status(ctx, HttpResponseStatus.NOT_FOUND);
+            } else if (!HttpMethod.GET.equals(request.method())) {
+                response = status(ctx, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            } else if (top) {
+                ByteBuf body = ByteBufUtil.writeUtf8(ctx.alloc(), trafficAccounting.toJson(topN));
+                response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK, body);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, JSON_CONTENT_TYPE);
+            } else {
+                StringBuilder text = new StringBuilder(8192);
+                registry.writePrometheus(text);
+                ByteBuf body = ByteBufUtil.writeUtf8(ctx.alloc(), text);
+                response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK, body);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+            }
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+
+            boolean keepAlive = HttpUtil.isKeepAlive(request) && response.status() == HttpResponseStatus.OK;
+            if (keepAlive) {
+                HttpUtil.setKeepAlive(response, true);
+                ctx.writeAndFlush(response);
+            } else {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        private FullHttpResponse status(ChannelHandlerContext ctx, HttpResponseStatus status) {
+            return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, ctx.alloc().buffer(0));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.debug("Metrics request from {} failed", ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
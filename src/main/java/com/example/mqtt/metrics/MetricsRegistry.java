@@ -0,0 +1,135 @@
+package com.example.mqtt.metrics;
+
+import com.example.mqtt.topic.Topic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Broker的指标登记表
+ * <p>
+ * 每个指标只保存名称、说明和读取当前值的函数，数值由各组件自己的计数器（{@link java.util.concurrent.atomic.LongAdder}）
+ * 维护，登记表本身不参与计数，只在发布 $SYS 主题或输出Prometheus文本时读取，因此不增加消息处理路径上的开销。
+ * 同名指标可以按一个标签区分（如按报文类型），Prometheus输出时合并在同一组HELP/TYPE之下。
+ */
+public class MetricsRegistry {
+    public enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge");
+
+        private final String prometheusName;
+
+        Type(String prometheusName) {
+            this.prometheusName = prometheusName;
+        }
+    }
+
+    public static final class Metric {
+        private final String name;
+        private final String help;
+        private final Type type;
+        // 形如 type="publish" 的标签，没有标签时为空串
+        private final String labels;
+        // 发布该指标的 $SYS 主题，为 null 时不发布
+        private final Topic sysTopic;
+        private final LongSupplier value;
+
+        Metric(String name, String help, Type type, String labels, String sysTopic, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labels = labels;
+            this.sysTopic = sysTopic != null ? Topic.of(sysTopic) : null;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getLabels() {
+            return labels;
+        }
+
+        public Topic getSysTopic() {
+            return sysTopic;
+        }
+
+        public long getValue() {
+            return value.getAsLong();
+        }
+    }
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    /**
+     * 登记一个只增不减的计数器，Prometheus名称应以 _total 结尾
+     *
+     * @param sysTopic 发布该指标的 $SYS 主题，为 null 时不发布
+     */
+    public MetricsRegistry counter(String name, String help, String sysTopic, LongSupplier value) {
+        return register(name, help, Type.COUNTER, "", sysTopic, value);
+    }
+
+    /**
+     * 登记一个可增可减的当前值
+     *
+     * @param sysTopic 发布该指标的 $SYS 主题，为 null 时不发布
+     */
+    public MetricsRegistry gauge(String name, String help, String sysTopic, LongSupplier value) {
+        return register(name, help, Type.GAUGE, "", sysTopic, value);
+    }
+
+    /**
+     * 登记一个带标签的计数器，同名的多个计数器以标签值区分
+     */
+    public MetricsRegistry counter(String name, String labelName, String labelValue, String help,
+                                   String sysTopic, LongSupplier value) {
+        return register(name, help, Type.COUNTER, labelName + "=\"" + labelValue + "\"", sysTopic, value);
+    }
+
+    private MetricsRegistry register(String name, String help, Type type, String labels,
+                                     String sysTopic, LongSupplier value) {
+        metrics.add(new Metric(name, help, type, labels, sysTopic, value));
+        return this;
+    }
+
+    public List<Metric> getMetrics() {
+        return Collections.unmodifiableList(metrics);
+    }
+
+    /**
+     * 按Prometheus文本格式（0.0.4）输出所有指标
+     */
+    public void writePrometheus(StringBuilder out) {
+        Map<String, List<Metric>> byName = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            byName.computeIfAbsent(metric.name, name -> new ArrayList<>()).add(metric);
+        }
+        for (List<Metric> family : byName.values()) {
+            Metric first = family.get(0);
+            out.append("# HELP ").append(first.name).append(' ').append(first.help).append('\n');
+            out.append("# TYPE ").append(first.name).append(' ').append(first.type.prometheusName).append('\n');
+            for (Metric metric : family) {
+                out.append(metric.name);
+                if (!metric.labels.isEmpty()) {
+                    out.append('{').append(metric.labels).append('}');
+                }
+                out.append(' ').append(metric.getValue()).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.mqtt.metrics;
+
+import com.example.mqtt.handler.MessageRouter;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 定期把登记表中的指标作为保留消息发布到各自的 $SYS 主题
+ * <p>
+ * 消息只投递给本节点的订阅者，不转发到集群中的其它节点。以 '#' 或 '+' 开头的过滤器
+ * 不匹配 $SYS 主题，客户端需要显式订阅 $SYS/#。
+ */
+public class SysTopicPublisher implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SysTopicPublisher.class);
+    // 作为发布者ID传给共享订阅的负载均衡策略
+    private static final String PUBLISHER_ID = "$SYS";
+
+    private final MetricsRegistry registry;
+    private final MessageRouter messageRouter;
+
+    public SysTopicPublisher(MetricsRegistry registry, MessageRouter messageRouter) {
+        this.registry = registry;
+        this.messageRouter = messageRouter;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (MetricsRegistry.Metric metric : registry.getMetrics()) {
+                if (metric.getSysTopic() == null) {
+                    continue;
+                }
+                publish(metric.getSysTopic(), Long.toString(metric.getValue()));
+            }
+        } catch (RuntimeException e) {
+            // 定时任务抛出异常后不会再执行，记录后继续
+            logger.warn("Failed to publish $SYS metrics", e);
+        }
+    }
+
+    /**
+     * 把一条UTF-8文本作为保留消息发布到 $SYS 主题，只投递给本节点的订阅者
+     */
+    public void publish(Topic topic, String payload) {
+        PublishMessage message = new PublishMessage();
+        message.setTopic(topic);
+        message.setQosLevel(0);
+        message.setRetain(true);
+        message.setPayload(payload.getBytes(StandardCharsets.UTF_8));
+        try {
+            messageRouter.deliver(message, PUBLISHER_ID);
+        } finally {
+            message.release();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.mqtt.metrics;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按客户端和主题统计流量，找出发布最多的客户端、接收最多的客户端、最热的主题和因背压被丢弃消息最多的客户端
+ * <p>
+ * 统计按固定窗口进行，{@link #rotate()} 由定时任务每个窗口调用一次，查询返回上一个完整窗口的结果。
+ * 每个线程（事件循环）写入自己的草图（{@link TrafficSketch}），记录时没有任何共享的可变状态；
+ * 查询时把各线程的草图相加，再用合并后的计数估计候选键的值。每个线程保留三代草图轮换使用，
+ * 查询读取的草图在一个窗口内不会被清空。内存只与草图大小和线程数有关，与客户端和主题的数量无关。
+ * <p>
+ * 所有数值都是估计值：count-min sketch 只会高估，被挤出候选表的键不会出现在结果中。
+ */
+public class TrafficAccounting {
+    private final int depth;
+    private final int width;
+    private final int maxKeys;
+    private final int windowSeconds;
+    // 发布的消息数和负载字节数
+    private final Tracker producers;
+    // 投递的消息数和负载字节数
+    private final Tracker consumers;
+    // 发布的消息数、负载字节数和投递次数
+    private final Tracker topics;
+    // 因背压丢弃的消息数和字节数
+    private final Tracker dropped;
+    private volatile long epoch;
+
+    /**
+     * @param depth         草图的行数
+     * @param width         草图每行的计数器个数，向上取整为2的幂
+     * @param maxKeys       每个线程每种统计保留的候选键数，不小于查询的条数
+     * @param windowSeconds 统计窗口的长度，即 {@link #rotate()} 的调用间隔
+     */
+    public TrafficAccounting(int depth, int width, int maxKeys, int windowSeconds) {
+        if (depth <= 0 || width <= 0 || maxKeys <= 0 || windowSeconds <= 0) {
+            throw new IllegalArgumentException("depth, width, maxKeys and windowSeconds must be positive");
+        }
+        this.depth = depth;
+        this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.maxKeys = maxKeys;
+        this.windowSeconds = windowSeconds;
+        this.producers = new Tracker(2);
+        this.consumers = new Tracker(2);
+        this.topics = new Tracker(3);
+        this.dropped = new Tracker(2);
+    }
+
+    /**
+     * 客户端发布的一条消息已路由到本节点的订阅者
+     *
+     * @param clientId     发布者
+     * @param topicName    主题
+     * @param payloadBytes 负载字节数
+     * @param deliveries   投递给的订阅者数
+     */
+    public void published(String clientId, String topicName, int payloadBytes, int deliveries) {
+        long epoch = this.epoch;
+        producers.record(epoch, clientId, 1, payloadBytes, 0);
+        topics.record(epoch, topicName, 1, payloadBytes, deliveries);
+    }
+
+    /**
+     * 一条消息投递给了订阅者（写出或进入其在途窗口的队列）
+     */
+    public void delivered(String clientId, int payloadBytes) {
+        consumers.record(epoch, clientId, 1, payloadBytes, 0);
+    }
+
+    /**
+     * 发给客户端的一条消息因连接不可写被背压丢弃
+     *
+     * @param bytes 丢弃的报文字节数
+     */
+    public void dropped(String clientId, long bytes) {
+        dropped.record(epoch, clientId, 1, bytes, 0);
+    }
+
+    /**
+     * 结束当前窗口，之后的查询返回刚结束的窗口
+     */
+    public void rotate() {
+        epoch++;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    public List<HotSpot> getTopProducers(int n) {
+        return producers.top(epoch - 1, n);
+    }
+
+    public List<HotSpot> getTopConsumers(int n) {
+        return consumers.top(epoch - 1, n);
+    }
+
+    public List<HotSpot> getTopTopics(int n) {
+        return topics.top(epoch - 1, n);
+    }
+
+    /**
+     * 上一个窗口中被背压丢弃消息最多的客户端
+     */
+    public List<HotSpot> getTopDropped(int n) {
+        return dropped.top(epoch - 1, n);
+    }
+
+    /**
+     * 上一个窗口的前 n 名，格式为
+     * {"windowSeconds":10,"producers":[...],"consumers":[...],"topics":[...],"dropped":[...]}
+     */
+    public String toJson(int n) {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\"windowSeconds\":").append(windowSeconds);
+        appendJson(json.append(",\"producers\":"), getTopProducers(n));
+        appendJson(json.append(",\"consumers\":"), getTopConsumers(n));
+        appendJson(json.append(",\"topics\":"), getTopTopics(n));
+        appendJson(json.append(",\"dropped\":"), getTopDropped(n));
+        return json.append('}').toString();
+    }
+
+    /**
+     * 以JSON数组格式输出，主题包括扇出倍数
+     */
+    public static void appendJson(StringBuilder json, List<HotSpot> hotSpots) {
+        json.append('[');
+        for (int i = 0; i < hotSpots.size(); i++) {
+            HotSpot hotSpot = hotSpots.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            appendJsonString(json.append("{\"key\":"), hotSpot.key);
+            json.append(",\"messagesPerSecond\":").append(format(hotSpot.getMessagesPerSecond()));
+            json.append(",\"bytesPerSecond\":").append(format(hotSpot.getBytesPerSecond()));
+            if (hotSpot.deliveries >= 0) {
+                json.append(",\"fanOut\":").append(format(hotSpot.getFanOut()));
+            }
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * 一个热点在统计窗口内的流量
+     */
+    public static final class HotSpot {
+        private final String key;
+        private final long messages;
+        private final long bytes;
+        // 投递次数，不统计扇出时为 -1
+        private final long deliveries;
+        private final int windowSeconds;
+
+        HotSpot(String key, long messages, long bytes, long deliveries, int windowSeconds) {
+            this.key = key;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.deliveries = deliveries;
+            this.windowSeconds = windowSeconds;
+        }
+
+        /**
+         * 客户端ID或主题名
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public double getMessagesPerSecond() {
+            return (double) messages / windowSeconds;
+        }
+
+        public double getBytesPerSecond() {
+            return (double) bytes / windowSeconds;
+        }
+
+        /**
+         * 主题平均每条消息投递给的订阅者数，客户端统计返回 0
+         */
+        public double getFanOut() {
+            return deliveries > 0 && messages > 0 ? (double) deliveries / messages : 0;
+        }
+
+        @Override
+        public String toString() {
+            return key + " " + format(getMessagesPerSecond()) + " msg/s " + format(getBytesPerSecond()) + " B/s";
+        }
+    }
+
+    /**
+     * 一种统计（发布者、接收者、主题或背压丢弃）在所有线程上的草图
+     */
+    private final class Tracker {
+        private final int columns;
+        private final List<Shard> shards = new CopyOnWriteArrayList<>();
+        private final FastThreadLocal<Shard> localShard = new FastThreadLocal<Shard>() {
+            @Override
+            protected Shard initialValue() {
+                Shard shard = new Shard(columns);
+                shards.add(shard);
+                return shard;
+            }
+        };
+
+        Tracker(int columns) {
+            this.columns = columns;
+        }
+
+        void record(long epoch, String key, long messages, long bytes, long deliveries) {
+            if (key != null) {
+                localShard.get().record(epoch, key, messages, bytes, deliveries);
+            }
+        }
+
+        List<HotSpot> top(long window, int n) {
+            long[][] merged = new long[columns][depth * width];
+            Set<String> keys = new HashSet<>();
+            for (Shard shard : shards) {
+                TrafficSketch sketch = shard.sketchOf(window);
+                if (sketch != null) {
+                    sketch.addCountsTo(merged);
+                    sketch.collectKeys(keys);
+                }
+            }
+            List<HotSpot> result = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                int hash = TrafficSketch.hash(key);
+                long messages = TrafficSketch.estimate(merged[0], depth, width, hash);
+                if (messages == 0) {
+                    continue;
+                }
+                long bytes = TrafficSketch.estimate(merged[1], depth, width, hash);
+                long deliveries = columns > 2 ? TrafficSketch.estimate(merged[2], depth, width, hash) : -1;
+                result.add(new HotSpot(key, messages, bytes, deliveries, windowSeconds));
+            }
+            result.sort(Comparator.comparingLong((HotSpot hotSpot) -> hotSpot.messages).reversed());
+            return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+        }
+    }
+
+    /**
+     * 一个线程的三代草图：当前窗口、上一个窗口和备用。只有所属线程写入，
+     * 换代时先把 epoch 置为 {@link #ROTATING}，查询线程据此判断读到的引用是否一致
+     */
+    private final class Shard {
+        private static final long ROTATING = Long.MIN_VALUE;
+
+        private volatile long epoch;
+        private volatile TrafficSketch current;
+        private volatile TrafficSketch previous;
+        private TrafficSketch spare;
+
+        Shard(int columns) {
+            current = new TrafficSketch(depth, width, columns, maxKeys);
+            previous = new TrafficSketch(depth, width, columns, maxKeys);
+            spare = new TrafficSketch(depth, width, columns, maxKeys);
+            epoch = TrafficAccounting.this.epoch;
+        }
+
+        void record(long epoch, String key, long messages, long bytes, long deliveries) {
+            if (epoch != this.epoch) {
+                advance(epoch);
+            }
+            current.add(key, TrafficSketch.hash(key), messages, bytes, deliveries);
+        }
+
+        private void advance(long epoch) {
+            long last = this.epoch;
+            this.epoch = ROTATING;
+            TrafficSketch next = spare;
+            next.clear();
+            if (epoch == last + 1) {
+                spare = previous;
+                previous = current;
+            } else {
+                // 中间有窗口没有任何记录，上一个窗口为空
+                TrafficSketch empty = previous;
+                empty.clear();
+                spare = current;
+                previous = empty;
+            }
+            current = next;
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return 指定窗口的草图，该线程在此窗口没有记录或正在换代时返回 null
+         */
+        TrafficSketch sketchOf(long window) {
+            long epoch = this.epoch;
+            TrafficSketch sketch = epoch == window ? current : epoch == window + 1 ? previous : null;
+            return this.epoch == epoch ? sketch : null;
+        }
+    }
+}
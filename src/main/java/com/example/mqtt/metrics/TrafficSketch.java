@@ -0,0 +1,207 @@
+package com.example.mqtt.metrics;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * 一个统计窗口内的流量草图：count-min sketch 加上有界的热点候选表，只由一个线程写入
+ * <p>
+ * 每个键有若干列计数（如消息数、字节数、扇出数），第0列使用保守更新（只把各行提升到新的最小估计值），
+ * 用于排序；其它列为普通的 count-min 累加。估计值只会偏大，不会偏小。
+ * 候选表以线性探测的哈希表保存第0列估计值最大的若干个键，表满后新键的估计值超过表中最小值时替换最小的键，
+ * 因此内存与键的数量无关。
+ */
+final class TrafficSketch {
+    private final int depth;
+    private final int width;
+    private final int mask;
+    // [列][行 * width + 下标]
+    private final long[][] counts;
+
+    // 候选表，容量为候选数的2倍，保证线性探测的装载因子不超过0.5
+    private final String[] keys;
+    private final int[] keyHashes;
+    private final long[] keyCounts;
+    private final int keyMask;
+    private final int maxKeys;
+    private int size;
+    // 候选表中最小的估计值的下界，表满后估计值不超过它的键无需查表
+    private long minCount;
+
+    /**
+     * @param depth   行数（哈希函数个数）
+     * @param width   每行的计数器个数，必须是2的幂
+     * @param columns 每个键的计数列数，最多3列
+     * @param maxKeys 候选表最多保存的键数
+     */
+    TrafficSketch(int depth, int width, int columns, int maxKeys) {
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+        this.counts = new long[columns][depth * width];
+        int tableSize = Integer.highestOneBit(Math.max(1, maxKeys) * 2 - 1) << 1;
+        this.keys = new String[tableSize];
+        this.keyHashes = new int[tableSize];
+        this.keyCounts = new long[tableSize];
+        this.keyMask = tableSize - 1;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * 累加一个键的计数，超出列数的值被忽略
+     */
+    void add(String key, int hash, long value0, long value1, long value2) {
+        int h1 = hash;
+        int h2 = secondHash(hash);
+        long[] ranking = counts[0];
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, ranking[row * width + ((h1 + row * h2) & mask)]);
+        }
+        long estimate = min + value0;
+        for (int row = 0; row < depth; row++) {
+            int index = row * width + ((h1 + row * h2) & mask);
+            if (ranking[index] < estimate) {
+                ranking[index] = estimate;
+            }
+            if (counts.length > 1) {
+                counts[1][index] += value1;
+                if (counts.length > 2) {
+                    counts[2][index] += value2;
+                }
+            }
+        }
+        if (size < maxKeys || estimate > minCount) {
+            offer(key, hash, estimate);
+        }
+    }
+
+    private void offer(String key, int hash, long estimate) {
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            keyCounts[slot] = estimate;
+            return;
+        }
+        if (size == maxKeys) {
+            int victim = -1;
+            long victimCount = Long.MAX_VALUE;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null && keyCounts[i] < victimCount) {
+                    victim = i;
+                    victimCount = keyCounts[i];
+                }
+            }
+            if (victimCount >= estimate) {
+                minCount = victimCount;
+                return;
+            }
+            removeAt(victim);
+        }
+        int i = hash & keyMask;
+        while (keys[i] != null) {
+            i = (i + 1) & keyMask;
+        }
+        keys[i] = key;
+        keyHashes[i] = hash;
+        keyCounts[i] = estimate;
+        size++;
+        if (size == maxKeys) {
+            long min = Long.MAX_VALUE;
+            for (int j = 0; j < keys.length; j++) {
+                if (keys[j] != null) {
+                    min = Math.min(min, keyCounts[j]);
+                }
+            }
+            minCount = min;
+        }
+    }
+
+    private int find(String key, int hash) {
+        for (int i = hash & keyMask; keys[i] != null; i = (i + 1) & keyMask) {
+            if (keys[i] == key || (keyHashes[i] == hash && keys[i].equals(key))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 删除一个槽位，把之后同一探测序列上的键前移，保持线性探测的查找不中断
+     */
+    private void removeAt(int slot) {
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & keyMask;
+            if (keys[i] == null) {
+                break;
+            }
+            int home = keyHashes[i] & keyMask;
+            // home 不在 (hole, i] 的循环区间内时，该键可以前移到空位
+            boolean between = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!between) {
+                keys[hole] = keys[i];
+                keyHashes[hole] = keyHashes[i];
+                keyCounts[hole] = keyCounts[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        size--;
+    }
+
+    void clear() {
+        for (long[] column : counts) {
+            Arrays.fill(column, 0);
+        }
+        Arrays.fill(keys, null);
+        size = 0;
+        minCount = 0;
+    }
+
+    /**
+     * 把各列计数加到 target 上，用于合并多个线程的草图
+     */
+    void addCountsTo(long[][] target) {
+        for (int column = 0; column < counts.length; column++) {
+            long[] source = counts[column];
+            long[] destination = target[column];
+            for (int i = 0; i < source.length; i++) {
+                destination[i] += source[i];
+            }
+        }
+    }
+
+    void collectKeys(Collection<String> out) {
+        for (String key : keys) {
+            if (key != null) {
+                out.add(key);
+            }
+        }
+    }
+
+    /**
+     * 在合并后的计数上估计一个键某一列的值
+     */
+    static long estimate(long[] column, int depth, int width, int hash) {
+        int h2 = secondHash(hash);
+        int mask = width - 1;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, column[row * width + ((hash + row * h2) & mask)]);
+        }
+        return min;
+    }
+
+    /**
+     * 键的主哈希，第 i 行的下标为 (h1 + i * h2) &amp; mask
+     */
+    static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int secondHash(int hash) {
+        return (Integer.rotateLeft(hash, 13) * 0x85EBCA6B) | 1;
+    }
+}
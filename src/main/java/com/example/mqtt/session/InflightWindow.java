@@ -0,0 +1,415 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.codec.SharedPublishFrame;
+import com.example.mqtt.message.PacketIdMessage;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.protocol.MqttMessageType;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话的QoS 1/2出站在途窗口
+ * <p>
+ * 同时未确认的消息数不超过 {@code maxInflight}，超出的消息按顺序放入 {@link MessageQueue}，
+ * 收到PUBACK/PUBCOMP腾出位置后再发送；客户端离线期间的消息也在队列中等待，恢复连接后按顺序发送。
+ * 在途消息超过重传间隔仍未确认时设置DUP标志重发（QoS 2已收到PUBREC的重发PUBREL）。
+ * 重传由共享的时间轮驱动，每个窗口最多只有一个定时任务，到期时扫描窗口中所有超时的消息，
+ * 因此定时任务数与在途消息数无关。
+ * <p>
+ * 客户端断开后窗口中的消息保留在会话中，持久会话恢复时按原发送顺序重发，然后继续发送排队的消息。
+ * 窗口可能同时被多个发布者的事件循环访问，所有方法都是同步的。
+ * 发布者可能在会话被移除或替换（{@link #release()}）之后才调用 {@link #send}，
+ * 释放后的窗口直接释放新消息，不再排队，否则这些消息和它们占用的 {@link QueueStore} 限额永远不会归还。
+ * <p>
+ * 在途消息保存在以Packet ID低位为下标直接寻址的数组中，分配Packet ID时跳过下标已被占用的ID，
+ * 因此既不会和仍在途的ID重复，也不会产生槽位冲突；发送顺序由数组下标串成的双向链表维护。
+ * 放入和移除都不分配对象，数组在第一次发送时按需创建，并随在途消息增多按2倍扩容到窗口大小。
+ */
+public class InflightWindow {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int NIL = -1;
+
+    private final int maxInflight;
+    private final Timer timer;
+    private final long retryIntervalNanos;
+    private final Counters counters;
+    private final TimerTask retryTask = this::retry;
+
+    // 在途消息，槽位下标为 packetId & (容量 - 1)，packetIds 为0表示空槽，
+    // QoS 2消息进入PUBREL阶段后 messages 为 null
+    private int[] packetIds;
+    private PublishMessage[] messages;
+    private long[] sentAt;
+    // 按发送顺序串联槽位的双向链表
+    private int[] next;
+    private int[] prev;
+    private int head = NIL;
+    private int tail = NIL;
+    private int size;
+    // 等待窗口空出位置的消息，尚未分配Packet ID
+    private final MessageQueue queued;
+    private Channel channel;
+    private Timeout retryTimeout;
+    private int nextPacketId = 1;
+    // 已调用 release()，之后发送的消息直接释放
+    private boolean released;
+
+    /**
+     * @param maxInflight         最多同时未确认的消息数
+     * @param queueStore          窗口满或客户端离线时排队消息的限额和溢出存储
+     * @param timer               重传使用的时间轮，为 null 时不按时间重传，只在会话恢复时重发
+     * @param retryIntervalMillis 重传间隔，小于等于0时不按时间重传
+     * @param counters            所有会话共享的统计
+     */
+    public InflightWindow(int maxInflight, QueueStore queueStore, Timer timer, long retryIntervalMillis, Counters counters) {
+        if (maxInflight <= 0 || maxInflight > 65535) {
+            throw new IllegalArgumentException("maxInflight must be between 1 and 65535: " + maxInflight);
+        }
+        this.maxInflight = maxInflight;
+        this.queued = new MessageQueue(queueStore);
+        this.timer = retryIntervalMillis > 0 ? timer : null;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+        this.counters = counters;
+    }
+
+    /**
+     * 发送一条QoS 1/2消息，窗口有空位时立即分配Packet ID并写出，否则排队。窗口接管消息的引用，
+     * 窗口已释放时直接释放消息
+     *
+     * @param message 出站消息，QoS已设置为有效QoS
+     * @param frame   扇出时共享的已编码帧，为 null 时由编码器编码消息
+     */
+    public synchronized void send(PublishMessage message, SharedPublishFrame frame) {
+        if (released) {
+            message.release();
+            return;
+        }
+        if (channel != null && queued.isEmpty() && size < maxInflight) {
+            transmit(message, frame);
+            channel.flush();
+            return;
+        }
+        queued.offer(message);
+    }
+
+    /**
+     * 收到PUBREC，QoS 2消息进入PUBREL阶段，之后重传的是PUBREL，消息本身可以释放
+     *
+     * @return 是否为在途的QoS 2消息
+     */
+    public synchronized boolean received(int packetId) {
+        int slot = slotOf(packetId);
+        if (slot == NIL || messages[slot] == null) {
+            return slot != NIL;
+        }
+        if (messages[slot].getQosLevel() != 2) {
+            return false;
+        }
+        messages[slot].release();
+        messages[slot] = null;
+        sentAt[slot] = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * 收到PUBACK或PUBCOMP，释放消息并用排队的消息填补窗口
+     *
+     * @return 是否存在该Packet ID的在途消息
+     */
+    public synchronized boolean acknowledge(int packetId) {
+        int slot = slotOf(packetId);
+        if (slot == NIL) {
+            return false;
+        }
+        if (messages[slot] != null) {
+            messages[slot].release();
+        }
+        remove(slot);
+        if (channel != null && fill()) {
+            channel.flush();
+        }
+        return true;
+    }
+
+    /**
+     * 客户端连接（或持久会话恢复）时绑定通道，按原发送顺序重发在途消息，然后发送排队的消息
+     *
+     * @throws IllegalStateException 窗口已释放
+     */
+    public synchronized void bind(Channel channel) {
+        if (released) {
+            throw new IllegalStateException("Inflight window is released");
+        }
+        this.channel = channel;
+        long now = System.nanoTime();
+        for (int slot = head; slot != NIL; slot = next[slot]) {
+            resend(slot, now);
+        }
+        fill();
+        channel.flush();
+        scheduleRetry();
+    }
+
+    /**
+     * 客户端断开时解除绑定，消息保留在窗口中。通道已被新连接替换时不做任何处理
+     */
+    public synchronized void unbind(Channel channel) {
+        if (this.channel != channel) {
+            return;
+        }
+        this.channel = null;
+        if (retryTimeout != null) {
+            retryTimeout.cancel();
+            retryTimeout = null;
+        }
+    }
+
+    /**
+     * 释放窗口和队列中的所有消息，会话被移除或替换时调用。之后发送的消息直接释放，窗口不能再绑定通道
+     */
+    public synchronized void release() {
+        released = true;
+        while (head != NIL) {
+            if (messages[head] != null) {
+                messages[head].release();
+            }
+            remove(head);
+        }
+        packetIds = null;
+        messages = null;
+        sentAt = null;
+        next = null;
+        prev = null;
+        queued.clear();
+        unbind(channel);
+    }
+
+    /**
+     * 分配一个不与在途消息重复的Packet ID，范围是1-65535，超过后重新从1开始。
+     * 只在窗口未满时由 {@link #transmit} 调用，窗口满时没有可用的槽位
+     *
+     * @throws IllegalStateException 窗口已满
+     */
+    private int nextPacketId() {
+        if (size >= maxInflight) {
+            throw new IllegalStateException("Inflight window is full: " + size);
+        }
+        if (packetIds == null) {
+            allocate(Math.min(INITIAL_CAPACITY, capacityFor(maxInflight)));
+        }
+        while (true) {
+            int packetId = nextPacketId;
+            nextPacketId = packetId == 65535 ? 1 : packetId + 1;
+            int slot = packetId & (packetIds.length - 1);
+            if (packetIds[slot] == 0) {
+                return packetId;
+            }
+            // 槽位被其它在途消息占用：还能扩容时扩容后重试，否则跳过该ID。
+            // 窗口满之前最大容量下总有空槽，因此最多跳过容量个ID
+            if (packetIds[slot] != packetId && packetIds.length < capacityFor(maxInflight)) {
+                grow();
+                nextPacketId = packetId;
+            }
+        }
+    }
+
+    /**
+     * 窗口是否还能立即发送新消息：已绑定通道、没有排队的消息且在途消息未满
+     */
+    public synchronized boolean hasCapacity() {
+        return channel != null && queued.isEmpty() && size < maxInflight;
+    }
+
+    public synchronized int inflightSize() {
+        return size;
+    }
+
+    public synchronized int queuedSize() {
+        return queued.size();
+    }
+
+    private void transmit(PublishMessage message, SharedPublishFrame frame) {
+        if (released) {
+            throw new IllegalStateException("Inflight window is released");
+        }
+        int packetId = nextPacketId();
+        message.setPacketId(packetId);
+        insert(packetId, message, System.nanoTime());
+        counters.inflight.increment();
+        if (frame != null) {
+            channel.write(frame.retainedFrame(channel.alloc(), packetId));
+        } else {
+            channel.write(message.retainedDuplicate());
+        }
+        scheduleRetry();
+    }
+
+    /**
+     * 用排队的消息填满窗口，只写不flush
+     *
+     * @return 是否写出了消息
+     */
+    private boolean fill() {
+        boolean written = false;
+        PublishMessage message;
+        while (size < maxInflight && (message = queued.poll()) != null) {
+            transmit(message, null);
+            written = true;
+        }
+        return written;
+    }
+
+    private void resend(int slot, long now) {
+        PublishMessage message = messages[slot];
+        if (message != null) {
+            message.setDup(true);
+            channel.write(message.retainedDuplicate());
+        } else {
+            PacketIdMessage pubRel = new PacketIdMessage(MqttMessageType.PUBREL);
+            pubRel.setQosLevel(1);
+            pubRel.setPacketId(packetIds[slot]);
+            channel.write(pubRel);
+        }
+        sentAt[slot] = now;
+        counters.retransmissions.increment();
+    }
+
+    private void scheduleRetry() {
+        if (timer != null && retryTimeout == null && channel != null && size > 0) {
+            retryTimeout = timer.newTimeout(retryTask, retryIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void retry(Timeout timeout) {
+        // 解除绑定后又重新绑定时，旧的定时任务可能已经开始执行
+        if (timeout != retryTimeout) {
+            return;
+        }
+        retryTimeout = null;
+        if (channel == null || size == 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long nextDue = Long.MAX_VALUE;
+        boolean written = false;
+        for (int slot = head; slot != NIL; slot = next[slot]) {
+            long due = sentAt[slot] + retryIntervalNanos;
+            if (due - now <= 0) {
+                resend(slot, now);
+                written = true;
+                due = now + retryIntervalNanos;
+            }
+            nextDue = Math.min(nextDue, due);
+        }
+        if (written) {
+            channel.flush();
+        }
+        // 下次到期时间取窗口中最早的一条，避免每条消息一个定时任务
+        retryTimeout = timer.newTimeout(retryTask, Math.max(0, nextDue - now), TimeUnit.NANOSECONDS);
+    }
+
+    private int slotOf(int packetId) {
+        if (packetIds == null || packetId <= 0) {
+            return NIL;
+        }
+        int slot = packetId & (packetIds.length - 1);
+        return packetIds[slot] == packetId ? slot : NIL;
+    }
+
+    /**
+     * 放入一条在途消息并链接到链表尾部，packetId 必须由 {@link #nextPacketId()} 分配
+     */
+    private void insert(int packetId, PublishMessage message, long now) {
+        int slot = packetId & (packetIds.length - 1);
+        packetIds[slot] = packetId;
+        messages[slot] = message;
+        sentAt[slot] = now;
+        prev[slot] = tail;
+        next[slot] = NIL;
+        if (tail == NIL) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+        size++;
+    }
+
+    private void remove(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p == NIL) {
+            head = n;
+        } else {
+            next[p] = n;
+        }
+        if (n == NIL) {
+            tail = p;
+        } else {
+            prev[n] = p;
+        }
+        packetIds[slot] = 0;
+        messages[slot] = null;
+        size--;
+        counters.inflight.decrement();
+    }
+
+    /**
+     * 容量翻倍，按发送顺序重新放入。低位不同的两个ID在更多低位下仍然不同，因此扩容不会产生冲突
+     */
+    private void grow() {
+        int[] oldPacketIds = packetIds;
+        PublishMessage[] oldMessages = messages;
+        long[] oldSentAt = sentAt;
+        int[] oldNext = next;
+        int oldHead = head;
+
+        allocate(oldPacketIds.length << 1);
+        for (int slot = oldHead; slot != NIL; slot = oldNext[slot]) {
+            insert(oldPacketIds[slot], oldMessages[slot], oldSentAt[slot]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        packetIds = new int[capacity];
+        messages = new PublishMessage[capacity];
+        sentAt = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        head = NIL;
+        tail = NIL;
+        size = 0;
+    }
+
+    private static int capacityFor(int maxInflight) {
+        return maxInflight <= 1 ? 1 : Integer.highestOneBit(maxInflight - 1) << 1;
+    }
+
+    /**
+     * 所有会话共享的在途窗口统计
+     */
+    public static class Counters {
+        private final LongAdder retransmissions = new LongAdder();
+        private final LongAdder inflight = new LongAdder();
+
+        /**
+         * 重发的PUBLISH和PUBREL数量，包括会话恢复时的重发
+         */
+        public long getRetransmissionCount() {
+            return retransmissions.sum();
+        }
+
+        /**
+         * 当前所有会话中已发送但尚未确认的消息数（包括等待PUBCOMP的QoS 2消息）
+         */
+        public long getInflightCount() {
+            return inflight.sum();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.message.PublishMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayDeque;
+
+/**
+ * 会话的排队消息，先进先出
+ * <p>
+ * 队列由内存部分和溢出部分组成：内存部分未超过会话预算时新消息放在内存中，
+ * 一旦开始溢出，后续消息都追加到溢出部分，直到溢出部分被取空，以保证顺序。
+ * 内存中保存的是负载的独立副本，避免离线期间长时间引用入站读缓冲区。
+ * 非线程安全，由所属的 {@link InflightWindow} 同步。
+ */
+class MessageQueue {
+    private final QueueStore store;
+
+    private final ArrayDeque<PublishMessage> memory = new ArrayDeque<>();
+    private long memoryBytes;
+    // 溢出消息的指针，环形数组
+    private long[] spilled;
+    private int spilledHead;
+    private int spilledSize;
+
+    MessageQueue(QueueStore store) {
+        this.store = store;
+    }
+
+    /**
+     * 消息入队，队列接管消息的引用
+     *
+     * @return 是否入队，消息被丢弃时返回 false
+     */
+    boolean offer(PublishMessage message) {
+        if (size() >= store.getMaxSessionMessages() || !store.tryAcquireMessage()) {
+            if (store.getOverflowPolicy() == QueueStore.OverflowPolicy.DROP_NEWEST || isEmpty()) {
+                drop(message);
+                return false;
+            }
+            // 腾出本会话最旧的一条，全局名额随之转给新消息
+            discardOldest();
+            if (!store.tryAcquireMessage()) {
+                drop(message);
+                return false;
+            }
+        }
+
+        long size = sizeOf(message);
+        if (spilledSize == 0 && memoryBytes + size <= store.getSessionMemoryBytes() && store.tryAcquireMemory(size)) {
+            memory.add(compact(message));
+            memoryBytes += size;
+            return true;
+        }
+
+        SegmentSpill spill = store.getSpill();
+        long pointer = spill != null ? spill.append(message) : -1;
+        if (pointer < 0) {
+            store.releaseMessage();
+            drop(message);
+            return false;
+        }
+        message.release();
+        addSpilled(pointer);
+        store.getCounters().spilled.increment();
+        return true;
+    }
+
+    /**
+     * 取出队首消息，调用方负责释放
+     */
+    PublishMessage poll() {
+        PublishMessage message = memory.poll();
+        if (message != null) {
+            long size = sizeOf(message);
+            memoryBytes -= size;
+            store.releaseMemory(size);
+        } else if (spilledSize > 0) {
+            message = store.getSpill().take(removeSpilled());
+        } else {
+            return null;
+        }
+        store.releaseMessage();
+        return message;
+    }
+
+    int size() {
+        return memory.size() + spilledSize;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 释放队列中的所有消息
+     */
+    void clear() {
+        PublishMessage message;
+        while ((message = memory.poll()) != null) {
+            long size = sizeOf(message);
+            store.releaseMemory(size);
+            store.releaseMessage();
+            message.release();
+        }
+        memoryBytes = 0;
+        while (spilledSize > 0) {
+            store.getSpill().discard(removeSpilled());
+            store.releaseMessage();
+        }
+        spilled = null;
+    }
+
+    private void discardOldest() {
+        PublishMessage oldest = poll();
+        if (oldest != null) {
+            drop(oldest);
+        }
+    }
+
+    private void drop(PublishMessage message) {
+        message.release();
+        store.getCounters().dropped.increment();
+    }
+
+    private void addSpilled(long pointer) {
+        if (spilled == null) {
+            spilled = new long[16];
+        } else if (spilledSize == spilled.length) {
+            long[] grown = new long[spilled.length << 1];
+            for (int i = 0; i < spilledSize; i++) {
+                grown[i] = spilled[(spilledHead + i) & (spilled.length - 1)];
+            }
+            spilled = grown;
+            spilledHead = 0;
+        }
+        spilled[(spilledHead + spilledSize) & (spilled.length - 1)] = pointer;
+        spilledSize++;
+    }
+
+    private long removeSpilled() {
+        long pointer = spilled[spilledHead];
+        spilledHead = (spilledHead + 1) & (spilled.length - 1);
+        spilledSize--;
+        return pointer;
+    }
+
+    private static PublishMessage compact(PublishMessage message) {
+        ByteBuf payload = message.getPayload();
+        if (payload.unwrap() == null && payload.capacity() == payload.readableBytes()) {
+            return message;
+        }
+        PublishMessage copy = message.replace(Unpooled.copiedBuffer(payload));
+        message.release();
+        return copy;
+    }
+
+    private static long sizeOf(PublishMessage message) {
+        return QueueStore.MESSAGE_OVERHEAD + message.getTopicBytes().length + message.getPayload().readableBytes();
+    }
+}
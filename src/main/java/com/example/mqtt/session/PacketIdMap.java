@@ -0,0 +1,153 @@
+package com.example.mqtt.session;
+
+import java.util.function.Consumer;
+
+/**
+ * 以Packet ID为键的开放寻址哈希表
+ * <p>
+ * 键直接保存为int，线性探测，删除时向前移动后续元素而不留墓碑，
+ * 因此 put 和 remove 除扩容外不分配对象，也不需要装箱。Packet ID从1开始，0表示空槽。
+ * 非线程安全，由调用方负责同步。
+ *
+ * @param <V> 值类型
+ */
+class PacketIdMap<V> {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * 放入键值对
+     *
+     * @return 被替换的旧值，没有时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    V put(int packetId, V value) {
+        checkKey(packetId);
+        if (keys == null) {
+            keys = new int[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        }
+        int mask = keys.length - 1;
+        int slot = mix(packetId) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == packetId) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = packetId;
+        values[slot] = value;
+        // 负载因子不超过0.5
+        if (++size > keys.length >> 1) {
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int packetId) {
+        int slot = find(packetId);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int packetId) {
+        int slot = find(packetId);
+        if (slot < 0) {
+            return null;
+        }
+        V value = (V) values[slot];
+        int mask = keys.length - 1;
+        // 把后续同一探测序列中的元素向前移动，填补空出的槽位
+        int gap = slot;
+        int i = (slot + 1) & mask;
+        while (keys[i] != 0) {
+            int home = mix(keys[i]) & mask;
+            // home 不在 (gap, i] 区间内时，该元素可以移动到 gap
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = null;
+        size--;
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 对所有值执行操作后清空，用于释放保存的消息
+     */
+    @SuppressWarnings("unchecked")
+    void drain(Consumer<V> action) {
+        if (keys == null) {
+            return;
+        }
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = null;
+        values = null;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                action.accept((V) oldValues[i]);
+            }
+        }
+    }
+
+    private int find(int packetId) {
+        if (keys == null || packetId <= 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(packetId) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == packetId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static void checkKey(int packetId) {
+        if (packetId <= 0 || packetId > 65535) {
+            throw new IllegalArgumentException("Invalid packet id: " + packetId);
+        }
+    }
+
+    private static int mix(int packetId) {
+        // 客户端通常按顺序分配Packet ID，乘以黄金分割常数把连续的ID分散开
+        int h = packetId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.mqtt.session;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有会话的排队消息共享的限额和溢出存储
+ * <p>
+ * 每个会话的队列先保存在内存中，超过会话内存预算或全局内存上限后溢出到 {@link SegmentSpill}。
+ * 会话消息数、全局消息数超过上限或磁盘空间不足时，按 {@link OverflowPolicy} 丢弃最旧或最新的消息，
+ * 保证大量离线设备积压消息时堆内存和磁盘占用都有上限。
+ */
+public class QueueStore {
+    public enum OverflowPolicy {
+        // 丢弃本会话队列中最旧的消息
+        DROP_OLDEST,
+        // 丢弃新到达的消息
+        DROP_NEWEST
+    }
+
+    // 排队消息除负载和主题外的大致内存开销
+    static final int MESSAGE_OVERHEAD = 96;
+
+    private final int maxSessionMessages;
+    private final long sessionMemoryBytes;
+    private final long maxMessages;
+    private final long maxMemoryBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final SegmentSpill spill;
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final Counters counters = new Counters();
+
+    /**
+     * @param maxSessionMessages 每个会话最多排队的消息数
+     * @param sessionMemoryBytes 每个会话在内存中排队的字节数预算，超出后溢出到磁盘
+     * @param maxMessages        所有会话最多排队的消息数
+     * @param maxMemoryBytes     所有会话在内存中排队的字节数上限
+     * @param overflowPolicy     超过消息数上限时的丢弃策略
+     * @param spill              溢出存储，为 null 时超出内存预算的消息按丢弃策略处理
+     */
+    public QueueStore(int maxSessionMessages, long sessionMemoryBytes, long maxMessages, long maxMemoryBytes,
+                      OverflowPolicy overflowPolicy, SegmentSpill spill) {
+        this.maxSessionMessages = maxSessionMessages;
+        this.sessionMemoryBytes = sessionMemoryBytes;
+        this.maxMessages = maxMessages;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.spill = spill;
+    }
+
+    /**
+     * 不溢出到磁盘、只限制会话消息数的存储
+     */
+    public static QueueStore inMemory(int maxSessionMessages) {
+        return new QueueStore(maxSessionMessages, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+                OverflowPolicy.DROP_NEWEST, null);
+    }
+
+    int getMaxSessionMessages() {
+        return maxSessionMessages;
+    }
+
+    long getSessionMemoryBytes() {
+        return sessionMemoryBytes;
+    }
+
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    SegmentSpill getSpill() {
+        return spill;
+    }
+
+    /**
+     * 占用一个全局消息名额，达到上限时返回 false
+     */
+    boolean tryAcquireMessage() {
+        while (true) {
+            long current = messages.get();
+            if (current >= maxMessages) {
+                return false;
+            }
+            if (messages.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseMessage() {
+        messages.decrementAndGet();
+    }
+
+    /**
+     * 占用全局内存预算，超过上限时返回 false
+     */
+    boolean tryAcquireMemory(long bytes) {
+        while (true) {
+            long current = memoryBytes.get();
+            if (current + bytes > maxMemoryBytes) {
+                return false;
+            }
+            if (memoryBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseMemory(long bytes) {
+        memoryBytes.addAndGet(-bytes);
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    public void close() {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    /**
+     * 排队消息的统计
+     */
+    public class Counters {
+        final LongAdder spilled = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+
+        /**
+         * 当前所有会话中排队的消息数（内存和磁盘）
+         */
+        public long getQueuedCount() {
+            return messages.get();
+        }
+
+        /**
+         * 当前内存中排队消息占用的字节数（估算）
+         */
+        public long getMemoryBytes() {
+            return memoryBytes.get();
+        }
+
+        /**
+         * 当前溢出段文件占用的磁盘空间
+         */
+        public long getSpillBytes() {
+            return spill != null ? spill.getMappedBytes() : 0;
+        }
+
+        /**
+         * 累计溢出到磁盘的消息数
+         */
+        public long getSpilledCount() {
+            return spilled.sum();
+        }
+
+        /**
+         * 因超过上限而丢弃的消息数
+         */
+        public long getDroppedMessageCount() {
+            return dropped.sum();
+        }
+    }
+}
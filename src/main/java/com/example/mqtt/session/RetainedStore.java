@@ -0,0 +1,301 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.Topics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 保留消息存储，按主题层级组织为前缀树
+ * <p>
+ * 每个节点对应主题的一个层级，节点上最多保存一条保留消息。订阅时沿过滤器层级向下走，
+ * '+' 遍历该层的所有子节点，'#' 收集整棵子树，因此只访问与过滤器匹配的分支，不需要扫描所有保留消息。
+ * 负载复制到分配器的直接内存中保存，不引用入站读缓冲区，也不占用堆内存。
+ * <p>
+ * 写操作（put/remove）串行执行，读操作（match）无锁。节点上的消息在节点锁内替换和复制引用，
+ * 保证读到的消息不会在复制引用之前被释放。
+ */
+public class RetainedStore {
+    private final Entry root = new Entry();
+    private final Object writeLock = new Object();
+    private final ByteBufAllocator allocator;
+    private final long maxMessages;
+    private final long maxMemoryBytes;
+    private final Counters counters = new Counters();
+
+    // 以下字段只在 writeLock 内修改
+    private volatile long messages;
+    private volatile long memoryBytes;
+
+    /**
+     * @param allocator      保存负载使用的分配器
+     * @param maxMessages    最多保存的保留消息数
+     * @param maxMemoryBytes 保留消息负载占用的直接内存上限
+     */
+    public RetainedStore(ByteBufAllocator allocator, long maxMessages, long maxMemoryBytes) {
+        this.allocator = allocator;
+        this.maxMessages = maxMessages;
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * 保存主题的保留消息，替换原有的消息；负载为空时删除该主题的保留消息。不改变消息的引用计数
+     *
+     * @return 是否已保存，超过数量或内存上限时返回 false
+     */
+    public boolean put(PublishMessage message) {
+        ByteBuf payload = message.getPayload();
+        int size = payload.readableBytes();
+        if (size == 0) {
+            remove(message.getTopic());
+            return true;
+        }
+
+        ByteBuf copy = allocator.directBuffer(size, size);
+        copy.writeBytes(payload, payload.readerIndex(), size);
+        PublishMessage stored = new PublishMessage();
+        stored.setTopic(message.getTopic());
+        stored.setQosLevel(message.getQosLevel());
+        stored.setRetain(true);
+        stored.setPayload(copy);
+
+        String[] levels = message.getTopic().getLevels();
+        synchronized (writeLock) {
+            Entry existing = find(levels);
+            PublishMessage previous = existing != null ? existing.message : null;
+            long previousSize = previous != null ? previous.getPayload().readableBytes() : 0;
+            if ((previous == null && messages >= maxMessages) || memoryBytes - previousSize + size > maxMemoryBytes) {
+                stored.release();
+                counters.rejected.increment();
+                return false;
+            }
+
+            Entry entry = existing;
+            if (entry == null) {
+                entry = root;
+                for (String level : levels) {
+                    entry = entry.getOrCreateChild(level);
+                }
+            }
+            synchronized (entry) {
+                entry.message = stored;
+            }
+            if (previous != null) {
+                previous.release();
+            } else {
+                messages++;
+            }
+            memoryBytes += size - previousSize;
+        }
+        return true;
+    }
+
+    /**
+     * 删除主题的保留消息，并清理空节点
+     */
+    public void remove(Topic topic) {
+        String[] levels = topic.getLevels();
+        synchronized (writeLock) {
+            Entry[] path = new Entry[levels.length + 1];
+            path[0] = root;
+            for (int i = 0; i < levels.length; i++) {
+                path[i + 1] = path[i].getChild(levels[i]);
+                if (path[i + 1] == null) {
+                    return;
+                }
+            }
+
+            Entry entry = path[levels.length];
+            PublishMessage previous;
+            synchronized (entry) {
+                previous = entry.message;
+                entry.message = null;
+            }
+            if (previous == null) {
+                return;
+            }
+            messages--;
+            memoryBytes -= previous.getPayload().readableBytes();
+            previous.release();
+
+            for (int i = levels.length; i > 0 && path[i].isEmpty(); i--) {
+                path[i - 1].removeChild(levels[i - 1]);
+            }
+        }
+    }
+
+    /**
+     * 收集与过滤器匹配的保留消息条目。条目中的消息在 {@link Entry#retainedMessage()} 时才读取，
+     * 因此可以先收集大量条目再分批发送，发送时读到的是最新的消息
+     *
+     * @param topicFilter 主题过滤器，调用方需保证已通过 {@link Topics#isValidFilter(String)} 校验
+     * @param result      结果容器
+     */
+    public void match(String topicFilter, Collection<? super Entry> result) {
+        match(root, Topics.splitLevels(topicFilter), 0, result);
+    }
+
+    private void match(Entry entry, String[] levels, int index, Collection<? super Entry> result) {
+        if (index == levels.length) {
+            if (entry.message != null) {
+                result.add(entry);
+            }
+            return;
+        }
+
+        String level = levels[index];
+        // 首层为通配符时不匹配以 '$' 开头的主题
+        if (Topics.MULTI_LEVEL_WILDCARD.equals(level)) {
+            collect(entry, index == 0, result);
+        } else if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+            ConcurrentMap<String, Entry> children = entry.children;
+            if (children != null) {
+                for (Map.Entry<String, Entry> child : children.entrySet()) {
+                    if (index > 0 || !Topics.isDollarTopic(child.getKey())) {
+                        match(child.getValue(), levels, index + 1, result);
+                    }
+                }
+            }
+        } else {
+            Entry child = entry.getChild(level);
+            if (child != null) {
+                match(child, levels, index + 1, result);
+            }
+        }
+    }
+
+    /**
+     * "a/#" 同时匹配 "a" 以及 "a" 下的所有层级
+     */
+    private void collect(Entry entry, boolean skipDollar, Collection<? super Entry> result) {
+        if (entry.message != null) {
+            result.add(entry);
+        }
+        ConcurrentMap<String, Entry> children = entry.children;
+        if (children != null) {
+            for (Map.Entry<String, Entry> child : children.entrySet()) {
+                if (!skipDollar || !Topics.isDollarTopic(child.getKey())) {
+                    collect(child.getValue(), false, result);
+                }
+            }
+        }
+    }
+
+    private Entry find(String[] levels) {
+        Entry entry = root;
+        for (int i = 0; i < levels.length && entry != null; i++) {
+            entry = entry.getChild(levels[i]);
+        }
+        return entry;
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    /**
+     * 释放所有保留消息
+     */
+    public void close() {
+        synchronized (writeLock) {
+            release(root);
+            root.children = null;
+            messages = 0;
+            memoryBytes = 0;
+        }
+    }
+
+    private void release(Entry entry) {
+        synchronized (entry) {
+            if (entry.message != null) {
+                entry.message.release();
+                entry.message = null;
+            }
+        }
+        ConcurrentMap<String, Entry> children = entry.children;
+        if (children != null) {
+            for (Entry child : children.values()) {
+                release(child);
+            }
+        }
+    }
+
+    /**
+     * 前缀树的节点，即一个主题上的保留消息
+     */
+    public static final class Entry {
+        // 只在 RetainedStore 的 writeLock 内修改，读取无锁
+        private volatile ConcurrentMap<String, Entry> children;
+        // 在节点锁内替换
+        private volatile PublishMessage message;
+
+        /**
+         * 返回当前保留消息的副本，与存储共享负载，调用方负责释放
+         *
+         * @return 保留消息已被删除时返回 null
+         */
+        public synchronized PublishMessage retainedMessage() {
+            return message != null ? message.retainedDuplicate() : null;
+        }
+
+        Entry getChild(String level) {
+            ConcurrentMap<String, Entry> map = children;
+            return map != null ? map.get(level) : null;
+        }
+
+        Entry getOrCreateChild(String level) {
+            if (children == null) {
+                children = new ConcurrentHashMap<>(4);
+            }
+            return children.computeIfAbsent(level, k -> new Entry());
+        }
+
+        void removeChild(String level) {
+            if (children != null) {
+                children.remove(level);
+                if (children.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return message == null && (children == null || children.isEmpty());
+        }
+    }
+
+    /**
+     * 保留消息的统计
+     */
+    public class Counters {
+        final LongAdder rejected = new LongAdder();
+
+        /**
+         * 当前保存的保留消息数
+         */
+        public long getRetainedCount() {
+            return messages;
+        }
+
+        /**
+         * 当前保留消息负载占用的直接内存字节数
+         */
+        public long getMemoryBytes() {
+            return memoryBytes;
+        }
+
+        /**
+         * 因超过上限而未保存的保留消息数
+         */
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 排队消息溢出到磁盘的存储，所有会话共享
+ * <p>
+ * 消息追加写入固定大小的内存映射段文件，返回的指针由段号和段内偏移组成，会话队列只需保存一个long。
+ * 每个段记录尚未读取的消息数，段写满且其中的消息都被读取或丢弃后立即解除映射并删除文件。
+ * 溢出文件只用于缓解内存压力，不保证持久，启动时会清理目录中遗留的段文件。
+ * <p>
+ * 记录格式：长度(int) + 标志(byte，低2位QoS，第3位retain) + 主题长度(short) + 主题 + 负载
+ */
+public class SegmentSpill {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentSpill.class);
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final int RECORD_HEADER = 4 + 1 + 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    private Segment current;
+    private int nextSegmentId;
+    // 所有段文件占用的磁盘空间
+    private long mappedBytes;
+
+    /**
+     * @param directory   段文件目录
+     * @param segmentSize 每个段文件的大小
+     * @param maxBytes    所有段文件的总大小上限
+     */
+    public SegmentSpill(Path directory, int segmentSize, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * 追加一条消息，不改变消息的引用计数
+     *
+     * @return 指针；消息超过段大小或磁盘空间达到上限时返回 -1
+     */
+    public synchronized long append(PublishMessage message) {
+        byte[] topic = message.getTopicBytes();
+        ByteBuf payload = message.getPayload();
+        int length = RECORD_HEADER + topic.length + payload.readableBytes();
+        if (length > segmentSize) {
+            return -1;
+        }
+        if (current == null || segmentSize - current.writePosition < length) {
+            if (!roll()) {
+                return -1;
+            }
+        }
+
+        Segment segment = current;
+        int offset = segment.writePosition;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset, length);
+        buffer.put(offset + 4, (byte) ((message.getQosLevel() & 0x03) | (message.isRetain() ? 0x04 : 0)));
+        buffer.putShort(offset + 5, (short) topic.length);
+        ByteBuffer body = region(buffer, offset + RECORD_HEADER, length - RECORD_HEADER);
+        body.put(topic);
+        payload.getBytes(payload.readerIndex(), body);
+        segment.writePosition += length;
+        segment.live++;
+        return ((long) segment.id << 32) | offset;
+    }
+
+    /**
+     * 读取并释放一条消息，负载复制到新的缓冲区
+     */
+    public synchronized PublishMessage take(long pointer) {
+        Segment segment = segments.get((int) (pointer >>> 32));
+        int offset = (int) pointer;
+        MappedByteBuffer buffer = segment.buffer;
+        int length = buffer.getInt(offset);
+        int flags = buffer.get(offset + 4);
+        int topicLength = buffer.getShort(offset + 5) & 0xFFFF;
+
+        ByteBuffer body = region(buffer, offset + RECORD_HEADER, length - RECORD_HEADER);
+        byte[] topic = new byte[topicLength];
+        body.get(topic);
+        ByteBuf payload = Unpooled.buffer(body.remaining(), body.remaining());
+        payload.writeBytes(body);
+
+        PublishMessage message = new PublishMessage();
+        message.setTopic(Topic.of(topic));
+        message.setQosLevel(flags & 0x03);
+        message.setRetain((flags & 0x04) != 0);
+        message.setPayload(payload);
+        release(segment);
+        return message;
+    }
+
+    /**
+     * 丢弃一条消息
+     */
+    public synchronized void discard(long pointer) {
+        release(segments.get((int) (pointer >>> 32)));
+    }
+
+    /**
+     * 当前所有段文件占用的磁盘空间
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public synchronized void close() {
+        for (Segment segment : segments.values()) {
+            delete(segment);
+        }
+        segments.clear();
+        current = null;
+        mappedBytes = 0;
+    }
+
+    private void release(Segment segment) {
+        if (--segment.live == 0 && segment != current) {
+            segments.remove(segment.id);
+            delete(segment);
+            mappedBytes -= segmentSize;
+        }
+    }
+
+    private boolean roll() {
+        // 当前段中的消息已全部读取时，换段后可以立即删除
+        Segment previous = current;
+        if (previous != null && previous.live == 0) {
+            segments.remove(previous.id);
+            delete(previous);
+            mappedBytes -= segmentSize;
+        }
+        current = null;
+        if (mappedBytes + segmentSize > maxBytes) {
+            return false;
+        }
+        int id = nextSegmentId++;
+        Path path = directory.resolve(String.format("%010d%s", id, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            // 映射建立后即可关闭文件，映射在解除之前一直有效
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            current = new Segment(id, path, buffer);
+        } catch (IOException e) {
+            logger.error("Failed to create spill segment {}", path, e);
+            return false;
+        }
+        segments.put(id, current);
+        mappedBytes += segmentSize;
+        return true;
+    }
+
+    private static ByteBuffer region(MappedByteBuffer buffer, int position, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(position + length);
+        region.position(position);
+        return region;
+    }
+
+    private static void delete(Segment segment) {
+        PlatformDependent.freeDirectBuffer(segment.buffer);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete spill segment {}", segment.path, e);
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        // 尚未读取或丢弃的消息数
+        int live;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
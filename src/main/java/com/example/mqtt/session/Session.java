@@ -2,24 +2,30 @@ package com.example.mqtt.session;
 
 import com.example.mqtt.message.PublishMessage;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-
 public class Session {
+    private static final int DEFAULT_MAX_INFLIGHT = 32;
+    private static final int DEFAULT_MAX_QUEUED = 1000;
+
     private final String clientId;
     private boolean cleanSession;
     private int keepAlive;
-    private Map<Integer, PublishMessage> outboundMessages;
-    private Map<Integer, PublishMessage> inboundMessages;
-    private final AtomicInteger packetIdGenerator = new AtomicInteger(1);
+    private final InflightWindow outbound;
+    // 等待PUBREL的QoS 2入站消息
+    private final PacketIdMap<PublishMessage> inboundMessages = new PacketIdMap<>();
 
     public Session(String clientId, boolean cleanSession, int keepAlive) {
+        this(clientId, cleanSession, keepAlive, new InflightWindow(DEFAULT_MAX_INFLIGHT, QueueStore.inMemory(DEFAULT_MAX_QUEUED),
+                null, 0, new InflightWindow.Counters()));
+    }
+
+    /**
+     * @param outbound 出站QoS 1/2消息的在途窗口
+     */
+    public Session(String clientId, boolean cleanSession, int keepAlive, InflightWindow outbound) {
         this.clientId = clientId;
         this.cleanSession = cleanSession;
         this.keepAlive = keepAlive;
-        this.outboundMessages = new ConcurrentHashMap<>();
-        this.inboundMessages = new ConcurrentHashMap<>();
+        this.outbound = outbound;
     }
 
     public String getClientId() {
@@ -34,29 +40,36 @@ public class Session {
         return keepAlive;
     }
 
-    public void addOutboundMessage(int packetId, PublishMessage message) {
-        outboundMessages.put(packetId, message);
+    /**
+     * 出站QoS 1/2消息的在途窗口，负责分配Packet ID、限制未确认消息数和重传
+     */
+    public InflightWindow getOutbound() {
+        return outbound;
     }
 
-    public PublishMessage removeOutboundMessage(int packetId) {
-        return outboundMessages.remove(packetId);
-    }
-
-    public void addInboundMessage(int packetId, PublishMessage message) {
-        inboundMessages.put(packetId, message);
+    /**
+     * 保存QoS 2入站消息直到收到PUBREL，重发的同ID消息会替换并释放旧消息。
+     * 会话在保存成功后自行增加消息的引用，Packet ID无效时不会泄漏引用
+     */
+    public synchronized void addInboundMessage(int packetId, PublishMessage message) {
+        PublishMessage previous = inboundMessages.put(packetId, message);
+        message.retain();
+        if (previous != null) {
+            previous.release();
+        }
     }
 
-    public PublishMessage removeInboundMessage(int packetId) {
+    public synchronized PublishMessage removeInboundMessage(int packetId) {
         return inboundMessages.remove(packetId);
     }
 
-    public int generatePacketId() {
-        // Packet ID范围是1-65535，超过后重新从1开始
-        int packetId = packetIdGenerator.getAndIncrement();
-        if (packetId > 65535 || packetId <= 0) {
-            packetIdGenerator.set(1);
-            packetId = 1;
+    /**
+     * 释放会话中保存的所有消息，会话被移除或替换时调用
+     */
+    public void releaseMessages() {
+        outbound.release();
+        synchronized (this) {
+            inboundMessages.drain(PublishMessage::release);
         }
-        return packetId;
     }
 }
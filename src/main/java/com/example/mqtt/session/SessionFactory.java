@@ -0,0 +1,9 @@
+package com.example.mqtt.session;
+
+/**
+ * 创建会话，连接建立和启动恢复时使用同一个工厂，保证会话的在途窗口等配置一致
+ */
+@FunctionalInterface
+public interface SessionFactory {
+    Session create(String clientId, boolean cleanSession, int keepAlive);
+}
@@ -0,0 +1,586 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.protocol.MqttQoS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * 持久会话和订阅的追加日志与快照
+ * <p>
+ * {@link SessionManager} 中持久会话（cleanSession=false）的创建、删除及其订阅的增删被编码为日志记录，
+ * 由单独的写线程追加到 journal-&lt;代&gt;.log，事件循环只负责入队，不会阻塞在磁盘IO上。
+ * 日志超过大小上限或到达快照间隔时，写线程切换到新一代日志，把当前状态写成 snapshot-&lt;代&gt;.dat，
+ * 之后删除更早的快照和日志。启动时加载最新的快照，再按顺序重放同代及之后的日志。
+ * <p>
+ * 快照是在切换日志之后遍历状态生成的，与并发修改只是弱一致；但所有记录都是幂等的"设置/删除"操作，
+ * 切换之后的每一次修改都在新日志中，重放时每个键以日志中最后一次操作为准，因此结果与崩溃前一致。
+ * 同一客户端的修改都发生在该客户端连接的事件循环中，保证日志顺序与修改顺序一致。
+ * <p>
+ * 记录格式：长度(int，类型和内容的字节数) + 类型(byte) + 内容 + CRC32(int)。
+ * 重放遇到长度或校验不正确的记录（崩溃时写了一半）时停止读取该文件。
+ * <p>
+ * fsync策略：ALWAYS每条记录写入后fsync；GROUP写线程每批记录写入后fsync一次；PERIODIC按固定间隔fsync。
+ * 客户端收到的SUBACK等响应不等待fsync。
+ * <p>
+ * 等待写入的记录数有上限，写线程跟不上时新记录被丢弃并计数，事件循环不会因此阻塞或耗尽内存。
+ * 丢弃记录后写线程会尽快生成快照：快照遍历的是内存中的当前状态，已经包含被丢弃记录的修改，
+ * 快照完成后恢复结果重新与内存一致；在此之前崩溃会丢失这些修改。关闭时也会补写尚未生成的快照。
+ */
+public class SessionJournal {
+    private static final Logger logger = LoggerFactory.getLogger(SessionJournal.class);
+
+    public enum FsyncPolicy {
+        ALWAYS,
+        GROUP,
+        PERIODIC
+    }
+
+    private static final byte SESSION = 1;
+    private static final byte SESSION_REMOVED = 2;
+    private static final byte SUBSCRIBE = 3;
+    private static final byte UNSUBSCRIBE = 4;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // 唤醒写线程的空记录，不能用中断唤醒，中断会关闭正在写的 FileChannel
+    private static final byte[] WAKEUP = new byte[0];
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long snapshotIntervalNanos;
+    private final long snapshotJournalBytes;
+
+    private final BlockingQueue<byte[]> pending;
+    private final Counters counters = new Counters();
+    private SessionManager sessionManager;
+    private Thread writer;
+    private volatile boolean running;
+    // 有记录被丢弃，日志已不完整，需要生成快照
+    private volatile boolean snapshotRequired;
+
+    // 以下字段只在写线程中访问（启动之前由 recover 初始化）
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel journal;
+    private long generation;
+    private long journalBytes;
+    private boolean unsynced;
+    private long lastFsync;
+    private long lastSnapshot;
+
+    /**
+     * @param directory               日志和快照目录
+     * @param fsyncPolicy             fsync策略
+     * @param fsyncIntervalMillis     PERIODIC策略的fsync间隔
+     * @param snapshotIntervalSeconds 快照间隔，0表示只按日志大小生成快照
+     * @param snapshotJournalBytes    日志超过该大小时生成快照
+     * @param maxPendingRecords       等待写入的最大记录数
+     */
+    public SessionJournal(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                          long snapshotIntervalSeconds, long snapshotJournalBytes, int maxPendingRecords) throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMillis));
+        this.snapshotIntervalNanos = snapshotIntervalSeconds > 0 ? TimeUnit.SECONDS.toNanos(snapshotIntervalSeconds) : Long.MAX_VALUE;
+        this.snapshotJournalBytes = snapshotJournalBytes;
+        this.pending = new LinkedBlockingQueue<>(Math.max(1, maxPendingRecords));
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * 从最新的快照和之后的日志恢复持久会话及其订阅，必须在 {@link #start(SessionManager)} 之前调用
+     *
+     * @param sessionManager 要恢复到的会话管理器，此时还不能关联日志
+     * @param sessionFactory 创建恢复的会话
+     * @return 恢复的订阅数
+     */
+    public int recover(SessionManager sessionManager, SessionFactory sessionFactory) throws IOException {
+        long start = System.nanoTime();
+        // 崩溃时未写完的快照
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*.tmp")) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        }
+        List<Long> snapshots = generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        List<Long> journals = generations(JOURNAL_PREFIX, JOURNAL_SUFFIX);
+
+        State state = new State();
+        long snapshotGeneration = snapshots.isEmpty() ? -1 : snapshots.get(snapshots.size() - 1);
+        if (snapshotGeneration >= 0) {
+            replay(file(SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX), state);
+        }
+        long lastGeneration = Math.max(snapshotGeneration, 0);
+        for (long journalGeneration : journals) {
+            if (journalGeneration >= snapshotGeneration) {
+                replay(file(JOURNAL_PREFIX, journalGeneration, JOURNAL_SUFFIX), state);
+            }
+            lastGeneration = Math.max(lastGeneration, journalGeneration);
+        }
+        this.generation = lastGeneration;
+
+        int subscriptionCount = 0;
+        for (Map.Entry<String, Integer> entry : state.sessions.entrySet()) {
+            sessionManager.addSession(sessionFactory.create(entry.getKey(), false, entry.getValue()));
+        }
+        for (Map.Entry<String, Map<String, Integer>> entry : state.subscriptions.entrySet()) {
+            String clientId = entry.getKey();
+            if (!state.sessions.containsKey(clientId)) {
+                continue;
+            }
+            for (Map.Entry<String, Integer> subscription : entry.getValue().entrySet()) {
+                sessionManager.addSubscription(subscription.getKey(),
+                        new Subscription(clientId, subscription.getKey(), MqttQoS.valueOf(subscription.getValue())));
+                subscriptionCount++;
+            }
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        counters.recoveryMillis = millis;
+        logger.info("Recovered {} persistent sessions and {} subscriptions from {} ({} records) in {} ms",
+                state.sessions.size(), subscriptionCount, directory, state.records, millis);
+        return subscriptionCount;
+    }
+
+    /**
+     * 打开新一代日志并启动写线程，之后会话管理器的修改会被记录
+     */
+    public synchronized void start(SessionManager sessionManager) throws IOException {
+        this.sessionManager = sessionManager;
+        openJournal(++generation);
+        lastFsync = lastSnapshot = System.nanoTime();
+        running = true;
+        writer = new Thread(this::run, "mqtt-session-journal");
+        writer.setDaemon(true);
+        writer.start();
+        sessionManager.setJournal(this);
+    }
+
+    /**
+     * 写完已入队的记录并fsync后停止，有记录被丢弃时先生成快照
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // 队列已满时写线程不会阻塞在 poll 上，不需要唤醒
+        pending.offer(WAKEUP);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void sessionAdded(String clientId, int keepAlive) {
+        byte[] id = utf8(clientId);
+        ByteBuffer record = record(SESSION, 2 + id.length + 4);
+        putString(record, id);
+        record.putInt(keepAlive);
+        enqueue(record);
+    }
+
+    void sessionRemoved(String clientId) {
+        byte[] id = utf8(clientId);
+        ByteBuffer record = record(SESSION_REMOVED, 2 + id.length);
+        putString(record, id);
+        enqueue(record);
+    }
+
+    void subscribed(Subscription subscription) {
+        byte[] id = utf8(subscription.getClientId());
+        byte[] filter = utf8(subscription.getTopicFilter());
+        ByteBuffer record = record(SUBSCRIBE, 2 + id.length + 2 + filter.length + 1);
+        putString(record, id);
+        putString(record, filter);
+        record.put((byte) subscription.getQos().value());
+        enqueue(record);
+    }
+
+    void unsubscribed(String clientId, String topicFilter) {
+        byte[] id = utf8(clientId);
+        byte[] filter = utf8(topicFilter);
+        ByteBuffer record = record(UNSUBSCRIBE, 2 + id.length + 2 + filter.length);
+        putString(record, id);
+        putString(record, filter);
+        enqueue(record);
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+
+    /**
+     * 等待写线程写入的记录数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private void run() {
+        try {
+            while (running || !pending.isEmpty()) {
+                byte[] record = null;
+                try {
+                    record = pending.poll(fsyncPolicy == FsyncPolicy.PERIODIC ? fsyncIntervalNanos : 1_000_000_000L,
+                            TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    // 写线程只由 close() 通过 WAKEUP 停止，忽略中断以免关闭日志文件
+                }
+                if (record != null) {
+                    write(record);
+                    while ((record = pending.poll()) != null) {
+                        write(record);
+                    }
+                    flushBuffer();
+                    if (fsyncPolicy == FsyncPolicy.GROUP) {
+                        fsync();
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (fsyncPolicy == FsyncPolicy.PERIODIC && now - lastFsync >= fsyncIntervalNanos) {
+                    fsync();
+                }
+                if (running && (snapshotRequired || journalBytes >= snapshotJournalBytes
+                        || (journalBytes > 0 && now - lastSnapshot >= snapshotIntervalNanos))) {
+                    snapshot();
+                }
+            }
+            // 关闭前仍有被丢弃的记录未写入快照时补写，正常停止后恢复的状态与内存一致
+            if (snapshotRequired) {
+                snapshot();
+            }
+            flushBuffer();
+            fsync();
+            journal.close();
+        } catch (IOException e) {
+            logger.error("Session journal write failed, persistent sessions are no longer recorded", e);
+            running = false;
+        }
+    }
+
+    private void write(byte[] record) throws IOException {
+        if (record == WAKEUP) {
+            return;
+        }
+        if (writeBuffer.remaining() < record.length) {
+            flushBuffer();
+        }
+        if (record.length > writeBuffer.capacity()) {
+            writeFully(journal, ByteBuffer.wrap(record));
+        } else {
+            writeBuffer.put(record);
+        }
+        journalBytes += record.length;
+        counters.records.increment();
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            flushBuffer();
+            fsync();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeFully(journal, writeBuffer);
+        writeBuffer.clear();
+        unsynced = true;
+    }
+
+    private void fsync() throws IOException {
+        lastFsync = System.nanoTime();
+        if (unsynced) {
+            journal.force(false);
+            unsynced = false;
+            counters.fsyncs.increment();
+        }
+    }
+
+    /**
+     * 切换到新一代日志，写出当前状态的快照，然后删除更早的快照和日志
+     */
+    private void snapshot() throws IOException {
+        long start = System.nanoTime();
+        // 在遍历状态之前清除，遍历期间再有记录被丢弃时会生成下一个快照
+        snapshotRequired = false;
+        flushBuffer();
+        fsync();
+        journal.close();
+        long snapshotGeneration = ++generation;
+        openJournal(snapshotGeneration);
+        lastSnapshot = System.nanoTime();
+
+        Path target = file(SNAPSHOT_PREFIX, snapshotGeneration, SNAPSHOT_SUFFIX);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        int[] count = new int[1];
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            for (Session session : sessionManager.getSessions()) {
+                if (!session.isCleanSession()) {
+                    byte[] id = utf8(session.getClientId());
+                    ByteBuffer record = record(SESSION, 2 + id.length + 4);
+                    putString(record, id);
+                    record.putInt(session.getKeepAlive());
+                    append(out, buffer, seal(record));
+                    count[0]++;
+                }
+            }
+            IOException[] failure = new IOException[1];
+            sessionManager.forEachSubscription(subscription -> {
+                Session session = sessionManager.getSession(subscription.getClientId());
+                if (failure[0] != null || session == null || session.isCleanSession()) {
+                    return;
+                }
+                byte[] id = utf8(subscription.getClientId());
+                byte[] filter = utf8(subscription.getTopicFilter());
+                ByteBuffer record = record(SUBSCRIBE, 2 + id.length + 2 + filter.length + 1);
+                putString(record, id);
+                putString(record, filter);
+                record.put((byte) subscription.getQos().value());
+                try {
+                    append(out, buffer, seal(record));
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            buffer.flip();
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (long old : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (old < snapshotGeneration) {
+                Files.deleteIfExists(file(SNAPSHOT_PREFIX, old, SNAPSHOT_SUFFIX));
+            }
+        }
+        for (long old : generations(JOURNAL_PREFIX, JOURNAL_SUFFIX)) {
+            if (old < snapshotGeneration) {
+                Files.deleteIfExists(file(JOURNAL_PREFIX, old, JOURNAL_SUFFIX));
+            }
+        }
+        counters.snapshots.increment();
+        logger.info("Wrote session snapshot {} with {} records in {} ms", target.getFileName(), count[0],
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void openJournal(long journalGeneration) throws IOException {
+        journal = FileChannel.open(file(JOURNAL_PREFIX, journalGeneration, JOURNAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalBytes = 0;
+    }
+
+    private void replay(Path path, State state) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 checksum = new CRC32();
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 1 || buffer.remaining() < length + 4) {
+                logger.warn("Truncated record in {} at offset {}, ignoring the rest of the file", path, start);
+                return;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), buffer.position(), length);
+            int recordEnd = buffer.position() + length;
+            if ((int) checksum.getValue() != buffer.getInt(recordEnd)) {
+                logger.warn("Corrupt record in {} at offset {}, ignoring the rest of the file", path, start);
+                return;
+            }
+            apply(buffer, state);
+            buffer.position(recordEnd + 4);
+            state.records++;
+        }
+    }
+
+    private static void apply(ByteBuffer buffer, State state) {
+        byte type = buffer.get();
+        String clientId = getString(buffer);
+        switch (type) {
+            case SESSION:
+                state.sessions.put(clientId, buffer.getInt());
+                break;
+            case SESSION_REMOVED:
+                state.sessions.remove(clientId);
+                state.subscriptions.remove(clientId);
+                break;
+            case SUBSCRIBE: {
+                String filter = getString(buffer);
+                state.subscriptions.computeIfAbsent(clientId, k -> new HashMap<>()).put(filter, (int) buffer.get());
+                break;
+            }
+            case UNSUBSCRIBE: {
+                String filter = getString(buffer);
+                Map<String, Integer> filters = state.subscriptions.get(clientId);
+                if (filters != null) {
+                    filters.remove(filter);
+                }
+                break;
+            }
+            default:
+                logger.warn("Unknown session journal record type {}", type);
+        }
+    }
+
+    private void enqueue(ByteBuffer record) {
+        if (running && !pending.offer(seal(record))) {
+            counters.dropped.increment();
+            snapshotRequired = true;
+        }
+    }
+
+    /**
+     * 分配记录，预留长度字段和CRC的位置，position 指向内容的起始位置
+     */
+    private static ByteBuffer record(byte type, int bodyLength) {
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + bodyLength + 4);
+        record.putInt(1 + bodyLength);
+        record.put(type);
+        return record;
+    }
+
+    /**
+     * 写入CRC，返回完整的记录
+     */
+    private byte[] seal(ByteBuffer record) {
+        byte[] bytes = record.array();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 4, bytes.length - 8);
+        record.putInt((int) checksum.getValue());
+        return bytes;
+    }
+
+    private static void append(FileChannel out, ByteBuffer buffer, byte[] record) throws IOException {
+        if (buffer.remaining() < record.length) {
+            buffer.flip();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+        if (record.length > buffer.capacity()) {
+            writeFully(out, ByteBuffer.wrap(record));
+        } else {
+            buffer.put(record);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Path file(String prefix, long fileGeneration, String suffix) {
+        return directory.resolve(String.format("%s%016d%s", prefix, fileGeneration, suffix));
+    }
+
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                try {
+                    result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {}", path);
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * 重放过程中的中间状态，重放完成后再一次性放入会话管理器
+     */
+    private static final class State {
+        final Map<String, Integer> sessions = new HashMap<>();
+        final Map<String, Map<String, Integer>> subscriptions = new HashMap<>();
+        long records;
+    }
+
+    /**
+     * 日志统计
+     */
+    public static class Counters {
+        private final LongAdder records = new LongAdder();
+        private final LongAdder fsyncs = new LongAdder();
+        private final LongAdder snapshots = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private volatile long recoveryMillis;
+
+        public long getRecordCount() {
+            return records.sum();
+        }
+
+        public long getFsyncCount() {
+            return fsyncs.sum();
+        }
+
+        public long getSnapshotCount() {
+            return snapshots.sum();
+        }
+
+        /**
+         * 因等待写入的记录过多而丢弃的记录数
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * 启动时恢复耗费的时间（毫秒）
+         */
+        public long getRecoveryMillis() {
+            return recoveryMillis;
+        }
+    }
+}
@@ -1,17 +1,66 @@
 package com.example.mqtt.session;
 
+import com.example.mqtt.topic.TopicMatchCache;
+import com.example.mqtt.topic.TopicTrie;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.Topics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 public class SessionManager {
+    private static final Subscription[] NO_SUBSCRIBERS = new Subscription[0];
+    private static final int DEFAULT_MATCH_CACHE_SIZE = 10000;
+    // 普通订阅在前，共享订阅按过滤器（$share/<组名>/<过滤器>）分组排在后面
+    private static final Comparator<Subscription> SHARED_LAST = (a, b) -> {
+        if (a.isShared() != b.isShared()) {
+            return a.isShared() ? 1 : -1;
+        }
+        return a.isShared() ? a.getTopicFilter().compareTo(b.getTopicFilter()) : 0;
+    };
+
     private final ConcurrentMap<String, com.example.mqtt.session.Session> sessions = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, Set<com.example.mqtt.session.Subscription>> topicSubscriptions = new ConcurrentHashMap<>();
+    private final TopicTrie<com.example.mqtt.session.Subscription> subscriptions = new TopicTrie<>();
+    private final TopicMatchCache<Subscription> matchCache;
+    // 共享订阅组的分发状态，键为 $share/<组名>/<过滤器>
+    private final ConcurrentMap<String, SharedGroup> sharedGroups = new ConcurrentHashMap<>();
+    // 持久会话及其订阅的变更日志，为 null 时不记录
+    private volatile SessionJournal journal;
+    // 订阅索引变化的监听器，为 null 时不通知
+    private volatile SubscriptionListener subscriptionListener;
+
+    public SessionManager() {
+        this(DEFAULT_MATCH_CACHE_SIZE);
+    }
+
+    /**
+     * @param matchCacheSize 主题匹配缓存的最大主题数，0表示不使用缓存
+     */
+    public SessionManager(int matchCacheSize) {
+        this.matchCache = new TopicMatchCache<>(matchCacheSize);
+    }
 
     public void addSession(com.example.mqtt.session.Session session) {
-        sessions.put(session.getClientId(), session);
+        Session previous = sessions.put(session.getClientId(), session);
+        if (previous != null && previous != session) {
+            previous.releaseMessages();
+        }
+        SessionJournal journal = this.journal;
+        if (journal != null) {
+            if (!session.isCleanSession()) {
+                journal.sessionAdded(session.getClientId(), session.getKeepAlive());
+            } else if (previous != null && !previous.isCleanSession()) {
+                journal.sessionRemoved(session.getClientId());
+            }
+        }
     }
 
     public com.example.mqtt.session.Session getSession(String clientId) {
@@ -19,72 +68,88 @@ public class SessionManager {
     }
 
     public com.example.mqtt.session.Session removeSession(String clientId) {
-        return sessions.remove(clientId);
+        Session session = sessions.remove(clientId);
+        if (session != null) {
+            released(clientId, session);
+        }
+        return session;
     }
 
-    public void addSubscription(String topic, com.example.mqtt.session.Subscription subscription) {
-        topicSubscriptions.computeIfAbsent(topic, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+    /**
+     * 只在该客户端ID当前对应的仍是 session 时移除。连接被接管后旧连接的关闭晚于新会话的登记，
+     * 旧连接应使用本方法，避免移除新连接的会话
+     *
+     * @return 是否移除
+     */
+    public boolean removeSession(String clientId, Session session) {
+        if (!sessions.remove(clientId, session)) {
+            return false;
+        }
+        released(clientId, session);
+        return true;
     }
 
-    public Set<com.example.mqtt.session.Subscription> getSubscribers(String topic) {
-        return topicSubscriptions.getOrDefault(topic, ConcurrentHashMap.newKeySet());
+    private void released(String clientId, Session session) {
+        session.releaseMessages();
+        SessionJournal journal = this.journal;
+        if (journal != null && !session.isCleanSession()) {
+            journal.sessionRemoved(clientId);
+        }
     }
 
     /**
-     * 获取匹配指定主题和通配符类型的订阅者集合
-     *
-     * @param topicName 要匹配的主题名称
-     * @param wildcardType 通配符类型 ("+" 或 "#")
-     * @return 匹配的订阅者集合
+     * @param topic 订阅时的过滤器，共享订阅按去掉 $share/&lt;组名&gt;/ 前缀后的过滤器索引
      */
-    public Set<Subscription> getWildcardSubscribers(String topicName, String wildcardType) {
-        Set<Subscription> matchingSubscribers = ConcurrentHashMap.newKeySet();
-
-        // 将主题名称拆分为层级
-        String[] topicLevels = topicName.split("/");
-
-        for (Map.Entry<String, Set<Subscription>> entry : topicSubscriptions.entrySet()) {
-            String topicFilter = entry.getKey();
-
-            // 处理 "+" 单层通配符
-            if ("+".equals(wildcardType) && isSingleLevelWildcardMatch(topicFilter, topicLevels)) {
-                matchingSubscribers.addAll(entry.getValue());
-            }
+    public void addSubscription(String topic, com.example.mqtt.session.Subscription subscription) {
+        String filter = Topics.matchFilter(topic);
+        subscriptions.add(filter, subscription);
+        // 必须在修改索引之后失效，保证之后的查询能看到新订阅
+        matchCache.invalidate(filter);
+        SessionJournal journal = this.journal;
+        if (journal != null && isPersistent(subscription.getClientId())) {
+            journal.subscribed(subscription);
+        }
+        SubscriptionListener listener = this.subscriptionListener;
+        if (listener != null) {
+            listener.subscriptionsChanged(filter);
         }
-
-        return matchingSubscribers;
     }
 
     /**
-     * 判断主题是否与含有单层通配符的过滤器匹配
+     * 获取与指定主题名匹配的所有订阅，包括精确订阅和 '+'、'#' 通配符订阅。
+     * 共享订阅排在普通订阅之后，同一组的成员相邻。
+     * 结果会被缓存，返回的数组为只读共享数组，调用方不得修改
      *
-     * @param topicFilter 含有 "+" 通配符的主题过滤器
-     * @param topicLevels 目标主题的层级数组
-     * @return 是否匹配
+     * @param topicName 要匹配的主题名称
+     * @return 匹配的订阅者数组，没有订阅者时返回空数组
      */
-    private boolean isSingleLevelWildcardMatch(String topicFilter, String[] topicLevels) {
-        // 将主题过滤器拆分为层级
-        String[] filterLevels = topicFilter.split("/");
+    public Subscription[] getSubscribers(String topicName) {
+        return getSubscribers(Topic.of(topicName));
+    }
 
-        // 如果层级数不一致，则不可能匹配
-        if (filterLevels.length != topicLevels.length) {
-            return false;
+    /**
+     * 同 {@link #getSubscribers(String)}，直接使用主题中已拆分好的层级
+     */
+    public Subscription[] getSubscribers(Topic topic) {
+        Subscription[] cached = matchCache.get(topic.getName());
+        if (cached != null) {
+            return cached;
         }
 
-        // 逐层比较
-        for (int i = 0; i < filterLevels.length; i++) {
-            // 如果是通配符 "+"，则跳过这一层的比较
-            if ("+".equals(filterLevels[i])) {
-                continue;
-            }
+        long generation = matchCache.generation();
+        Set<Subscription> matchingSubscribers = new HashSet<>();
+        subscriptions.match(topic.getLevels(), topic.isDollar(), matchingSubscribers);
 
-            // 如果不是通配符且当前层级不匹配，则整体不匹配
-            if (!filterLevels[i].equals(topicLevels[i])) {
-                return false;
+        Subscription[] result = matchingSubscribers.isEmpty()
+                ? NO_SUBSCRIBERS : matchingSubscribers.toArray(NO_SUBSCRIBERS);
+        for (Subscription subscription : result) {
+            if (subscription.isShared()) {
+                Arrays.sort(result, SHARED_LAST);
+                break;
             }
         }
-
-        return true;
+        matchCache.put(topic.getName(), topic.getLevels(), topic.isDollar(), result, generation);
+        return result;
     }
 
     public int getSessionCount() {
@@ -92,16 +157,98 @@ public class SessionManager {
     }
 
     public void removeSubscription(String topic, String clientId) {
-        // 获取主题的订阅者列表
-        Set<Subscription> subscribers = topicSubscriptions.get(topic);
-        if (subscribers != null) {
-            // 移除指定客户端的订阅
-            subscribers.removeIf(subscription -> subscription.getClientId().equals(clientId));
-
-            // 如果该主题没有订阅者了，可以考虑清理
-            if (subscribers.isEmpty()) {
-                topicSubscriptions.remove(topic);
+        // 移除指定客户端在该过滤器上的订阅，空节点由索引自行清理。
+        // 同一个过滤器上可能同时有该客户端的普通订阅和共享订阅，按订阅时的过滤器区分
+        String filter = Topics.matchFilter(topic);
+        if (subscriptions.remove(filter, subscription -> subscription.getClientId().equals(clientId)
+                && subscription.getTopicFilter().equals(topic))) {
+            matchCache.invalidate(filter);
+            if (Topics.isSharedFilter(topic)
+                    && subscriptions.get(filter).stream().noneMatch(s -> s.getTopicFilter().equals(topic))) {
+                sharedGroups.remove(topic);
+            }
+            SessionJournal journal = this.journal;
+            if (journal != null && isPersistent(clientId)) {
+                journal.unsubscribed(clientId, topic);
+            }
+            SubscriptionListener listener = this.subscriptionListener;
+            if (listener != null) {
+                listener.subscriptionsChanged(filter);
             }
         }
     }
+
+    /**
+     * 移除客户端的所有订阅，需要扫描整个索引
+     *
+     * @return 移除的订阅数
+     */
+    public int removeSubscriptions(String clientId) {
+        List<String> topicFilters = new ArrayList<>();
+        subscriptions.forEach(subscription -> {
+            if (subscription.getClientId().equals(clientId)) {
+                topicFilters.add(subscription.getTopicFilter());
+            }
+        });
+        for (String topicFilter : topicFilters) {
+            removeSubscription(topicFilter, clientId);
+        }
+        return topicFilters.size();
+    }
+
+    /**
+     * 过滤器上当前是否有订阅（精确匹配过滤器本身，包括去掉前缀后相同的共享订阅）
+     *
+     * @param filter 索引使用的过滤器
+     */
+    public boolean hasSubscriptions(String filter) {
+        return !subscriptions.get(filter).isEmpty();
+    }
+
+    /**
+     * 获取共享订阅组的分发状态，不存在时创建
+     *
+     * @param topicFilter 共享订阅的过滤器 $share/&lt;组名&gt;/&lt;过滤器&gt;
+     */
+    public SharedGroup getSharedGroup(String topicFilter) {
+        return sharedGroups.computeIfAbsent(topicFilter, k -> new SharedGroup());
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    public Collection<Session> getSessions() {
+        return sessions.values();
+    }
+
+    /**
+     * 遍历所有订阅，与并发修改弱一致
+     */
+    public void forEachSubscription(Consumer<? super Subscription> action) {
+        subscriptions.forEach(action);
+    }
+
+    /**
+     * 关联变更日志，之后持久会话及其订阅的修改都会被记录
+     */
+    public void setJournal(SessionJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 设置订阅索引变化的监听器
+     */
+    public void setSubscriptionListener(SubscriptionListener subscriptionListener) {
+        this.subscriptionListener = subscriptionListener;
+    }
+
+    private boolean isPersistent(String clientId) {
+        Session session = sessions.get(clientId);
+        return session != null && !session.isCleanSession();
+    }
+
+    public TopicMatchCache<Subscription> getMatchCache() {
+        return matchCache;
+    }
 }
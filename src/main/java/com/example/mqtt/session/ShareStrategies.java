@@ -0,0 +1,85 @@
+package com.example.mqtt.session;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 内置的共享订阅负载均衡策略
+ * <p>
+ * 各策略先确定一个起始成员，起始成员不可用时尝试其它成员，使不可用成员的份额分摊到其余成员上。
+ */
+public enum ShareStrategies implements ShareStrategy {
+    // 按组轮转，从上次选中成员的下一个开始查找可用成员
+    ROUND_ROBIN {
+        @Override
+        public int select(SharedGroup group, Subscription[] members, int from, int to, String publisherId, MemberLoad load) {
+            int selected = probe(members, from, to, group.position(), load);
+            if (selected >= 0) {
+                group.selected(selected - from);
+            }
+            return selected;
+        }
+    },
+    // 随机选择，选中不可用成员时重新随机，多次都不可用时再依次查找
+    RANDOM {
+        @Override
+        public int select(SharedGroup group, Subscription[] members, int from, int to, String publisherId, MemberLoad load) {
+            int count = to - from;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < count; i++) {
+                int index = from + random.nextInt(count);
+                if (load.load(members[index]) >= 0) {
+                    return index;
+                }
+            }
+            return probe(members, from, to, random.nextInt(count), load);
+        }
+    },
+    // 同一发布者的消息总是投递给同一个成员（成员不变且可用时），保持单个发布者的消息顺序
+    STICKY {
+        @Override
+        public int select(SharedGroup group, Subscription[] members, int from, int to, String publisherId, MemberLoad load) {
+            int hash = publisherId != null ? publisherId.hashCode() : 0;
+            return probe(members, from, to, (hash ^ (hash >>> 16)) & Integer.MAX_VALUE, load);
+        }
+    },
+    // 选择待确认和排队消息最少的成员，负载相同时轮转
+    LEAST_INFLIGHT {
+        @Override
+        public int select(SharedGroup group, Subscription[] members, int from, int to, String publisherId, MemberLoad load) {
+            int count = to - from;
+            int start = group.position() % count;
+            int selected = -1;
+            int minLoad = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int index = from + (start + i) % count;
+                int memberLoad = load.load(members[index]);
+                if (memberLoad >= 0 && memberLoad < minLoad) {
+                    selected = index;
+                    minLoad = memberLoad;
+                    if (memberLoad == 0) {
+                        break;
+                    }
+                }
+            }
+            if (selected >= 0) {
+                group.selected(selected - from);
+            }
+            return selected;
+        }
+    };
+
+    /**
+     * 从起始位置开始依次查找第一个可用的成员
+     */
+    private static int probe(Subscription[] members, int from, int to, int start, MemberLoad load) {
+        int count = to - from;
+        start %= count;
+        for (int i = 0; i < count; i++) {
+            int index = from + (start + i) % count;
+            if (load.load(members[index]) >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
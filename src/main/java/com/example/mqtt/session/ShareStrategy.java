@@ -0,0 +1,33 @@
+package com.example.mqtt.session;
+
+/**
+ * 共享订阅的负载均衡策略，决定一条消息投递给组内的哪个成员
+ * <p>
+ * 内置策略见 {@link ShareStrategies}。策略只根据 {@link MemberLoad} 判断成员是否可用，
+ * 不可用的成员（如通道不可写）必须跳过。
+ */
+public interface ShareStrategy {
+    /**
+     * 从共享订阅组的成员中选择接收消息的成员
+     *
+     * @param group       组的分发状态
+     * @param members     匹配到的订阅，组成员位于下标 [from, to)
+     * @param from        组成员的起始下标
+     * @param to          组成员的结束下标（不含）
+     * @param publisherId 发布者的客户端ID
+     * @param load        成员的当前负载
+     * @return 选中成员的下标，没有可用成员时返回 -1
+     */
+    int select(SharedGroup group, Subscription[] members, int from, int to, String publisherId, MemberLoad load);
+
+    /**
+     * 成员的当前负载
+     */
+    @FunctionalInterface
+    interface MemberLoad {
+        /**
+         * @return 成员待确认和排队的消息数，成员不可用时返回负数
+         */
+        int load(Subscription member);
+    }
+}
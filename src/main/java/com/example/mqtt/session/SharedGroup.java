@@ -0,0 +1,27 @@
+package com.example.mqtt.session;
+
+/**
+ * 共享订阅组（同一个 $share/&lt;组名&gt;/&lt;过滤器&gt;）的分发状态，组内所有成员和所有发布者共用
+ * <p>
+ * 只记录下一次开始查找的位置。不同发布者的事件循环并发更新时可能偶尔选中同一个成员，
+ * 不影响长期的均匀分布，因此不加锁。
+ */
+public class SharedGroup {
+    private volatile int position;
+
+    /**
+     * 下一次开始查找的成员位置（相对组内第一个成员），非负数
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * 选中某个成员后，下一次从它后面的成员开始查找
+     *
+     * @param selected 选中成员相对组内第一个成员的位置
+     */
+    public void selected(int selected) {
+        position = (selected + 1) & Integer.MAX_VALUE;
+    }
+}
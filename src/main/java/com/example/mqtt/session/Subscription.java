@@ -1,16 +1,22 @@
 package com.example.mqtt.session;
 
 import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.topic.Topics;
 
 public class Subscription {
     private final String clientId;
     private final String topicFilter;
     private final MqttQoS qos;
+    private final boolean shared;
 
+    /**
+     * @param topicFilter 订阅时的过滤器，共享订阅包含 $share/&lt;组名&gt;/ 前缀
+     */
     public Subscription(String clientId, String topicFilter, MqttQoS qos) {
         this.clientId = clientId;
         this.topicFilter = topicFilter;
         this.qos = qos;
+        this.shared = Topics.isSharedFilter(topicFilter);
     }
 
     public String getClientId() {
@@ -25,6 +31,13 @@ public class Subscription {
         return qos;
     }
 
+    /**
+     * 是否为共享订阅，同一个 {@link #getTopicFilter()} 的共享订阅组成一个组，每条消息只投递给其中一个成员
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
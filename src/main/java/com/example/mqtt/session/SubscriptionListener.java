@@ -0,0 +1,15 @@
+package com.example.mqtt.session;
+
+/**
+ * 订阅索引变化的通知，集群节点据此向其它节点公布本节点的过滤器集合
+ */
+@FunctionalInterface
+public interface SubscriptionListener {
+    /**
+     * 过滤器上的订阅被添加或移除之后调用。同一过滤器的通知可能并发且乱序到达，
+     * 接收方应通过 {@link SessionManager#hasSubscriptions(String)} 读取当前状态
+     *
+     * @param filter 索引使用的过滤器，共享订阅已去掉 $share/&lt;组名&gt;/ 前缀
+     */
+    void subscriptionsChanged(String filter);
+}
@@ -0,0 +1,104 @@
+package com.example.mqtt.tool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的延迟直方图（与HdrHistogram的分桶方式相同），记录以纳秒为单位的非负值
+ * <p>
+ * 小于2048的值每个值一个桶；更大的值按2的幂分段，每段再线性分为1024个桶，
+ * 因此任何值的相对误差都不超过0.1%。可记录的最大值约为73分钟，更大的值计入最后一个桶。
+ * 记录无锁，可由多个线程并发调用。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SEGMENT = 31;
+    private static final int BUCKETS = SUB_BUCKET_HALF * (MAX_SEGMENT + 2);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalValue.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 重试
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count > 0 ? (double) totalValue.sum() / count : 0;
+    }
+
+    /**
+     * 返回不小于指定比例的记录值的最小值（按所在桶的上界计算）
+     *
+     * @param percentile 百分位，如 99.9
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 清空所有记录，与并发的 record 之间不保证原子性
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_HALF) {
+            return (int) value;
+        }
+        // 段号 segment 使 value >> segment 落在 [1024, 2048) 内
+        int segment = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (segment > MAX_SEGMENT) {
+            return BUCKETS - 1;
+        }
+        return SUB_BUCKET_HALF * segment + (int) (value >>> segment);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+        int segment = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - (long) SUB_BUCKET_HALF * segment;
+        return ((subBucket + 1) << segment) - 1;
+    }
+}
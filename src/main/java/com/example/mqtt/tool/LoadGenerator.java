@@ -0,0 +1,566 @@
+package com.example.mqtt.tool;
+
+import com.example.mqtt.codec.MqttDecoder;
+import com.example.mqtt.codec.MqttEncoder;
+import com.example.mqtt.message.ConnAckMessage;
+import com.example.mqtt.message.ConnectMessage;
+import com.example.mqtt.message.MqttMessage;
+import com.example.mqtt.message.PacketIdMessage;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.message.SubscribeMessage;
+import com.example.mqtt.protocol.MqttMessageType;
+import com.example.mqtt.topic.Topic;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测工具：使用本项目的编解码器建立N个发布者和M个订阅者连接，按指定速率发布消息，
+ * 统计吞吐量、端到端延迟和连接建立速率
+ * <p>
+ * 消息负载的前8个字节为发布时的 {@link System#nanoTime()}，订阅者收到后计算延迟，
+ * 因此发布者和订阅者必须在同一个进程中（本工具即如此）。
+ * <pre>
+ * java -cp mqtt-broker-1.0.0.jar com.example.mqtt.tool.LoadGenerator --publishers=10 --subscribers=10 --rate=10000
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final int CONNECT_TIMEOUT_SECONDS = 30;
+    // 发布者的发送节拍，每拍按已过去的时间补发应发的消息
+    private static final long TICK_MICROS = 1000;
+    // 不限速时每拍每个发布者最多发送的消息数
+    private static final int UNLIMITED_BATCH = 1024;
+
+    private final Options options;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram connectLatency = new LatencyHistogram();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final List<Client> publishers = new ArrayList<>();
+    private final List<Client> subscribers = new ArrayList<>();
+    // 只统计该时刻之后发布的消息的延迟
+    private volatile long measureStart = Long.MAX_VALUE;
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+        this.group = options.threads > 0 ? new NioEventLoopGroup(options.threads) : new NioEventLoopGroup();
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_SECONDS * 1000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options == null) {
+            System.out.println(Options.USAGE);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        try {
+            System.out.printf(Locale.ROOT, "Connecting %d subscribers to %s:%s and %d publishers to %s:%d%n",
+                    options.subscribers, options.host, options.subscriberPortList(), options.publishers,
+                    options.host, options.port);
+            long connectStart = System.nanoTime();
+            connect(subscribers, options.subscribers, false);
+            connect(publishers, options.publishers, true);
+            long connectNanos = System.nanoTime() - connectStart;
+            int connections = options.subscribers + options.publishers;
+            System.out.printf(Locale.ROOT, "Connections: %d in %.3f s (%.1f conn/s), CONNACK latency %s, failures %d%n",
+                    connections, connectNanos / 1e9, connections / (connectNanos / 1e9),
+                    format(connectLatency), failures.sum());
+
+            long start = System.nanoTime();
+            for (Client publisher : publishers) {
+                publisher.startPublishing(start);
+            }
+            if (options.warmupSeconds > 0) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+            }
+            latency.reset();
+            measureStart = System.nanoTime();
+            long publishedBefore = published.sum();
+            long acknowledgedBefore = acknowledged.sum();
+            long receivedBefore = received.sum();
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+            long measureNanos = System.nanoTime() - measureStart;
+            long publishedCount = published.sum() - publishedBefore;
+            long acknowledgedCount = acknowledged.sum() - acknowledgedBefore;
+            long receivedCount = received.sum() - receivedBefore;
+            for (Client publisher : publishers) {
+                publisher.stopPublishing();
+            }
+
+            double seconds = measureNanos / 1e9;
+            System.out.printf(Locale.ROOT, "Published: %d msgs in %.2f s (%.0f msg/s), acknowledged %d%n",
+                    publishedCount, seconds, publishedCount / seconds, acknowledgedCount);
+            System.out.printf(Locale.ROOT, "Received: %d msgs (%.0f msg/s)%n", receivedCount, receivedCount / seconds);
+            System.out.printf(Locale.ROOT, "Latency: %s%n", format(latency));
+        } finally {
+            for (Client client : subscribers) {
+                client.close();
+            }
+            for (Client client : publishers) {
+                client.close();
+            }
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+    }
+
+    /**
+     * 按连接速率限制建立连接，等待所有连接收到CONNACK（订阅者还需收到SUBACK）
+     */
+    private void connect(List<Client> clients, int count, boolean publisher) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (options.connectRate > 0) {
+                long due = start + (long) (i * 1e9 / options.connectRate);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            Client client = new Client(i, publisher, ready);
+            clients.add(client);
+            client.connect();
+        }
+        if (!ready.await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException((publisher ? "Publishers" : "Subscribers") + " did not connect within "
+                    + CONNECT_TIMEOUT_SECONDS + " s, " + ready.getCount() + " pending");
+        }
+    }
+
+    private static String format(LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "p50=%s p99=%s p99.9=%s max=%s mean=%s (n=%d)",
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+                micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMax()),
+                micros((long) histogram.getMean()), histogram.getCount());
+    }
+
+    private static String micros(long nanos) {
+        return nanos >= 10_000_000 ? String.format(Locale.ROOT, "%.1fms", nanos / 1e6)
+                : String.format(Locale.ROOT, "%dus", nanos / 1000);
+    }
+
+    /**
+     * 一个发布者或订阅者连接，所有方法都在连接的事件循环中执行
+     */
+    private final class Client extends SimpleChannelInboundHandler<MqttMessage> {
+        private final int index;
+        private final boolean publisher;
+        private final CountDownLatch ready;
+        private final String clientId;
+        private final Topic[] topics;
+        private Channel channel;
+        private long connectSentAt;
+        private volatile boolean closing;
+
+        // 发布者状态
+        private ScheduledFuture<?> publishTask;
+        private long publishStart;
+        private long sent;
+        private int nextPacketId;
+        private int inflight;
+
+        Client(int index, boolean publisher, CountDownLatch ready) {
+            this.index = index;
+            this.publisher = publisher;
+            this.ready = ready;
+            this.clientId = options.clientPrefix + (publisher ? "-pub-" : "-sub-") + index;
+            this.topics = new Topic[publisher ? options.topics : 0];
+            for (int i = 0; i < topics.length; i++) {
+                topics[i] = Topic.of(options.topic.replace("{p}", String.valueOf(index))
+                        .replace("{t}", String.valueOf(i)));
+            }
+        }
+
+        void connect() {
+            bootstrap.clone()
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast("decoder", new MqttDecoder());
+                            ch.pipeline().addLast("encoder", new MqttEncoder());
+                            ch.pipeline().addLast("client", Client.this);
+                        }
+                    })
+                    .connect(options.host, publisher ? options.port : options.subscriberPort(index))
+                    .addListener((ChannelFuture future) -> {
+                        if (!future.isSuccess()) {
+                            failures.increment();
+                            System.err.println("Failed to connect " + clientId + ": " + future.cause());
+                        }
+                    });
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+            ConnectMessage connect = new ConnectMessage();
+            connect.setProtocolName("MQTT");
+            connect.setProtocolVersion(4);
+            connect.setClientId(clientId);
+            connect.setCleanSession(true);
+            connect.setKeepAlive(0);
+            if (options.username != null) {
+                connect.setHasUsername(true);
+                connect.setUsername(options.username);
+                if (options.password != null) {
+                    connect.setHasPassword(true);
+                    connect.setPassword(options.password.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            connectSentAt = System.nanoTime();
+            ctx.writeAndFlush(connect);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, MqttMessage msg) {
+            switch (msg.getMessageType()) {
+                case CONNACK:
+                    connectLatency.record(System.nanoTime() - connectSentAt);
+                    if (((ConnAckMessage) msg).getReturnCode() != 0) {
+                        failures.increment();
+                        System.err.println("Connection refused for " + clientId + ": "
+                                + ((ConnAckMessage) msg).getReturnCode());
+                        ctx.close();
+                    } else if (publisher) {
+                        ready.countDown();
+                    } else {
+                        SubscribeMessage subscribe = new SubscribeMessage();
+                        subscribe.setPacketId(1);
+                        subscribe.addTopicSubscription(options.filter, options.qos);
+                        ctx.writeAndFlush(subscribe);
+                    }
+                    break;
+                case SUBACK:
+                    ready.countDown();
+                    break;
+                case PUBLISH:
+                    onPublish(ctx, (PublishMessage) msg);
+                    break;
+                case PUBREL:
+                    ctx.write(ack(MqttMessageType.PUBCOMP, ((PacketIdMessage) msg).getPacketId(), 0));
+                    break;
+                case PUBACK:
+                case PUBCOMP:
+                    inflight--;
+                    acknowledged.increment();
+                    break;
+                case PUBREC:
+                    ctx.write(ack(MqttMessageType.PUBREL, ((PacketIdMessage) msg).getPacketId(), 1));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onPublish(ChannelHandlerContext ctx, PublishMessage msg) {
+            ByteBuf payload = msg.getPayload();
+            if (payload.readableBytes() >= Long.BYTES) {
+                long publishedAt = payload.getLong(payload.readerIndex());
+                if (publishedAt >= measureStart) {
+                    latency.record(System.nanoTime() - publishedAt);
+                }
+            }
+            received.increment();
+            if (msg.getQosLevel() == 1) {
+                ctx.write(ack(MqttMessageType.PUBACK, msg.getPacketId(), 0));
+            } else if (msg.getQosLevel() == 2) {
+                ctx.write(ack(MqttMessageType.PUBREC, msg.getPacketId(), 0));
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (publishTask != null) {
+                publishTask.cancel(false);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            // 关闭时尚未写出的消息会以失败通知，不计为错误
+            if (closing) {
+                return;
+            }
+            failures.increment();
+            System.err.println("Connection " + clientId + " failed: " + cause);
+            ctx.close();
+        }
+
+        void startPublishing(long start) {
+            channel.eventLoop().execute(() -> {
+                publishStart = start;
+                publishTask = channel.eventLoop().scheduleAtFixedRate(this::publishDue,
+                        0, TICK_MICROS, TimeUnit.MICROSECONDS);
+            });
+        }
+
+        void stopPublishing() throws InterruptedException {
+            channel.eventLoop().submit(() -> {
+                if (publishTask != null) {
+                    publishTask.cancel(false);
+                }
+            }).await();
+        }
+
+        /**
+         * 发送到当前时刻为止应发送的消息。连接不可写或在途消息达到上限时暂停，之后按速率追赶
+         */
+        private void publishDue() {
+            long due;
+            if (options.rate > 0) {
+                double perPublisher = (double) options.rate / options.publishers;
+                due = (long) ((System.nanoTime() - publishStart) / 1e9 * perPublisher) - sent;
+            } else {
+                due = UNLIMITED_BATCH;
+            }
+            int written = 0;
+            while (due-- > 0 && channel.isWritable() && (options.qos == 0 || inflight < options.maxInflight)) {
+                PublishMessage message = new PublishMessage();
+                message.setTopic(topics[(int) (sent % topics.length)]);
+                message.setQosLevel(options.qos);
+                if (options.qos > 0) {
+                    message.setPacketId(nextPacketId());
+                    inflight++;
+                }
+                ByteBuf payload = channel.alloc().buffer(options.payloadSize);
+                payload.writeLong(System.nanoTime());
+                payload.writeZero(options.payloadSize - Long.BYTES);
+                message.setPayload(payload);
+                channel.write(message, channel.voidPromise());
+                sent++;
+                written++;
+            }
+            if (written > 0) {
+                published.add(written);
+                channel.flush();
+            }
+        }
+
+        private int nextPacketId() {
+            nextPacketId = nextPacketId % 65535 + 1;
+            return nextPacketId;
+        }
+
+        void close() {
+            closing = true;
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private static PacketIdMessage ack(MqttMessageType type, int packetId, int qos) {
+        PacketIdMessage ack = new PacketIdMessage(type);
+        ack.setPacketId(packetId);
+        ack.setQosLevel(qos);
+        return ack;
+    }
+
+    /**
+     * 命令行参数，格式为 --名称=值
+     */
+    public static final class Options {
+        static final String USAGE = String.join(System.lineSeparator(),
+                "Usage: LoadGenerator [--name=value ...]",
+                "  --host=127.0.0.1        broker address",
+                "  --port=1883             broker port",
+                "  --subscriber-ports=     comma-separated ports subscribers connect to in turn, default --port;",
+                "                          with a cluster this puts subscribers on other nodes than the publishers",
+                "  --publishers=1          publisher connections",
+                "  --subscribers=1         subscriber connections",
+                "  --rate=1000             total messages per second across all publishers, 0 = as fast as the connection accepts",
+                "  --qos=0                 QoS of publications and subscriptions",
+                "  --topic=load/{p}/{t}    topic template, {p} = publisher index, {t} = topic index",
+                "  --topics=1              topics per publisher, used in turn",
+                "  --filter=load/#         subscription filter",
+                "  --payload=64            payload bytes, at least 8 (send timestamp)",
+                "  --max-inflight=1000     unacknowledged QoS 1/2 messages per publisher",
+                "  --duration=10           measurement seconds",
+                "  --warmup=2              seconds before measurement starts",
+                "  --connect-rate=0        new connections per second, 0 = unlimited",
+                "  --threads=0             event loop threads, 0 = Netty default",
+                "  --client-prefix=loadgen client id prefix",
+                "  --username=             user name sent in CONNECT, none by default",
+                "  --password=             password sent in CONNECT with --username");
+
+        String host = "127.0.0.1";
+        int port = 1883;
+        // 订阅者依次连接的端口，为空时与发布者相同
+        int[] subscriberPorts = new int[0];
+        int publishers = 1;
+        int subscribers = 1;
+        int rate = 1000;
+        int qos = 0;
+        String topic = "load/{p}/{t}";
+        int topics = 1;
+        String filter = "load/#";
+        int payloadSize = 64;
+        int maxInflight = 1000;
+        int durationSeconds = 10;
+        int warmupSeconds = 2;
+        int connectRate = 0;
+        int threads = 0;
+        String clientPrefix = "loadgen";
+        String username;
+        String password;
+
+        /**
+         * @return 参数中有 --help 时返回 null
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if ("--help".equals(arg) || "-h".equals(arg)) {
+                    return null;
+                }
+                int separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Invalid argument: " + arg);
+                }
+                String name = arg.substring(2, separator);
+                String value = arg.substring(separator + 1);
+                try {
+                    options.set(name, value);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+                }
+            }
+            options.validate();
+            return options;
+        }
+
+        private void set(String name, String value) {
+            switch (name) {
+                case "host":
+                    host = value;
+                    break;
+                case "port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "subscriber-ports":
+                    subscriberPorts = value.isEmpty() ? new int[0]
+                            : Arrays.stream(value.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "publishers":
+                    publishers = Integer.parseInt(value);
+                    break;
+                case "subscribers":
+                    subscribers = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                case "qos":
+                    qos = Integer.parseInt(value);
+                    break;
+                case "topic":
+                    topic = value;
+                    break;
+                case "topics":
+                    topics = Integer.parseInt(value);
+                    break;
+                case "filter":
+                    filter = value;
+                    break;
+                case "payload":
+                    payloadSize = Integer.parseInt(value);
+                    break;
+                case "max-inflight":
+                    maxInflight = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "connect-rate":
+                    connectRate = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "client-prefix":
+                    clientPrefix = value;
+                    break;
+                case "username":
+                    username = value;
+                    break;
+                case "password":
+                    password = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        int subscriberPort(int index) {
+            return subscriberPorts.length > 0 ? subscriberPorts[index % subscriberPorts.length] : port;
+        }
+
+        String subscriberPortList() {
+            return subscriberPorts.length > 0 ? Arrays.toString(subscriberPorts) : String.valueOf(port);
+        }
+
+        private void validate() {
+            if (publishers < 0 || subscribers < 0 || publishers + subscribers == 0) {
+                throw new IllegalArgumentException("At least one publisher or subscriber is required");
+            }
+            if (qos < 0 || qos > 2) {
+                throw new IllegalArgumentException("QoS must be 0, 1 or 2: " + qos);
+            }
+            if (payloadSize < Long.BYTES) {
+                throw new IllegalArgumentException("Payload must be at least " + Long.BYTES + " bytes: " + payloadSize);
+            }
+            if (topics < 1 || maxInflight < 1 || maxInflight > 65535 || durationSeconds < 1 || rate < 0) {
+                throw new IllegalArgumentException("Invalid --topics, --max-inflight, --duration or --rate");
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.mqtt.topic;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PUBLISH主题名及其预先计算好的元数据：UTF-8编码、拆分后的层级和哈希值
+ * <p>
+ * 解码时通过 {@link TopicInternTable} 复用同一个实例，路由、匹配缓存和编码器直接使用这里缓存的数据，
+ * 不再重复拆分主题或重新编码。实例不可变，{@link #getLevels()} 和 {@link #getBytes()}
+ * 返回的是内部数组，调用方不得修改。
+ */
+public final class Topic {
+    private final String name;
+    private final byte[] bytes;
+    private final String[] levels;
+    private final int hash;
+    private final boolean dollar;
+    private final boolean validName;
+
+    private Topic(String name, byte[] bytes) {
+        this.name = name;
+        this.bytes = bytes;
+        this.levels = Topics.splitLevels(name);
+        this.hash = hash(bytes);
+        this.dollar = Topics.isDollarTopic(name);
+        this.validName = Topics.isValidTopicName(name);
+    }
+
+    public static Topic of(String name) {
+        return new Topic(name, name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Topic of(byte[] bytes) {
+        return new Topic(new String(bytes, StandardCharsets.UTF_8), bytes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public String[] getLevels() {
+        return levels;
+    }
+
+    /**
+     * 以 '$' 开头的主题不能被首层为通配符的过滤器匹配
+     */
+    public boolean isDollar() {
+        return dollar;
+    }
+
+    /**
+     * 是否为合法的PUBLISH主题名（非空且不含通配符）
+     */
+    public boolean isValidName() {
+        return validName;
+    }
+
+    /**
+     * 判断缓冲区中指定区域的字节是否与本主题的UTF-8编码相同
+     */
+    boolean contentEquals(ByteBuf buffer, int index, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != buffer.getByte(index + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte b : bytes) {
+            h = (h ^ b) * 0x01000193;
+        }
+        return h;
+    }
+
+    static int hash(ByteBuf buffer, int index, int length) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ buffer.getByte(index + i)) * 0x01000193;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Topic that = (Topic) o;
+        return hash == that.hash && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
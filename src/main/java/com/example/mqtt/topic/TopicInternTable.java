@@ -0,0 +1,100 @@
+package com.example.mqtt.topic;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界、并发的主题驻留表
+ * <p>
+ * 直接用入站缓冲区中的主题字节查找已有的 {@link Topic}，命中时不分配任何对象。
+ * 表为固定大小的开放寻址数组，每个哈希位置最多探测 {@value #PROBES} 个槽位，
+ * 都被占用时替换其中一个，因此内存占用有上限，不会随主题数量无限增长。
+ * 槽位的读写都是无锁的，并发替换最多导致一次多余的未命中。
+ */
+public class TopicInternTable {
+    private static final int PROBES = 4;
+    // 超过该长度的主题不驻留，避免少数超长主题占用过多内存
+    private static final int MAX_INTERN_LENGTH = 1024;
+
+    private final AtomicReferenceArray<Topic> slots;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity 槽位数，会向上取整为2的幂
+     */
+    public TopicInternTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity - 1) << 1);
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 返回缓冲区中指定区域对应的主题，不移动缓冲区的读写指针
+     *
+     * @param buffer 入站缓冲区
+     * @param index  主题UTF-8字节的起始位置
+     * @param length 主题UTF-8字节的长度
+     */
+    public Topic intern(ByteBuf buffer, int index, int length) {
+        if (length > MAX_INTERN_LENGTH) {
+            misses.increment();
+            return Topic.of(readBytes(buffer, index, length));
+        }
+
+        int hash = Topic.hash(buffer, index, length);
+        int start = spread(hash);
+        for (int i = 0; i < PROBES; i++) {
+            Topic topic = slots.get((start + i) & mask);
+            if (topic == null) {
+                break;
+            }
+            if (topic.hashCode() == hash && topic.contentEquals(buffer, index, length)) {
+                hits.increment();
+                return topic;
+            }
+        }
+
+        misses.increment();
+        Topic topic = Topic.of(readBytes(buffer, index, length));
+        store(start, hash, topic);
+        return topic;
+    }
+
+    private void store(int start, int hash, Topic topic) {
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (start + i) & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, topic)) {
+                return;
+            }
+        }
+        // 探测范围内的槽位都已被占用，按哈希的高位选择一个替换
+        slots.lazySet((start + ((hash >>> 28) & (PROBES - 1))) & mask, topic);
+    }
+
+    private static byte[] readBytes(ByteBuf buffer, int index, int length) {
+        byte[] bytes = new byte[length];
+        buffer.getBytes(index, bytes);
+        return bytes;
+    }
+
+    private int spread(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.mqtt.topic;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 主题名到匹配结果的有界缓存
+ * <p>
+ * 缓存的是已解析好的结果数组，没有订阅者的主题同样会被缓存（空数组），
+ * 以便无人订阅的消息可以被快速丢弃。订阅关系变化时，只失效被该过滤器匹配到的主题。
+ * <p>
+ * 为避免"计算结果期间订阅发生变化"导致缓存旧结果，每次失效都会递增代数，
+ * 写入缓存后若发现代数已变化则撤销本次写入。
+ *
+ * @param <T> 匹配结果的元素类型
+ */
+public class TopicMatchCache<T> {
+    private final int maxSize;
+    private final int evictBatch;
+    private final ConcurrentHashMap<String, Entry<T>> entries;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxSize 最多缓存的主题数，小于等于0表示禁用缓存
+     */
+    public TopicMatchCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.evictBatch = Math.max(1, this.maxSize / 64);
+        this.entries = new ConcurrentHashMap<>(Math.min(this.maxSize, 1024));
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @return 缓存的匹配结果，未命中时返回 null
+     */
+    public T[] get(String topicName) {
+        if (maxSize == 0) {
+            return null;
+        }
+        Entry<T> entry = entries.get(topicName);
+        if (entry != null) {
+            hits.increment();
+            return entry.values;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 当前代数，调用方应在计算匹配结果之前读取，并在 {@link #put} 时传回
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 写入匹配结果
+     *
+     * @param topicName   主题名
+     * @param topicLevels 主题层级，失效时用于匹配过滤器
+     * @param dollarTopic 主题是否以 '$' 开头
+     * @param values      匹配结果，无订阅者时传空数组
+     * @param generation  计算结果之前读取的代数
+     */
+    public void put(String topicName, String[] topicLevels, boolean dollarTopic, T[] values, long generation) {
+        if (maxSize == 0 || this.generation.get() != generation) {
+            return;
+        }
+        if (entries.size() >= maxSize && !entries.containsKey(topicName)) {
+            evict();
+        }
+        Entry<T> entry = new Entry<>(topicLevels, dollarTopic, values);
+        entries.put(topicName, entry);
+        // 写入期间发生了失效，撤销本次写入，避免留下旧结果
+        if (this.generation.get() != generation) {
+            entries.remove(topicName, entry);
+        }
+    }
+
+    /**
+     * 订阅或取消订阅后调用，失效所有被该过滤器匹配的主题
+     */
+    public void invalidate(String topicFilter) {
+        generation.incrementAndGet();
+        if (maxSize == 0 || entries.isEmpty()) {
+            return;
+        }
+        if (topicFilter.indexOf('+') < 0 && topicFilter.indexOf('#') < 0) {
+            if (entries.remove(topicFilter) != null) {
+                invalidations.increment();
+            }
+            return;
+        }
+        String[] filterLevels = Topics.splitLevels(topicFilter);
+        for (Iterator<Map.Entry<String, Entry<T>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Entry<T> entry = it.next().getValue();
+            if (Topics.matches(filterLevels, entry.topicLevels, entry.dollarTopic)) {
+                it.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * 近似淘汰：按 ConcurrentHashMap 的迭代顺序移除一小批条目，不维护访问顺序，
+     * 避免在每次命中时产生额外的写竞争
+     */
+    private void evict() {
+        int removed = 0;
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext() && removed < evictBatch; ) {
+            it.next();
+            it.remove();
+            removed++;
+        }
+        evictions.add(removed);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    private static final class Entry<T> {
+        final String[] topicLevels;
+        final boolean dollarTopic;
+        final T[] values;
+
+        Entry(String[] topicLevels, boolean dollarTopic, T[] values) {
+            this.topicLevels = topicLevels;
+            this.dollarTopic = dollarTopic;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.mqtt.topic;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 按主题层级组织的订阅索引（前缀树）
+ * <p>
+ * 每个节点包含：精确层级子节点、'+' 子节点、以该节点结尾的过滤器值，以及以 "/#" 结尾的过滤器值。
+ * 匹配一个主题时只需沿主题层级向下走，代价取决于主题深度和匹配数量，与过滤器总数无关。
+ * <p>
+ * 写操作（add/remove）在 trie 上串行执行，读操作（match）无锁，可与写操作并发进行。
+ *
+ * @param <T> 挂在过滤器上的值，如订阅
+ */
+public class TopicTrie<T> {
+    private final Node<T> root = new Node<>();
+    private final Object writeLock = new Object();
+    private volatile int size;
+
+    /**
+     * 添加一个过滤器值。若已存在相等的值，则替换为新值（例如同一客户端以新的QoS重新订阅）
+     *
+     * @param topicFilter 主题过滤器，调用方需保证已通过 {@link Topics#isValidFilter(String)} 校验
+     * @param value       值
+     */
+    public void add(String topicFilter, T value) {
+        String[] levels = Topics.splitLevels(topicFilter);
+        synchronized (writeLock) {
+            Node<T> node = root;
+            int last = levels.length;
+            boolean multiLevel = Topics.MULTI_LEVEL_WILDCARD.equals(levels[last - 1]);
+            if (multiLevel) {
+                last--;
+            }
+            for (int i = 0; i < last; i++) {
+                node = node.getOrCreateChild(levels[i]);
+            }
+            Set<T> values = multiLevel ? node.getOrCreateMultiLevelValues() : node.getOrCreateValues();
+            boolean replaced = values.remove(value);
+            values.add(value);
+            if (!replaced) {
+                size++;
+            }
+        }
+    }
+
+    /**
+     * 移除过滤器上满足条件的值，并清理空节点
+     *
+     * @param topicFilter 主题过滤器
+     * @param condition   移除条件
+     * @return 是否有值被移除
+     */
+    public boolean remove(String topicFilter, Predicate<? super T> condition) {
+        String[] levels = Topics.splitLevels(topicFilter);
+        synchronized (writeLock) {
+            int before = size;
+            remove(root, levels, 0, condition);
+            return size != before;
+        }
+    }
+
+    private boolean remove(Node<T> node, String[] levels, int index, Predicate<? super T> condition) {
+        if (index == levels.length - 1 && Topics.MULTI_LEVEL_WILDCARD.equals(levels[index])) {
+            size -= removeIf(node.multiLevelValues, condition);
+        } else if (index == levels.length) {
+            size -= removeIf(node.values, condition);
+        } else {
+            Node<T> child = node.getChild(levels[index]);
+            if (child != null && remove(child, levels, index + 1, condition)) {
+                node.removeChild(levels[index]);
+            }
+        }
+        return node != root && node.isEmpty();
+    }
+
+    private int removeIf(Set<T> values, Predicate<? super T> condition) {
+        if (values == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (T value : values) {
+            if (condition.test(value) && values.remove(value)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 收集与主题名匹配的所有值
+     *
+     * @param topicName 主题名（不含通配符）
+     * @param result    结果容器
+     */
+    public void match(String topicName, Collection<? super T> result) {
+        match(Topics.splitLevels(topicName), Topics.isDollarTopic(topicName), result);
+    }
+
+    /**
+     * 收集与已拆分的主题层级匹配的所有值
+     *
+     * @param topicLevels 主题层级
+     * @param dollarTopic 主题是否以 '$' 开头，若是则首层的 '+'/'#' 不参与匹配
+     * @param result      结果容器
+     */
+    public void match(String[] topicLevels, boolean dollarTopic, Collection<? super T> result) {
+        match(root, topicLevels, 0, dollarTopic, result);
+    }
+
+    private void match(Node<T> node, String[] levels, int index, boolean dollarTopic, Collection<? super T> result) {
+        boolean wildcardAllowed = index > 0 || !dollarTopic;
+
+        // "a/#" 同时匹配 "a" 以及 "a" 下的所有层级
+        Set<T> multiLevelValues = node.multiLevelValues;
+        if (multiLevelValues != null && wildcardAllowed) {
+            result.addAll(multiLevelValues);
+        }
+
+        if (index == levels.length) {
+            Set<T> values = node.values;
+            if (values != null) {
+                result.addAll(values);
+            }
+            return;
+        }
+
+        Node<T> child = node.getChild(levels[index]);
+        if (child != null) {
+            match(child, levels, index + 1, dollarTopic, result);
+        }
+        Node<T> singleLevel = node.singleLevel;
+        if (singleLevel != null && wildcardAllowed) {
+            match(singleLevel, levels, index + 1, dollarTopic, result);
+        }
+    }
+
+    /**
+     * 返回过滤器上当前的所有值（精确匹配过滤器本身，不做通配）
+     */
+    public Set<T> get(String topicFilter) {
+        String[] levels = Topics.splitLevels(topicFilter);
+        Node<T> node = root;
+        int last = levels.length;
+        boolean multiLevel = Topics.MULTI_LEVEL_WILDCARD.equals(levels[last - 1]);
+        if (multiLevel) {
+            last--;
+        }
+        for (int i = 0; i < last && node != null; i++) {
+            node = node.getChild(levels[i]);
+        }
+        if (node == null) {
+            return Collections.emptySet();
+        }
+        Set<T> values = multiLevel ? node.multiLevelValues : node.values;
+        return values != null ? Collections.unmodifiableSet(values) : Collections.emptySet();
+    }
+
+    /**
+     * 遍历索引中的所有值，与写操作并发时只保证弱一致
+     */
+    public void forEach(Consumer<? super T> action) {
+        forEach(root, action);
+    }
+
+    private void forEach(Node<T> node, Consumer<? super T> action) {
+        Set<T> values = node.values;
+        if (values != null) {
+            values.forEach(action);
+        }
+        Set<T> multiLevelValues = node.multiLevelValues;
+        if (multiLevelValues != null) {
+            multiLevelValues.forEach(action);
+        }
+        ConcurrentMap<String, Node<T>> children = node.children;
+        if (children != null) {
+            for (Node<T> child : children.values()) {
+                forEach(child, action);
+            }
+        }
+        Node<T> singleLevel = node.singleLevel;
+        if (singleLevel != null) {
+            forEach(singleLevel, action);
+        }
+    }
+
+    /**
+     * 当前索引中值的总数
+     */
+    public int size() {
+        return size;
+    }
+
+    private static final class Node<T> {
+        // 以下字段都只在 writeLock 内修改，读取无锁
+        private volatile ConcurrentMap<String, Node<T>> children;
+        private volatile Node<T> singleLevel;
+        private volatile Set<T> values;
+        private volatile Set<T> multiLevelValues;
+
+        Node<T> getChild(String level) {
+            if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+                return singleLevel;
+            }
+            ConcurrentMap<String, Node<T>> map = children;
+            return map != null ? map.get(level) : null;
+        }
+
+        Node<T> getOrCreateChild(String level) {
+            if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+                if (singleLevel == null) {
+                    singleLevel = new Node<>();
+                }
+                return singleLevel;
+            }
+            if (children == null) {
+                children = new ConcurrentHashMap<>(4);
+            }
+            return children.computeIfAbsent(level, k -> new Node<>());
+        }
+
+        void removeChild(String level) {
+            if (Topics.SINGLE_LEVEL_WILDCARD.equals(level)) {
+                singleLevel = null;
+            } else if (children != null) {
+                children.remove(level);
+                if (children.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        Set<T> getOrCreateValues() {
+            if (values == null) {
+                values = ConcurrentHashMap.newKeySet(2);
+            }
+            return values;
+        }
+
+        Set<T> getOrCreateMultiLevelValues() {
+            if (multiLevelValues == null) {
+                multiLevelValues = ConcurrentHashMap.newKeySet(2);
+            }
+            return multiLevelValues;
+        }
+
+        boolean isEmpty() {
+            if (values != null && values.isEmpty()) {
+                values = null;
+            }
+            if (multiLevelValues != null && multiLevelValues.isEmpty()) {
+                multiLevelValues = null;
+            }
+            return values == null && multiLevelValues == null && singleLevel == null
+                    && (children == null || children.isEmpty());
+        }
+    }
+}
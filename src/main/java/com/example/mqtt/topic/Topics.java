@@ -0,0 +1,141 @@
+package com.example.mqtt.topic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 主题名/主题过滤器相关的工具方法
+ */
+public final class Topics {
+    public static final String SINGLE_LEVEL_WILDCARD = "+";
+    public static final String MULTI_LEVEL_WILDCARD = "#";
+    // 共享订阅过滤器的前缀，完整格式为 $share/<组名>/<过滤器>
+    public static final String SHARE_PREFIX = "$share/";
+
+    private static final String[] EMPTY_LEVELS = new String[0];
+
+    private Topics() {
+    }
+
+    /**
+     * 按 '/' 拆分主题层级。与 String.split 不同，这里会保留首尾的空层级，
+     * 例如 "a/" 拆分为 ["a", ""]，"/a" 拆分为 ["", "a"]
+     *
+     * @param topic 主题名或主题过滤器
+     * @return 层级数组
+     */
+    public static String[] splitLevels(String topic) {
+        if (topic == null) {
+            return EMPTY_LEVELS;
+        }
+        List<String> levels = new ArrayList<>(8);
+        int start = 0;
+        int length = topic.length();
+        for (int i = 0; i < length; i++) {
+            if (topic.charAt(i) == '/') {
+                levels.add(topic.substring(start, i));
+                start = i + 1;
+            }
+        }
+        levels.add(topic.substring(start, length));
+        return levels.toArray(EMPTY_LEVELS);
+    }
+
+    /**
+     * 以 '$' 开头的主题（如 $SYS/...）不能被首层为通配符的过滤器匹配
+     */
+    public static boolean isDollarTopic(String topic) {
+        return topic != null && !topic.isEmpty() && topic.charAt(0) == '$';
+    }
+
+    /**
+     * 是否为共享订阅过滤器（$share/&lt;组名&gt;/&lt;过滤器&gt;）
+     */
+    public static boolean isSharedFilter(String topicFilter) {
+        return topicFilter != null && topicFilter.startsWith(SHARE_PREFIX);
+    }
+
+    /**
+     * 返回订阅实际匹配主题使用的过滤器：共享订阅去掉 $share/&lt;组名&gt;/ 前缀，普通订阅原样返回
+     */
+    public static String matchFilter(String topicFilter) {
+        if (!isSharedFilter(topicFilter)) {
+            return topicFilter;
+        }
+        int separator = topicFilter.indexOf('/', SHARE_PREFIX.length());
+        return separator >= 0 ? topicFilter.substring(separator + 1) : "";
+    }
+
+    /**
+     * 校验主题过滤器：'#' 只能作为最后一层单独出现，'+' 必须独占一层。
+     * 共享订阅的组名不能为空且不能包含通配符，去掉前缀后的过滤器同样需要合法
+     */
+    public static boolean isValidFilter(String topicFilter) {
+        if (topicFilter == null || topicFilter.isEmpty()) {
+            return false;
+        }
+        if (isSharedFilter(topicFilter)) {
+            int separator = topicFilter.indexOf('/', SHARE_PREFIX.length());
+            if (separator <= SHARE_PREFIX.length()) {
+                return false;
+            }
+            String shareName = topicFilter.substring(SHARE_PREFIX.length(), separator);
+            if (shareName.indexOf('+') >= 0 || shareName.indexOf('#') >= 0) {
+                return false;
+            }
+            topicFilter = topicFilter.substring(separator + 1);
+            if (topicFilter.isEmpty()) {
+                return false;
+            }
+        }
+        String[] levels = splitLevels(topicFilter);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.indexOf('#') >= 0) {
+                if (!MULTI_LEVEL_WILDCARD.equals(level) || i != levels.length - 1) {
+                    return false;
+                }
+            } else if (level.indexOf('+') >= 0 && !SINGLE_LEVEL_WILDCARD.equals(level)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 校验发布用的主题名：不能为空，也不能包含通配符
+     */
+    public static boolean isValidTopicName(String topicName) {
+        return topicName != null && !topicName.isEmpty()
+                && topicName.indexOf('+') < 0 && topicName.indexOf('#') < 0;
+    }
+
+    /**
+     * 逐层判断主题名是否与主题过滤器匹配，不依赖订阅索引
+     *
+     * @param filterLevels 主题过滤器的层级，可包含 '+' 和 '#'
+     * @param topicLevels  主题名的层级
+     * @param dollarTopic  主题名是否以 '$' 开头
+     * @return 是否匹配
+     */
+    public static boolean matches(String[] filterLevels, String[] topicLevels, boolean dollarTopic) {
+        if (dollarTopic && (SINGLE_LEVEL_WILDCARD.equals(filterLevels[0])
+                || MULTI_LEVEL_WILDCARD.equals(filterLevels[0]))) {
+            return false;
+        }
+        for (int i = 0; i < filterLevels.length; i++) {
+            String filterLevel = filterLevels[i];
+            if (MULTI_LEVEL_WILDCARD.equals(filterLevel)) {
+                // "a/#" 同时匹配 "a"
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!SINGLE_LEVEL_WILDCARD.equals(filterLevel) && !filterLevel.equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+}
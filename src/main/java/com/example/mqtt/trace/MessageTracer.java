@@ -0,0 +1,261 @@
+package com.example.mqtt.trace;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import com.example.mqtt.topic.TopicMatchCache;
+import com.example.mqtt.topic.TopicTrie;
+import io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按采样率记录消息的收发轨迹，写日志在后台线程进行，不阻塞事件循环
+ * <p>
+ * 事件循环只做采样判断；被采样的消息才生成事件（包括负载文本），放入有界的无锁环形缓冲区，
+ * 由后台线程取出后写入 logger.DEBUG_MSG。缓冲区满时丢弃事件并计数，不等待。
+ * <p>
+ * 采样率：客户端ID和主题过滤器可以分别配置采样率，匹配到规则时取其中最大的采样率，
+ * 都没有匹配时使用默认采样率。主题规则的匹配结果按主题名缓存。
+ */
+public class MessageTracer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MessageTracer.class);
+    private static final Logger traceLogger = LoggerFactory.getLogger("logger.DEBUG_MSG");
+    // 没有匹配的规则
+    private static final double NO_RULE = -1;
+    private static final Double[] NO_RULES = new Double[0];
+    private static final int DRAIN_BATCH = 256;
+    // 缓冲区为空时后台线程的休眠时间，生产者不唤醒后台线程
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final double defaultRate;
+    private final Map<String, Double> clientRates;
+    private final TopicTrie<Double> topicRules = new TopicTrie<>();
+    private final TopicMatchCache<Double> topicRateCache;
+    private final boolean hasTopicRules;
+    private final int maxPayloadBytes;
+    private final TraceRing<Event> ring;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * @param defaultRate     未匹配任何规则时的采样率，0到1之间
+     * @param clientRates     客户端ID到采样率
+     * @param topicRates      主题过滤器到采样率，可以包含通配符
+     * @param bufferSize      环形缓冲区容量
+     * @param maxPayloadBytes 记录的负载最多字节数，超出部分截断
+     */
+    public MessageTracer(double defaultRate, Map<String, Double> clientRates, Map<String, Double> topicRates,
+                         int bufferSize, int maxPayloadBytes) {
+        this.defaultRate = defaultRate;
+        this.clientRates = new HashMap<>(clientRates);
+        for (Map.Entry<String, Double> rule : topicRates.entrySet()) {
+            topicRules.add(rule.getKey(), rule.getValue());
+        }
+        this.hasTopicRules = !topicRates.isEmpty();
+        this.topicRateCache = new TopicMatchCache<>(hasTopicRules ? 4096 : 0);
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.ring = new TraceRing<>(bufferSize);
+        this.writer = new Thread(this::drainLoop, "message-trace-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 主题规则中匹配该主题的最大采样率，没有匹配时返回 -1。同一条消息投递给多个订阅者时只需计算一次
+     */
+    public double topicRate(Topic topic) {
+        if (!hasTopicRules) {
+            return NO_RULE;
+        }
+        Double[] rates = topicRateCache.get(topic.getName());
+        if (rates == null) {
+            long generation = topicRateCache.generation();
+            List<Double> matched = new ArrayList<>(2);
+            topicRules.match(topic.getLevels(), topic.isDollar(), matched);
+            rates = matched.isEmpty() ? NO_RULES : new Double[]{Collections.max(matched)};
+            topicRateCache.put(topic.getName(), topic.getLevels(), topic.isDollar(), rates, generation);
+        }
+        return rates.length > 0 ? rates[0] : NO_RULE;
+    }
+
+    /**
+     * 是否采样该客户端在该主题上的一条消息
+     *
+     * @param topicRate {@link #topicRate(Topic)} 的结果
+     */
+    public boolean sample(String clientId, double topicRate) {
+        Double clientRate = clientId != null ? clientRates.get(clientId) : null;
+        double rate;
+        if (clientRate == null) {
+            rate = topicRate != NO_RULE ? topicRate : defaultRate;
+        } else {
+            rate = Math.max(clientRate, topicRate);
+        }
+        return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    public boolean sample(String clientId, Topic topic) {
+        return sample(clientId, topicRate(topic));
+    }
+
+    /**
+     * 记录收到的一条PUBLISH，调用前应已判断 {@link #sample}
+     */
+    public void published(String clientId, PublishMessage message) {
+        ByteBuf payload = message.getPayload();
+        int length = Math.min(payload.readableBytes(), maxPayloadBytes);
+        String text = payload.toString(payload.readerIndex(), length, StandardCharsets.UTF_8);
+        offer(new Event(Event.PUBLISH, clientId, message, message.getQosLevel(), text,
+                length < payload.readableBytes()));
+    }
+
+    /**
+     * 记录投递给订阅者的一条消息，调用前应已判断 {@link #sample}
+     *
+     * @param qos 订阅者收到的QoS
+     */
+    public void delivered(String clientId, PublishMessage message, int qos) {
+        offer(new Event(Event.DELIVER, clientId, message, qos, null, false));
+    }
+
+    private void offer(Event event) {
+        if (!ring.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 已写入日志的事件数
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * 缓冲区满而丢弃的事件数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getBufferSize() {
+        return ring.capacity();
+    }
+
+    private void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (running) {
+            try {
+                if (ring.drain(event -> write(event, line), DRAIN_BATCH) == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            } catch (RuntimeException e) {
+                // 日志输出失败不能终止后台线程，否则缓冲区满后所有事件都会被丢弃
+                logger.warn("Failed to write message trace", e);
+            }
+        }
+        ring.drain(event -> write(event, line), Integer.MAX_VALUE);
+    }
+
+    private void write(Event event, StringBuilder line) {
+        line.setLength(0);
+        event.format(line);
+        traceLogger.info(line.toString());
+        written.increment();
+    }
+
+    /**
+     * 停止后台线程，写出缓冲区中剩余的事件
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 一条轨迹事件，在事件循环上创建，在后台线程格式化
+     */
+    private static final class Event {
+        static final String PUBLISH = "PUBLISH";
+        static final String DELIVER = "DELIVER";
+
+        private final long timestamp = System.currentTimeMillis();
+        private final String type;
+        private final String clientId;
+        private final String topicName;
+        private final int qos;
+        private final int packetId;
+        private final int payloadBytes;
+        private final boolean retain;
+        // 负载文本，只有PUBLISH事件记录
+        private final String payload;
+        private final boolean truncated;
+
+        Event(String type, String clientId, PublishMessage message, int qos, String payload, boolean truncated) {
+            this.type = type;
+            this.clientId = clientId;
+            this.topicName = message.getTopicName();
+            this.qos = qos;
+            this.packetId = message.getPacketId();
+            this.payloadBytes = message.getPayload().readableBytes();
+            this.retain = message.isRetain();
+            this.payload = payload;
+            this.truncated = truncated;
+        }
+
+        /**
+         * 格式为 key=value 以空格分隔，负载加引号并转义
+         */
+        void format(StringBuilder out) {
+            out.append(type).append(" ts=").append(timestamp);
+            out.append(" client=").append(clientId);
+            out.append(" topic=").append(topicName);
+            out.append(" qos=").append(qos);
+            if (PUBLISH.equals(type)) {
+                out.append(" packetId=").append(packetId).append(" retain=").append(retain);
+            }
+            out.append(" bytes=").append(payloadBytes);
+            if (payload != null) {
+                out.append(" payload=\"");
+                for (int i = 0; i < payload.length(); i++) {
+                    char c = payload.charAt(i);
+                    if (c == '"' || c == '\\') {
+                        out.append('\\').append(c);
+                    } else if (c == '\n') {
+                        out.append("\\n");
+                    } else if (c == '\r') {
+                        out.append("\\r");
+                    } else if (c < 0x20) {
+                        out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+                out.append('"');
+                if (truncated) {
+                    out.append("...");
+                }
+            }
+        }
+    }
+}
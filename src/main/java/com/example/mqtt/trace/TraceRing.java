@@ -0,0 +1,90 @@
+package com.example.mqtt.trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 有界的多生产者单消费者无锁环形缓冲区
+ * <p>
+ * 每个槽位带一个序号：序号等于写入位置时槽位空闲，等于写入位置+1时已写入、等待消费。
+ * 生产者以CAS抢占写入位置，缓冲区满时 {@link #offer} 立即返回 false，不等待；
+ * 只有一个消费者线程调用 {@link #drain}。
+ *
+ * @param <E> 元素类型
+ */
+final class TraceRing<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    // 下一个写入位置，生产者共享
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个读取位置，只由消费者修改
+    private long head;
+
+    /**
+     * @param capacity 容量，向上取整为2的幂
+     */
+    TraceRing(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return 是否写入，缓冲区满时返回 false
+     */
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // 序号在元素之后写入，消费者看到新序号时一定能读到元素
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // 槽位上一轮的元素尚未被消费
+                return false;
+            }
+            // 其它生产者已抢占该位置，重读写入位置
+        }
+    }
+
+    /**
+     * 取出最多 limit 个元素交给 consumer，只能由消费者线程调用
+     *
+     * @return 取出的元素数
+     */
+    int drain(Consumer<? super E> consumer, int limit) {
+        int count = 0;
+        while (count < limit) {
+            long position = head;
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // 槽位为空，或生产者已抢占但尚未写完
+                break;
+            }
+            E element = elements.get(index);
+            elements.lazySet(index, null);
+            // 释放槽位给下一轮的生产者
+            sequences.set(index, position + mask + 1);
+            head = position + 1;
+            consumer.accept(element);
+            count++;
+        }
+        return count;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.mqtt.auth;
+
+import com.example.mqtt.topic.Topic;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.example.mqtt.auth.AclRule.Access.ALL;
+import static com.example.mqtt.auth.AclRule.Access.PUBLISH;
+import static com.example.mqtt.auth.AclRule.Access.SUBSCRIBE;
+import static com.example.mqtt.auth.AclRule.Permission.ALLOW;
+import static com.example.mqtt.auth.AclRule.Permission.DENY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AclTest {
+
+    private static Acl acl(boolean allowByDefault, AclRule... rules) {
+        return new Acl(allowByDefault, Arrays.asList(rules));
+    }
+
+    private static boolean canPublish(Acl acl, String username, String clientId, String topicName) {
+        return acl.canPublish(username, clientId, Topic.of(topicName));
+    }
+
+    @Test
+    public void defaultPolicyAppliesWhenNoRuleMatches() {
+        Acl deny = acl(false, new AclRule(null, null, "a/b", ALL, ALLOW));
+        assertTrue(canPublish(deny, "u", "c", "a/b"));
+        assertFalse(canPublish(deny, "u", "c", "a/c"));
+        assertEquals(1, deny.getPublishDeniedCount());
+
+        Acl allow = acl(true);
+        assertTrue(canPublish(allow, "u", "c", "a/c"));
+        assertTrue(allow.canSubscribe("u", "c", "#"));
+    }
+
+    @Test
+    public void earlierRuleWinsAcrossTrees() {
+        // 不限用户的规则在前，优先于后面按用户名和客户端ID编入其它树的规则
+        Acl acl = acl(false,
+                new AclRule(null, null, "secret/#", ALL, DENY),
+                new AclRule("admin", null, "#", ALL, ALLOW),
+                new AclRule(null, "probe", "secret/probe", PUBLISH, ALLOW));
+        assertFalse(canPublish(acl, "admin", "c", "secret/x"));
+        assertFalse(canPublish(acl, "u", "probe", "secret/probe"));
+        assertTrue(canPublish(acl, "admin", "c", "public/x"));
+        assertFalse(canPublish(acl, "u", "c", "public/x"));
+    }
+
+    @Test
+    public void earlierRuleWinsWithinTrie() {
+        Acl acl = acl(false,
+                new AclRule(null, null, "a/b", PUBLISH, DENY),
+                new AclRule(null, null, "a/+", ALL, ALLOW),
+                new AclRule(null, null, "a/#", ALL, DENY));
+        assertFalse(canPublish(acl, "u", "c", "a/b"));
+        assertTrue(canPublish(acl, "u", "c", "a/c"));
+        // "a/#" 覆盖父层级 "a"，"a/+" 不覆盖
+        assertFalse(canPublish(acl, "u", "c", "a"));
+        assertFalse(canPublish(acl, "u", "c", "a/c/d"));
+        // 第一条只限制发布，订阅 "a/b" 由第二条允许
+        assertTrue(acl.canSubscribe("u", "c", "a/b"));
+    }
+
+    @Test
+    public void ruleLimitedToUsernameAndClientIdNeedsBoth() {
+        Acl acl = acl(false, new AclRule("u", "c", "a/#", ALL, ALLOW));
+        assertTrue(canPublish(acl, "u", "c", "a/b"));
+        assertFalse(canPublish(acl, "u", "other", "a/b"));
+        assertFalse(canPublish(acl, "other", "c", "a/b"));
+        assertFalse(canPublish(acl, null, "c", "a/b"));
+    }
+
+    @Test
+    public void templatesExpandToUsernameAndClientId() {
+        Acl acl = acl(false,
+                new AclRule(null, null, "users/%u/#", ALL, ALLOW),
+                new AclRule(null, null, "devices/%c/+", PUBLISH, ALLOW),
+                new AclRule(null, null, "site/dev-%c-%u/state", PUBLISH, ALLOW));
+        assertTrue(canPublish(acl, "alice", "c1", "users/alice/inbox"));
+        assertTrue(canPublish(acl, "alice", "c1", "users/alice"));
+        assertFalse(canPublish(acl, "alice", "c1", "users/bob/inbox"));
+        // 没有用户名的连接不匹配含 %u 的规则
+        assertFalse(canPublish(acl, null, "c1", "users/%u/inbox"));
+
+        assertTrue(canPublish(acl, "alice", "c1", "devices/c1/temp"));
+        assertFalse(canPublish(acl, "alice", "c2", "devices/c1/temp"));
+        assertFalse(acl.canSubscribe("alice", "c1", "devices/c1/temp"));
+
+        assertTrue(canPublish(acl, "alice", "c1", "site/dev-c1-alice/state"));
+        assertFalse(canPublish(acl, "alice", "c1", "site/dev-c2-alice/state"));
+        assertFalse(canPublish(acl, null, "c1", "site/dev-c1-/state"));
+    }
+
+    @Test
+    public void subscribeWildcardsNeedEqualOrWiderRule() {
+        Acl acl = acl(false,
+                new AclRule(null, null, "a/+/c", SUBSCRIBE, ALLOW),
+                new AclRule(null, null, "b/#", SUBSCRIBE, ALLOW));
+        assertTrue(acl.canSubscribe("u", "c", "a/x/c"));
+        assertTrue(acl.canSubscribe("u", "c", "a/+/c"));
+        assertFalse(acl.canSubscribe("u", "c", "a/#"));
+        assertTrue(acl.canSubscribe("u", "c", "b/+"));
+        assertTrue(acl.canSubscribe("u", "c", "b/#"));
+        assertFalse(acl.canSubscribe("u", "c", "#"));
+        // 共享订阅按其中的主题过滤器检查
+        assertTrue(acl.canSubscribe("u", "c", "$share/g/b/x"));
+        assertFalse(acl.canSubscribe("u", "c", "$share/g/x"));
+        assertEquals(3, acl.getSubscribeDeniedCount());
+    }
+
+    @Test
+    public void firstLevelWildcardRulesDoNotCoverDollarTopics() {
+        Acl acl = acl(false,
+                new AclRule(null, null, "#", ALL, ALLOW),
+                new AclRule(null, null, "$SYS/broker/+", SUBSCRIBE, ALLOW));
+        assertTrue(canPublish(acl, "u", "c", "a/b"));
+        assertFalse(canPublish(acl, "u", "c", "$SYS/broker/uptime"));
+        assertTrue(acl.canSubscribe("u", "c", "$SYS/broker/uptime"));
+        assertFalse(acl.canSubscribe("u", "c", "$SYS/#"));
+    }
+
+    @Test
+    public void cacheIsInvalidatedByReload() {
+        Acl acl = acl(false, new AclRule(null, null, "a/#", PUBLISH, ALLOW));
+        AclCache cache = acl.newCache("u", "c", 16);
+        Topic topic = Topic.of("a/b");
+        assertTrue(cache.canPublish(topic));
+        assertTrue(cache.canPublish(topic));
+        assertEquals(1, acl.getCacheHitCount());
+
+        acl.reload(Collections.singletonList(new AclRule(null, null, "a/#", PUBLISH, DENY)));
+        assertFalse(cache.canPublish(topic));
+        assertEquals(1, acl.getCacheHitCount());
+        assertEquals(1, acl.getRuleCount());
+    }
+}
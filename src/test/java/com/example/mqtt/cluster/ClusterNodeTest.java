@@ -0,0 +1,288 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.codec.MqttDecoder;
+import com.example.mqtt.config.MqttBrokerProperties;
+import com.example.mqtt.handler.MessageRouter;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.session.RetainedStore;
+import com.example.mqtt.session.Session;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.ShareStrategies;
+import com.example.mqtt.session.Subscription;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本机回环地址上启动多个节点，验证握手、订阅公布、消息转发和客户端接管
+ */
+public class ClusterNodeTest {
+    private static final String SECRET = "s3cret";
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private EventLoopGroup group;
+    private final List<Node> nodes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        group = new NioEventLoopGroup(2);
+    }
+
+    @After
+    public void tearDown() {
+        for (Node node : nodes) {
+            node.close();
+        }
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    public void forwardsPublishToNodeWithMatchingSubscription() throws Exception {
+        int[] ports = freePorts(2);
+        Node a = start("a", ports[0], SECRET, ports[1]);
+        Node b = start("b", ports[1], SECRET, ports[0]);
+        awaitPeers(a, b);
+
+        Subscriber subscriber = b.subscribe("sub", "site/+/temp");
+        await(() -> a.cluster.getCounters().getRemoteFilterCount() == 1);
+
+        a.router.publish(publish("site/1/temp", "21.5", false), "pub");
+        PublishMessage received = subscriber.next();
+        assertEquals("site/1/temp", received.getTopicName());
+        assertEquals("21.5", received.getPayload().toString(CharsetUtil.UTF_8));
+        received.release();
+        assertEquals(1, a.cluster.getCounters().getForwardedCount());
+        assertEquals(1, b.cluster.getCounters().getReceivedCount());
+        // 其它节点转发来的消息只在本地投递，不再转发
+        assertEquals(0, b.cluster.getCounters().getForwardedCount());
+
+        // 不匹配任何远端过滤器的消息不转发
+        a.router.publish(publish("other/topic", "x", false), "pub");
+        assertEquals(1, a.cluster.getCounters().getForwardedCount());
+    }
+
+    @Test
+    public void withdrawsFilterWhenLastSubscriptionIsRemoved() throws Exception {
+        int[] ports = freePorts(2);
+        Node a = start("a", ports[0], SECRET, ports[1]);
+        Node b = start("b", ports[1], SECRET, ports[0]);
+        awaitPeers(a, b);
+
+        b.subscribe("sub", "a/b");
+        await(() -> a.cluster.getCounters().getRemoteFilterCount() == 1);
+        b.sessionManager.removeSubscription("a/b", "sub");
+        await(() -> a.cluster.getCounters().getRemoteFilterCount() == 0);
+
+        a.router.publish(publish("a/b", "x", false), "pub");
+        assertEquals(0, a.cluster.getCounters().getForwardedCount());
+    }
+
+    @Test
+    public void forwardsRetainedMessagesToAllNodes() throws Exception {
+        int[] ports = freePorts(2);
+        Node a = start("a", ports[0], SECRET, ports[1]);
+        Node b = start("b", ports[1], SECRET, ports[0]);
+        awaitPeers(a, b);
+
+        // 没有订阅者的节点也保存保留消息
+        a.router.publish(publish("status/a", "online", true), "pub");
+        await(() -> b.retainedStore.getCounters().getRetainedCount() == 1);
+
+        a.router.publish(publish("status/a", "", true), "pub");
+        await(() -> b.retainedStore.getCounters().getRetainedCount() == 0);
+    }
+
+    @Test
+    public void clientConnectingToAnotherNodeTakesOverSession() throws Exception {
+        int[] ports = freePorts(2);
+        Node a = start("a", ports[0], SECRET, ports[1]);
+        Node b = start("b", ports[1], SECRET, ports[0]);
+        awaitPeers(a, b);
+
+        Subscriber subscriber = b.subscribe("device-1", "cmd/device-1");
+        await(() -> a.cluster.getCounters().getRemoteFilterCount() == 1);
+
+        a.router.clientConnected("device-1");
+        await(() -> b.cluster.getCounters().getTakeoverCount() == 1);
+        assertNull(b.sessionManager.getSession("device-1"));
+        assertEquals(0, b.sessionManager.getSubscriptionCount());
+        assertFalse(subscriber.channel.isActive());
+        await(() -> a.cluster.getCounters().getRemoteFilterCount() == 0);
+    }
+
+    @Test
+    public void rejectsPeerWithWrongSecret() throws Exception {
+        int[] ports = freePorts(2);
+        Node a = start("a", ports[0], SECRET, ports[1]);
+        Node intruder = start("x", ports[1], "wrong", ports[0]);
+
+        await(() -> a.cluster.getCounters().getAuthFailureCount() > 0);
+        assertEquals(0, intruder.cluster.getCounters().getPeerCount());
+
+        intruder.subscribe("sub", "#");
+        a.router.publish(publish("a/b", "x", false), "pub");
+        assertEquals(0, a.cluster.getCounters().getRemoteFilterCount());
+        assertEquals(0, intruder.cluster.getCounters().getReceivedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresSecret() throws Exception {
+        start("a", freePorts(1)[0], "", 1);
+    }
+
+    private Node start(String nodeId, int port, String secret, int peerPort) throws InterruptedException {
+        MqttBrokerProperties.Cluster config = new MqttBrokerProperties.Cluster();
+        config.setEnabled(true);
+        config.setNodeId(nodeId);
+        config.setHost("127.0.0.1");
+        config.setPort(port);
+        config.setSecret(secret);
+        config.setPeers(Collections.singletonList("127.0.0.1:" + peerPort));
+        config.setReconnectIntervalMillis(100);
+        Node node = new Node(nodeId, config);
+        node.cluster.start(group, group, NioServerSocketChannel.class, NioSocketChannel.class);
+        nodes.add(node);
+        return node;
+    }
+
+    private static void awaitPeers(Node... nodes) throws InterruptedException {
+        for (Node node : nodes) {
+            await(() -> node.cluster.getCounters().getPeerCount() == nodes.length - 1);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Condition not met within " + TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        ServerSocket[] sockets = new ServerSocket[count];
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+
+    private static PublishMessage publish(String topicName, String payload, boolean retain) {
+        PublishMessage message = new PublishMessage();
+        message.setTopicName(topicName);
+        message.setRetain(retain);
+        message.setPayload(payload.getBytes(CharsetUtil.UTF_8));
+        return message;
+    }
+
+    /**
+     * 一个节点：会话管理、保留消息、路由和集群连接，不监听MQTT端口
+     */
+    private static final class Node {
+        private final SessionManager sessionManager = new SessionManager();
+        private final Map<String, Channel> clientChannels = new ConcurrentHashMap<>();
+        private final RetainedStore retainedStore = new RetainedStore(UnpooledByteBufAllocator.DEFAULT, 100, 1 << 20);
+        private final MessageRouter router;
+        private final ClusterNode cluster;
+        private final List<Subscriber> subscribers = new ArrayList<>();
+
+        Node(String nodeId, MqttBrokerProperties.Cluster config) {
+            router = new MessageRouter(sessionManager, clientChannels, retainedStore, ShareStrategies.ROUND_ROBIN);
+            cluster = new ClusterNode(nodeId, config, 65536, sessionManager, clientChannels, router);
+        }
+
+        /**
+         * 连接一个清除会话的客户端并以QoS 0订阅
+         */
+        Subscriber subscribe(String clientId, String topicFilter) {
+            Subscriber subscriber = new Subscriber();
+            subscribers.add(subscriber);
+            sessionManager.addSession(new Session(clientId, true, 60));
+            clientChannels.put(clientId, subscriber.channel);
+            sessionManager.addSubscription(topicFilter, new Subscription(clientId, topicFilter, MqttQoS.AT_MOST_ONCE));
+            return subscriber;
+        }
+
+        void close() {
+            cluster.close();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.close();
+            }
+            retainedStore.close();
+        }
+    }
+
+    /**
+     * 客户端连接，收集写出的已编码PUBLISH。消息由集群连接的IO线程写出，通过队列交给测试线程
+     */
+    private static final class Subscriber {
+        private final BlockingQueue<ByteBuf> written = new LinkedBlockingQueue<>();
+        private final EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                written.add((ByteBuf) msg);
+                promise.setSuccess();
+            }
+        });
+        private final EmbeddedChannel decoder = new EmbeddedChannel(new MqttDecoder());
+
+        PublishMessage next() throws InterruptedException {
+            ByteBuf frame = written.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("No message delivered within " + TIMEOUT_MILLIS + " ms", frame);
+            decoder.writeInbound(frame);
+            return decoder.readInbound();
+        }
+
+        void close() {
+            ByteBuf frame;
+            while ((frame = written.poll()) != null) {
+                ReferenceCountUtil.release(frame);
+            }
+            decoder.finishAndReleaseAll();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.MqttBrokerApplication;
+import com.example.mqtt.codec.MqttDecoder;
+import com.example.mqtt.codec.MqttEncoder;
+import com.example.mqtt.message.ConnAckMessage;
+import com.example.mqtt.message.ConnectMessage;
+import com.example.mqtt.message.MqttMessage;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.message.SubAckMessage;
+import com.example.mqtt.message.SubscribeMessage;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 在本机回环地址上以三个独立的Broker进程组成集群，通过MQTT连接验证跨节点转发、保留消息和客户端接管
+ * <p>
+ * 每个节点是一个单独的JVM，使用测试的类路径启动 {@link MqttBrokerApplication}，工作目录和日志在临时目录中。
+ * 节点启动较慢，所有用例共享同一组节点，各用例使用不同的主题和客户端ID。
+ */
+public class ClusterProcessTest {
+    private static final int NODES = 3;
+    private static final String SECRET = "s3cret";
+    private static final long STARTUP_TIMEOUT_MILLIS = 120_000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<Process> processes = new ArrayList<>();
+    private static final List<Path> logs = new ArrayList<>();
+    private static int[] mqttPorts;
+    private static EventLoopGroup group;
+    private final List<Client> clients = new ArrayList<>();
+
+    @BeforeClass
+    public static void startNodes() throws Exception {
+        int[] ports = freePorts(2 * NODES);
+        mqttPorts = Arrays.copyOfRange(ports, 0, NODES);
+        int[] clusterPorts = Arrays.copyOfRange(ports, NODES, 2 * NODES);
+        for (int i = 0; i < NODES; i++) {
+            StringBuilder peers = new StringBuilder();
+            for (int j = 0; j < NODES; j++) {
+                if (j != i) {
+                    peers.append(peers.length() > 0 ? "," : "").append("127.0.0.1:").append(clusterPorts[j]);
+                }
+            }
+            processes.add(startNode(i + 1, mqttPorts[i], clusterPorts[i], peers.toString()));
+        }
+        for (int i = 0; i < NODES; i++) {
+            awaitPort(i);
+        }
+        group = new NioEventLoopGroup(1);
+    }
+
+    @AfterClass
+    public static void stopNodes() throws InterruptedException {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+        if (group != null) {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    private static Process startNode(int index, int mqttPort, int clusterPort, String peers) throws IOException {
+        File directory = folder.newFolder("n" + index);
+        Path log = directory.toPath().resolve("broker.log");
+        logs.add(log);
+        String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx256m", "-XX:TieredStopAtLevel=1", "-cp", classpath,
+                MqttBrokerApplication.class.getName(), String.valueOf(mqttPort),
+                "--mqtt.broker.cluster.enabled=true",
+                "--mqtt.broker.cluster.node-id=n" + index,
+                "--mqtt.broker.cluster.port=" + clusterPort,
+                "--mqtt.broker.cluster.peers=" + peers,
+                "--mqtt.broker.cluster.secret=" + SECRET,
+                "--mqtt.broker.cluster.reconnect-interval-millis=200",
+                "--mqtt.broker.persistence.enabled=false",
+                "--mqtt.broker.queue.spill-enabled=false",
+                "--mqtt.broker.metrics.http-enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.example.mqtt.cluster=INFO"));
+        return new ProcessBuilder(command)
+                .directory(directory)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    private static void awaitPort(int node) throws Exception {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", mqttPorts[node]), 1000);
+                return;
+            } catch (IOException e) {
+                if (!processes.get(node).isAlive() || System.currentTimeMillis() > deadline) {
+                    fail("Node n" + (node + 1) + " did not start:\n" + log(node));
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static String log(int node) {
+        try {
+            return new String(Files.readAllBytes(logs.get(node)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    @After
+    public void closeClients() {
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    @Test
+    public void forwardsOnlyToSubscribersOfMatchingFilter() throws Exception {
+        Client subscriber = connect(2, "fwd-sub");
+        subscriber.subscribe("fwd/+/temp");
+        Client other = connect(3, "fwd-other");
+        other.subscribe("fwd/other/#");
+        Client publisher = connect(1, "fwd-pub");
+
+        // 节点间的连接和订阅公布是异步的，重复发布直到订阅者收到；节点间投递最多一次
+        PublishMessage received = null;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received == null && System.currentTimeMillis() < deadline) {
+            publisher.publish("fwd/1/temp", "21.5", false);
+            received = subscriber.poll(200);
+        }
+        assertNotNull("Message was not forwarded from n1 to n2:\n" + log(0) + "\n" + log(1), received);
+        assertEquals("fwd/1/temp", received.getTopicName());
+        assertEquals("21.5", received.getPayload().toString(CharsetUtil.UTF_8));
+        received.release();
+
+        awaitDelivery(publisher, other, "fwd/other/probe");
+        publisher.publish("fwd/other/x", "o", false);
+        PublishMessage forOther = other.poll(TIMEOUT_MILLIS);
+        assertNotNull(forOther);
+        assertEquals("fwd/other/x", forOther.getTopicName());
+        forOther.release();
+        // n3 的订阅者不会收到只匹配 n2 上过滤器的消息
+        subscriber.drain();
+        assertNull(other.poll(300));
+    }
+
+    @Test
+    public void retainedMessageReachesLateSubscriberOnAnotherNode() throws Exception {
+        // 先确认 n1 到 n3 的连接已建立
+        Client probe = connect(3, "ret-probe");
+        probe.subscribe("ret/probe");
+        Client publisher = connect(1, "ret-pub");
+        awaitDelivery(publisher, probe, "ret/probe");
+
+        publisher.publish("ret/state", "kept", true);
+        // 保留消息异步复制到 n3，重复订阅直到收到
+        PublishMessage retained = null;
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (int i = 0; retained == null && System.currentTimeMillis() < deadline; i++) {
+            Client late = connect(3, "ret-late-" + i);
+            late.subscribe("ret/#");
+            retained = late.poll(300);
+        }
+        assertNotNull("Retained message was not replicated to n3", retained);
+        assertEquals("ret/state", retained.getTopicName());
+        assertTrue(retained.isRetain());
+        assertEquals("kept", retained.getPayload().toString(CharsetUtil.UTF_8));
+        retained.release();
+    }
+
+    @Test
+    public void connectOnAnotherNodeTakesOverClient() throws Exception {
+        Client old = connect(2, "dup");
+        old.subscribe("dup/old");
+        Client publisher = connect(3, "dup-pub");
+        awaitDelivery(publisher, old, "dup/old");
+
+        Client taker = connect(1, "dup");
+        assertTrue("Old connection on n2 was not closed", old.closed.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(taker.channel.isActive());
+
+        // 旧连接在 n2 上的订阅被清除，新连接在 n1 上的订阅生效
+        taker.subscribe("dup/new");
+        awaitDelivery(publisher, taker, "dup/new");
+        publisher.publish("dup/old", "stale", false);
+        assertNull(taker.poll(300));
+    }
+
+    /**
+     * 重复发布直到订阅者收到，用于等待节点间连接和订阅公布完成
+     */
+    private static void awaitDelivery(Client publisher, Client subscriber, String topicName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            publisher.publish(topicName, "probe", false);
+            PublishMessage message = subscriber.poll(200);
+            if (message != null) {
+                message.release();
+                subscriber.drain();
+                return;
+            }
+        }
+        fail("No delivery on " + topicName + " within " + TIMEOUT_MILLIS + " ms");
+    }
+
+    private Client connect(int node, String clientId) throws Exception {
+        Client client = new Client();
+        clients.add(client);
+        client.connect(mqttPorts[node - 1], clientId);
+        return client;
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        ServerSocket[] sockets = new ServerSocket[count];
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * 最简单的MQTT 3.1.1客户端，只使用QoS 0，收到的报文通过队列交给测试线程
+     */
+    private static final class Client extends SimpleChannelInboundHandler<MqttMessage> {
+        private final BlockingQueue<MqttMessage> received = new LinkedBlockingQueue<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private Channel channel;
+        private int nextPacketId = 1;
+
+        void connect(int port, String clientId) throws Exception {
+            channel = new Bootstrap()
+                    .group(group)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast("decoder", new MqttDecoder());
+                            ch.pipeline().addLast("encoder", new MqttEncoder());
+                            ch.pipeline().addLast("client", Client.this);
+                        }
+                    })
+                    .connect("127.0.0.1", port).sync().channel();
+            ConnectMessage connect = new ConnectMessage();
+            connect.setProtocolName("MQTT");
+            connect.setProtocolVersion(4);
+            connect.setClientId(clientId);
+            connect.setCleanSession(true);
+            connect.setKeepAlive(60);
+            channel.writeAndFlush(connect).sync();
+            MqttMessage ack = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertTrue("No CONNACK for " + clientId, ack instanceof ConnAckMessage);
+            assertEquals(0, ((ConnAckMessage) ack).getReturnCode());
+        }
+
+        void subscribe(String topicFilter) throws InterruptedException {
+            SubscribeMessage subscribe = new SubscribeMessage();
+            subscribe.setPacketId(nextPacketId++);
+            subscribe.addTopicSubscription(topicFilter, 0);
+            channel.writeAndFlush(subscribe).sync();
+            MqttMessage ack = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertTrue("No SUBACK for " + topicFilter, ack instanceof SubAckMessage);
+            assertEquals(Integer.valueOf(0), ((SubAckMessage) ack).getReturnCodes().get(0));
+        }
+
+        void publish(String topicName, String payload, boolean retain) throws InterruptedException {
+            PublishMessage publish = new PublishMessage();
+            publish.setTopicName(topicName);
+            publish.setRetain(retain);
+            publish.setPayload(payload.getBytes(StandardCharsets.UTF_8));
+            channel.writeAndFlush(publish).sync();
+        }
+
+        /**
+         * @return 超时未收到PUBLISH时返回 null
+         */
+        PublishMessage poll(long timeoutMillis) throws InterruptedException {
+            MqttMessage message = received.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (message != null && !(message instanceof PublishMessage)) {
+                ReferenceCountUtil.release(message);
+                fail("Unexpected " + message.getClass().getSimpleName());
+            }
+            return (PublishMessage) message;
+        }
+
+        void drain() {
+            MqttMessage message;
+            while ((message = received.poll()) != null) {
+                ReferenceCountUtil.release(message);
+            }
+        }
+
+        void close() {
+            if (channel != null) {
+                channel.close().syncUninterruptibly();
+            }
+            drain();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, MqttMessage msg) {
+            received.add(ReferenceCountUtil.retain(msg));
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            closed.countDown();
+        }
+    }
+}
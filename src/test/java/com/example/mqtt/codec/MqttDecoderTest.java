@@ -0,0 +1,193 @@
+package com.example.mqtt.codec;
+
+import com.example.mqtt.message.MqttMessage;
+import com.example.mqtt.message.PacketIdMessage;
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.protocol.MqttMessageType;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MqttDecoderTest {
+    private EmbeddedChannel channel = new EmbeddedChannel(new MqttDecoder());
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * 编码一个PUBLISH：固定头部、剩余长度、主题、QoS > 0 时的Packet ID和负载
+     */
+    private static ByteBuf publish(String topicName, int qos, int packetId, byte[] payload) {
+        byte[] topic = topicName.getBytes(CharsetUtil.UTF_8);
+        ByteBuf body = Unpooled.buffer();
+        body.writeShort(topic.length).writeBytes(topic);
+        if (qos > 0) {
+            body.writeShort(packetId);
+        }
+        body.writeBytes(payload);
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(0x30 | (qos << 1));
+        writeRemainingLength(frame, body.readableBytes());
+        frame.writeBytes(body);
+        body.release();
+        return frame;
+    }
+
+    private static void writeRemainingLength(ByteBuf buffer, int length) {
+        do {
+            int digit = length % 128;
+            length /= 128;
+            buffer.writeByte(length > 0 ? digit | 0x80 : digit);
+        } while (length > 0);
+    }
+
+    private static ByteBuf bytes(int... values) {
+        ByteBuf buffer = Unpooled.buffer(values.length);
+        for (int value : values) {
+            buffer.writeByte(value);
+        }
+        return buffer;
+    }
+
+    /**
+     * 写入数据并期望解码失败
+     */
+    private <T extends DecoderException> T expectFailure(ByteBuf input, Class<T> type) {
+        try {
+            channel.writeInbound(input);
+        } catch (DecoderException e) {
+            assertTrue("Unexpected " + e, type.isInstance(e));
+            return type.cast(e);
+        }
+        fail("Expected " + type.getSimpleName());
+        return null;
+    }
+
+    @Test
+    public void publishSplitIntoSingleBytesIsDecodedOnce() {
+        byte[] payload = "hello".getBytes(CharsetUtil.UTF_8);
+        ByteBuf frame = publish("a/b", 1, 42, payload);
+        int length = frame.readableBytes();
+        for (int i = 0; i < length - 1; i++) {
+            assertFalse(channel.writeInbound(frame.readRetainedSlice(1)));
+            assertNull(channel.readInbound());
+        }
+        assertTrue(channel.writeInbound(frame.readRetainedSlice(1)));
+        frame.release();
+
+        PublishMessage message = channel.readInbound();
+        assertEquals("a/b", message.getTopicName());
+        assertEquals(1, message.getQosLevel());
+        assertEquals(42, message.getPacketId());
+        assertEquals("hello", message.getPayload().toString(CharsetUtil.UTF_8));
+        message.release();
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void framesInOneReadAreAllDecoded() {
+        ByteBuf input = Unpooled.buffer();
+        input.writeBytes(bytes(0xC0, 0x00));
+        ByteBuf publish = publish("x", 0, 0, new byte[]{1});
+        input.writeBytes(publish);
+        publish.release();
+        input.writeBytes(bytes(0x40, 0x02, 0x00, 0x07));
+
+        assertTrue(channel.writeInbound(input));
+        assertEquals(MqttMessageType.PINGREQ, ((MqttMessage) channel.readInbound()).getMessageType());
+        PublishMessage message = channel.readInbound();
+        assertEquals("x", message.getTopicName());
+        message.release();
+        PacketIdMessage puback = channel.readInbound();
+        assertEquals(MqttMessageType.PUBACK, puback.getMessageType());
+        assertEquals(7, puback.getPacketId());
+    }
+
+    @Test
+    public void remainingLengthLongerThanFourBytesIsRejected() {
+        expectFailure(bytes(0x30, 0xFF, 0xFF, 0xFF, 0xFF, 0x01), CorruptedFrameException.class);
+    }
+
+    @Test
+    public void frameOverMaxPacketSizeIsRejectedAndLaterInputDiscarded() {
+        channel = new EmbeddedChannel(new MqttDecoder(16, null));
+        ByteBuf tooLong = publish("a", 0, 0, new byte[20]);
+        expectFailure(tooLong, TooLongFrameException.class);
+
+        // 之后的数据（包括完整的报文）全部丢弃，累积的输入在下一次读取时释放
+        ByteBuf ping = bytes(0xC0, 0x00);
+        assertFalse(channel.writeInbound(ping));
+        assertNull(channel.readInbound());
+        assertEquals(0, ping.refCnt());
+        assertEquals(0, tooLong.refCnt());
+    }
+
+    @Test
+    public void oversizedLengthIsRejectedBeforeBodyArrives() {
+        channel = new EmbeddedChannel(new MqttDecoder(16, null));
+        // 只发送固定头部，声明的剩余长度超过上限时不等待消息体
+        expectFailure(bytes(0x30, 0x80, 0x01), TooLongFrameException.class);
+    }
+
+    @Test
+    public void packetIdZeroIsRejected() {
+        expectFailure(bytes(0x40, 0x02, 0x00, 0x00), CorruptedFrameException.class);
+    }
+
+    @Test
+    public void publishWithPacketIdZeroIsRejected() {
+        ByteBuf frame = publish("a/b", 1, 0, new byte[]{1, 2});
+        expectFailure(frame, CorruptedFrameException.class);
+        assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    public void nonAsciiTopicLeavesCorrectPayload() {
+        String topicName = "传感器/温度/ü";
+        assertTrue(topicName.getBytes(CharsetUtil.UTF_8).length > topicName.length());
+        channel.writeInbound(publish(topicName, 2, 9, "21.5".getBytes(CharsetUtil.UTF_8)));
+
+        PublishMessage message = channel.readInbound();
+        assertEquals(topicName, message.getTopicName());
+        assertEquals(9, message.getPacketId());
+        assertEquals(4, message.getPayload().readableBytes());
+        assertEquals("21.5", message.getPayload().toString(CharsetUtil.UTF_8));
+        message.release();
+    }
+
+    @Test
+    public void payloadSliceHoldsInputUntilMessageIsReleased() {
+        ByteBuf frame = publish("a/b", 0, 0, new byte[]{1, 2, 3});
+        channel.writeInbound(frame);
+        PublishMessage message = channel.readInbound();
+
+        // 负载是输入缓冲区的切片，解码器已释放自己的引用
+        assertEquals(1, frame.refCnt());
+        assertEquals(1, message.refCnt());
+        assertTrue(message.release());
+        assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    public void truncatedBodyIsCorrupted() {
+        // PUBACK 的剩余长度为1，不够读取Packet ID
+        expectFailure(bytes(0x40, 0x01, 0x00), DecoderException.class);
+        ByteBuf ping = bytes(0xC0, 0x00);
+        assertFalse(channel.writeInbound(ping));
+        assertNull(channel.readInbound());
+    }
+}
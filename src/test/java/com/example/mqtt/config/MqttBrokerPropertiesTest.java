@@ -0,0 +1,55 @@
+package com.example.mqtt.config;
+
+import org.junit.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MqttBrokerPropertiesTest {
+
+    private static MqttBrokerProperties bind(Map<String, String> source) {
+        return new Binder(new MapConfigurationPropertySource(source))
+                .bindOrCreate("mqtt.broker", MqttBrokerProperties.class);
+    }
+
+    @Test
+    public void quotaOverrideInheritsUnsetFieldsFromDefaults() {
+        Map<String, String> source = new HashMap<>();
+        source.put("mqtt.broker.quota.defaults.message-rate", "50");
+        source.put("mqtt.broker.quota.defaults.byte-rate", "2048");
+        source.put("mqtt.broker.quota.clients.[sensor-1].message-rate", "10");
+        source.put("mqtt.broker.quota.users.[alice].byte-burst", "0");
+        MqttBrokerProperties.Quota quota = bind(source).getQuota();
+        MqttBrokerProperties.Quota.Limit defaults = quota.getDefaults();
+
+        MqttBrokerProperties.Quota.Limit client = quota.getClients().get("sensor-1").inherit(defaults);
+        assertEquals(10, client.getMessageRate(), 0);
+        assertEquals(2048, client.getByteRate(), 0);
+        // defaults 也未配置的字段保持未配置，由 toLimit 取内置默认值
+        assertNull(client.getMessageBurst());
+
+        MqttBrokerProperties.Quota.Limit user = quota.getUsers().get("alice").inherit(defaults);
+        assertEquals(50, user.getMessageRate(), 0);
+        assertEquals(2048, user.getByteRate(), 0);
+        assertEquals(0, user.getByteBurst(), 0);
+    }
+
+    @Test
+    public void inheritDoesNotModifyOverrideOrDefaults() {
+        MqttBrokerProperties.Quota.Limit defaults = new MqttBrokerProperties.Quota.Limit();
+        defaults.setMessageRate(50.0);
+        MqttBrokerProperties.Quota.Limit override = new MqttBrokerProperties.Quota.Limit();
+        override.setByteRate(0.0);
+
+        MqttBrokerProperties.Quota.Limit merged = override.inherit(defaults);
+        assertEquals(50, merged.getMessageRate(), 0);
+        assertEquals(0, merged.getByteRate(), 0);
+        assertNull(override.getMessageRate());
+        assertNull(defaults.getByteRate());
+    }
+}
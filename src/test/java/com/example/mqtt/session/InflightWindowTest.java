@@ -0,0 +1,221 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.message.PacketIdMessage;
+import com.example.mqtt.message.PublishMessage;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InflightWindowTest {
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final InflightWindow.Counters counters = new InflightWindow.Counters();
+
+    @After
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    private InflightWindow window(int maxInflight) {
+        return new InflightWindow(maxInflight, QueueStore.inMemory(1000), null, 0, counters);
+    }
+
+    private static PublishMessage publish(int qos) {
+        PublishMessage message = new PublishMessage();
+        message.setTopicName("a/b");
+        message.setQosLevel(qos);
+        message.setPayload(Unpooled.wrappedBuffer(new byte[8]));
+        return message;
+    }
+
+    /**
+     * 读出通道中下一条写出的消息并返回其Packet ID
+     */
+    private int written() {
+        Object msg = channel.readOutbound();
+        try {
+            return msg instanceof PublishMessage ? ((PublishMessage) msg).getPacketId() : ((PacketIdMessage) msg).getPacketId();
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Test
+    public void fullWindowQueuesAndAcknowledgeFillsIt() {
+        InflightWindow window = window(4);
+        window.bind(channel);
+        for (int i = 0; i < 6; i++) {
+            window.send(publish(1), null);
+        }
+        assertEquals(4, window.inflightSize());
+        assertEquals(2, window.queuedSize());
+        assertFalse(window.hasCapacity());
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, written());
+        }
+        assertNull(channel.readOutbound());
+
+        assertTrue(window.acknowledge(2));
+        assertFalse(window.acknowledge(2));
+        assertEquals(4, window.inflightSize());
+        assertEquals(1, window.queuedSize());
+        // 5 的槽位仍被在途的1占用，跳过
+        assertEquals(6, written());
+        assertEquals(4, counters.getInflightCount());
+
+        window.release();
+        assertEquals(0, window.inflightSize());
+        assertEquals(0, window.queuedSize());
+        assertEquals(0, counters.getInflightCount());
+    }
+
+    @Test
+    public void unboundWindowQueuesUntilBind() {
+        InflightWindow window = window(2);
+        window.send(publish(1), null);
+        window.send(publish(1), null);
+        window.send(publish(1), null);
+        assertEquals(0, window.inflightSize());
+        assertEquals(3, window.queuedSize());
+        assertNull(channel.readOutbound());
+
+        window.bind(channel);
+        assertEquals(2, window.inflightSize());
+        assertEquals(1, window.queuedSize());
+        assertEquals(1, written());
+        assertEquals(2, written());
+        window.release();
+    }
+
+    @Test
+    public void packetIdZeroIsNeverInflight() {
+        InflightWindow window = window(4);
+        window.bind(channel);
+        window.send(publish(2), null);
+        assertFalse(window.acknowledge(0));
+        assertFalse(window.received(0));
+        assertEquals(1, window.inflightSize());
+        window.release();
+    }
+
+    @Test
+    public void wrapAroundSkipsIdsStillInflight() {
+        InflightWindow window = window(4);
+        window.bind(channel);
+        // Packet ID 1 一直不确认，其余的发送后立即确认，使ID绕过65535
+        window.send(publish(1), null);
+        assertEquals(1, written());
+
+        int previous = 1;
+        int wraps = 0;
+        for (int i = 0; i < 140000; i++) {
+            window.send(publish(1), null);
+            int packetId = written();
+            assertNotEquals(0, packetId);
+            assertNotEquals(1, packetId);
+            assertTrue(packetId <= 65535);
+            if (packetId < previous) {
+                wraps++;
+            }
+            previous = packetId;
+            assertTrue(window.acknowledge(packetId));
+        }
+        assertEquals(2, wraps);
+        assertEquals(1, window.inflightSize());
+        assertTrue(window.acknowledge(1));
+        window.release();
+    }
+
+    @Test
+    public void wrapAroundWithFullWindowDoesNotReuseIds() {
+        InflightWindow window = window(8);
+        window.bind(channel);
+        Deque<Integer> order = new ArrayDeque<>();
+        Set<Integer> inflight = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            window.send(publish(1), null);
+            int packetId = written();
+            order.add(packetId);
+            inflight.add(packetId);
+        }
+        // 每次确认最早的一条再发送一条，窗口始终是满的
+        for (int i = 0; i < 70000; i++) {
+            int oldest = order.poll();
+            assertTrue(window.acknowledge(oldest));
+            inflight.remove(oldest);
+            window.send(publish(1), null);
+            int packetId = written();
+            assertTrue(packetId > 0 && packetId <= 65535);
+            assertTrue(inflight.add(packetId));
+            order.add(packetId);
+            assertEquals(8, window.inflightSize());
+        }
+        window.release();
+    }
+
+    @Test
+    public void sendAfterReleaseReleasesMessageAndQueueQuota() {
+        QueueStore queueStore = QueueStore.inMemory(1000);
+        InflightWindow window = new InflightWindow(4, queueStore, null, 0, counters);
+        window.send(publish(1), null);
+        window.send(publish(1), null);
+        assertEquals(2, queueStore.getCounters().getQueuedCount());
+
+        window.release();
+        assertEquals(0, queueStore.getCounters().getQueuedCount());
+        assertEquals(0, queueStore.getCounters().getMemoryBytes());
+
+        // 会话被移除后，发布者的事件循环仍可能向旧会话的窗口发送
+        PublishMessage late = publish(1);
+        window.send(late, null);
+        assertEquals(0, late.refCnt());
+        assertEquals(0, window.queuedSize());
+        assertEquals(0, queueStore.getCounters().getQueuedCount());
+        assertEquals(0, queueStore.getCounters().getMemoryBytes());
+        assertEquals(0, counters.getInflightCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasedWindowCannotBeBound() {
+        InflightWindow window = window(4);
+        window.release();
+        window.bind(channel);
+    }
+
+    @Test
+    public void qos2MovesToPubrelAfterReceived() {
+        InflightWindow window = window(4);
+        window.bind(channel);
+        PublishMessage message = publish(2);
+        window.send(message, null);
+        int packetId = written();
+
+        assertTrue(window.received(packetId));
+        assertEquals(0, message.refCnt());
+        assertEquals(1, window.inflightSize());
+
+        // 重新绑定时重发的是PUBREL
+        window.unbind(channel);
+        window.bind(channel);
+        Object resent = channel.readOutbound();
+        assertTrue(resent instanceof PacketIdMessage);
+        assertEquals(packetId, ((PacketIdMessage) resent).getPacketId());
+        assertEquals(1, counters.getRetransmissionCount());
+
+        assertTrue(window.acknowledge(packetId));
+        assertEquals(0, window.inflightSize());
+        window.release();
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.mqtt.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PacketIdMapTest {
+
+    @Test
+    public void putGetRemove() {
+        PacketIdMap<String> map = new PacketIdMap<>();
+        assertNull(map.get(1));
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(65535, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals(2, map.size());
+
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(65535));
+        assertEquals("c", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPacketIdZero() {
+        new PacketIdMap<String>().put(0, "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPacketIdAboveRange() {
+        new PacketIdMap<String>().put(65536, "a");
+    }
+
+    @Test
+    public void lookupOfZeroFindsNothing() {
+        PacketIdMap<String> map = new PacketIdMap<>();
+        map.put(1, "a");
+        assertNull(map.get(0));
+        assertNull(map.remove(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void removeKeepsRemainingKeysReachable() {
+        // 足够多的键使探测序列发生冲突和扩容，删除后移动的元素仍能找到
+        PacketIdMap<Integer> map = new PacketIdMap<>();
+        for (int id = 1; id <= 1000; id++) {
+            map.put(id, id);
+        }
+        for (int id = 1; id <= 1000; id += 3) {
+            assertEquals(Integer.valueOf(id), map.remove(id));
+        }
+        for (int id = 1; id <= 1000; id++) {
+            if (id % 3 == 1) {
+                assertNull(map.get(id));
+            } else {
+                assertEquals(Integer.valueOf(id), map.get(id));
+            }
+        }
+        assertEquals(666, map.size());
+    }
+
+    @Test
+    public void drainVisitsAllValuesAndClears() {
+        PacketIdMap<Integer> map = new PacketIdMap<>();
+        for (int id = 1; id <= 20; id++) {
+            map.put(id, id);
+        }
+        List<Integer> drained = new ArrayList<>();
+        map.drain(drained::add);
+        assertEquals(20, drained.size());
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+
+        map.put(1, 1);
+        assertEquals(Integer.valueOf(1), map.get(1));
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.message.PublishMessage;
+import com.example.mqtt.topic.Topic;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetainedStoreTest {
+    private final RetainedStore store = new RetainedStore(UnpooledByteBufAllocator.DEFAULT, 100, 1 << 20);
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private static PublishMessage publish(String topicName, String payload) {
+        PublishMessage message = new PublishMessage();
+        message.setTopicName(topicName);
+        message.setRetain(true);
+        message.setPayload(payload.getBytes(CharsetUtil.UTF_8));
+        return message;
+    }
+
+    /**
+     * 保存后释放传入的消息，存储保存的是负载的副本
+     */
+    private void put(String topicName, String payload) {
+        PublishMessage message = publish(topicName, payload);
+        try {
+            assertTrue(store.put(message));
+        } finally {
+            message.release();
+        }
+    }
+
+    private Set<String> match(String topicFilter) {
+        List<RetainedStore.Entry> entries = new ArrayList<>();
+        store.match(topicFilter, entries);
+        Set<String> topics = new HashSet<>();
+        for (RetainedStore.Entry entry : entries) {
+            PublishMessage message = entry.retainedMessage();
+            topics.add(message.getTopicName());
+            message.release();
+        }
+        return topics;
+    }
+
+    private String payload(String topicName) {
+        List<RetainedStore.Entry> entries = new ArrayList<>();
+        store.match(topicName, entries);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        PublishMessage message = entries.get(0).retainedMessage();
+        try {
+            return message.getPayload().toString(CharsetUtil.UTF_8);
+        } finally {
+            message.release();
+        }
+    }
+
+    private static Set<String> setOf(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    @Test
+    public void wildcardFiltersMatchStoredTopics() {
+        put("a", "1");
+        put("a/b", "2");
+        put("a/c/d", "3");
+        put("x/b", "4");
+
+        assertEquals(setOf("a/b"), match("a/b"));
+        assertEquals(setOf("a/b"), match("a/+"));
+        assertEquals(setOf("a/b", "x/b"), match("+/b"));
+        assertEquals(setOf("a/c/d"), match("a/+/d"));
+        // "a/#" 同时匹配父层级 "a"
+        assertEquals(setOf("a", "a/b", "a/c/d"), match("a/#"));
+        assertEquals(setOf("a", "a/b", "a/c/d", "x/b"), match("#"));
+        assertEquals(setOf(), match("a/c"));
+    }
+
+    @Test
+    public void wildcardsAtFirstLevelDoNotMatchDollarTopics() {
+        put("$SYS/broker/uptime", "10");
+        put("sys/broker/uptime", "20");
+
+        assertEquals(setOf("sys/broker/uptime"), match("#"));
+        assertEquals(setOf("sys/broker/uptime"), match("+/broker/uptime"));
+        assertEquals(setOf("$SYS/broker/uptime"), match("$SYS/#"));
+        assertEquals(setOf("$SYS/broker/uptime"), match("$SYS/+/uptime"));
+    }
+
+    @Test
+    public void putReplacesPreviousMessage() {
+        put("a/b", "old");
+        put("a/b", "new");
+
+        assertEquals("new", payload("a/b"));
+        assertEquals(1, store.getCounters().getRetainedCount());
+        assertEquals(3, store.getCounters().getMemoryBytes());
+    }
+
+    @Test
+    public void emptyPayloadClearsTopic() {
+        put("a/b", "1");
+        put("a/b/c", "2");
+        put("a/b", "");
+
+        assertNull(payload("a/b"));
+        assertEquals(setOf("a/b/c"), match("a/#"));
+        assertEquals(1, store.getCounters().getRetainedCount());
+
+        store.remove(Topic.of("a/b/c"));
+        assertEquals(setOf(), match("#"));
+        assertEquals(0, store.getCounters().getMemoryBytes());
+    }
+
+    @Test
+    public void entryReadsLatestMessageAfterMatch() {
+        put("a/b", "1");
+        List<RetainedStore.Entry> entries = new ArrayList<>();
+        store.match("a/+", entries);
+
+        put("a/b", "2");
+        PublishMessage message = entries.get(0).retainedMessage();
+        assertEquals("2", message.getPayload().toString(CharsetUtil.UTF_8));
+        message.release();
+
+        put("a/b", "");
+        assertNull(entries.get(0).retainedMessage());
+    }
+
+    @Test
+    public void rejectsNewTopicsOverLimits() {
+        RetainedStore small = new RetainedStore(UnpooledByteBufAllocator.DEFAULT, 1, 4);
+        PublishMessage first = publish("a", "1234");
+        PublishMessage second = publish("b", "1");
+        PublishMessage larger = publish("a", "12345");
+        try {
+            assertTrue(small.put(first));
+            assertFalse(small.put(second));
+            assertFalse(small.put(larger));
+            assertEquals(2, small.getCounters().getRejectedCount());
+            assertEquals(1, small.getCounters().getRetainedCount());
+        } finally {
+            first.release();
+            second.release();
+            larger.release();
+            small.close();
+        }
+    }
+}
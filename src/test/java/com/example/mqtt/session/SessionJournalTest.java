@@ -0,0 +1,162 @@
+package com.example.mqtt.session;
+
+import com.example.mqtt.protocol.MqttQoS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionJournalTest {
+    private static final SessionFactory FACTORY = Session::new;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SessionJournal journal(Path directory, long snapshotJournalBytes, int maxPendingRecords) throws IOException {
+        return new SessionJournal(directory, SessionJournal.FsyncPolicy.GROUP, 1000, 0, snapshotJournalBytes, maxPendingRecords);
+    }
+
+    /**
+     * 从目录恢复到新的会话管理器，恢复后关闭日志
+     */
+    private SessionManager recover(Path directory) throws IOException {
+        SessionManager sessionManager = new SessionManager();
+        SessionJournal journal = journal(directory, Long.MAX_VALUE, 1024);
+        journal.recover(sessionManager, FACTORY);
+        journal.start(sessionManager);
+        journal.close();
+        return sessionManager;
+    }
+
+    private static void subscribe(SessionManager sessionManager, String clientId, String topicFilter, int qos) {
+        sessionManager.addSubscription(topicFilter, new Subscription(clientId, topicFilter, MqttQoS.valueOf(qos)));
+    }
+
+    /**
+     * 写入一组会话和订阅：client-0 取消一个订阅，client-1 以清除会话重新连接，client-2 保持不变
+     */
+    private static void populate(SessionManager sessionManager, int sessions) {
+        for (int i = 0; i < sessions; i++) {
+            String clientId = "client-" + i;
+            sessionManager.addSession(FACTORY.create(clientId, false, 60));
+            for (int k = 0; k < 3; k++) {
+                subscribe(sessionManager, clientId, "site/" + i + "/ch" + k, k);
+            }
+        }
+        sessionManager.removeSubscription("site/0/ch0", "client-0");
+        sessionManager.addSession(FACTORY.create("client-1", true, 60));
+        // 清除会话的订阅不记录
+        subscribe(sessionManager, "client-1", "site/1/ch0", 0);
+    }
+
+    private static void assertPopulated(SessionManager recovered, int sessions) {
+        assertEquals(sessions - 1, recovered.getSessionCount());
+        assertEquals(3 * (sessions - 1) - 1, recovered.getSubscriptionCount());
+        assertEquals(0, recovered.getSubscribers("site/0/ch0").length);
+        assertEquals(1, recovered.getSubscribers("site/0/ch1").length);
+        assertNull(recovered.getSession("client-1"));
+        assertEquals(0, recovered.getSubscribers("site/1/ch0").length);
+
+        Session session = recovered.getSession("client-2");
+        assertNotNull(session);
+        assertEquals(60, session.getKeepAlive());
+        Subscription[] subscribers = recovered.getSubscribers("site/2/ch2");
+        assertEquals(1, subscribers.length);
+        assertEquals("client-2", subscribers[0].getClientId());
+        assertEquals(MqttQoS.EXACTLY_ONCE, subscribers[0].getQos());
+    }
+
+    @Test
+    public void recoversSessionsAndSubscriptionsFromJournal() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SessionManager sessionManager = new SessionManager();
+        SessionJournal journal = journal(directory, Long.MAX_VALUE, 1024);
+        assertEquals(0, journal.recover(sessionManager, FACTORY));
+        journal.start(sessionManager);
+        populate(sessionManager, 10);
+        journal.close();
+
+        assertPopulated(recover(directory), 10);
+    }
+
+    @Test
+    public void recoversFromSnapshotAndLaterJournal() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SessionManager sessionManager = new SessionManager();
+        // 很小的日志上限使写线程在写入过程中多次生成快照
+        SessionJournal journal = journal(directory, 256, 1 << 16);
+        journal.recover(sessionManager, FACTORY);
+        journal.start(sessionManager);
+        populate(sessionManager, 200);
+        journal.close();
+        assertTrue(journal.getCounters().getSnapshotCount() > 0);
+
+        assertPopulated(recover(directory), 200);
+    }
+
+    @Test
+    public void ignoresTornRecordAtJournalTail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SessionManager sessionManager = new SessionManager();
+        SessionJournal journal = journal(directory, Long.MAX_VALUE, 1024);
+        journal.recover(sessionManager, FACTORY);
+        journal.start(sessionManager);
+        populate(sessionManager, 10);
+        journal.close();
+
+        // 模拟崩溃时写了一半的SUBSCRIBE记录：长度声明40字节，实际只有2字节
+        try (OutputStream out = Files.newOutputStream(lastJournal(directory), StandardOpenOption.APPEND)) {
+            out.write(new byte[]{0, 0, 0, 40, 3, 0, 5});
+        }
+        SessionManager recovered = recover(directory);
+        assertPopulated(recovered, 10);
+
+        // 恢复后写入新一代日志，不受旧日志损坏的尾部影响
+        SessionManager next = new SessionManager();
+        journal = journal(directory, Long.MAX_VALUE, 1024);
+        journal.recover(next, FACTORY);
+        journal.start(next);
+        subscribe(next, "client-2", "extra", 1);
+        journal.close();
+        assertEquals(1, recover(directory).getSubscribers("extra").length);
+    }
+
+    @Test
+    public void snapshotRestoresDroppedRecords() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        SessionManager sessionManager = new SessionManager();
+        SessionJournal journal = journal(directory, Long.MAX_VALUE, 1);
+        journal.recover(sessionManager, FACTORY);
+        journal.start(sessionManager);
+        populate(sessionManager, 200);
+        assertTrue(journal.getCounters().getDroppedCount() > 0);
+        // 关闭时补写快照，不依赖写线程何时发现记录被丢弃
+        journal.close();
+        assertTrue(journal.getCounters().getSnapshotCount() > 0);
+
+        assertPopulated(recover(directory), 200);
+    }
+
+    private static Path lastJournal(Path directory) throws IOException {
+        Path last = null;
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, "journal-*")) {
+            for (Path path : journals) {
+                if (last == null || path.compareTo(last) > 0) {
+                    last = path;
+                }
+            }
+        }
+        return last;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.mqtt.topic;
+
+import com.example.mqtt.protocol.MqttQoS;
+import com.example.mqtt.session.SessionManager;
+import com.example.mqtt.session.Subscription;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TopicMatchCacheTest {
+    private static final String[] NONE = new String[0];
+
+    private final TopicMatchCache<String> cache = new TopicMatchCache<>(100);
+
+    private void put(String topicName, String... values) {
+        Topic topic = Topic.of(topicName);
+        cache.put(topicName, topic.getLevels(), topic.isDollar(), values, cache.generation());
+    }
+
+    @Test
+    public void cachesEmptyResult() {
+        put("a/b", NONE);
+        String[] cached = cache.get("a/b");
+        assertNotNull(cached);
+        assertEquals(0, cached.length);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void wildcardFilterInvalidatesCachedEmptyResults() {
+        put("a/b", NONE);
+        put("a/c/d", NONE);
+        put("x/y", NONE);
+        put("$SYS/a", NONE);
+
+        cache.invalidate("a/+");
+        assertNull(cache.get("a/b"));
+        assertNotNull(cache.get("a/c/d"));
+
+        cache.invalidate("#");
+        assertNull(cache.get("a/c/d"));
+        assertNull(cache.get("x/y"));
+        // 首层的 '#' 不匹配以 '$' 开头的主题
+        assertNotNull(cache.get("$SYS/a"));
+        assertEquals(3, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void exactFilterInvalidatesOnlyThatTopic() {
+        put("a/b", "s1");
+        put("a/c", "s1");
+        cache.invalidate("a/b");
+        assertNull(cache.get("a/b"));
+        assertArrayEquals(new String[]{"s1"}, cache.get("a/c"));
+    }
+
+    @Test
+    public void putWithOldGenerationIsIgnored() {
+        Topic topic = Topic.of("a/b");
+        // 计算结果之前读取代数，计算期间订阅发生变化
+        long generation = cache.generation();
+        cache.invalidate("a/+");
+        cache.put("a/b", topic.getLevels(), false, NONE, generation);
+        assertNull(cache.get("a/b"));
+
+        // 与过滤器无关的变化同样使计算期间的结果作废
+        generation = cache.generation();
+        cache.invalidate("x/y");
+        cache.put("a/b", topic.getLevels(), false, NONE, generation);
+        assertNull(cache.get("a/b"));
+        assertEquals(0, cache.size());
+
+        cache.put("a/b", topic.getLevels(), false, NONE, cache.generation());
+        assertNotNull(cache.get("a/b"));
+    }
+
+    @Test
+    public void disabledCacheStoresNothing() {
+        TopicMatchCache<String> disabled = new TopicMatchCache<>(0);
+        disabled.put("a", new String[]{"a"}, false, NONE, disabled.generation());
+        assertNull(disabled.get("a"));
+        assertEquals(0, disabled.size());
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        TopicMatchCache<String> small = new TopicMatchCache<>(4);
+        for (int i = 0; i < 10; i++) {
+            String topicName = "t/" + i;
+            small.put(topicName, Topic.of(topicName).getLevels(), false, NONE, small.generation());
+        }
+        assertEquals(4, small.size());
+        assertEquals(6, small.getEvictionCount());
+    }
+
+    @Test
+    public void sessionManagerSubscribeAndUnsubscribeUpdateCachedResults() {
+        SessionManager sessionManager = new SessionManager(100);
+        // 无人订阅的主题缓存为空结果
+        assertEquals(0, sessionManager.getSubscribers("a/b").length);
+        assertEquals(0, sessionManager.getSubscribers("a/c").length);
+        assertEquals(0, sessionManager.getSubscribers("x/y").length);
+        assertEquals(3, sessionManager.getMatchCache().size());
+
+        sessionManager.addSubscription("a/+", new Subscription("c1", "a/+", MqttQoS.AT_MOST_ONCE));
+        assertEquals(1, sessionManager.getSubscribers("a/b").length);
+        assertEquals(1, sessionManager.getSubscribers("a/c").length);
+
+        sessionManager.addSubscription("#", new Subscription("c2", "#", MqttQoS.AT_MOST_ONCE));
+        assertEquals(2, sessionManager.getSubscribers("a/b").length);
+        Subscription[] other = sessionManager.getSubscribers("x/y");
+        assertEquals(1, other.length);
+
+        // 取消 "a/+" 只失效 a/ 下的主题，x/y 仍命中缓存中的同一数组
+        sessionManager.removeSubscription("a/+", "c1");
+        assertSame(other, sessionManager.getMatchCache().get("x/y"));
+        assertNull(sessionManager.getMatchCache().get("a/b"));
+        assertEquals(1, sessionManager.getSubscribers("a/b").length);
+        assertEquals("c2", sessionManager.getSubscribers("a/c")[0].getClientId());
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.mqtt.topic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicTrieTest {
+
+    private static Set<String> match(TopicTrie<String> trie, String topicName) {
+        Set<String> result = new HashSet<>();
+        trie.match(topicName, result);
+        return result;
+    }
+
+    private static Set<String> setOf(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    private static TopicTrie<String> trieOf(String... filters) {
+        TopicTrie<String> trie = new TopicTrie<>();
+        for (String filter : filters) {
+            trie.add(filter, filter);
+        }
+        return trie;
+    }
+
+    @Test
+    public void exactFilterMatchesOnlyItself() {
+        TopicTrie<String> trie = trieOf("a/b", "a/b/c", "a");
+        assertEquals(setOf("a/b"), match(trie, "a/b"));
+        assertEquals(setOf("a"), match(trie, "a"));
+        assertEquals(setOf(), match(trie, "a/c"));
+    }
+
+    @Test
+    public void singleLevelWildcardMatchesExactlyOneLevel() {
+        TopicTrie<String> trie = trieOf("a/+", "a/+/c", "+/b", "+");
+        assertEquals(setOf("a/+", "+/b"), match(trie, "a/b"));
+        assertEquals(setOf("a/+/c"), match(trie, "a/x/c"));
+        assertEquals(setOf("+"), match(trie, "a"));
+        // '+' 匹配空层级
+        assertEquals(setOf("a/+"), match(trie, "a/"));
+        assertEquals(setOf(), match(trie, "a/b/c/d"));
+    }
+
+    @Test
+    public void multiLevelWildcardMatchesParentAndAllDescendants() {
+        TopicTrie<String> trie = trieOf("a/#", "#", "a/b/#");
+        assertEquals(setOf("a/#", "#"), match(trie, "a"));
+        assertEquals(setOf("a/#", "#", "a/b/#"), match(trie, "a/b"));
+        assertEquals(setOf("a/#", "#", "a/b/#"), match(trie, "a/b/c/d"));
+        assertEquals(setOf("#"), match(trie, "x/y"));
+    }
+
+    @Test
+    public void wildcardsAtFirstLevelDoNotMatchDollarTopics() {
+        TopicTrie<String> trie = trieOf("#", "+/broker/uptime", "$SYS/#", "$SYS/+/uptime");
+        assertEquals(setOf("$SYS/#", "$SYS/+/uptime"), match(trie, "$SYS/broker/uptime"));
+        assertEquals(setOf("#", "+/broker/uptime"), match(trie, "sys/broker/uptime"));
+    }
+
+    @Test
+    public void addReplacesEqualValueAndRemoveDeletesIt() {
+        TopicTrie<String> trie = new TopicTrie<>();
+        trie.add("a/+", "client-1");
+        trie.add("a/+", "client-1");
+        trie.add("a/+", "client-2");
+        assertEquals(2, trie.size());
+
+        assertTrue(trie.remove("a/+", "client-1"::equals));
+        assertFalse(trie.remove("a/+", "client-1"::equals));
+        assertEquals(setOf("client-2"), match(trie, "a/b"));
+        assertEquals(1, trie.size());
+    }
+}